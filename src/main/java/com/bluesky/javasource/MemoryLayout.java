@@ -0,0 +1,166 @@
+package com.bluesky.javasource;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * HotSpot对象内存布局的估计，集合类的estimatedFootprintBytes用它计算占用的字节数
+ * 要点:
+ * 1. 对象 = 对象头(mark word 8字节 + 类指针，开启压缩类指针时4字节，否则8字节) + 各个字段，按对齐字节数(默认8)向上取整；
+ * 数组在对象头之后还有4字节的长度
+ * 2. 引用字段开启压缩指针(UseCompressedOops，堆小于32G时默认开启)时4字节，否则8字节；32位JVM都是4字节
+ * 3. current()通过HotSpotDiagnosticMXBean读取当前JVM的参数，读取不到时按最大堆是否小于32G推断
+ * 4. shallowSize按类的实例字段计算，结果按类缓存，不包括引用的其他对象；String例外，把char[]也算在内，
+ * 因为它只属于这个String
+ * 5. 字段重排、父类字段之间的空隙等细节没有模拟，结果是估计值，通常和实际相差不超过一个对齐单位
+ */
+public final class MemoryLayout {
+
+    /**
+     * 64位JVM，开启压缩指针和压缩类指针，默认的对齐
+     */
+    public static final MemoryLayout COMPRESSED = new MemoryLayout(4, 12, 16, 8);
+
+    /**
+     * 64位JVM，关闭压缩指针
+     */
+    public static final MemoryLayout UNCOMPRESSED = new MemoryLayout(8, 16, 24, 8);
+
+    private static volatile MemoryLayout current;
+
+    private final int referenceSize;
+
+    private final int objectHeaderSize;
+
+    private final int arrayHeaderSize;
+
+    private final int objectAlignment;
+
+    private final ClassValue<Long> instanceSizes = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long fields = 0;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(f.getModifiers()))
+                        fields += fieldSize(f.getType());
+                }
+            }
+            return align(objectHeaderSize + fields);
+        }
+    };
+
+    public MemoryLayout(int referenceSize, int objectHeaderSize, int arrayHeaderSize, int objectAlignment) {
+        if (referenceSize <= 0 || objectHeaderSize <= 0 || arrayHeaderSize <= 0 ||
+                objectAlignment <= 0 || (objectAlignment & (objectAlignment - 1)) != 0)
+            throw new IllegalArgumentException("Illegal layout: " + referenceSize + ", " + objectHeaderSize +
+                    ", " + arrayHeaderSize + ", " + objectAlignment);
+        this.referenceSize = referenceSize;
+        this.objectHeaderSize = objectHeaderSize;
+        this.arrayHeaderSize = arrayHeaderSize;
+        this.objectAlignment = objectAlignment;
+    }
+
+    /**
+     * 当前JVM的布局，第一次调用时检测
+     */
+    public static MemoryLayout current() {
+        MemoryLayout l;
+        if ((l = current) == null)
+            current = l = detect();
+        return l;
+    }
+
+    static MemoryLayout detect() {
+        if ("32".equals(System.getProperty("sun.arch.data.model")))
+            return new MemoryLayout(4, 8, 12, 8);
+        boolean compressedOops, compressedClassPointers;
+        int alignment = 8;
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            compressedOops = Boolean.parseBoolean(bean.getVMOption("UseCompressedOops").getValue());
+            compressedClassPointers = Boolean.parseBoolean(bean.getVMOption("UseCompressedClassPointers").getValue());
+            alignment = Integer.parseInt(bean.getVMOption("ObjectAlignmentInBytes").getValue());
+        } catch (RuntimeException | LinkageError e) { // 不是HotSpot
+            compressedOops = compressedClassPointers = Runtime.getRuntime().maxMemory() < (32L << 30);
+        }
+        int header = compressedClassPointers ? 12 : 16;
+        return new MemoryLayout(compressedOops ? 4 : 8, header, (header + 4 + 7) & ~7, alignment);
+    }
+
+    public int referenceSize() {
+        return referenceSize;
+    }
+
+    public int objectHeaderSize() {
+        return objectHeaderSize;
+    }
+
+    public int arrayHeaderSize() {
+        return arrayHeaderSize;
+    }
+
+    public int objectAlignment() {
+        return objectAlignment;
+    }
+
+    public long align(long size) {
+        return (size + objectAlignment - 1) & -objectAlignment;
+    }
+
+    /**
+     * 有refs个引用字段、primitiveBytes字节基本类型字段的对象
+     */
+    public long instanceSize(int refs, int primitiveBytes) {
+        return align(objectHeaderSize + (long) refs * referenceSize + primitiveBytes);
+    }
+
+    /**
+     * 长度为length的引用数组，null表示没有数组
+     */
+    public long arraySize(Object[] array) {
+        return (array == null) ? 0L : arraySize(array.length, referenceSize);
+    }
+
+    public long arraySize(int length, int elementSize) {
+        return align(arrayHeaderSize + (long) length * elementSize);
+    }
+
+    /**
+     * 对象本身占用的字节数，null为0
+     */
+    public long shallowSize(Object o) {
+        if (o == null)
+            return 0L;
+        Class<?> c = o.getClass();
+        if (c.isArray()) {
+            Class<?> component = c.getComponentType();
+            return arraySize(java.lang.reflect.Array.getLength(o), fieldSize(component));
+        }
+        long size = instanceSizes.get(c);
+        if (o instanceof String) // 加上char[]
+            size += arraySize(((String) o).length(), 2);
+        return size;
+    }
+
+    int fieldSize(Class<?> type) {
+        if (!type.isPrimitive())
+            return referenceSize;
+        if (type == long.class || type == double.class)
+            return 8;
+        if (type == int.class || type == float.class)
+            return 4;
+        if (type == short.class || type == char.class)
+            return 2;
+        return 1;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryLayout[reference=" + referenceSize + ", header=" + objectHeaderSize +
+                ", arrayHeader=" + arrayHeaderSize + ", alignment=" + objectAlignment + "]";
+    }
+}
@@ -0,0 +1,82 @@
+package com.bluesky.javasource;
+
+import com.bluesky.javasource.lists.ArrayList;
+import com.bluesky.javasource.lists.LinkedList;
+import com.bluesky.javasource.maps.HashMap;
+import com.bluesky.javasource.maps.Hashtable;
+import com.bluesky.javasource.maps.LinkedHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+@Slf4j
+public class MemoryLayoutTest {
+
+    private final MemoryLayout layout = MemoryLayout.COMPRESSED;
+
+    @Test
+    public void shallowSizeTest() {
+        log.info("current: {}", MemoryLayout.current());
+        Assert.assertEquals(16, layout.shallowSize(new Object()));   // 12字节对象头，对齐到16
+        Assert.assertEquals(16, layout.shallowSize(1));              // Integer
+        Assert.assertEquals(24, layout.shallowSize(1L));             // Long
+        Assert.assertEquals(32, layout.shallowSize(new int[3]));     // 16 + 12
+        Assert.assertEquals(56, layout.shallowSize(new Object[10])); // 16 + 40
+        Assert.assertEquals(24 + 24, layout.shallowSize("abc"));     // String + char[3]
+        Assert.assertEquals(0, layout.shallowSize(null));
+        Assert.assertEquals(24, MemoryLayout.UNCOMPRESSED.shallowSize(new Object[0]));
+        Assert.assertEquals(48, MemoryLayout.UNCOMPRESSED.instanceSize(3, 4)); // 16 + 24 + 4
+    }
+
+    /**
+     * 桶数组按容量计算，节点按实际类型计算
+     */
+    @Test
+    public void mapFootprintTest() {
+        HashMap<Integer, Integer> map = new HashMap<>();
+        LinkedHashMap<Integer, Integer> linked = new LinkedHashMap<>();
+        Hashtable<Integer, Integer> table = new Hashtable<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i + 1000, i + 1000);
+            linked.put(i + 1000, i + 1000);
+            table.put(i + 1000, i + 1000);
+        }
+        long nodes = map.estimatedFootprintBytes(layout, false) - layout.shallowSize(map);
+        Assert.assertEquals(16 + 2048 * 4 + 1000 * 32, nodes); // 桶数组 + Node
+        nodes = linked.estimatedFootprintBytes(layout, false) - layout.shallowSize(linked);
+        Assert.assertEquals(16 + 2048 * 4 + 1000 * 40, nodes); // LinkedHashMap.Entry多了两个引用
+        Assert.assertEquals(1000 * 32, map.estimatedFootprintBytes(layout, true) - map.estimatedFootprintBytes(layout, false));
+        Assert.assertEquals(1000 * 32, table.estimatedFootprintBytes(layout, true) - table.estimatedFootprintBytes(layout, false));
+        Assert.assertTrue(table.estimatedFootprintBytes(layout, false) > 1000 * 32);
+
+        for (int i = 100; i < 1000; i++)
+            map.remove(i + 1000);
+        long sparse = map.estimatedFootprintBytes(layout, false);
+        map.trimToSize();
+        Assert.assertEquals(2048 * 4 - 256 * 4, sparse - map.estimatedFootprintBytes(layout, false));
+        log.info("map: {} bytes, linked: {} bytes, table: {} bytes", map.estimatedFootprintBytes(true),
+                linked.estimatedFootprintBytes(true), table.estimatedFootprintBytes(true));
+    }
+
+    /**
+     * ArrayList按容量计算，多出来的容量trimToSize之后消失；LinkedList每个节点三个引用
+     */
+    @Test
+    public void listFootprintTest() {
+        ArrayList<Integer> list = new ArrayList<>();
+        Assert.assertEquals(layout.shallowSize(list), list.estimatedFootprintBytes(layout, false)); // 共享的空数组
+        for (int i = 0; i < 11; i++)
+            list.add(i + 1000);
+        long before = list.estimatedFootprintBytes(layout, false);
+        list.trimToSize();
+        long after = list.estimatedFootprintBytes(layout, false);
+        Assert.assertEquals(layout.shallowSize(list) + 64, after); // 16 + 11 * 4 = 60，对齐到64
+        Assert.assertTrue(before > after);
+        Assert.assertEquals(11 * 16, list.estimatedFootprintBytes(layout, true) - after);
+
+        LinkedList<Integer> linked = new LinkedList<>();
+        for (int i = 0; i < 100; i++)
+            linked.add(i);
+        Assert.assertEquals(layout.shallowSize(linked) + 100 * 24, linked.estimatedFootprintBytes(layout, false));
+    }
+}
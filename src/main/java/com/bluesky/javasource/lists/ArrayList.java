@@ -1,5 +1,7 @@
 package com.bluesky.javasource.lists;
 
+import com.bluesky.javasource.MemoryLayout;
+
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
@@ -96,6 +98,27 @@ public class ArrayList<E> extends AbstractList<E>
         }
     }
 
+    /**
+     * 估计占用的内存，按当前JVM的布局计算
+     */
+    public long estimatedFootprintBytes(boolean includeElements) {
+        return estimatedFootprintBytes(MemoryLayout.current(), includeElements);
+    }
+
+    /**
+     * 估计占用的内存：列表对象本身和elementData数组(按容量而不是size计算，多出来的容量就是trimToSize能节省的)，
+     * 共享的空数组常量不计算。includeElements为true时加上每个元素本身的大小
+     */
+    public long estimatedFootprintBytes(MemoryLayout layout, boolean includeElements) {
+        Object[] a = elementData;
+        long bytes = layout.shallowSize(this) + (a.length == 0 ? 0L : layout.arraySize(a));
+        if (includeElements) {
+            for (int i = 0; i < size; i++)
+                bytes += layout.shallowSize(a[i]);
+        }
+        return bytes;
+    }
+
     /**
      * 通过默认的扩容规则使的列表至少有minCapacity的容量。
      */
@@ -1,5 +1,7 @@
 package com.bluesky.javasource.lists;
 
+import com.bluesky.javasource.MemoryLayout;
+
 import java.util.*;
 import java.util.ArrayList;
 import java.util.function.Consumer;
@@ -223,6 +225,26 @@ public class LinkedList<E>
         return size;
     }
 
+    /**
+     * 估计占用的内存，按当前JVM的布局计算
+     */
+    public long estimatedFootprintBytes(boolean includeElements) {
+        return estimatedFootprintBytes(MemoryLayout.current(), includeElements);
+    }
+
+    /**
+     * 估计占用的内存：链表对象本身和每个Node(item、next、prev三个引用)，includeElements为true时加上每个元素本身的大小
+     */
+    public long estimatedFootprintBytes(MemoryLayout layout, boolean includeElements) {
+        long bytes = layout.shallowSize(this);
+        for (Node<E> x = first; x != null; x = x.next) {
+            bytes += layout.shallowSize(x);
+            if (includeElements)
+                bytes += layout.shallowSize(x.item);
+        }
+        return bytes;
+    }
+
     /**
      * 新增即为在链表尾增加
      */
@@ -0,0 +1,68 @@
+package com.bluesky.javasource.maps;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * byte数组中一段的CharSequence视图，每个字节按ISO-8859-1解码为一个char(ASCII同样适用)，
+ * 配合KeyEquivalence.CHARS直接用网络缓冲区中的内容查找String类型的key。
+ * 要点:
+ * 1. 不复制数组，set可以反复指向不同的位置，解析时复用同一个实例，每次查找不分配内存
+ * 2. 数组内容变化时视图也跟着变化，放进map之前需要toString()
+ * 3. 没有重写equals/hashCode，不能和String互相比较，只用作查找时的probe
+ */
+public final class ByteSlice implements CharSequence {
+
+    private byte[] bytes;
+
+    private int offset;
+
+    private int length;
+
+    public ByteSlice() {
+        this.bytes = new byte[0];
+    }
+
+    public ByteSlice(byte[] bytes, int offset, int length) {
+        set(bytes, offset, length);
+    }
+
+    /**
+     * 指向bytes中从offset开始的length个字节
+     */
+    public ByteSlice set(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length)
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length +
+                    ", array length: " + bytes.length);
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        return (char) (bytes[offset + index] & 0xFF);
+    }
+
+    /**
+     * 返回共享同一个数组的新视图
+     */
+    @Override
+    public ByteSlice subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+        return new ByteSlice(bytes, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,29 @@
+package com.bluesky.javasource.maps;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 要点:
+ * 1. 对象和字节之间的编解码，OffHeapHashMap用它把key和value存放到堆外内存中
+ * 2. 相等的对象编码后的字节必须相同，OffHeapHashMap直接比较key编码后的字节来判断key是否相等，
+ * 而选择桶时仍然使用对象的hashCode
+ * 3. encode和decode都从buf当前的position开始读写，并且要推进position
+ * 4. decode可以把结果写入reuse对象(享元)并返回它，这样读取时不需要创建新对象；reuse可能为null
+ */
+public interface Codec<T> {
+
+    /**
+     * value编码后的字节数，必须和encode写入的字节数一致
+     */
+    int encodedSize(T value);
+
+    /**
+     * 把value编码后写入buf
+     */
+    void encode(T value, ByteBuffer buf);
+
+    /**
+     * 从buf中读取length个字节解码，reuse不为null时可以直接修改并返回它
+     */
+    T decode(ByteBuffer buf, int length, T reuse);
+}
@@ -0,0 +1,207 @@
+package com.bluesky.javasource.maps;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 常用类型的Codec
+ * 要点:
+ * 1. STRING按UTF-8编码，计算长度和编码时逐个字符处理，不会创建临时的byte[]，
+ * 所以用String作为key查找时不需要分配内存
+ * 2. Integer、Long等包装类型是不可变的，解码时只能创建新对象(小的值会走valueOf的缓存)，按固定长度的大端字节序编码
+ */
+public final class Codecs {
+
+    private Codecs() {
+    }
+
+    public static final Codec<String> STRING = new Codec<String>() {
+        public int encodedSize(String value) {
+            int n = 0;
+            for (int i = 0, len = value.length(); i < len; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80)
+                    n += 1;
+                else if (c < 0x800)
+                    n += 2;
+                else if (Character.isHighSurrogate(c) && i + 1 < len &&
+                        Character.isLowSurrogate(value.charAt(i + 1))) {
+                    n += 4;
+                    i++;
+                } else if (Character.isSurrogate(c))
+                    n += 1; // 不成对的代理字符，和String.getBytes一样编码为'?'
+                else
+                    n += 3;
+            }
+            return n;
+        }
+
+        public void encode(String value, ByteBuffer buf) {
+            for (int i = 0, len = value.length(); i < len; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80)
+                    buf.put((byte) c);
+                else if (c < 0x800) {
+                    buf.put((byte) (0xC0 | (c >> 6)));
+                    buf.put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < len &&
+                        Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf.put((byte) (0xF0 | (cp >> 18)));
+                    buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buf.put((byte) (0x80 | (cp & 0x3F)));
+                } else if (Character.isSurrogate(c))
+                    buf.put((byte) '?');
+                else {
+                    buf.put((byte) (0xE0 | (c >> 12)));
+                    buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buf.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        public String decode(ByteBuffer buf, int length, String reuse) {
+            byte[] bytes = new byte[length];
+            buf.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+        public int encodedSize(Integer value) {
+            return Integer.BYTES;
+        }
+
+        public void encode(Integer value, ByteBuffer buf) {
+            buf.putInt(value);
+        }
+
+        public Integer decode(ByteBuffer buf, int length, Integer reuse) {
+            return buf.getInt();
+        }
+    };
+
+    public static final Codec<Long> LONG = new Codec<Long>() {
+        public int encodedSize(Long value) {
+            return Long.BYTES;
+        }
+
+        public void encode(Long value, ByteBuffer buf) {
+            buf.putLong(value);
+        }
+
+        public Long decode(ByteBuffer buf, int length, Long reuse) {
+            return buf.getLong();
+        }
+    };
+
+    public static final Codec<Short> SHORT = new Codec<Short>() {
+        public int encodedSize(Short value) {
+            return Short.BYTES;
+        }
+
+        public void encode(Short value, ByteBuffer buf) {
+            buf.putShort(value);
+        }
+
+        public Short decode(ByteBuffer buf, int length, Short reuse) {
+            return buf.getShort();
+        }
+    };
+
+    public static final Codec<Byte> BYTE = new Codec<Byte>() {
+        public int encodedSize(Byte value) {
+            return Byte.BYTES;
+        }
+
+        public void encode(Byte value, ByteBuffer buf) {
+            buf.put(value);
+        }
+
+        public Byte decode(ByteBuffer buf, int length, Byte reuse) {
+            return buf.get();
+        }
+    };
+
+    public static final Codec<Character> CHARACTER = new Codec<Character>() {
+        public int encodedSize(Character value) {
+            return Character.BYTES;
+        }
+
+        public void encode(Character value, ByteBuffer buf) {
+            buf.putChar(value);
+        }
+
+        public Character decode(ByteBuffer buf, int length, Character reuse) {
+            return buf.getChar();
+        }
+    };
+
+    public static final Codec<Boolean> BOOLEAN = new Codec<Boolean>() {
+        public int encodedSize(Boolean value) {
+            return 1;
+        }
+
+        public void encode(Boolean value, ByteBuffer buf) {
+            buf.put(value ? (byte) 1 : (byte) 0);
+        }
+
+        public Boolean decode(ByteBuffer buf, int length, Boolean reuse) {
+            return buf.get() != 0;
+        }
+    };
+
+    /**
+     * 按floatToIntBits编码，所有NaN编码相同，0.0和-0.0编码不同，和Float.equals一致(相等的对象编码相同)
+     */
+    public static final Codec<Float> FLOAT = new Codec<Float>() {
+        public int encodedSize(Float value) {
+            return Float.BYTES;
+        }
+
+        public void encode(Float value, ByteBuffer buf) {
+            buf.putInt(Float.floatToIntBits(value));
+        }
+
+        public Float decode(ByteBuffer buf, int length, Float reuse) {
+            return Float.intBitsToFloat(buf.getInt());
+        }
+    };
+
+    /**
+     * 同FLOAT
+     */
+    public static final Codec<Double> DOUBLE = new Codec<Double>() {
+        public int encodedSize(Double value) {
+            return Double.BYTES;
+        }
+
+        public void encode(Double value, ByteBuffer buf) {
+            buf.putLong(Double.doubleToLongBits(value));
+        }
+
+        public Double decode(ByteBuffer buf, int length, Double reuse) {
+            return Double.longBitsToDouble(buf.getLong());
+        }
+    };
+
+    /**
+     * byte[]原样存放，注意byte[]作为key时hashCode和equals是按引用的，只适合作为value
+     */
+    public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+        public int encodedSize(byte[] value) {
+            return value.length;
+        }
+
+        public void encode(byte[] value, ByteBuffer buf) {
+            buf.put(value);
+        }
+
+        public byte[] decode(ByteBuffer buf, int length, byte[] reuse) {
+            byte[] bytes = (reuse != null && reuse.length == length) ? reuse : new byte[length];
+            buf.get(bytes);
+            return bytes;
+        }
+    };
+}
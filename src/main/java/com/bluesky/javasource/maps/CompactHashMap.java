@@ -0,0 +1,1162 @@
+package com.bluesky.javasource.maps;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_INITIAL_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_LOAD_FACTOR;
+import static com.bluesky.javasource.maps.HashMap.MAXIMUM_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.MIN_TREEIFY_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.TREEIFY_THRESHOLD;
+import static com.bluesky.javasource.maps.HashMap.comparableClassFor;
+import static com.bluesky.javasource.maps.HashMap.compareComparables;
+import static com.bluesky.javasource.maps.HashMap.hash;
+import static com.bluesky.javasource.maps.HashMap.tableSizeFor;
+
+/**
+ * 要点:
+ * 1. 和HashMap一样采用链地址法，但是没有Node对象：hash、key、value、next分别存放在四个平行的数组中，
+ * 下标相同的位置(slot)组成一个键值对，链表用next中的下标串起来，插入时不分配任何对象
+ * 2. 为了让0表示空，桶数组和next中存放的是 slot+1(下面称为ref)，桶数组中负数表示这个桶是红黑树，值为 -根节点的ref
+ * 3. 链表长度超过TREEIFY_THRESHOLD且容量不小于64时转化为红黑树，树节点的left/right/parent/red同样是按ref下标的数组，
+ * 下标0是哨兵节点(NIL)，第一次树化时才创建。比较规则和HashMap.TreeNode相同：先比较hash，再比较Comparable，
+ * 最后比较类名和identityHashCode；查找时hash相同又不可比较就搜索两棵子树
+ * 4. 删除的slot放入空闲链表(通过next串起来)，key设为FREE标记，之后插入时优先复用；遍历按slot顺序跳过空闲的slot
+ * 5. 扩容时桶数组翻倍，按slot顺序把所有元素重新挂到新桶上，再把过长的链表树化，不需要拆分红黑树
+ * 6. 元素数组的长度等于扩容阈值，压缩指针下每个键值对占用 4+4+4+4 字节，加上桶数组约21字节；
+ * HashMap每个键值对需要一个32字节左右的Node对象再加上桶数组中的引用
+ * 7. 允许空键和空值，不是线程同步的，迭代器是fail-fast的
+ */
+public class CompactHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    private static final long serialVersionUID = 4731058225417235629L;
+
+    /**
+     * 空闲slot的key
+     */
+    static final Object FREE = new Object();
+
+    /**
+     * 元素数组的最大长度
+     */
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /* ---------------- Fields -------------- */
+
+    /**
+     * 桶数组，0表示空桶，正数为链表头的ref，负数为红黑树根节点ref的相反数，在第一次使用的时候才初始化
+     */
+    transient int[] table;
+
+    /**
+     * 每个slot缓存的hash值
+     */
+    transient int[] hashes;
+
+    /**
+     * 每个slot的key，空闲的slot为FREE
+     */
+    transient Object[] keys;
+
+    /**
+     * 每个slot的value
+     */
+    transient Object[] vals;
+
+    /**
+     * 链表中下一个元素的ref，空闲slot中是下一个空闲slot的ref
+     */
+    transient int[] next;
+
+    /**
+     * 红黑树的指针和颜色，按ref下标，下标0是哨兵节点，没有树化过时为null
+     */
+    transient int[] left, right, parent;
+    transient boolean[] red;
+
+    /**
+     * [0, used)中的slot已经分配过
+     */
+    transient int used;
+
+    /**
+     * 空闲链表头的ref
+     */
+    transient int freeHead;
+
+    /**
+     * 所有键值对的视图
+     */
+    transient Set<Entry<K, V>> entrySet;
+
+    /**
+     * 哈希表中元素个数
+     */
+    transient int size;
+
+    /**
+     * 结构性修改次数
+     */
+    transient int modCount;
+
+    /**
+     * 需要进行扩容的阈值，数组还没创建时存放的是初始容量，和HashMap一样
+     */
+    int threshold;
+
+    /**
+     * 填充因子
+     */
+    final float loadFactor;
+
+    /* ---------------- Public operations -------------- */
+
+    public CompactHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (loadFactor <= 0 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.threshold = tableSizeFor(initialCapacity);
+    }
+
+    public CompactHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public CompactHashMap() {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    public CompactHashMap(Map<? extends K, ? extends V> m) {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+        putMapEntries(m);
+    }
+
+    /**
+     * 预先计算好容量，再逐个插入
+     */
+    final void putMapEntries(Map<? extends K, ? extends V> m) {
+        int s = m.size();
+        if (s > 0) {
+            if (table == null) { // pre-size
+                float ft = ((float) s / loadFactor) + 1.0F;
+                int t = ((ft < (float) MAXIMUM_CAPACITY) ?
+                        (int) ft : MAXIMUM_CAPACITY);
+                if (t > threshold)
+                    threshold = tableSizeFor(t);
+            }
+            for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+                K key = e.getKey();
+                putVal(hash(key), key, e.getValue(), false);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int r;
+        return (r = find(hash(key), key)) == 0 ? null : (V) vals[r - 1];
+    }
+
+    public boolean containsKey(Object key) {
+        return find(hash(key), key) != 0;
+    }
+
+    /**
+     * 查找key所在的ref，不存在返回0
+     */
+    final int find(int hash, Object key) {
+        int[] tab;
+        int h;
+        if ((tab = table) == null || (h = tab[hash & (tab.length - 1)]) == 0)
+            return 0;
+        if (h < 0)
+            return treeFind(-h, hash, key, null);
+        int[] hs = hashes, nx = next;
+        Object[] ks = keys;
+        for (int r = h; r != 0; r = nx[r - 1]) {
+            Object k;
+            if (hs[r - 1] == hash &&
+                    ((k = ks[r - 1]) == key || (key != null && key.equals(k))))
+                return r;
+        }
+        return 0;
+    }
+
+    public V put(K key, V value) {
+        return putVal(hash(key), key, value, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent) {
+        int[] tab;
+        int b, h, r;
+        if ((tab = table) == null)
+            tab = resize();
+        boolean treeify = false;
+        if ((h = tab[b = hash & (tab.length - 1)]) < 0) { // 红黑树
+            if ((r = treeFind(-h, hash, key, null)) != 0)
+                return replaceValue(r - 1, value, onlyIfAbsent);
+            treeInsert(b, allocate(hash, key, value));
+        } else {
+            int binCount = 0, tail = 0;
+            for (r = h; r != 0; tail = r, r = next[r - 1], ++binCount) {
+                Object k;
+                if (hashes[r - 1] == hash &&
+                        ((k = keys[r - 1]) == key || (key != null && key.equals(k))))
+                    return replaceValue(r - 1, value, onlyIfAbsent);
+            }
+            int s = allocate(hash, key, value);
+            next[s - 1] = 0;
+            if (tail == 0)
+                tab[b] = s;
+            else
+                next[tail - 1] = s; // 尾插法
+            treeify = binCount >= TREEIFY_THRESHOLD;
+        }
+        ++modCount;
+        if (++size > threshold)
+            resize();
+        else if (treeify)
+            treeifyBin(b);
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V replaceValue(int slot, V value, boolean onlyIfAbsent) {
+        V oldValue = (V) vals[slot];
+        if (!onlyIfAbsent || oldValue == null)
+            vals[slot] = value;
+        return oldValue;
+    }
+
+    /**
+     * 分配一个slot并写入键值对，返回它的ref，优先复用空闲的slot
+     */
+    final int allocate(int hash, Object key, Object value) {
+        int s;
+        if ((s = freeHead) != 0)
+            freeHead = next[s - 1];
+        else {
+            if (used == keys.length)
+                growEntries(used + 1);
+            s = ++used;
+        }
+        hashes[s - 1] = hash;
+        keys[s - 1] = key;
+        vals[s - 1] = value;
+        return s;
+    }
+
+    /**
+     * 释放slot，放入空闲链表
+     */
+    final void release(int s) {
+        keys[s - 1] = FREE;
+        vals[s - 1] = null;
+        next[s - 1] = freeHead;
+        freeHead = s;
+        ++modCount;
+        if (--size == 0) // 全部删除后从头开始分配
+            used = freeHead = 0;
+    }
+
+    /**
+     * 元素数组扩大到至少minCapacity，已经树化过时树的数组一起扩大
+     */
+    final void growEntries(int minCapacity) {
+        int oldLen = keys.length;
+        if (minCapacity <= oldLen)
+            return;
+        if (minCapacity > MAX_ARRAY_SIZE)
+            throw new OutOfMemoryError("Too many entries");
+        int newLen = (int) Math.min(MAX_ARRAY_SIZE,
+                Math.max(minCapacity, oldLen + ((long) oldLen >> 1)));
+        hashes = Arrays.copyOf(hashes, newLen);
+        keys = Arrays.copyOf(keys, newLen);
+        vals = Arrays.copyOf(vals, newLen);
+        next = Arrays.copyOf(next, newLen);
+        if (red != null) {
+            left = Arrays.copyOf(left, newLen + 1);
+            right = Arrays.copyOf(right, newLen + 1);
+            parent = Arrays.copyOf(parent, newLen + 1);
+            red = Arrays.copyOf(red, newLen + 1);
+        }
+    }
+
+    /**
+     * 初始化或者扩容，容量和阈值的计算同HashMap。
+     * 元素都在平行数组中，扩容时只需要重建桶数组和链表，再把过长的链表树化
+     */
+    final int[] resize() {
+        int[] oldTab = table;
+        int oldCap = (oldTab == null) ? 0 : oldTab.length;
+        int oldThr = threshold;
+        int newCap, newThr = 0;
+        if (oldCap > 0) {
+            if (oldCap >= MAXIMUM_CAPACITY) {
+                threshold = Integer.MAX_VALUE;
+                return oldTab;
+            } else if ((newCap = oldCap << 1) < MAXIMUM_CAPACITY &&
+                    oldCap >= DEFAULT_INITIAL_CAPACITY)
+                newThr = oldThr << 1;
+        } else if (oldThr > 0)
+            newCap = oldThr;
+        else {
+            newCap = DEFAULT_INITIAL_CAPACITY;
+            newThr = (int) (DEFAULT_LOAD_FACTOR * DEFAULT_INITIAL_CAPACITY);
+        }
+        if (newThr == 0) {
+            float ft = (float) newCap * loadFactor;
+            newThr = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                    (int) ft : Integer.MAX_VALUE);
+        }
+        threshold = newThr;
+        int entryCap = Math.max(1, (int) Math.min(newThr, (long) newCap << 1)); // 阈值为MAX_VALUE时按需增长
+        if (keys == null) {
+            hashes = new int[entryCap];
+            keys = new Object[entryCap];
+            vals = new Object[entryCap];
+            next = new int[entryCap];
+        } else
+            growEntries(entryCap);
+        int[] newTab = table = new int[newCap];
+        if (size > 0) {
+            int[] hs = hashes, nx = next;
+            Object[] ks = keys;
+            int mask = newCap - 1;
+            for (int s = used; s > 0; --s) { // 倒序头插，链表中保持slot的顺序
+                if (ks[s - 1] != FREE) {
+                    int b = hs[s - 1] & mask;
+                    nx[s - 1] = newTab[b];
+                    newTab[b] = s;
+                }
+            }
+            if (newCap >= MIN_TREEIFY_CAPACITY) {
+                for (int b = 0; b < newCap; ++b) {
+                    int n = 0;
+                    for (int r = newTab[b]; r != 0 && n <= TREEIFY_THRESHOLD; r = nx[r - 1])
+                        ++n;
+                    if (n > TREEIFY_THRESHOLD)
+                        treeifyBin(b);
+                }
+            }
+        }
+        return newTab;
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m) {
+        putMapEntries(m);
+    }
+
+    public V remove(Object key) {
+        Object v;
+        return (v = removeNode(hash(key), key, null, false)) == FREE ? null : castValue(v);
+    }
+
+    /**
+     * 删除key对应的元素，返回被删除的value，不存在返回FREE
+     */
+    final Object removeNode(int hash, Object key, Object value, boolean matchValue) {
+        int[] tab;
+        int b, h, r;
+        if ((tab = table) == null || (h = tab[b = hash & (tab.length - 1)]) == 0)
+            return FREE;
+        Object v;
+        if (h < 0) {
+            if ((r = treeFind(-h, hash, key, null)) == 0 ||
+                    (matchValue && (v = vals[r - 1]) != value && (value == null || !value.equals(v))))
+                return FREE;
+            treeDelete(b, r);
+        } else {
+            int prev = 0;
+            for (r = h; r != 0; prev = r, r = next[r - 1]) {
+                Object k;
+                if (hashes[r - 1] == hash &&
+                        ((k = keys[r - 1]) == key || (key != null && key.equals(k))))
+                    break;
+            }
+            if (r == 0 ||
+                    (matchValue && (v = vals[r - 1]) != value && (value == null || !value.equals(v))))
+                return FREE;
+            if (prev == 0)
+                tab[b] = next[r - 1];
+            else
+                next[prev - 1] = next[r - 1];
+        }
+        Object oldValue = vals[r - 1];
+        release(r);
+        return oldValue;
+    }
+
+    public void clear() {
+        modCount++;
+        if (table != null && size > 0) {
+            Arrays.fill(table, 0);
+            Arrays.fill(keys, 0, used, null);
+            Arrays.fill(vals, 0, used, null);
+        }
+        size = used = freeHead = 0;
+    }
+
+    public boolean containsValue(Object value) {
+        Object[] ks = keys, vs = vals;
+        for (int i = 0; i < used; ++i) {
+            Object v;
+            if (ks[i] != FREE && ((v = vs[i]) == value ||
+                    (value != null && value.equals(v))))
+                return true;
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    // red-black tree by index
+
+    /**
+     * 同HashMap.TreeNode.find，从ref为p的节点开始查找
+     */
+    final int treeFind(int p, int h, Object k, Class<?> kc) {
+        int[] hs = hashes, l = left, rt = right;
+        Object[] ks = keys;
+        do {
+            int ph, dir, q;
+            Object pk;
+            int pl = l[p], pr = rt[p];
+            if ((ph = hs[p - 1]) > h)
+                p = pl;
+            else if (ph < h)
+                p = pr;
+            else if ((pk = ks[p - 1]) == k || (k != null && k.equals(pk)))
+                return p;
+            else if (pl == 0)
+                p = pr;
+            else if (pr == 0)
+                p = pl;
+            else if ((kc != null ||
+                    (kc = comparableClassFor(k)) != null) &&
+                    (dir = compareComparables(kc, k, pk)) != 0)
+                p = (dir < 0) ? pl : pr;
+            else if ((q = treeFind(pr, h, k, kc)) != 0)
+                return q;
+            else
+                p = pl;
+        } while (p != 0);
+        return 0;
+    }
+
+    /**
+     * 把链表转化为红黑树，树的数组第一次使用时创建
+     */
+    final void treeifyBin(int b) {
+        int[] tab = table;
+        if (tab.length < MIN_TREEIFY_CAPACITY) {
+            resize();
+            return;
+        }
+        if (red == null) {
+            int n = keys.length + 1;
+            left = new int[n];
+            right = new int[n];
+            parent = new int[n];
+            red = new boolean[n];
+        }
+        int r = tab[b];
+        tab[b] = 0; // 空树
+        while (r != 0) {
+            int nr = next[r - 1];
+            treeInsert(b, r);
+            r = nr;
+        }
+    }
+
+    /**
+     * 插入节点x，按hash、Comparable、tieBreakOrder确定位置，再调整平衡
+     */
+    final void treeInsert(int b, int x) {
+        int[] l = left, rt = right, pa = parent;
+        l[x] = rt[x] = 0;
+        red[x] = true;
+        int root = -table[b];
+        if (root == 0) {
+            pa[x] = 0;
+            red[x] = false;
+            table[b] = -x;
+            return;
+        }
+        int h = hashes[x - 1];
+        Object k = keys[x - 1];
+        Class<?> kc = null;
+        for (int p = root; ; ) {
+            int ph = hashes[p - 1], dir;
+            Object pk = keys[p - 1];
+            if (ph > h)
+                dir = -1;
+            else if (ph < h)
+                dir = 1;
+            else if ((kc == null && (kc = comparableClassFor(k)) == null) ||
+                    (dir = compareComparables(kc, k, pk)) == 0)
+                dir = HashMap.TreeNode.tieBreakOrder(k, pk);
+            int c = (dir <= 0) ? l[p] : rt[p];
+            if (c == 0) {
+                pa[x] = p;
+                if (dir <= 0)
+                    l[p] = x;
+                else
+                    rt[p] = x;
+                break;
+            }
+            p = c;
+        }
+        balanceInsertion(b, x);
+    }
+
+    final void rotateLeft(int b, int x) {
+        int[] l = left, rt = right, pa = parent;
+        int y = rt[x], p;
+        if ((rt[x] = l[y]) != 0)
+            pa[l[y]] = x;
+        if ((p = pa[y] = pa[x]) == 0)
+            table[b] = -y;
+        else if (x == l[p])
+            l[p] = y;
+        else
+            rt[p] = y;
+        l[y] = x;
+        pa[x] = y;
+    }
+
+    final void rotateRight(int b, int x) {
+        int[] l = left, rt = right, pa = parent;
+        int y = l[x], p;
+        if ((l[x] = rt[y]) != 0)
+            pa[rt[y]] = x;
+        if ((p = pa[y] = pa[x]) == 0)
+            table[b] = -y;
+        else if (x == rt[p])
+            rt[p] = y;
+        else
+            l[p] = y;
+        rt[y] = x;
+        pa[x] = y;
+    }
+
+    final void balanceInsertion(int b, int x) {
+        int[] l = left, rt = right, pa = parent;
+        boolean[] rd = red;
+        while (rd[pa[x]]) { // 哨兵是黑色，根节点的父节点是哨兵
+            int p = pa[x], g = pa[p], y;
+            if (p == l[g]) {
+                if (rd[y = rt[g]]) {
+                    rd[p] = rd[y] = false;
+                    rd[g] = true;
+                    x = g;
+                } else {
+                    if (x == rt[p]) {
+                        rotateLeft(b, x = p);
+                        p = pa[x];
+                        g = pa[p];
+                    }
+                    rd[p] = false;
+                    rd[g] = true;
+                    rotateRight(b, g);
+                }
+            } else {
+                if (rd[y = l[g]]) {
+                    rd[p] = rd[y] = false;
+                    rd[g] = true;
+                    x = g;
+                } else {
+                    if (x == l[p]) {
+                        rotateRight(b, x = p);
+                        p = pa[x];
+                        g = pa[p];
+                    }
+                    rd[p] = false;
+                    rd[g] = true;
+                    rotateLeft(b, g);
+                }
+            }
+        }
+        rd[-table[b]] = false;
+    }
+
+    /**
+     * 用v替换u的位置，v可以是哨兵
+     */
+    private void transplant(int b, int u, int v) {
+        int p = parent[u];
+        if (p == 0)
+            table[b] = -v;
+        else if (u == left[p])
+            left[p] = v;
+        else
+            right[p] = v;
+        parent[v] = p;
+    }
+
+    /**
+     * 删除节点z，树太小时转化为链表
+     */
+    final void treeDelete(int b, int z) {
+        int[] l = left, rt = right, pa = parent;
+        boolean[] rd = red;
+        int y = z, x;
+        boolean yRed = rd[y];
+        if (l[z] == 0)
+            transplant(b, z, x = rt[z]);
+        else if (rt[z] == 0)
+            transplant(b, z, x = l[z]);
+        else {
+            y = rt[z];
+            while (l[y] != 0) // 后继节点
+                y = l[y];
+            yRed = rd[y];
+            x = rt[y];
+            if (pa[y] == z)
+                pa[x] = y;
+            else {
+                transplant(b, y, rt[y]);
+                rt[y] = rt[z];
+                pa[rt[y]] = y;
+            }
+            transplant(b, z, y);
+            l[y] = l[z];
+            pa[l[y]] = y;
+            rd[y] = rd[z];
+        }
+        if (!yRed)
+            balanceDeletion(b, x);
+        pa[0] = l[0] = rt[0] = 0; // 恢复哨兵
+        int root = -table[b];
+        if (root == 0 || rt[root] == 0 || l[root] == 0 || l[l[root]] == 0)
+            untreeify(b); // 同HashMap，树太小时转化为链表
+    }
+
+    final void balanceDeletion(int b, int x) {
+        int[] l = left, rt = right, pa = parent;
+        boolean[] rd = red;
+        while (x != -table[b] && !rd[x]) {
+            int p = pa[x], w;
+            if (x == l[p]) {
+                if (rd[w = rt[p]]) {
+                    rd[w] = false;
+                    rd[p] = true;
+                    rotateLeft(b, p);
+                    w = rt[p];
+                }
+                if (!rd[l[w]] && !rd[rt[w]]) {
+                    rd[w] = true;
+                    x = p;
+                } else {
+                    if (!rd[rt[w]]) {
+                        rd[l[w]] = false;
+                        rd[w] = true;
+                        rotateRight(b, w);
+                        w = rt[p];
+                    }
+                    rd[w] = rd[p];
+                    rd[p] = false;
+                    rd[rt[w]] = false;
+                    rotateLeft(b, p);
+                    x = -table[b];
+                }
+            } else {
+                if (rd[w = l[p]]) {
+                    rd[w] = false;
+                    rd[p] = true;
+                    rotateRight(b, p);
+                    w = l[p];
+                }
+                if (!rd[rt[w]] && !rd[l[w]]) {
+                    rd[w] = true;
+                    x = p;
+                } else {
+                    if (!rd[l[w]]) {
+                        rd[rt[w]] = false;
+                        rd[w] = true;
+                        rotateLeft(b, w);
+                        w = l[p];
+                    }
+                    rd[w] = rd[p];
+                    rd[p] = false;
+                    rd[l[w]] = false;
+                    rotateRight(b, p);
+                    x = -table[b];
+                }
+            }
+        }
+        rd[x] = false;
+    }
+
+    /**
+     * 按中序把树中的节点串成链表
+     */
+    final void untreeify(int b) {
+        int[] l = left, rt = right, pa = parent;
+        int x = -table[b], hd = 0, tl = 0;
+        if (x != 0) {
+            while (l[x] != 0)
+                x = l[x];
+        }
+        while (x != 0) {
+            if (tl == 0)
+                hd = x;
+            else
+                next[tl - 1] = x;
+            tl = x;
+            if (rt[x] != 0) { // 后继是右子树的最左节点
+                x = rt[x];
+                while (l[x] != 0)
+                    x = l[x];
+            } else { // 否则向上找到第一个从左子树上来的祖先
+                int p = pa[x];
+                while (p != 0 && x == rt[p]) {
+                    x = p;
+                    p = pa[p];
+                }
+                x = p;
+            }
+        }
+        if (tl != 0)
+            next[tl - 1] = 0;
+        table[b] = hd;
+    }
+
+    /* ------------------------------------------------------------ */
+    // views
+
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        if (ks == null) {
+            ks = new KeySet();
+            keySet = ks;
+        }
+        return ks;
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            CompactHashMap.this.clear();
+        }
+
+        public final Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        public final boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        public final boolean remove(Object key) {
+            return removeNode(hash(key), key, null, false) != FREE;
+        }
+
+        public final void forEach(Consumer<? super K> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int mc = modCount;
+            Object[] ks = keys;
+            for (int i = 0; i < used; ++i) {
+                if (ks[i] != FREE)
+                    action.accept(castKey(ks[i]));
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        if (vs == null) {
+            vs = new Values();
+            values = vs;
+        }
+        return vs;
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            CompactHashMap.this.clear();
+        }
+
+        public final Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        public final boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        public final void forEach(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int mc = modCount;
+            Object[] ks = keys, vs = vals;
+            for (int i = 0; i < used; ++i) {
+                if (ks[i] != FREE)
+                    action.accept(castValue(vs[i]));
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            CompactHashMap.this.clear();
+        }
+
+        public final Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object key = e.getKey();
+            int r;
+            return (r = find(hash(key), key)) != 0 && Objects.equals(vals[r - 1], e.getValue());
+        }
+
+        public final boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                Object key = e.getKey();
+                return removeNode(hash(key), key, e.getValue(), true) != FREE;
+            }
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K castKey(Object k) {
+        return (K) k;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> V castValue(Object v) {
+        return (V) v;
+    }
+
+    // Overrides of JDK8 Map extension methods
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int r;
+        return (r = find(hash(key), key)) == 0 ? defaultValue : castValue(vals[r - 1]);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(hash(key), key, value, true);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return removeNode(hash(key), key, value, true) != FREE;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        int r;
+        if ((r = find(hash(key), key)) != 0 && Objects.equals(vals[r - 1], oldValue)) {
+            vals[r - 1] = newValue;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        int r;
+        if ((r = find(hash(key), key)) != 0) {
+            V oldValue = castValue(vals[r - 1]);
+            vals[r - 1] = value;
+            return oldValue;
+        }
+        return null;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        Object[] ks = keys, vs = vals;
+        for (int i = 0; i < used; ++i) {
+            if (ks[i] != FREE)
+                action.accept(castKey(ks[i]), castValue(vs[i]));
+        }
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        if (function == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        Object[] ks = keys, vs = vals;
+        for (int i = 0; i < used; ++i) {
+            if (ks[i] != FREE)
+                vs[i] = function.apply(castKey(ks[i]), castValue(vs[i]));
+        }
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    /**
+     * 浅拷贝，直接复制所有数组
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone() {
+        CompactHashMap<K, V> result;
+        try {
+            result = (CompactHashMap<K, V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        result.entrySet = null;
+        result.keySet = null;
+        result.values = null;
+        result.modCount = 0;
+        if (table != null) {
+            result.table = table.clone();
+            result.hashes = hashes.clone();
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+            result.next = next.clone();
+        }
+        if (red != null) {
+            result.left = left.clone();
+            result.right = right.clone();
+            result.parent = parent.clone();
+            result.red = red.clone();
+        }
+        return result;
+    }
+
+    final int capacity() {
+        return (table != null) ? table.length :
+                (threshold > 0) ? threshold :
+                        DEFAULT_INITIAL_CAPACITY;
+    }
+
+    /**
+     * 序列化，格式和HashMap一致：容量、元素个数、依次写出key和value
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException {
+        int buckets = capacity();
+        s.defaultWriteObject();
+        s.writeInt(buckets);
+        s.writeInt(size);
+        Object[] ks = keys, vs = vals;
+        for (int i = 0; i < used; ++i) {
+            if (ks[i] != FREE) {
+                s.writeObject(ks[i]);
+                s.writeObject(vs[i]);
+            }
+        }
+    }
+
+    /**
+     * 反序列化，根据元素个数计算好容量，再逐个插入
+     */
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        if (loadFactor <= 0 || Float.isNaN(loadFactor))
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        s.readInt();                // Read and ignore number of buckets
+        int mappings = s.readInt(); // Read number of mappings (size)
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        float fc = (float) mappings / loadFactor + 1.0f;
+        threshold = ((fc < DEFAULT_INITIAL_CAPACITY) ?
+                DEFAULT_INITIAL_CAPACITY :
+                (fc >= MAXIMUM_CAPACITY) ?
+                        MAXIMUM_CAPACITY :
+                        tableSizeFor((int) fc));
+        for (int i = 0; i < mappings; i++) {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            putVal(hash(key), key, value, false);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    /**
+     * 按slot顺序遍历，删除只会释放slot，不会移动其他元素
+     */
+    abstract class HashIterator {
+        int index;              // 下一个要检查的slot
+        int current = -1;       // 上一次返回的slot
+        int remaining;          // 还没有返回的元素个数
+        int expectedModCount;   // for fast-fail
+
+        HashIterator() {
+            expectedModCount = modCount;
+            remaining = size;
+        }
+
+        public final boolean hasNext() {
+            return remaining > 0;
+        }
+
+        final int nextSlot() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (remaining <= 0)
+                throw new NoSuchElementException();
+            Object[] ks = keys;
+            int i = index;
+            while (ks[i] == FREE)
+                ++i;
+            index = i + 1;
+            --remaining;
+            return current = i;
+        }
+
+        public final void remove() {
+            int i = current;
+            if (i < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            current = -1;
+            removeNode(hashes[i], keys[i], null, false);
+            expectedModCount = modCount;
+        }
+    }
+
+    final class KeyIterator extends HashIterator
+            implements Iterator<K> {
+        public final K next() {
+            return castKey(keys[nextSlot()]);
+        }
+    }
+
+    final class ValueIterator extends HashIterator
+            implements Iterator<V> {
+        public final V next() {
+            return castValue(vals[nextSlot()]);
+        }
+    }
+
+    final class EntryIterator extends HashIterator
+            implements Iterator<Entry<K, V>> {
+        public final Entry<K, V> next() {
+            int i = nextSlot();
+            return new MapEntry(i, castKey(keys[i]));
+        }
+    }
+
+    /**
+     * 没有Node对象，entry视图返回的是临时创建的Entry，通过slot读写value
+     */
+    final class MapEntry implements Entry<K, V> {
+        final int slot;
+        final K key;
+
+        MapEntry(int slot, K key) {
+            this.slot = slot;
+            this.key = key;
+        }
+
+        public final K getKey() {
+            return key;
+        }
+
+        /**
+         * slot被删除或者复用后按key重新查找
+         */
+        private int slot() {
+            int r;
+            if (slot < used && keys[slot] == key)
+                return slot;
+            if ((r = find(hash(key), key)) == 0)
+                throw new IllegalStateException("Entry was removed");
+            return r - 1;
+        }
+
+        public final V getValue() {
+            return castValue(vals[slot()]);
+        }
+
+        public final V setValue(V newValue) {
+            int i = slot();
+            V oldValue = castValue(vals[i]);
+            vals[i] = newValue;
+            return oldValue;
+        }
+
+        public final String toString() {
+            return key + "=" + getValue();
+        }
+
+        public final int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(getValue());
+        }
+
+        public final boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(getValue(), e.getValue());
+            }
+            return false;
+        }
+    }
+}
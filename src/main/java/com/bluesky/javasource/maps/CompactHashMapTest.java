@@ -0,0 +1,187 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+@Slf4j
+public class CompactHashMapTest {
+
+    @Test
+    public void simpleUseTest() {
+        CompactHashMap<String, Integer> map = new CompactHashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put(null, 3); // 允许空键
+        log.info("map: {}", map);
+        Assert.assertEquals(Integer.valueOf(3), map.get(null));
+        Assert.assertEquals(Integer.valueOf(1), map.remove("a"));
+        Assert.assertEquals(2, map.size());
+        map.put("c", 4); // 复用"a"释放的slot
+        Assert.assertEquals(3, map.used);
+    }
+
+    /**
+     * 随机操作，和java.util.HashMap的结果对比
+     */
+    @Test
+    public void randomOperationTest() {
+        CompactHashMap<Integer, Integer> map = new CompactHashMap<>();
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(5000);
+            if (random.nextInt(3) == 0)
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            else
+                Assert.assertEquals(expected.put(key, i), map.put(key, i));
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(map, expected);
+    }
+
+    /**
+     * hash只有64种，大量元素落在同一个桶中，桶会树化，随机删除时再退化为链表
+     */
+    @Test
+    public void treeBinTest() {
+        CompactHashMap<Object, Integer> map = new CompactHashMap<>();
+        java.util.HashMap<Object, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            int id = random.nextInt(3000);
+            // 一半是可比较的key，一半不可比较，需要按tieBreakOrder插入、查找时搜索两棵子树
+            Object key = (id & 1) == 0 ? new HashMapTest.CollidingKey(id) : new PlainKey(id);
+            switch (random.nextInt(3)) {
+                case 0:
+                    Assert.assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 1:
+                    Assert.assertEquals(expected.put(key, i), map.put(key, i));
+                    break;
+                default:
+                    Assert.assertEquals(expected.get(key), map.get(key));
+            }
+            if (i % 1000 == 0)
+                checkBins(map);
+        }
+        Assert.assertEquals(expected, map);
+        int trees = checkBins(map);
+        log.info("tree bins: {}", trees);
+        Assert.assertTrue(trees > 0);
+        for (Iterator<Map.Entry<Object, Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Object, Integer> e = it.next();
+            if (e.getValue() % 2 == 0) {
+                it.remove();
+                expected.remove(e.getKey());
+            } else {
+                e.setValue(-1);
+                expected.put(e.getKey(), -1);
+            }
+        }
+        Assert.assertEquals(expected, map);
+        checkBins(map);
+    }
+
+    @Test
+    public void cloneAndSerializeTest() throws IOException, ClassNotFoundException {
+        CompactHashMap<Object, String> map = new CompactHashMap<>();
+        for (int i = 0; i < 1000; i++)
+            map.put(new HashMapTest.CollidingKey(i), "v" + i);
+        @SuppressWarnings("unchecked")
+        CompactHashMap<Object, String> copy = (CompactHashMap<Object, String>) map.clone();
+        copy.remove(new HashMapTest.CollidingKey(1));
+        Assert.assertEquals(1000, map.size());
+        Assert.assertEquals("v1", map.get(new HashMapTest.CollidingKey(1)));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(map);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            Object o = ois.readObject();
+            Assert.assertEquals(map, o);
+            checkBins((CompactHashMap<?, ?>) o);
+        }
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertEquals(0, map.used);
+    }
+
+    /**
+     * 检查每个树化的桶都是合法的红黑树，返回树化的桶的个数
+     */
+    static int checkBins(CompactHashMap<?, ?> map) {
+        int trees = 0, count = 0;
+        int[] tab = map.table;
+        for (int b = 0; tab != null && b < tab.length; b++) {
+            if (tab[b] < 0) {
+                int root = -tab[b];
+                Assert.assertEquals(0, map.parent[root]);
+                Assert.assertFalse(map.red[root]);
+                count += checkTree(map, root, b);
+                trees++;
+            } else {
+                for (int r = tab[b]; r != 0; r = map.next[r - 1], count++)
+                    Assert.assertEquals(b, map.hashes[r - 1] & (tab.length - 1));
+            }
+        }
+        Assert.assertEquals(map.size(), count);
+        Assert.assertFalse(map.red == null ? false : map.red[0]);
+        return trees;
+    }
+
+    /**
+     * 返回子树中的节点个数，同时检查黑高度、红节点的子节点和父指针
+     */
+    private static int checkTree(CompactHashMap<?, ?> map, int root, int bin) {
+        int[] blackHeight = {-1};
+        return checkTree(map, root, bin, 0, blackHeight);
+    }
+
+    private static int checkTree(CompactHashMap<?, ?> map, int x, int bin, int blacks, int[] blackHeight) {
+        if (x == 0) {
+            if (blackHeight[0] < 0)
+                blackHeight[0] = blacks;
+            Assert.assertEquals(blackHeight[0], blacks);
+            return 0;
+        }
+        Assert.assertEquals(bin, map.hashes[x - 1] & (map.table.length - 1));
+        int l = map.left[x], r = map.right[x];
+        if (map.red[x])
+            Assert.assertFalse(map.red[l] || map.red[r]);
+        if (l != 0)
+            Assert.assertEquals(x, map.parent[l]);
+        if (r != 0)
+            Assert.assertEquals(x, map.parent[r]);
+        int b = map.red[x] ? blacks : blacks + 1;
+        return 1 + checkTree(map, l, bin, b, blackHeight) + checkTree(map, r, bin, b, blackHeight);
+    }
+
+    /**
+     * hash冲突但是没有实现Comparable的key
+     */
+    static class PlainKey {
+        final int id;
+
+        PlainKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id & 0x3F;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PlainKey && ((PlainKey) o).id == id;
+        }
+    }
+}
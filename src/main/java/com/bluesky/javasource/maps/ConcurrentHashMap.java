@@ -0,0 +1,1262 @@
+package com.bluesky.javasource.maps;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import sun.misc.Unsafe;
+
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_INITIAL_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.MAXIMUM_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.MIN_TREEIFY_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.Node;
+import static com.bluesky.javasource.maps.HashMap.TREEIFY_THRESHOLD;
+import static com.bluesky.javasource.maps.HashMap.TreeNode;
+import static com.bluesky.javasource.maps.HashMap.UNTREEIFY_THRESHOLD;
+import static com.bluesky.javasource.maps.HashMap.tableSizeFor;
+
+/**
+ * 要点:
+ * 1. 线程安全的哈希表，桶直接复用HashMap的Node链表和TreeNode红黑树，容量为2^k，hash方式同HashMap.hash，
+ * 但是去掉了符号位，负的hash值留给转发节点(MOVED)和红黑树桶(TREEBIN)
+ * 2. 写操作只锁住一个桶: 空桶直接CAS插入，非空桶synchronized桶中的第一个节点，加锁后要重新检查第一个节点没有变化
+ * 3. 链表桶是写时复制的: 插入采用头插法，替换和删除会复制目标节点之前的节点，再通过volatile写发布新的链表头，
+ * 已经发布的Node不会再被修改(Node中的next和value不是volatile的)，所以get遍历链表不需要加锁
+ * 4. 红黑树桶是TreeBin，红黑树的修改直接调用TreeNode中的方法，读操作需要获取TreeBin的读锁，写操作需要写锁
+ * 5. 扩容是多线程协作的: 发起扩容的线程创建2倍大小的nextTable，旧数组按stride分段，其他写线程遇到转发节点
+ * 会领取一段帮忙迁移，迁移完的桶替换为ForwardingNode，get遇到转发节点去nextTable中查找
+ * 6. sizeCtl: 数组为空时存放初始容量；-1表示正在初始化；扩容时为 (resizeStamp(n)<<16)+1+参与扩容的线程数；
+ * 其他时候为下次扩容的阈值，即0.75n
+ * 7. 元素个数用LongAdder统计，size()只是一个估计值
+ * 8. 不允许空键和空值，迭代器是弱一致性的，不会抛出ConcurrentModificationException
+ */
+public class ConcurrentHashMap<K, V> extends AbstractMap<K, V>
+        implements ConcurrentMap<K, V>, Serializable {
+
+    private static final long serialVersionUID = 7249069246763182397L;
+
+    /**
+     * 每个线程一次领取的最少桶数量
+     */
+    private static final int MIN_TRANSFER_STRIDE = 16;
+
+    /**
+     * sizeCtl中扩容标记占用的位数
+     */
+    private static final int RESIZE_STAMP_BITS = 16;
+
+    /**
+     * 最多参与扩容的线程数
+     */
+    private static final int MAX_RESIZERS = (1 << (32 - RESIZE_STAMP_BITS)) - 1;
+
+    private static final int RESIZE_STAMP_SHIFT = 32 - RESIZE_STAMP_BITS;
+
+    /**
+     * 特殊节点的hash值
+     */
+    static final int MOVED = -1; // 转发节点
+    static final int TREEBIN = -2; // 红黑树桶
+    static final int HASH_BITS = 0x7fffffff; // 普通节点hash值可用的位
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 与HashMap.hash相同的扰动，再去掉符号位
+     */
+    static final int spread(int h) {
+        return (h ^ (h >>> 16)) & HASH_BITS;
+    }
+
+    /**
+     * 扩容标记，左移RESIZE_STAMP_SHIFT位后是负数，不同容量的扩容标记不同
+     */
+    static final int resizeStamp(int n) {
+        return Integer.numberOfLeadingZeros(n) | (1 << (RESIZE_STAMP_BITS - 1));
+    }
+
+    /**
+     * TreeNode中的方法需要通过HashMap创建节点(newTreeNode和replacementNode)，
+     * 这个HashMap只用作节点工厂，不会存放元素
+     */
+    private static final HashMap<Object, Object> NODE_FACTORY = new HashMap<>();
+
+    @SuppressWarnings("unchecked")
+    static <K, V> HashMap<K, V> nodeFactory() {
+        return (HashMap<K, V>) NODE_FACTORY;
+    }
+
+    /* ---------------- Table element access -------------- */
+
+    /*
+     * 数组元素的volatile读写和CAS，Node中的字段都是在volatile写之前赋值的，
+     * 读到桶中的第一个节点之后就能看到整个链表
+     */
+
+    @SuppressWarnings("unchecked")
+    static final <K, V> Node<K, V> tabAt(Node<K, V>[] tab, int i) {
+        return (Node<K, V>) U.getObjectVolatile(tab, ((long) i << ASHIFT) + ABASE);
+    }
+
+    static final <K, V> boolean casTabAt(Node<K, V>[] tab, int i,
+                                        Node<K, V> c, Node<K, V> v) {
+        return U.compareAndSwapObject(tab, ((long) i << ASHIFT) + ABASE, c, v);
+    }
+
+    static final <K, V> void setTabAt(Node<K, V>[] tab, int i, Node<K, V> v) {
+        U.putObjectVolatile(tab, ((long) i << ASHIFT) + ABASE, v);
+    }
+
+    /* ---------------- Fields -------------- */
+
+    /**
+     * 哈希表，第一次插入时才初始化
+     */
+    transient volatile Node<K, V>[] table;
+
+    /**
+     * 扩容时的新数组，只有扩容时不为null
+     */
+    private transient volatile Node<K, V>[] nextTable;
+
+    /**
+     * 控制初始化和扩容，取值含义见类注释
+     */
+    private transient volatile int sizeCtl;
+
+    /**
+     * 扩容时下一个待领取的桶下标+1，从数组尾部向头部领取
+     */
+    private transient volatile int transferIndex;
+
+    /**
+     * 元素个数
+     */
+    private transient LongAdder counter = new LongAdder();
+
+    // views
+    private transient EntrySet entrySet;
+
+    /* ---------------- Special nodes -------------- */
+
+    /**
+     * 转发节点，放在迁移完的桶中。oldBin是迁移前桶中的内容，迁移后不会再被修改，迭代器遍历旧数组时直接遍历它
+     */
+    static final class ForwardingNode<K, V> extends Node<K, V> {
+        final Node<K, V>[] nextTable;
+        final Node<K, V> oldBin;
+
+        ForwardingNode(Node<K, V>[] tab, Node<K, V> oldBin) {
+            super(MOVED, null, null, null);
+            this.nextTable = tab;
+            this.oldBin = oldBin;
+        }
+
+        /**
+         * 在新数组中查找，新数组中的桶可能又被迁移了
+         */
+        V find(int h, Object k) {
+            outer:
+            for (Node<K, V>[] tab = nextTable; ; ) {
+                Node<K, V> e;
+                int n;
+                if (tab == null || (n = tab.length) == 0 ||
+                        (e = tabAt(tab, (n - 1) & h)) == null)
+                    return null;
+                for (; ; ) {
+                    int eh;
+                    K ek;
+                    if ((eh = e.hash) == h &&
+                            ((ek = e.key) == k || (ek != null && k.equals(ek))))
+                        return e.value;
+                    if (eh < 0) {
+                        if (e instanceof ForwardingNode) {
+                            tab = ((ForwardingNode<K, V>) e).nextTable;
+                            continue outer;
+                        } else
+                            return ((TreeBin<K, V>) e).find(h, k);
+                    }
+                    if ((e = e.next) == null)
+                        return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 红黑树桶。bin是只有一个桶的哈希表，红黑树的根节点放在bin[0]，这样可以直接调用TreeNode中
+     * treeify、putTreeVal、removeTreeNode等需要传入哈希表的方法。
+     * 写操作在synchronized桶的基础上还要获取写锁，读操作获取读锁
+     */
+    static final class TreeBin<K, V> extends Node<K, V> {
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        final Node<K, V>[] bin = (Node<K, V>[]) new Node[1];
+        final StampedLock lock = new StampedLock();
+
+        /**
+         * 用TreeNode双向链表构造红黑树
+         */
+        TreeBin(TreeNode<K, V> hd) {
+            super(TREEBIN, null, null, null);
+            bin[0] = hd; // 和HashMap.treeifyBin一样，先放入链表头，treeify时再把根节点移到链表头
+            hd.treeify(bin);
+        }
+
+        /**
+         * 查找key对应的值，删除节点后红黑树可能已经退化为链表，这时按链表查找
+         */
+        V find(int h, Object k) {
+            long stamp = lock.readLock();
+            try {
+                Node<K, V> e = bin[0];
+                if (e instanceof TreeNode) {
+                    TreeNode<K, V> p = ((TreeNode<K, V>) e).getTreeNode(h, k);
+                    return p == null ? null : p.value;
+                }
+                for (K ek; e != null; e = e.next) {
+                    if (e.hash == h && ((ek = e.key) == k || k.equals(ek)))
+                        return e.value;
+                }
+                return null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * 写线程持有桶的锁时查找，不需要读锁
+         */
+        TreeNode<K, V> findTreeNode(int h, Object k) {
+            TreeNode<K, V> r = (TreeNode<K, V>) bin[0];
+            return r == null ? null : r.getTreeNode(h, k);
+        }
+
+        /**
+         * 插入，key存在时返回已有的节点
+         */
+        TreeNode<K, V> putTreeVal(int h, K k, V v) {
+            long stamp = lock.writeLock();
+            try {
+                return ((TreeNode<K, V>) bin[0]).putTreeVal(nodeFactory(), bin, h, k, v);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void setValue(TreeNode<K, V> p, V v) {
+            long stamp = lock.writeLock();
+            try {
+                p.value = v;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * 删除节点，返回删除后桶中的第一个节点，节点太少时已经退化为链表
+         */
+        Node<K, V> removeTreeNode(TreeNode<K, V> p) {
+            long stamp = lock.writeLock();
+            try {
+                p.removeTreeNode(nodeFactory(), bin, true);
+                return bin[0];
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * 复制出一个普通节点组成的链表，给迭代器使用
+         */
+        Node<K, V> snapshot() {
+            long stamp = lock.readLock();
+            try {
+                Node<K, V> hd = null;
+                for (Node<K, V> e = bin[0]; e != null; e = e.next)
+                    hd = new Node<>(e.hash, e.key, e.value, hd);
+                return hd;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public ConcurrentHashMap() {
+    }
+
+    /**
+     * 按照能存放initialCapacity个元素而不扩容来计算容量
+     */
+    public ConcurrentHashMap(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        this.sizeCtl = ((initialCapacity >= (MAXIMUM_CAPACITY >>> 1)) ?
+                MAXIMUM_CAPACITY :
+                tableSizeFor(initialCapacity + (initialCapacity >>> 1) + 1));
+    }
+
+    public ConcurrentHashMap(Map<? extends K, ? extends V> m) {
+        this.sizeCtl = DEFAULT_INITIAL_CAPACITY;
+        putAll(m);
+    }
+
+    public int size() {
+        long n = counter.sum();
+        return ((n < 0L) ? 0 :
+                (n > (long) Integer.MAX_VALUE) ? Integer.MAX_VALUE :
+                        (int) n);
+    }
+
+    /**
+     * 元素个数可能超过int的范围，用这个方法代替size()
+     */
+    public long mappingCount() {
+        long n = counter.sum();
+        return (n < 0L) ? 0L : n;
+    }
+
+    public boolean isEmpty() {
+        return counter.sum() <= 0L;
+    }
+
+    /**
+     * 不加锁，链表直接遍历，红黑树获取读锁，转发节点到新数组中查找
+     */
+    public V get(Object key) {
+        Node<K, V>[] tab;
+        Node<K, V> e;
+        int n, eh;
+        K ek;
+        int h = spread(key.hashCode());
+        if ((tab = table) != null && (n = tab.length) > 0 &&
+                (e = tabAt(tab, (n - 1) & h)) != null) {
+            if ((eh = e.hash) < 0)
+                return (e instanceof ForwardingNode) ?
+                        ((ForwardingNode<K, V>) e).find(h, key) :
+                        ((TreeBin<K, V>) e).find(h, key);
+            do {
+                if (e.hash == h &&
+                        ((ek = e.key) == key || key.equals(ek)))
+                    return e.value;
+            } while ((e = e.next) != null);
+        }
+        return null;
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public boolean containsValue(Object value) {
+        if (value == null)
+            throw new NullPointerException();
+        Traverser<K, V> it = new Traverser<>(table, 0, -1);
+        for (Node<K, V> p; (p = it.advance()) != null; ) {
+            V v;
+            if ((v = p.value) == value || value.equals(v))
+                return true;
+        }
+        return false;
+    }
+
+    public V put(K key, V value) {
+        return putVal(key, value, false);
+    }
+
+    public V putIfAbsent(K key, V value) {
+        return putVal(key, value, true);
+    }
+
+    /**
+     * 插入键值对，onlyIfAbsent表示是否只有不存在时插入
+     */
+    final V putVal(K key, V value, boolean onlyIfAbsent) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        int hash = spread(key.hashCode());
+        int binCount = 0;
+        for (Node<K, V>[] tab = table; ; ) {
+            Node<K, V> f;
+            int n, i, fh;
+            if (tab == null || (n = tab.length) == 0)
+                tab = initTable();
+            else if ((f = tabAt(tab, i = (n - 1) & hash)) == null) { // 空桶直接CAS
+                if (casTabAt(tab, i, null, new Node<>(hash, key, value, null)))
+                    break;
+            } else if ((fh = f.hash) == MOVED) // 正在扩容，先帮忙迁移
+                tab = helpTransfer(tab, f);
+            else {
+                V oldVal = null;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) { // 加锁期间第一个节点没有变化
+                        if (fh >= 0) {
+                            binCount = 1;
+                            for (Node<K, V> e = f; ; ++binCount) {
+                                K ek;
+                                if (e.hash == hash &&
+                                        ((ek = e.key) == key || key.equals(ek))) {
+                                    oldVal = e.value;
+                                    if (!onlyIfAbsent)
+                                        setTabAt(tab, i, copyBin(f, e,
+                                                new Node<>(hash, ek, value, e.next)));
+                                    break;
+                                }
+                                if ((e = e.next) == null) { // 头插法，不修改已发布的节点
+                                    setTabAt(tab, i, new Node<>(hash, key, value, f));
+                                    break;
+                                }
+                            }
+                        } else if (f instanceof TreeBin) {
+                            TreeBin<K, V> t = (TreeBin<K, V>) f;
+                            TreeNode<K, V> p;
+                            binCount = 2;
+                            if ((p = t.putTreeVal(hash, key, value)) != null) {
+                                oldVal = p.value;
+                                if (!onlyIfAbsent)
+                                    t.setValue(p, value);
+                            }
+                        }
+                    }
+                }
+                if (binCount != 0) {
+                    if (binCount >= TREEIFY_THRESHOLD)
+                        treeifyBin(tab, i);
+                    if (oldVal != null)
+                        return oldVal;
+                    break;
+                }
+            }
+        }
+        addCount(1L, binCount);
+        return null;
+    }
+
+    /**
+     * 写时复制: 复制链表f中e之前的节点，e替换为replacement(为null表示删除e)，e之后的节点直接共享
+     */
+    static <K, V> Node<K, V> copyBin(Node<K, V> f, Node<K, V> e, Node<K, V> replacement) {
+        Node<K, V> hd = null, tl = null;
+        for (Node<K, V> p = f; p != e; p = p.next) {
+            Node<K, V> q = new Node<>(p.hash, p.key, p.value, null);
+            if (tl == null)
+                hd = q;
+            else
+                tl.next = q;
+            tl = q;
+        }
+        Node<K, V> rest = (replacement != null) ? replacement : e.next;
+        if (tl == null)
+            return rest;
+        tl.next = rest;
+        return hd;
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m) {
+        tryPresize(m.size());
+        for (Entry<? extends K, ? extends V> e : m.entrySet())
+            putVal(e.getKey(), e.getValue(), false);
+    }
+
+    public V remove(Object key) {
+        return replaceNode(key, null, null);
+    }
+
+    public boolean remove(Object key, Object value) {
+        if (key == null)
+            throw new NullPointerException();
+        return value != null && replaceNode(key, null, value) != null;
+    }
+
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (key == null || oldValue == null || newValue == null)
+            throw new NullPointerException();
+        return replaceNode(key, newValue, oldValue) != null;
+    }
+
+    public V replace(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        return replaceNode(key, value, null);
+    }
+
+    /**
+     * 替换或者删除，value为null表示删除；cv不为null时，只有当前值等于cv才修改
+     */
+    final V replaceNode(Object key, V value, Object cv) {
+        int hash = spread(key.hashCode());
+        for (Node<K, V>[] tab = table; ; ) {
+            Node<K, V> f;
+            int n, i, fh;
+            if (tab == null || (n = tab.length) == 0 ||
+                    (f = tabAt(tab, i = (n - 1) & hash)) == null)
+                break;
+            else if ((fh = f.hash) == MOVED)
+                tab = helpTransfer(tab, f);
+            else {
+                V oldVal = null;
+                boolean validated = false;
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        if (fh >= 0) {
+                            validated = true;
+                            for (Node<K, V> e = f; e != null; e = e.next) {
+                                K ek;
+                                if (e.hash == hash &&
+                                        ((ek = e.key) == key || key.equals(ek))) {
+                                    V ev = e.value;
+                                    if (cv == null || cv == ev || cv.equals(ev)) {
+                                        oldVal = ev;
+                                        setTabAt(tab, i, copyBin(f, e, (value == null) ? null :
+                                                new Node<>(hash, ek, value, e.next)));
+                                    }
+                                    break;
+                                }
+                            }
+                        } else if (f instanceof TreeBin) {
+                            validated = true;
+                            TreeBin<K, V> t = (TreeBin<K, V>) f;
+                            TreeNode<K, V> p;
+                            if ((p = t.findTreeNode(hash, key)) != null) {
+                                V pv = p.value;
+                                if (cv == null || cv == pv || cv.equals(pv)) {
+                                    oldVal = pv;
+                                    if (value != null)
+                                        t.setValue(p, value);
+                                    else {
+                                        Node<K, V> first = t.removeTreeNode(p);
+                                        if (!(first instanceof TreeNode)) // 退化为链表或者为空
+                                            setTabAt(tab, i, first);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                if (validated) {
+                    if (oldVal != null) {
+                        if (value == null)
+                            addCount(-1L, -1);
+                        return oldVal;
+                    }
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 逐个桶加锁清空，遇到正在迁移的桶先帮忙迁移
+     */
+    public void clear() {
+        long delta = 0L;
+        int i = 0;
+        Node<K, V>[] tab = table;
+        while (tab != null && i < tab.length) {
+            int fh;
+            Node<K, V> f = tabAt(tab, i);
+            if (f == null)
+                ++i;
+            else if ((fh = f.hash) == MOVED) {
+                tab = helpTransfer(tab, f);
+                i = 0; // restart
+            } else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        Node<K, V> p = (fh >= 0) ? f :
+                                (f instanceof TreeBin) ? ((TreeBin<K, V>) f).bin[0] : null;
+                        for (; p != null; p = p.next)
+                            --delta;
+                        setTabAt(tab, i++, null);
+                    }
+                }
+            }
+        }
+        if (delta != 0L)
+            addCount(delta, -1);
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        V v;
+        return (v = get(key)) == null ? defaultValue : v;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        Traverser<K, V> it = new Traverser<>(table, 0, -1);
+        for (Node<K, V> p; (p = it.advance()) != null; )
+            action.accept(p.key, p.value);
+    }
+
+    /* ---------------- Table initialization and resizing -------------- */
+
+    /**
+     * 初始化数组，通过CAS把sizeCtl设为-1来保证只有一个线程创建数组
+     */
+    private final Node<K, V>[] initTable() {
+        Node<K, V>[] tab;
+        int sc;
+        while ((tab = table) == null || tab.length == 0) {
+            if ((sc = sizeCtl) < 0)
+                Thread.yield(); // lost initialization race; just spin
+            else if (U.compareAndSwapInt(this, SIZECTL, sc, -1)) {
+                try {
+                    if ((tab = table) == null || tab.length == 0) {
+                        int n = (sc > 0) ? sc : DEFAULT_INITIAL_CAPACITY;
+                        @SuppressWarnings({"rawtypes", "unchecked"})
+                        Node<K, V>[] nt = (Node<K, V>[]) new Node[n];
+                        table = tab = nt;
+                        sc = n - (n >>> 2); // 0.75n
+                    }
+                } finally {
+                    sizeCtl = sc;
+                }
+                break;
+            }
+        }
+        return tab;
+    }
+
+    /**
+     * 修改元素个数，check>=0时检查是否需要扩容，如果正在扩容则加入
+     */
+    private final void addCount(long x, int check) {
+        counter.add(x);
+        if (check >= 0) {
+            Node<K, V>[] tab, nt;
+            int n, sc;
+            long s = counter.sum();
+            while (s >= (long) (sc = sizeCtl) && (tab = table) != null &&
+                    (n = tab.length) < MAXIMUM_CAPACITY) {
+                int rs = resizeStamp(n) << RESIZE_STAMP_SHIFT;
+                if (sc < 0) { // 正在扩容，扩容已经结束、线程数已满或者没有待领取的桶时退出
+                    if (sc == rs + MAX_RESIZERS || sc == rs + 1 ||
+                            (nt = nextTable) == null || transferIndex <= 0)
+                        break;
+                    if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1))
+                        transfer(tab, nt);
+                } else if (U.compareAndSwapInt(this, SIZECTL, sc, rs + 2)) // 发起扩容
+                    transfer(tab, null);
+                s = counter.sum();
+            }
+        }
+    }
+
+    /**
+     * 遇到转发节点时帮忙迁移
+     */
+    final Node<K, V>[] helpTransfer(Node<K, V>[] tab, Node<K, V> f) {
+        Node<K, V>[] nextTab;
+        int sc;
+        if (tab != null && (f instanceof ForwardingNode) &&
+                (nextTab = ((ForwardingNode<K, V>) f).nextTable) != null) {
+            int rs = resizeStamp(tab.length) << RESIZE_STAMP_SHIFT;
+            while (nextTab == nextTable && table == tab &&
+                    (sc = sizeCtl) < 0) {
+                if (sc == rs + MAX_RESIZERS || sc == rs + 1 ||
+                        transferIndex <= 0)
+                    break;
+                if (U.compareAndSwapInt(this, SIZECTL, sc, sc + 1)) {
+                    transfer(tab, nextTab);
+                    break;
+                }
+            }
+            return nextTab;
+        }
+        return table;
+    }
+
+    /**
+     * 扩容到能存放size个元素，putAll和链表太长但容量不足64时调用
+     */
+    private final void tryPresize(int size) {
+        int c = (size >= (MAXIMUM_CAPACITY >>> 1)) ? MAXIMUM_CAPACITY :
+                tableSizeFor(size + (size >>> 1) + 1);
+        int sc;
+        while ((sc = sizeCtl) >= 0) {
+            Node<K, V>[] tab = table;
+            int n;
+            if (tab == null || (n = tab.length) == 0) {
+                n = (sc > c) ? sc : c;
+                if (U.compareAndSwapInt(this, SIZECTL, sc, -1)) {
+                    try {
+                        if (table == tab) {
+                            @SuppressWarnings({"rawtypes", "unchecked"})
+                            Node<K, V>[] nt = (Node<K, V>[]) new Node[n];
+                            table = nt;
+                            sc = n - (n >>> 2);
+                        }
+                    } finally {
+                        sizeCtl = sc;
+                    }
+                }
+            } else if (c <= sc || n >= MAXIMUM_CAPACITY)
+                break;
+            else if (tab == table) {
+                int rs = resizeStamp(n) << RESIZE_STAMP_SHIFT;
+                if (U.compareAndSwapInt(this, SIZECTL, sc, rs + 2))
+                    transfer(tab, null);
+            }
+        }
+    }
+
+    /**
+     * 把tab中的桶迁移到nextTab。每个线程每次从transferIndex领取stride个桶，从后往前迁移，
+     * 最后一个退出的线程再检查一遍整个数组，然后替换table。
+     * 和HashMap.resize相同，桶j中的元素只会迁移到j或者j+n，链表拆分时复制节点而不是修改原来的next，
+     * 尾部迁移到同一个桶的一段(lastRun)直接共享，旧的桶放到转发节点中
+     */
+    private final void transfer(Node<K, V>[] tab, Node<K, V>[] nextTab) {
+        int n = tab.length, stride;
+        if ((stride = (NCPU > 1) ? (n >>> 3) / NCPU : n) < MIN_TRANSFER_STRIDE)
+            stride = MIN_TRANSFER_STRIDE; // subdivide range
+        if (nextTab == null) {            // initiating
+            try {
+                @SuppressWarnings({"rawtypes", "unchecked"})
+                Node<K, V>[] nt = (Node<K, V>[]) new Node[n << 1];
+                nextTab = nt;
+            } catch (Throwable ex) {      // try to cope with OOME
+                sizeCtl = Integer.MAX_VALUE;
+                return;
+            }
+            nextTable = nextTab;
+            transferIndex = n;
+        }
+        int nextn = nextTab.length;
+        ForwardingNode<K, V> fwd = new ForwardingNode<>(nextTab, null); // 空桶共用
+        boolean advance = true;
+        boolean finishing = false; // to ensure sweep before committing nextTab
+        for (int i = 0, bound = 0; ; ) {
+            Node<K, V> f;
+            int fh;
+            while (advance) { // 找到下一个需要迁移的桶，当前段结束了就领取下一段
+                int nextIndex, nextBound;
+                if (--i >= bound || finishing)
+                    advance = false;
+                else if ((nextIndex = transferIndex) <= 0) {
+                    i = -1;
+                    advance = false;
+                } else if (U.compareAndSwapInt
+                        (this, TRANSFERINDEX, nextIndex,
+                                nextBound = (nextIndex > stride ?
+                                        nextIndex - stride : 0))) {
+                    bound = nextBound;
+                    i = nextIndex - 1;
+                    advance = false;
+                }
+            }
+            if (i < 0 || i >= n || i + n >= nextn) {
+                int sc;
+                if (finishing) {
+                    nextTable = null;
+                    table = nextTab;
+                    sizeCtl = (n << 1) - (n >>> 1); // 0.75 * 2n
+                    return;
+                }
+                if (U.compareAndSwapInt(this, SIZECTL, sc = sizeCtl, sc - 1)) {
+                    if ((sc - 2) != resizeStamp(n) << RESIZE_STAMP_SHIFT) // 不是最后一个线程
+                        return;
+                    finishing = advance = true;
+                    i = n; // recheck before commit
+                }
+            } else if ((f = tabAt(tab, i)) == null)
+                advance = casTabAt(tab, i, null, fwd);
+            else if ((fh = f.hash) == MOVED)
+                advance = true; // already processed
+            else {
+                synchronized (f) {
+                    if (tabAt(tab, i) == f) {
+                        Node<K, V> ln, hn;
+                        if (fh >= 0) {
+                            int runBit = fh & n;
+                            Node<K, V> lastRun = f;
+                            for (Node<K, V> p = f.next; p != null; p = p.next) {
+                                int b = p.hash & n;
+                                if (b != runBit) {
+                                    runBit = b;
+                                    lastRun = p;
+                                }
+                            }
+                            if (runBit == 0) {
+                                ln = lastRun;
+                                hn = null;
+                            } else {
+                                hn = lastRun;
+                                ln = null;
+                            }
+                            for (Node<K, V> p = f; p != lastRun; p = p.next) {
+                                int ph = p.hash;
+                                K pk = p.key;
+                                V pv = p.value;
+                                if ((ph & n) == 0)
+                                    ln = new Node<>(ph, pk, pv, ln);
+                                else
+                                    hn = new Node<>(ph, pk, pv, hn);
+                            }
+                            setTabAt(nextTab, i, ln);
+                            setTabAt(nextTab, i + n, hn);
+                            setTabAt(tab, i, new ForwardingNode<>(nextTab, f));
+                            advance = true;
+                        } else if (f instanceof TreeBin) { // 复制TreeNode，拆分成两个双向链表，再决定是否树化
+                            TreeBin<K, V> t = (TreeBin<K, V>) f;
+                            TreeNode<K, V> lo = null, loTail = null;
+                            TreeNode<K, V> hi = null, hiTail = null;
+                            int lc = 0, hc = 0;
+                            for (Node<K, V> e = t.bin[0]; e != null; e = e.next) {
+                                int h = e.hash;
+                                TreeNode<K, V> p = new TreeNode<>(h, e.key, e.value, null);
+                                if ((h & n) == 0) {
+                                    if ((p.prev = loTail) == null)
+                                        lo = p;
+                                    else
+                                        loTail.next = p;
+                                    loTail = p;
+                                    ++lc;
+                                } else {
+                                    if ((p.prev = hiTail) == null)
+                                        hi = p;
+                                    else
+                                        hiTail.next = p;
+                                    hiTail = p;
+                                    ++hc;
+                                }
+                            }
+                            ln = (lc <= UNTREEIFY_THRESHOLD) ? untreeify(lo) :
+                                    (hc != 0) ? new TreeBin<>(lo) : t;
+                            hn = (hc <= UNTREEIFY_THRESHOLD) ? untreeify(hi) :
+                                    (lc != 0) ? new TreeBin<>(hi) : t;
+                            setTabAt(nextTab, i, ln);
+                            setTabAt(nextTab, i + n, hn);
+                            setTabAt(tab, i, new ForwardingNode<>(nextTab, f));
+                            advance = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * TreeNode链表转为普通节点的链表
+     */
+    static <K, V> Node<K, V> untreeify(TreeNode<K, V> b) {
+        return (b == null) ? null : b.untreeify(nodeFactory());
+    }
+
+    /**
+     * 链表转为红黑树，容量小于64时先扩容
+     */
+    private final void treeifyBin(Node<K, V>[] tab, int index) {
+        Node<K, V> b;
+        int n;
+        if (tab != null) {
+            if ((n = tab.length) < MIN_TREEIFY_CAPACITY)
+                tryPresize(n << 1);
+            else if ((b = tabAt(tab, index)) != null && b.hash >= 0) {
+                synchronized (b) {
+                    if (tabAt(tab, index) == b) {
+                        TreeNode<K, V> hd = null, tl = null;
+                        for (Node<K, V> e = b; e != null; e = e.next) {
+                            TreeNode<K, V> p = new TreeNode<>(e.hash, e.key, e.value, null);
+                            if ((p.prev = tl) == null)
+                                hd = p;
+                            else
+                                tl.next = p;
+                            tl = p;
+                        }
+                        setTabAt(tab, index, new TreeBin<>(hd));
+                    }
+                }
+            }
+        }
+    }
+
+    /* ---------------- Traversal -------------- */
+
+    /**
+     * 遍历数组中[baseIndex, baseLimit)范围的桶，弱一致性。
+     * 转发节点遍历迁移前的桶，红黑树遍历加读锁复制出来的快照，链表桶发布后不会被修改，直接遍历
+     */
+    static class Traverser<K, V> {
+        Node<K, V>[] tab;        // current table; updated if resized
+        Node<K, V> next;         // the next entry to use
+        int baseIndex;           // current index of initial table
+        int baseLimit;           // index bound for initial table
+
+        Traverser(Node<K, V>[] tab, int index, int limit) {
+            this.tab = tab;
+            this.baseIndex = index;
+            this.baseLimit = (limit < 0) ? (tab == null ? 0 : tab.length) : limit;
+        }
+
+        final Node<K, V> advance() {
+            Node<K, V> e;
+            if ((e = next) != null)
+                e = e.next;
+            for (; ; ) {
+                Node<K, V>[] t;
+                int i;
+                if (e != null)
+                    return next = e;
+                if ((i = baseIndex) >= baseLimit || (t = tab) == null ||
+                        t.length <= i || i < 0)
+                    return next = null;
+                e = binNodes(tabAt(t, i));
+                baseIndex = i + 1;
+            }
+        }
+
+        static <K, V> Node<K, V> binNodes(Node<K, V> f) {
+            while (f instanceof ForwardingNode)
+                f = ((ForwardingNode<K, V>) f).oldBin;
+            return (f instanceof TreeBin) ? ((TreeBin<K, V>) f).snapshot() : f;
+        }
+    }
+
+    static class BaseIterator<K, V> extends Traverser<K, V> {
+        final ConcurrentHashMap<K, V> map;
+        Node<K, V> lastReturned;
+
+        BaseIterator(Node<K, V>[] tab, ConcurrentHashMap<K, V> map) {
+            super(tab, 0, -1);
+            this.map = map;
+            advance();
+        }
+
+        public final boolean hasNext() {
+            return next != null;
+        }
+
+        public final boolean hasMoreElements() {
+            return next != null;
+        }
+
+        final Node<K, V> nextNode() {
+            Node<K, V> p;
+            if ((p = next) == null)
+                throw new NoSuchElementException();
+            lastReturned = p;
+            advance();
+            return p;
+        }
+
+        public final void remove() {
+            Node<K, V> p;
+            if ((p = lastReturned) == null)
+                throw new IllegalStateException();
+            lastReturned = null;
+            map.replaceNode(p.key, null, null);
+        }
+    }
+
+    static final class KeyIterator<K, V> extends BaseIterator<K, V>
+            implements Iterator<K> {
+        KeyIterator(Node<K, V>[] tab, ConcurrentHashMap<K, V> map) {
+            super(tab, map);
+        }
+
+        public final K next() {
+            return nextNode().key;
+        }
+    }
+
+    static final class ValueIterator<K, V> extends BaseIterator<K, V>
+            implements Iterator<V> {
+        ValueIterator(Node<K, V>[] tab, ConcurrentHashMap<K, V> map) {
+            super(tab, map);
+        }
+
+        public final V next() {
+            return nextNode().value;
+        }
+    }
+
+    static final class EntryIterator<K, V> extends BaseIterator<K, V>
+            implements Iterator<Entry<K, V>> {
+        EntryIterator(Node<K, V>[] tab, ConcurrentHashMap<K, V> map) {
+            super(tab, map);
+        }
+
+        public final Entry<K, V> next() {
+            Node<K, V> p = nextNode();
+            return new MapEntry<>(p.key, p.value, map);
+        }
+    }
+
+    /**
+     * 迭代器返回的Entry，setValue会写回map
+     */
+    static final class MapEntry<K, V> implements Entry<K, V> {
+        final K key;
+        V val;
+        final ConcurrentHashMap<K, V> map;
+
+        MapEntry(K key, V val, ConcurrentHashMap<K, V> map) {
+            this.key = key;
+            this.val = val;
+            this.map = map;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return val;
+        }
+
+        public int hashCode() {
+            return key.hashCode() ^ val.hashCode();
+        }
+
+        public String toString() {
+            return key + "=" + val;
+        }
+
+        public boolean equals(Object o) {
+            Object k, v;
+            Entry<?, ?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Entry<?, ?>) o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    (k == key || k.equals(key)) &&
+                    (v == val || v.equals(val)));
+        }
+
+        public V setValue(V value) {
+            if (value == null)
+                throw new NullPointerException();
+            V v = val;
+            val = value;
+            map.put(key, value);
+            return v;
+        }
+    }
+
+    /**
+     * 按桶的下标范围二分切分
+     */
+    static final class MapSpliterator<K, V, T> extends Traverser<K, V>
+            implements Spliterator<T> {
+        final Function<Node<K, V>, T> mapper;
+        final int characteristics;
+        long est;
+
+        MapSpliterator(Node<K, V>[] tab, int index, int limit, long est,
+                       Function<Node<K, V>, T> mapper, int characteristics) {
+            super(tab, index, limit);
+            this.est = est;
+            this.mapper = mapper;
+            this.characteristics = characteristics;
+        }
+
+        public MapSpliterator<K, V, T> trySplit() {
+            int i, f, h;
+            return (h = ((i = baseIndex) + (f = baseLimit)) >>> 1) <= i || next != null ? null :
+                    new MapSpliterator<>(tab, baseLimit = h, f, est >>>= 1, mapper, characteristics);
+        }
+
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (action == null)
+                throw new NullPointerException();
+            for (Node<K, V> p; (p = advance()) != null; )
+                action.accept(mapper.apply(p));
+        }
+
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null)
+                throw new NullPointerException();
+            Node<K, V> p;
+            if ((p = advance()) == null)
+                return false;
+            action.accept(mapper.apply(p));
+            return true;
+        }
+
+        public long estimateSize() {
+            return est;
+        }
+
+        public int characteristics() {
+            return characteristics;
+        }
+    }
+
+    /* ---------------- Views -------------- */
+
+    public Set<K> keySet() {
+        Set<K> ks;
+        return (ks = keySet) != null ? ks : (keySet = new KeySet());
+    }
+
+    public Collection<V> values() {
+        Collection<V> vs;
+        return (vs = values) != null ? vs : (values = new Values());
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        EntrySet es;
+        return (es = entrySet) != null ? es : (entrySet = new EntrySet());
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public int size() {
+            return ConcurrentHashMap.this.size();
+        }
+
+        public void clear() {
+            ConcurrentHashMap.this.clear();
+        }
+
+        public Iterator<K> iterator() {
+            return new KeyIterator<>(table, ConcurrentHashMap.this);
+        }
+
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        public boolean remove(Object o) {
+            return ConcurrentHashMap.this.remove(o) != null;
+        }
+
+        public Spliterator<K> spliterator() {
+            return new MapSpliterator<>(table, 0, -1, mappingCount(), p -> p.key,
+                    Spliterator.DISTINCT | Spliterator.CONCURRENT | Spliterator.NONNULL);
+        }
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public int size() {
+            return ConcurrentHashMap.this.size();
+        }
+
+        public void clear() {
+            ConcurrentHashMap.this.clear();
+        }
+
+        public Iterator<V> iterator() {
+            return new ValueIterator<>(table, ConcurrentHashMap.this);
+        }
+
+        public boolean contains(Object o) {
+            return o != null && containsValue(o);
+        }
+
+        public Spliterator<V> spliterator() {
+            return new MapSpliterator<>(table, 0, -1, mappingCount(), p -> p.value,
+                    Spliterator.CONCURRENT | Spliterator.NONNULL);
+        }
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public int size() {
+            return ConcurrentHashMap.this.size();
+        }
+
+        public void clear() {
+            ConcurrentHashMap.this.clear();
+        }
+
+        public Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator<>(table, ConcurrentHashMap.this);
+        }
+
+        public boolean contains(Object o) {
+            Object k, v, r;
+            Entry<?, ?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Entry<?, ?>) o).getKey()) != null &&
+                    (r = get(k)) != null &&
+                    (v = e.getValue()) != null &&
+                    (v == r || v.equals(r)));
+        }
+
+        public boolean remove(Object o) {
+            Object k, v;
+            Entry<?, ?> e;
+            return ((o instanceof Map.Entry) &&
+                    (k = (e = (Entry<?, ?>) o).getKey()) != null &&
+                    (v = e.getValue()) != null &&
+                    ConcurrentHashMap.this.remove(k, v));
+        }
+
+        public Spliterator<Entry<K, V>> spliterator() {
+            ConcurrentHashMap<K, V> map = ConcurrentHashMap.this;
+            return new MapSpliterator<K, V, Entry<K, V>>(table, 0, -1, mappingCount(),
+                    p -> new MapEntry<>(p.key, p.value, map),
+                    Spliterator.DISTINCT | Spliterator.CONCURRENT | Spliterator.NONNULL);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Serialization
+
+    /**
+     * 依次写出key和value，以两个null结尾
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        Traverser<K, V> it = new Traverser<>(table, 0, -1);
+        for (Node<K, V> p; (p = it.advance()) != null; ) {
+            s.writeObject(p.key);
+            s.writeObject(p.value);
+        }
+        s.writeObject(null);
+        s.writeObject(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        counter = new LongAdder();
+        for (; ; ) {
+            K k = (K) s.readObject();
+            V v = (V) s.readObject();
+            if (k != null && v != null)
+                putVal(k, v, false);
+            else
+                break;
+        }
+    }
+
+    // Unsafe mechanics
+    private static final Unsafe U;
+    private static final long SIZECTL;
+    private static final long TRANSFERINDEX;
+    private static final long ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            U = (Unsafe) f.get(null);
+            Class<?> k = ConcurrentHashMap.class;
+            SIZECTL = U.objectFieldOffset(k.getDeclaredField("sizeCtl"));
+            TRANSFERINDEX = U.objectFieldOffset(k.getDeclaredField("transferIndex"));
+            Class<?> ak = Node[].class;
+            ABASE = U.arrayBaseOffset(ak);
+            int scale = U.arrayIndexScale(ak);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@Slf4j
+public class ConcurrentHashMapTest {
+
+    @Test
+    public void simpleUseTest() {
+        ConcurrentHashMap<String, Integer> map = new ConcurrentHashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        log.info("map: {}", map);
+        Assert.assertEquals(Integer.valueOf(1), map.putIfAbsent("a", 3));
+        Assert.assertTrue(map.replace("b", 2, 4));
+        Assert.assertEquals(Integer.valueOf(4), map.get("b"));
+        Assert.assertEquals(Integer.valueOf(1), map.remove("a"));
+        Assert.assertEquals(1, map.size());
+        try {
+            map.put(null, 1); // 不允许空键
+            Assert.fail();
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    /**
+     * 单线程随机操作，和java.util.HashMap的结果对比，部分key的hash值只有64种，桶中会出现红黑树
+     */
+    @Test
+    public void randomOperationTest() throws Exception {
+        ConcurrentHashMap<Object, Integer> map = new ConcurrentHashMap<>();
+        java.util.HashMap<Object, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 300000; i++) {
+            int id = random.nextInt(20000);
+            Object key = random.nextInt(4) == 0 ? new HashMapTest.CollidingKey(id) : id;
+            switch (random.nextInt(5)) {
+                case 0:
+                    Assert.assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 1:
+                    Assert.assertEquals(expected.get(key), map.get(key));
+                    break;
+                case 2:
+                    Assert.assertEquals(expected.merge(key, 1, Integer::sum), map.merge(key, 1, Integer::sum));
+                    break;
+                default:
+                    Assert.assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected.size(), map.entrySet().parallelStream().count());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(map);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals(expected, in.readObject());
+        }
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    /**
+     * 多个线程同时写入和累加，扩容期间其他线程同时读取和遍历
+     */
+    @Test
+    public void concurrentWriteTest() throws Exception {
+        final int threads = 8, perThread = 50000, counters = 100;
+        ConcurrentHashMap<Object, Integer> map = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    Object key = (i & 7) == 0 ? new HashMapTest.CollidingKey(base + i) : base + i;
+                    map.put(key, i);
+                    map.merge("counter" + (i % counters), 1, Integer::sum);
+                    Assert.assertEquals(Integer.valueOf(i), map.get(key));
+                }
+                return null;
+            }));
+        }
+        Future<?> reader = pool.submit(() -> {
+            start.await();
+            while (map.size() < threads * perThread) {
+                for (Object key : map.keySet())
+                    Assert.assertNotNull(key);
+            }
+            return null;
+        });
+        start.countDown();
+        for (Future<?> f : futures)
+            f.get();
+        reader.get();
+        pool.shutdown();
+
+        Assert.assertEquals(threads * perThread + counters, map.size());
+        int sum = 0;
+        for (int i = 0; i < counters; i++)
+            sum += map.get("counter" + i);
+        Assert.assertEquals(threads * perThread, sum);
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                int id = t * perThread + i;
+                Object key = (i & 7) == 0 ? new HashMapTest.CollidingKey(id) : id;
+                Assert.assertEquals(Integer.valueOf(i), map.get(key));
+            }
+        }
+    }
+
+}
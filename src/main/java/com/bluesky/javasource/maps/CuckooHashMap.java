@@ -0,0 +1,877 @@
+package com.bluesky.javasource.maps;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_INITIAL_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.MAXIMUM_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.hash;
+import static com.bluesky.javasource.maps.HashMap.tableSizeFor;
+
+/**
+ * 要点:
+ * 1. 分桶的布谷鸟哈希：每个桶4个位置，每个key有两个候选桶，只会放在这两个桶中的某一个位置，
+ * 查找最多比较两个桶的8个位置，不会像HashMap那样退化为沿链表或者红黑树查找
+ * 2. 两个候选桶由HashMap.hash()和每个实例的随机种子混合(SeededHash.mix64)得到，64位结果的低32位和高32位分别作为两个hash
+ * 3. 插入时两个桶都满了，随机踢出一个元素放到它的另一个候选桶，被踢出的元素继续这个过程，
+ * 最多踢MAX_KICKS次。失败时如果表已经过半说明容量不够，扩容；否则说明有很多key的候选桶完全相同
+ * (比如hashCode相同的key超过8个)，最后无处可放的元素放进溢出区
+ * 4. 溢出区是一个普通的HashMap，只在存在hashCode完全相同的一批key时才会创建，为空时置为null，
+ * 查找只多一次null判断；扩容时溢出区的元素会重新尝试放回表中
+ * 5. 最大填充率固定为7/8，容量为2^k且不小于8；每个位置保存完整的hash，比较equals之前先比较hash
+ * 6. 允许空键(内部用NULL_KEY代替)和空值，不是线程同步的，迭代器是fail-fast的，删除不会移动其他元素
+ */
+public class CuckooHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    private static final long serialVersionUID = -3024961288346128773L;
+
+    /**
+     * 每个桶的位置数
+     */
+    static final int BUCKET_SIZE = 4;
+
+    /**
+     * 一次插入最多踢出多少个元素
+     */
+    static final int MAX_KICKS = 256;
+
+    /**
+     * 最小容量，两个桶
+     */
+    static final int MIN_CAPACITY = 8;
+
+    /**
+     * 空键在keys数组中的表示
+     */
+    static final Object NULL_KEY = new Object();
+
+    /**
+     * removeEntry没有找到key时的返回值
+     */
+    static final Object NOT_FOUND = new Object();
+
+    /* ---------------- Fields -------------- */
+
+    /**
+     * 位置i的key的hash，位置i属于第i/4个桶。在第一次使用的时候才初始化
+     */
+    transient int[] hashes;
+
+    /**
+     * null表示空位置
+     */
+    transient Object[] keys;
+
+    transient Object[] vals;
+
+    /**
+     * 溢出区，没有元素时为null
+     */
+    transient HashMap<K, V> stash;
+
+    /**
+     * 所有键值对的视图
+     */
+    transient Set<Entry<K, V>> entrySet;
+
+    /**
+     * 元素个数，包括溢出区
+     */
+    transient int size;
+
+    /**
+     * 结构性修改次数
+     */
+    transient int modCount;
+
+    /**
+     * 计算候选桶的种子
+     */
+    transient long seed;
+
+    /**
+     * 选择踢出位置的随机数状态(xorshift)
+     */
+    transient int victimState;
+
+    /**
+     * 数组还没创建时存放的是初始容量，之后是容量的7/8
+     */
+    int threshold;
+
+    /* ---------------- Public operations -------------- */
+
+    public CuckooHashMap(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        this.threshold = tableSizeFor(initialCapacity);
+        initSeed();
+    }
+
+    public CuckooHashMap() {
+        initSeed();
+    }
+
+    public CuckooHashMap(Map<? extends K, ? extends V> m) {
+        initSeed();
+        putMapEntries(m);
+    }
+
+    final void initSeed() {
+        seed = SeededHash.newSeed();
+        victimState = (int) (seed >>> 32) | 1;
+    }
+
+    /**
+     * 预先计算好容量，再逐个插入
+     */
+    final void putMapEntries(Map<? extends K, ? extends V> m) {
+        int s = m.size();
+        if (s > 0) {
+            if (keys == null) { // pre-size
+                long c = (long) s * 8 / 7 + 1;
+                int t = (c < MAXIMUM_CAPACITY) ? (int) c : MAXIMUM_CAPACITY;
+                if (t > threshold)
+                    threshold = tableSizeFor(t);
+            }
+            for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+                K key = e.getKey();
+                putVal(hash(key), key, e.getValue(), false);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int hash = hash(key), i;
+        if ((i = indexOf(hash, maskNull(key))) >= 0)
+            return (V) vals[i];
+        HashMap<K, V> st;
+        return ((st = stash) == null) ? null : st.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        HashMap<K, V> st;
+        return indexOf(hash(key), maskNull(key)) >= 0 ||
+                ((st = stash) != null && st.containsKey(key));
+    }
+
+    static Object maskNull(Object key) {
+        return (key == null) ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key) {
+        return (key == NULL_KEY) ? null : (K) key;
+    }
+
+    /* ---------------- Buckets -------------- */
+
+    /**
+     * 两个候选桶的hash，低32位是第一个，高32位是第二个
+     */
+    final long spread(int hash) {
+        return SeededHash.mix64(hash ^ seed);
+    }
+
+    /**
+     * 候选桶第一个位置的下标
+     */
+    static int bucketStart(int h, int bmask) {
+        return (h & bmask) << 2;
+    }
+
+    /**
+     * 在从start开始的桶中查找key
+     */
+    static int findInBucket(int[] hs, Object[] ks, int start, int hash, Object key) {
+        for (int i = start, end = start + BUCKET_SIZE; i < end; ++i) {
+            Object k;
+            if (hs[i] == hash && ((k = ks[i]) == key || (k != null && key.equals(k))))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 桶中第一个空位置
+     */
+    static int emptyInBucket(Object[] ks, int start) {
+        for (int i = start, end = start + BUCKET_SIZE; i < end; ++i) {
+            if (ks[i] == null)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 在两个候选桶中查找key所在的位置，不存在返回-1，key已经做了maskNull
+     */
+    final int indexOf(int hash, Object key) {
+        Object[] ks;
+        if ((ks = keys) == null)
+            return -1;
+        int[] hs = hashes;
+        int bmask = (ks.length >>> 2) - 1, i;
+        long z = spread(hash);
+        if ((i = findInBucket(hs, ks, bucketStart((int) z, bmask), hash, key)) < 0)
+            i = findInBucket(hs, ks, bucketStart((int) (z >>> 32), bmask), hash, key);
+        return i;
+    }
+
+    /**
+     * 踢出的位置在桶内的下标
+     */
+    final int nextVictim() {
+        int x = victimState;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        victimState = x;
+        return x & (BUCKET_SIZE - 1);
+    }
+
+    /**
+     * 把一个新元素放进表中，返回是否用到了溢出区。key已经做了maskNull
+     */
+    final boolean insert(int hash, Object key, Object value) {
+        int[] hs = hashes;
+        Object[] ks = keys, vs = vals;
+        int bmask = (ks.length >>> 2) - 1, i;
+        long z = spread(hash);
+        int b1 = bucketStart((int) z, bmask), b2 = bucketStart((int) (z >>> 32), bmask);
+        if ((i = emptyInBucket(ks, b1)) < 0 && (i = emptyInBucket(ks, b2)) < 0) {
+            for (int b = b1, kicks = 0; ; ) {
+                // 和桶中随机的一个元素交换，被踢出的元素去它的另一个候选桶
+                i = b + nextVictim();
+                int h = hs[i];
+                Object k = ks[i], v = vs[i];
+                hs[i] = hash;
+                ks[i] = key;
+                vs[i] = value;
+                hash = h;
+                key = k;
+                value = v;
+                z = spread(hash);
+                int a1 = bucketStart((int) z, bmask);
+                b = (a1 == b) ? bucketStart((int) (z >>> 32), bmask) : a1;
+                if ((i = emptyInBucket(ks, b)) >= 0)
+                    break;
+                if (++kicks >= MAX_KICKS) {
+                    stashPut(hash, key, value);
+                    return true;
+                }
+            }
+        }
+        hs[i] = hash;
+        ks[i] = key;
+        vs[i] = value;
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    final void stashPut(int hash, Object key, Object value) {
+        HashMap<K, V> st;
+        if ((st = stash) == null)
+            stash = st = new HashMap<>();
+        st.putVal(hash, unmaskNull(key), (V) value, false, true);
+    }
+
+    public V put(K key, V value) {
+        return putVal(hash(key), key, value, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent) {
+        if (keys == null)
+            resize();
+        Object k = maskNull(key);
+        int i;
+        if ((i = indexOf(hash, k)) >= 0) {
+            V oldValue = (V) vals[i];
+            if (!onlyIfAbsent || oldValue == null)
+                vals[i] = value;
+            return oldValue;
+        }
+        HashMap<K, V> st;
+        if ((st = stash) != null && st.containsKey(key))
+            return st.putVal(hash, key, value, onlyIfAbsent, true);
+        if (size >= threshold)
+            resize();
+        boolean stashed = insert(hash, k, value);
+        ++size;
+        ++modCount;
+        if (stashed && size - stash.size() >= (threshold >>> 1)) // 表已经过半，踢出失败是因为容量不够
+            resize();
+        return null;
+    }
+
+    /**
+     * 初始化或者容量翻倍，表中和溢出区中的元素都重新插入
+     */
+    @SuppressWarnings("unchecked")
+    final void resize() {
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys, oldVals = vals;
+        int oldCap = (oldKeys == null) ? 0 : oldKeys.length, newCap;
+        if (oldCap == 0)
+            newCap = Math.max(MIN_CAPACITY, (threshold > 0) ? threshold : DEFAULT_INITIAL_CAPACITY);
+        else if (oldCap >= MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE; // 不再扩容，放不下的元素进入溢出区
+            return;
+        } else
+            newCap = oldCap << 1;
+        HashMap<K, V> oldStash = stash;
+        hashes = new int[newCap];
+        keys = new Object[newCap];
+        vals = new Object[newCap];
+        stash = null;
+        threshold = newCap - (newCap >>> 3);
+        if (oldKeys != null) {
+            for (int j = 0; j < oldCap; ++j) {
+                Object k;
+                if ((k = oldKeys[j]) != null)
+                    insert(oldHashes[j], k, oldVals[j]);
+            }
+        }
+        if (oldStash != null) {
+            for (Entry<K, V> e : oldStash.entrySet()) {
+                K key = e.getKey();
+                insert(hash(key), maskNull(key), e.getValue());
+            }
+        }
+        ++modCount;
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m) {
+        putMapEntries(m);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        Object v;
+        return ((v = removeEntry(key, null, false)) == NOT_FOUND) ? null : (V) v;
+    }
+
+    /**
+     * 删除key，matchValue为true时只有value也相等才删除。返回旧的value，没有删除返回NOT_FOUND
+     */
+    final Object removeEntry(Object key, Object value, boolean matchValue) {
+        int hash = hash(key), i;
+        if ((i = indexOf(hash, maskNull(key))) >= 0) {
+            Object v = vals[i];
+            if (matchValue && !Objects.equals(v, value))
+                return NOT_FOUND;
+            removeAt(i);
+            return v;
+        }
+        HashMap<K, V> st;
+        HashMap.Node<K, V> e;
+        if ((st = stash) != null && (e = st.getNode(hash, key)) != null) {
+            V v = e.value;
+            if (matchValue && !Objects.equals(v, value))
+                return NOT_FOUND;
+            st.removeNode(hash, key, null, false, true);
+            afterStashRemoval();
+            return v;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * 删除位置i的元素，不移动其他元素
+     */
+    final void removeAt(int i) {
+        hashes[i] = 0;
+        keys[i] = null;
+        vals[i] = null;
+        ++modCount;
+        --size;
+    }
+
+    final void afterStashRemoval() {
+        if (stash.isEmpty())
+            stash = null;
+        ++modCount;
+        --size;
+    }
+
+    public void clear() {
+        modCount++;
+        if (size > 0) {
+            size = 0;
+            Arrays.fill(hashes, 0);
+            Arrays.fill(keys, null);
+            Arrays.fill(vals, null);
+            stash = null;
+        }
+    }
+
+    public boolean containsValue(Object value) {
+        Object[] ks;
+        if ((ks = keys) != null && size > 0) {
+            Object[] vs = vals;
+            for (int i = 0; i < ks.length; ++i) {
+                Object v;
+                if (ks[i] != null && ((v = vs[i]) == value || (value != null && value.equals(v))))
+                    return true;
+            }
+            HashMap<K, V> st;
+            return (st = stash) != null && st.containsValue(value);
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    // views
+
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        if (ks == null) {
+            ks = new KeySet();
+            keySet = ks;
+        }
+        return ks;
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            CuckooHashMap.this.clear();
+        }
+
+        public final Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        public final boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        public final boolean remove(Object key) {
+            return removeEntry(key, null, false) != NOT_FOUND;
+        }
+
+        public final void forEach(Consumer<? super K> action) {
+            if (action == null)
+                throw new NullPointerException();
+            CuckooHashMap.this.forEach((k, v) -> action.accept(k));
+        }
+    }
+
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        if (vs == null) {
+            vs = new Values();
+            values = vs;
+        }
+        return vs;
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            CuckooHashMap.this.clear();
+        }
+
+        public final Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        public final boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        public final void forEach(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            CuckooHashMap.this.forEach((k, v) -> action.accept(v));
+        }
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            CuckooHashMap.this.clear();
+        }
+
+        public final Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object key = e.getKey();
+            return containsKey(key) && Objects.equals(get(key), e.getValue());
+        }
+
+        public final boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                return removeEntry(e.getKey(), e.getValue(), true) != NOT_FOUND;
+            }
+            return false;
+        }
+
+        public final void forEach(Consumer<? super Entry<K, V>> action) {
+            if (action == null)
+                throw new NullPointerException();
+            CuckooHashMap.this.forEach((k, v) -> action.accept(new MapEntry(k, v)));
+        }
+    }
+
+    // Overrides of JDK8 Map extension methods
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        int hash = hash(key), i;
+        if ((i = indexOf(hash, maskNull(key))) >= 0)
+            return (V) vals[i];
+        HashMap<K, V> st;
+        return ((st = stash) == null) ? defaultValue : st.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(hash(key), key, value, true);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return removeEntry(key, value, true) != NOT_FOUND;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        int i;
+        if ((i = indexOf(hash(key), maskNull(key))) >= 0) {
+            if (Objects.equals(vals[i], oldValue)) {
+                vals[i] = newValue;
+                return true;
+            }
+            return false;
+        }
+        HashMap<K, V> st;
+        return (st = stash) != null && st.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V replace(K key, V value) {
+        int i;
+        if ((i = indexOf(hash(key), maskNull(key))) >= 0) {
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+        HashMap<K, V> st;
+        return ((st = stash) == null) ? null : st.replace(key, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        Object[] ks;
+        if (size > 0 && (ks = keys) != null) {
+            Object[] vs = vals;
+            int mc = modCount;
+            for (int i = 0; i < ks.length; ++i) {
+                Object k;
+                if ((k = ks[i]) != null)
+                    action.accept(unmaskNull(k), (V) vs[i]);
+            }
+            HashMap<K, V> st;
+            if ((st = stash) != null)
+                st.forEach(action);
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        if (function == null)
+            throw new NullPointerException();
+        Object[] ks;
+        if (size > 0 && (ks = keys) != null) {
+            Object[] vs = vals;
+            int mc = modCount;
+            for (int i = 0; i < ks.length; ++i) {
+                Object k;
+                if ((k = ks[i]) != null)
+                    vs[i] = function.apply(unmaskNull(k), (V) vs[i]);
+            }
+            HashMap<K, V> st;
+            if ((st = stash) != null)
+                st.replaceAll(function);
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    /**
+     * 浅拷贝，直接复制数组，种子相同所以不需要重新插入
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone() {
+        CuckooHashMap<K, V> result;
+        try {
+            result = (CuckooHashMap<K, V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        result.entrySet = null;
+        result.keySet = null;
+        result.values = null;
+        result.modCount = 0;
+        if (keys != null) {
+            result.hashes = hashes.clone();
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+        }
+        if (stash != null)
+            result.stash = (HashMap<K, V>) stash.clone();
+        return result;
+    }
+
+    final int capacity() {
+        return (keys != null) ? keys.length :
+                (threshold > 0) ? threshold :
+                        DEFAULT_INITIAL_CAPACITY;
+    }
+
+    /**
+     * 序列化，格式和HashMap一致：容量、元素个数、依次写出key和value
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException {
+        int buckets = capacity();
+        s.defaultWriteObject();
+        s.writeInt(buckets);
+        s.writeInt(size);
+        if (size > 0) {
+            Object[] ks = keys, vs = vals;
+            for (int i = 0; i < ks.length; ++i) {
+                Object k;
+                if ((k = ks[i]) != null) {
+                    s.writeObject(unmaskNull(k));
+                    s.writeObject(vs[i]);
+                }
+            }
+            HashMap<K, V> st;
+            if ((st = stash) != null) {
+                for (Entry<K, V> e : st.entrySet()) {
+                    s.writeObject(e.getKey());
+                    s.writeObject(e.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * 反序列化，种子重新生成，根据元素个数计算好容量，再逐个插入
+     */
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        hashes = null;
+        keys = vals = null;
+        stash = null;
+        initSeed();
+        s.readInt();                // Read and ignore number of buckets
+        int mappings = s.readInt(); // Read number of mappings (size)
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        long c = (long) mappings * 8 / 7 + 1;
+        threshold = (c >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : tableSizeFor((int) c);
+        for (int i = 0; i < mappings; i++) {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            putVal(hash(key), key, value, false);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    /**
+     * 先按下标遍历表，再遍历溢出区。删除只清空位置，不会移动其他元素
+     */
+    abstract class HashIterator {
+        int index;                      // 表中下一个要检查的位置
+        int lastIndex = -1;             // 上一次返回的表中位置
+        Iterator<Entry<K, V>> stashIt;  // 遍历到溢出区时不为null
+        Entry<K, V> stashEntry;         // 上一次返回的溢出区元素
+        int remaining;                  // 还没有返回的元素个数
+        int expectedModCount;           // for fast-fail
+
+        HashIterator() {
+            expectedModCount = modCount;
+            remaining = size;
+        }
+
+        public final boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * 返回表中下一个元素的位置，表中已经遍历完返回-1，此时stashEntry是下一个溢出区的元素
+         */
+        final int nextIndex() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (remaining <= 0)
+                throw new NoSuchElementException();
+            --remaining;
+            lastIndex = -1;
+            stashEntry = null;
+            if (stashIt == null) {
+                Object[] ks = keys;
+                for (int i = index; ks != null && i < ks.length; ++i) {
+                    if (ks[i] != null) {
+                        index = i + 1;
+                        return lastIndex = i;
+                    }
+                }
+                index = (ks == null) ? 0 : ks.length;
+                stashIt = stash.entrySet().iterator();
+            }
+            stashEntry = stashIt.next();
+            return -1;
+        }
+
+        public final void remove() {
+            if (lastIndex < 0 && stashEntry == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (lastIndex >= 0) {
+                removeAt(lastIndex);
+                lastIndex = -1;
+            } else {
+                stashIt.remove();
+                stashEntry = null;
+                afterStashRemoval();
+            }
+            expectedModCount = modCount;
+        }
+    }
+
+    final class KeyIterator extends HashIterator
+            implements Iterator<K> {
+        public final K next() {
+            int i = nextIndex();
+            return (i >= 0) ? unmaskNull(keys[i]) : stashEntry.getKey();
+        }
+    }
+
+    final class ValueIterator extends HashIterator
+            implements Iterator<V> {
+        @SuppressWarnings("unchecked")
+        public final V next() {
+            int i = nextIndex();
+            return (i >= 0) ? (V) vals[i] : stashEntry.getValue();
+        }
+    }
+
+    final class EntryIterator extends HashIterator
+            implements Iterator<Entry<K, V>> {
+        @SuppressWarnings("unchecked")
+        public final Entry<K, V> next() {
+            int i = nextIndex();
+            return (i >= 0) ? new MapEntry(unmaskNull(keys[i]), (V) vals[i]) : stashEntry;
+        }
+    }
+
+    /**
+     * 表中没有Node对象，entry视图返回的是临时创建的Entry，setValue会写回哈希表
+     */
+    final class MapEntry implements Entry<K, V> {
+        final K key;
+        V value;
+
+        MapEntry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public final K getKey() {
+            return key;
+        }
+
+        public final V getValue() {
+            return value;
+        }
+
+        public final V setValue(V newValue) {
+            V oldValue = value;
+            value = newValue;
+            replace(key, newValue);
+            return oldValue;
+        }
+
+        public final String toString() {
+            return key + "=" + value;
+        }
+
+        public final int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public final boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+@Slf4j
+public class CuckooHashMapTest {
+
+    @Test
+    public void simpleUseTest() {
+        CuckooHashMap<String, Integer> map = new CuckooHashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put(null, 3); // 允许空键
+        log.info("map: {}", map);
+        Assert.assertEquals(Integer.valueOf(3), map.get(null));
+        Assert.assertTrue(map.containsKey(null));
+        Assert.assertEquals(Integer.valueOf(1), map.remove("a"));
+        Assert.assertNull(map.remove("a"));
+        Assert.assertEquals(2, map.size());
+        Assert.assertTrue(map.keySet().contains(null));
+        Assert.assertEquals(Integer.valueOf(2), map.putIfAbsent("b", 5));
+        Assert.assertFalse(map.remove("b", 5));
+        Assert.assertTrue(map.replace("b", 2, 6));
+        Assert.assertEquals(Integer.valueOf(6), map.get("b"));
+    }
+
+    /**
+     * 随机操作，和java.util.HashMap的结果对比
+     */
+    @Test
+    public void randomOperationTest() {
+        CuckooHashMap<Integer, Integer> map = new CuckooHashMap<>();
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 300000; i++) {
+            int key = random.nextInt(20000);
+            if (random.nextInt(3) == 0)
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            else
+                Assert.assertEquals(expected.put(key, i), map.put(key, i));
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(map, expected);
+        Assert.assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    /**
+     * 不同hashCode的key在7/8的填充率下都能放进表中，不用溢出区
+     */
+    @Test
+    public void highLoadTest() {
+        CuckooHashMap<Integer, Integer> map = new CuckooHashMap<>(1 << 16);
+        int n = (1 << 16) - (1 << 13); // 正好到阈值，不扩容
+        for (int i = 0; i < n; i++)
+            map.put(i * 31, i);
+        Assert.assertEquals(1 << 16, map.capacity());
+        Assert.assertNull(map.stash);
+        for (int i = 0; i < n; i++)
+            Assert.assertEquals(Integer.valueOf(i), map.get(i * 31));
+        Assert.assertNull(map.get(-1));
+    }
+
+    /**
+     * hashCode相同的key超过两个桶的容量，多出来的进入溢出区，删除后溢出区置空
+     */
+    @Test
+    public void collisionTest() {
+        CuckooHashMap<Object, Integer> map = new CuckooHashMap<>();
+        java.util.HashMap<Object, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            HashMapTest.CollidingKey key = new HashMapTest.CollidingKey(i); // 只有64种hashCode
+            Assert.assertEquals(expected.put(key, i), map.put(key, i));
+        }
+        Assert.assertNotNull(map.stash);
+        Assert.assertTrue(map.capacity() <= 2048); // 冲突不会导致无限扩容
+        Assert.assertEquals(expected, map);
+        for (int i = 0; i < 1000; i++)
+            Assert.assertEquals(Integer.valueOf(i), map.get(new HashMapTest.CollidingKey(i)));
+        for (int i = 0; i < 1000; i++)
+            Assert.assertEquals(Integer.valueOf(i), map.remove(new HashMapTest.CollidingKey(i)));
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.stash);
+    }
+
+    /**
+     * 迭代器同时遍历表和溢出区，迭代时删除、修改value
+     */
+    @Test
+    public void iteratorTest() {
+        CuckooHashMap<Object, Integer> map = new CuckooHashMap<>();
+        java.util.HashMap<Object, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            map.put(new HashMapTest.CollidingKey(i), i);
+            map.put(i, i);
+        }
+        for (Iterator<Map.Entry<Object, Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Object, Integer> e = it.next();
+            if (e.getValue() % 3 == 0)
+                it.remove();
+            else {
+                expected.put(e.getKey(), -e.getValue());
+                e.setValue(-e.getValue());
+            }
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected.keySet(), map.keySet());
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertFalse(map.keySet().iterator().hasNext());
+    }
+
+    @Test
+    public void cloneAndSerializeTest() throws IOException, ClassNotFoundException {
+        CuckooHashMap<Object, Integer> map = new CuckooHashMap<>();
+        for (int i = 0; i < 300; i++) {
+            map.put("key" + i, i);
+            map.put(new HashMapTest.CollidingKey(i), i);
+        }
+        map.put(null, -1);
+        @SuppressWarnings("unchecked")
+        CuckooHashMap<Object, Integer> clone = (CuckooHashMap<Object, Integer>) map.clone();
+        clone.remove("key0");
+        Assert.assertEquals(Integer.valueOf(0), map.get("key0"));
+        Assert.assertEquals(map.size() - 1, clone.size());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(map);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            Object copy = ois.readObject();
+            Assert.assertEquals(map, copy);
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package com.bluesky.javasource.maps;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import static com.bluesky.javasource.maps.SeededHash.mix64;
+
+/**
+ * 不可变的map，用最小完美哈希(CHD: compress, hash and displace)把n个key一一映射到[0, n)，通过copyOf或者HashMap.freeze()创建
+ * 要点:
+ * 1. 构建时把key按hash分到约n/LAMBDA个bucket中，从大到小依次为每个bucket找一个位移d，使bucket中所有key
+ * 按d计算出的位置都没有被占用；只有一个key的bucket最后处理，直接记录剩下的空位置(存为负数)
+ * 2. 查找时计算bucket，读出它的位移，得到唯一的位置，比较一次hash和一次equals，没有链表、红黑树和探测
+ * 3. key、value、hashCode存放在三个长度为n的平行数组中，每个bucket额外一个int，压缩指针下每个键值对约13字节
+ * 4. 完美哈希只能区分hashCode不同的key，hashCode和已有key相同的key放在数组末尾的溢出区，按hashCode排序；
+ * 查找的key的hashCode命中了一个位置但equals不成立时，二分查找溢出区中hashCode相同的一段。
+ * 这一段的key是同一个Comparable类时按compareTo排序再二分查找(同HashMap的红黑树桶)，否则顺序扫描这一段
+ * 5. 位移搜索失败(极少发生)时换一个种子重新构建，种子序列是固定的，相同的输入得到相同的布局和迭代顺序
+ * 6. 所有修改方法抛出UnsupportedOperationException，可以直接替换Collections.unmodifiableMap包装的HashMap；
+ * 允许空键和空值，本身是线程安全的
+ */
+public final class FrozenHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Serializable {
+
+    private static final long serialVersionUID = -6270582471025870371L;
+
+    /**
+     * 平均每个bucket的key数
+     */
+    static final int LAMBDA = 4;
+
+    /**
+     * 每个bucket最多尝试的位移数，超过后换种子
+     */
+    static final int MAX_DISPLACEMENT = 1 << 16;
+
+    /**
+     * 最多尝试的种子数
+     */
+    static final int MAX_ATTEMPTS = 64;
+
+    /* ---------------- Fields -------------- */
+
+    /**
+     * 每个slot的key，[0, n)由完美哈希定位，[n, keys.length)是溢出区
+     */
+    transient Object[] keys;
+
+    transient Object[] vals;
+
+    /**
+     * 每个slot的key的hashCode，null为0
+     */
+    transient int[] hashes;
+
+    /**
+     * 每个bucket的位移，负数表示直接存放的位置 -(slot+1)
+     */
+    transient int[] disp;
+
+    /**
+     * 完美哈希覆盖的slot数
+     */
+    transient int n;
+
+    /**
+     * 溢出区中按compareTo排序的段，记录在段的起始slot上
+     */
+    transient BitSet sortedRuns;
+
+    transient long seed;
+
+    transient Set<Entry<K, V>> entrySet;
+
+    /* ---------------- Construction -------------- */
+
+    private FrozenHashMap() {
+    }
+
+    /**
+     * 复制map中的所有键值对
+     */
+    public static <K, V> FrozenHashMap<K, V> copyOf(Map<? extends K, ? extends V> m) {
+        if (m instanceof FrozenHashMap) {
+            @SuppressWarnings("unchecked")
+            FrozenHashMap<K, V> f = (FrozenHashMap<K, V>) m;
+            return f;
+        }
+        int size = m.size(), i = 0;
+        Object[] ks = new Object[size], vs = new Object[size];
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            ks[i] = e.getKey();
+            vs[i++] = e.getValue();
+        }
+        if (i != size)
+            throw new ConcurrentModificationException();
+        FrozenHashMap<K, V> f = new FrozenHashMap<>();
+        f.build(ks, vs);
+        return f;
+    }
+
+    /**
+     * 构建完美哈希，ks中的key互不相等
+     */
+    private void build(Object[] ks, Object[] vs) {
+        int size = ks.length;
+        int[] hs = new int[size];
+        for (int i = 0; i < size; ++i)
+            hs[i] = Objects.hashCode(ks[i]);
+        // 按(hashCode, 下标)排序，hashCode重复的key(除第一个外)移到末尾作为溢出区
+        long[] byHash = new long[size];
+        for (int i = 0; i < size; ++i)
+            byHash[i] = ((long) hs[i] << 32) | i;
+        Arrays.sort(byHash);
+        int[] unique = new int[size], dups = new int[size];
+        int u = 0, o = 0;
+        for (int j = 0; j < size; ++j) {
+            int i = (int) byHash[j];
+            if (j > 0 && (byHash[j - 1] >> 32) == (byHash[j] >> 32))
+                dups[o++] = i;
+            else
+                unique[u++] = i;
+        }
+        int[] slots = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS && slots == null; ++attempt) {
+            seed = mix64(attempt + 0x9E3779B97F4A7C15L);
+            slots = place(hs, unique, u);
+        }
+        if (slots == null)
+            throw new IllegalStateException("Failed to build perfect hash for " + size + " keys");
+        n = u;
+        keys = new Object[size];
+        vals = new Object[size];
+        hashes = new int[size];
+        for (int j = 0; j < u; ++j) {
+            int i = unique[j], s = slots[j];
+            keys[s] = ks[i];
+            vals[s] = vs[i];
+            hashes[s] = hs[i];
+        }
+        sortedRuns = new BitSet();
+        for (int lo = 0, hi; lo < o; lo = hi) { // hashCode相同的一段
+            hi = lo + 1;
+            while (hi < o && hs[dups[hi]] == hs[dups[lo]])
+                ++hi;
+            if (sortRun(ks, dups, lo, hi))
+                sortedRuns.set(u + lo);
+        }
+        for (int j = 0; j < o; ++j) {
+            int i = dups[j], s = u + j;
+            keys[s] = ks[i];
+            vals[s] = vs[i];
+            hashes[s] = hs[i];
+        }
+    }
+
+    /**
+     * dups[lo, hi)中的key是同一个Comparable类时按compareTo排序，返回是否排序了
+     */
+    private static boolean sortRun(Object[] ks, int[] dups, int lo, int hi) {
+        Class<?> kc = HashMap.comparableClassFor(ks[dups[lo]]);
+        if (kc == null || hi - lo < 2)
+            return false;
+        Integer[] run = new Integer[hi - lo];
+        for (int j = lo; j < hi; ++j) {
+            if (ks[dups[j]].getClass() != kc)
+                return false;
+            run[j - lo] = dups[j];
+        }
+        Arrays.sort(run, (a, b) -> HashMap.compareComparables(kc, ks[a], ks[b]));
+        for (int j = lo; j < hi; ++j)
+            dups[j] = run[j - lo];
+        return true;
+    }
+
+    /**
+     * 用当前的种子为unique中的前u个key分配位置，成功时设置disp并返回每个key的位置，失败返回null
+     */
+    private int[] place(int[] hs, int[] unique, int u) {
+        int r = bucketsFor(u);
+        long[] h = new long[u];
+        int[] bucketOf = new int[u], start = new int[r + 1];
+        for (int j = 0; j < u; ++j) {
+            h[j] = mix64((hs[unique[j]] & 0xFFFFFFFFL) ^ seed);
+            bucketOf[j] = reduce(h[j], r);
+            ++start[bucketOf[j] + 1];
+        }
+        for (int b = 0; b < r; ++b) // 前缀和，bucket b的成员在members[start[b], start[b+1])
+            start[b + 1] += start[b];
+        int[] members = new int[u], fill = Arrays.copyOf(start, r);
+        int maxSize = 0;
+        for (int j = 0; j < u; ++j)
+            members[fill[bucketOf[j]]++] = j;
+        for (int b = 0; b < r; ++b)
+            maxSize = Math.max(maxSize, start[b + 1] - start[b]);
+        // 按bucket大小从大到小排序(计数排序)
+        int[] bySize = new int[maxSize + 2];
+        for (int b = 0; b < r; ++b)
+            ++bySize[maxSize - (start[b + 1] - start[b]) + 1];
+        for (int i = 0; i <= maxSize; ++i)
+            bySize[i + 1] += bySize[i];
+        int[] order = new int[r];
+        for (int b = 0; b < r; ++b)
+            order[bySize[maxSize - (start[b + 1] - start[b])]++] = b;
+
+        int[] d = new int[r], slots = new int[u], tmp = new int[maxSize];
+        boolean[] taken = new boolean[u];
+        int k = 0;
+        for (; k < r; ++k) {
+            int b = order[k], lo = start[b], len = start[b + 1] - lo;
+            if (len <= 1)
+                break;
+            int dv = 0;
+            search:
+            for (; ; ++dv) {
+                if (dv == MAX_DISPLACEMENT)
+                    return null;
+                for (int i = 0; i < len; ++i) {
+                    int s = slot(h[members[lo + i]], dv, u);
+                    if (taken[s])
+                        continue search;
+                    for (int p = 0; p < i; ++p) {
+                        if (tmp[p] == s)
+                            continue search;
+                    }
+                    tmp[i] = s;
+                }
+                break;
+            }
+            d[b] = dv;
+            for (int i = 0; i < len; ++i) {
+                taken[tmp[i]] = true;
+                slots[members[lo + i]] = tmp[i];
+            }
+        }
+        // 只有一个key的bucket直接放到空位置上
+        for (int free = 0; k < r; ++k) {
+            int b = order[k];
+            if (start[b + 1] == start[b])
+                break; // 后面都是空bucket
+            while (taken[free])
+                ++free;
+            taken[free] = true;
+            slots[members[start[b]]] = free;
+            d[b] = -(free + 1);
+        }
+        disp = d;
+        return slots;
+    }
+
+    static int bucketsFor(int n) {
+        return Math.max(1, (n + LAMBDA - 1) / LAMBDA);
+    }
+
+    /**
+     * 用h的高32位把h映射到[0, r)，不需要取余
+     */
+    static int reduce(long h, int r) {
+        return (int) (((h >>> 32) * r) >>> 32);
+    }
+
+    /**
+     * 位移d下h的位置，乘法把低位的差异扩散到高位
+     */
+    static int slot(long h, int d, int n) {
+        return reduce((h ^ (d * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL, n);
+    }
+
+    /* ---------------- Lookup -------------- */
+
+    /**
+     * 查找key所在的slot，不存在返回-1
+     */
+    final int indexOf(Object key) {
+        int u, s, hc = Objects.hashCode(key);
+        if ((u = n) == 0)
+            return -1;
+        long h = mix64((hc & 0xFFFFFFFFL) ^ seed);
+        int d = disp[reduce(h, disp.length)];
+        s = (d < 0) ? -d - 1 : slot(h, d, u);
+        if (hashes[s] != hc)
+            return -1;
+        Object k = keys[s];
+        if (k == key || (key != null && key.equals(k)))
+            return s;
+        return (u == keys.length) ? -1 : overflowIndexOf(key, hc);
+    }
+
+    /**
+     * 在溢出区中查找，先二分找到hashCode为hc的一段[lo, hi)，再在段中二分查找或者顺序扫描
+     */
+    final int overflowIndexOf(Object key, int hc) {
+        int[] hs = hashes;
+        int lo = n, hi = hs.length;
+        while (lo < hi) { // 第一个>= hc的位置
+            int mid = (lo + hi) >>> 1;
+            if (hs[mid] < hc)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        if (lo == hs.length || hs[lo] != hc)
+            return -1;
+        hi = hs.length;
+        for (int l = lo; l < hi; ) { // 第一个> hc的位置
+            int mid = (l + hi) >>> 1;
+            if (hs[mid] <= hc)
+                l = mid + 1;
+            else
+                hi = mid;
+        }
+        Object k;
+        Class<?> kc;
+        if (sortedRuns.get(lo) && (kc = HashMap.comparableClassFor(key)) != null && keys[lo].getClass() == kc) {
+            int l = lo, h = hi - 1;
+            while (l <= h) {
+                int mid = (l + h) >>> 1, dir = HashMap.compareComparables(kc, key, k = keys[mid]);
+                if (dir < 0)
+                    h = mid - 1;
+                else if (dir > 0)
+                    l = mid + 1;
+                else if (key.equals(k))
+                    return mid;
+                else
+                    break; // compareTo和equals不一致，顺序扫描
+            }
+            if (l > h)
+                return -1;
+        }
+        for (int i = lo; i < hi; ++i) {
+            if ((k = keys[i]) == key || (key != null && key.equals(k)))
+                return i;
+        }
+        return -1;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i;
+        return (i = indexOf(key)) < 0 ? null : (V) vals[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        int i;
+        return (i = indexOf(key)) < 0 ? defaultValue : (V) vals[i];
+    }
+
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    public boolean containsValue(Object value) {
+        for (Object v : vals) {
+            if (v == value || (value != null && value.equals(v)))
+                return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        Object[] ks = keys, vs = vals;
+        for (int i = 0; i < ks.length; ++i)
+            action.accept((K) ks[i], (V) vs[i]);
+    }
+
+    /* ---------------- Unsupported modifications -------------- */
+
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* ---------------- Views -------------- */
+
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public int size() {
+            return keys.length;
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            int i;
+            return (i = indexOf(e.getKey())) >= 0 && Objects.equals(vals[i], e.getValue());
+        }
+
+        @SuppressWarnings("unchecked")
+        public Iterator<Entry<K, V>> iterator() {
+            return new Iterator<Entry<K, V>>() {
+                int index;
+
+                public boolean hasNext() {
+                    return index < keys.length;
+                }
+
+                public Entry<K, V> next() {
+                    int i = index;
+                    if (i >= keys.length)
+                        throw new NoSuchElementException();
+                    index = i + 1;
+                    return new SimpleImmutableEntry<>((K) keys[i], (V) vals[i]);
+                }
+            };
+        }
+    }
+
+    /* ---------------- Serialization -------------- */
+
+    /**
+     * 序列化，格式和HashMap一致：容量、元素个数、依次写出key和value，哈希结构在反序列化时重新构建
+     */
+    private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+        s.defaultWriteObject();
+        s.writeInt(keys.length);
+        s.writeInt(keys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            s.writeObject(keys[i]);
+            s.writeObject(vals[i]);
+        }
+    }
+
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        s.readInt();                // Read and ignore number of buckets
+        int mappings = s.readInt(); // Read number of mappings (size)
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        Object[] ks = new Object[mappings], vs = new Object[mappings];
+        for (int i = 0; i < mappings; i++) {
+            ks[i] = s.readObject();
+            vs[i] = s.readObject();
+        }
+        build(ks, vs);
+    }
+}
@@ -0,0 +1,154 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Map;
+
+@Slf4j
+public class FrozenHashMapTest {
+
+    @Test
+    public void freezeTest() {
+        HashMap<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < 100000; i++)
+            map.put("route" + i, i);
+        map.put(null, -1);
+        long start = System.nanoTime();
+        FrozenHashMap<String, Integer> frozen = map.freeze();
+        log.info("build: {} ms", (System.nanoTime() - start) / 1000000);
+        Assert.assertEquals(map.size(), frozen.size());
+        Assert.assertEquals(frozen.size(), frozen.n); // 没有hashCode重复的key
+        for (int i = 0; i < 100000; i++)
+            Assert.assertEquals(Integer.valueOf(i), frozen.get("route" + i));
+        Assert.assertEquals(Integer.valueOf(-1), frozen.get(null));
+        Assert.assertNull(frozen.get("missing"));
+        Assert.assertFalse(frozen.containsKey("route100000"));
+        Assert.assertEquals(map, frozen);
+        Assert.assertEquals(frozen, map);
+        Assert.assertEquals(map.hashCode(), frozen.hashCode());
+        Assert.assertTrue(frozen.disp.length <= (map.size() + 3) / 4);
+
+        map.put("route0", 0); // 之后的修改不影响
+        map.remove("route1");
+        Assert.assertEquals(Integer.valueOf(1), frozen.get("route1"));
+    }
+
+    /**
+     * hashCode相同的key放在溢出区
+     */
+    @Test
+    public void duplicateHashCodeTest() {
+        java.util.HashMap<Object, String> map = new java.util.HashMap<>();
+        for (int i = 0; i < 1000; i++)
+            map.put(new HashMapTest.CollidingKey(i), "v" + i); // 只有64种hashCode
+        map.put("Aa", "a");
+        map.put("BB", "b");
+        FrozenHashMap<Object, String> frozen = FrozenHashMap.copyOf(map);
+        Assert.assertEquals(64 + 1, frozen.n);
+        for (int i = 0; i < 1000; i++)
+            Assert.assertEquals("v" + i, frozen.get(new HashMapTest.CollidingKey(i)));
+        Assert.assertNull(frozen.get(new HashMapTest.CollidingKey(1000)));
+        Assert.assertEquals("a", frozen.get("Aa"));
+        Assert.assertEquals("b", frozen.get("BB"));
+        Assert.assertEquals(map, frozen);
+    }
+
+    /**
+     * 大量hashCode相同的Comparable key，溢出区中按compareTo二分查找，每次查找的比较次数是对数级别的；
+     * 混入其他类的key的段退回顺序扫描
+     */
+    @Test
+    public void collidingComparableTest() {
+        java.util.HashMap<Object, Integer> map = new java.util.HashMap<>();
+        for (int i = 0; i < 20000; i++)
+            map.put(new CountingKey(i), i); // 只有64种hashCode
+        map.put(new HashMapTest.CollidingKey(0), -1); // 和CountingKey(0)的hashCode相同
+        FrozenHashMap<Object, Integer> frozen = FrozenHashMap.copyOf(map);
+        Assert.assertEquals(map, frozen);
+        CountingKey.comparisons = 0;
+        for (int i = 1; i < 20000; i++) {
+            if ((i & 0x3F) != 0)
+                Assert.assertEquals(Integer.valueOf(i), frozen.get(new CountingKey(i)));
+        }
+        Assert.assertNull(frozen.get(new CountingKey(20001)));
+        Assert.assertTrue(CountingKey.comparisons < 20000 * 20);
+        Assert.assertEquals(Integer.valueOf(0), frozen.get(new CountingKey(0)));
+        Assert.assertEquals(Integer.valueOf(-1), frozen.get(new HashMapTest.CollidingKey(0)));
+        Assert.assertEquals(Integer.valueOf(19968), frozen.get(new CountingKey(19968)));
+    }
+
+    @Test
+    public void emptyAndSmallTest() {
+        FrozenHashMap<String, String> empty = new HashMap<String, String>().freeze();
+        Assert.assertTrue(empty.isEmpty());
+        Assert.assertNull(empty.get("a"));
+        Assert.assertFalse(empty.entrySet().iterator().hasNext());
+        for (int n = 1; n < 50; n++) {
+            HashMap<Integer, Integer> map = new HashMap<>();
+            for (int i = 0; i < n; i++)
+                map.put(i * 7919, i);
+            FrozenHashMap<Integer, Integer> frozen = map.freeze();
+            Assert.assertEquals(map, frozen);
+            Assert.assertNull(frozen.get(-1));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutableTest() {
+        HashMap<String, String> map = new HashMap<>();
+        map.put("a", "b");
+        Map<String, String> frozen = map.freeze();
+        frozen.computeIfAbsent("c", k -> "d");
+    }
+
+    @Test
+    public void serializeTest() throws IOException, ClassNotFoundException {
+        HashMap<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < 1000; i++)
+            map.put("key" + i, i);
+        FrozenHashMap<String, Integer> frozen = map.freeze();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(frozen);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            @SuppressWarnings("unchecked")
+            FrozenHashMap<String, Integer> copy = (FrozenHashMap<String, Integer>) ois.readObject();
+            Assert.assertEquals(frozen, copy);
+            Assert.assertEquals(Integer.valueOf(999), copy.get("key999"));
+        }
+    }
+
+    /**
+     * 和HashMapTest.CollidingKey一样只有64种hashCode，记录equals和compareTo的调用次数
+     */
+    static class CountingKey implements Comparable<CountingKey> {
+        static long comparisons;
+
+        final int id;
+
+        CountingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id & 0x3F;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            ++comparisons;
+            return o instanceof CountingKey && ((CountingKey) o).id == id;
+        }
+
+        @Override
+        public int compareTo(CountingKey o) {
+            ++comparisons;
+            return Integer.compare(id, o.id);
+        }
+    }
+}
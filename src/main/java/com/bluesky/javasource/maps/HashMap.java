@@ -1,15 +1,17 @@
 package com.bluesky.javasource.maps;
 
+import com.bluesky.javasource.MemoryLayout;
+
 import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.io.Serializable;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
-import java.util.function.BiConsumer;
-import java.util.function.BiFunction;
-import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.*;
 
 import sun.misc.SharedSecrets;
 
@@ -25,6 +27,31 @@ import sun.misc.SharedSecrets;
  * 6. 虽然使用到红黑树，但是并不需要存放的Key实现比较的接口，它是根据hash值比较大小，如果hash值相同，才会调用
  * 对象的比较函数，如果对象不可比较，实际上比较的是对象的类名字
  * 7. 链表的插入方式从JDK7的头插法转化为尾插法，可能是因为头插法在并发环境下扩容会导致链表成环
+ * 8. 可以通过setIncrementalResize(true)开启增量扩容，扩容时新旧两个数组同时存在，之后每次get/put/remove
+ * 迁移访问的key所在的桶以及若干个顺序的桶，把一次性rehash的开销分摊到后续操作上，需要遍历整个表时才一次迁移完
+ * 9. 可以通过setSeededHash(true)使用带随机种子的hash(见SeededHash)，防止构造大量冲突的key攻击，
+ * 每个实例的种子不同，反序列化时重新生成
+ * 10. forEach/search/reduce等带parallelismThreshold参数的批量操作，用fork-join按桶数组的下标范围并行执行，
+ * 同ConcurrentHashMap，但执行期间不能修改map
+ * 11. 可以通过setStatsEnabled(true)开启运行时统计(见HashMapStats)，记录扩容、树化的次数和耗时，默认关闭
+ * 12. 默认只扩容不缩容，trimToSize()把桶数组缩小到刚好能容纳当前元素的容量；setAutoShrink(true)后，
+ * 删除使元素个数低于扩容阈值的1/4时自动缩容，缩容后的阈值不小于元素个数的2倍，增删交替时不会反复扩容缩容
+ * 13. 构建完成后只读的map可以通过freeze()转换为FrozenHashMap，用最小完美哈希定位，每次查找只访问一个位置
+ * 14. getAll/putAll(K[], V[])批量查找和插入。getAll分轮执行：算出所有hash，读取所有桶的第一个节点，再在桶中查找，
+ * 同一轮中的cache miss互不依赖，可以重叠；putAll一次预先扩容到位
+ * 15. get(hash, probe, KeyEquivalence)用另一种类型的对象查找key，比如用ByteSlice直接在网络缓冲区上查找String类型的key，
+ * 不需要构造String；hash是key的hashCode()，和具体的map无关，查找多个map时只需计算一次
+ * 16. estimatedFootprintBytes估计占用的内存(桶数组、节点，可选key和value)，按当前JVM是否压缩指针计算(见MemoryLayout)，
+ * 和trimToSize之后的值比较可以发现过于稀疏的桶数组
+ * 17. clone逐个桶复制节点，复用缓存的hash和红黑树的形状，不重新插入；LinkedHashMap按before/after顺序一次遍历重建两种链表
+ * 18. setParallelResize(true)后，旧容量不小于PARALLEL_RESIZE_MIN_CAPACITY的扩容把旧数组按下标范围分给fork-join任务，
+ * 在公共池中并行拆分各个桶，全部完成后resize才返回。各个范围拆分到新数组中的桶互不重叠，不需要同步；
+ * 增量扩容优先，两者同时开启时按增量扩容执行
+ * 19. setMutationJournal设置修改日志(见MutationJournal)后，每次修改把修改后的结果记录到环形缓冲区中，
+ * 由复制线程批量取出重放到备份；日志不参与clone和序列化
+ * 20. diff(other)比较两个map，得到新增、删除、修改的元素(见MapDiff)；mergeFrom(other)把other批量合并进来。
+ * hash函数相同(都没有种子，或者clone出来的种子相同)时直接使用节点中缓存的hash，不调用hashCode；
+ * diff在容量也相同时按下标逐个比较两个数组中对应的桶，不需要逐个get
  */
 public class HashMap<K, V> extends AbstractMap<K, V>
         implements Map<K, V>, Cloneable, Serializable {
@@ -63,6 +90,27 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     static final int MIN_TREEIFY_CAPACITY = 64;
 
+    /**
+     * 增量扩容时每次操作最多顺序检查的旧桶数量，
+     * 旧数组容量为n时n/16次操作就能迁移完，而下一次扩容至少需要0.75n次插入
+     */
+    static final int INCREMENTAL_RESIZE_STEP = 16;
+
+    /**
+     * 平衡拆分时每个区域包含2^6=64个桶，按默认填充因子约有48个元素
+     */
+    static final int REGION_SHIFT = 6;
+
+    /**
+     * 开启并行扩容后，旧容量达到这个值才并行拆分，更小的数组串行拆分更快
+     */
+    static final int PARALLEL_RESIZE_MIN_CAPACITY = 1 << 16;
+
+    /**
+     * 并行扩容时每个任务至少处理的旧桶个数，是区域大小的整数倍，不同任务更新的regionCounts也不重叠
+     */
+    static final int PARALLEL_RESIZE_GRAIN = 1 << 12;
+
     /**
      * 桶中默认的节点，链表节点
      */
@@ -127,6 +175,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         return (key == null) ? 0 : (h = key.hashCode()) ^ (h >>> 16);
     }
 
+    /**
+     * 实例使用的hash函数，开启种子时使用SeededHash，否则同hash(key)
+     */
+    final int hashKey(Object key) {
+        long seed;
+        return ((seed = hashSeed) == 0L) ? hash(key) : SeededHash.hash(key, seed);
+    }
+
     /**
      * 当x的类型为X，且X<b>直接实现<b/>了Comparable接口（即 “class C implements Comparable” ,且
      * 比较类型必须为X类本身）时，返回x的运行时类型；否则返回null
@@ -208,6 +264,61 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     final float loadFactor;
 
+    /**
+     * 是否开启增量扩容
+     */
+    boolean incrementalResize;
+
+    /**
+     * 增量扩容中的旧数组，还没迁移的桶在这里，迁移完成后为null
+     */
+    transient Node<K, V>[] oldTable;
+
+    /**
+     * 旧数组中下一个需要顺序迁移的桶
+     */
+    transient int transferIndex;
+
+    /**
+     * 是否使用带随机种子的hash
+     */
+    boolean seededHash;
+
+    /**
+     * 是否按区域计数平衡拆分spliterator
+     */
+    boolean balancedSplit;
+
+    /**
+     * 删除后是否自动缩容
+     */
+    boolean autoShrink;
+
+    /**
+     * 大数组扩容时是否并行拆分桶
+     */
+    boolean parallelResize;
+
+    /**
+     * 运行时统计，默认为null，即不统计
+     */
+    transient HashMapStats stats;
+
+    /**
+     * 修改日志，默认为null，即不记录
+     */
+    transient MutationJournal<K, V> journal;
+
+    /**
+     * 每个区域(2^REGION_SHIFT个连续的桶)中的元素个数，对应当前的table，没有开启平衡拆分时为null
+     */
+    transient int[] regionCounts;
+
+    /**
+     * hash种子，不参与序列化，0表示不使用种子
+     */
+    transient long hashSeed;
+
     /* ---------------- Public operations -------------- */
 
     /**
@@ -267,7 +378,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             for (Entry<? extends K, ? extends V> e : m.entrySet()) {
                 K key = e.getKey();
                 V value = e.getValue();
-                putVal(hash(key), key, value, false, evict);
+                putVal(hashKey(key), key, value, false, evict);
             }
         }
     }
@@ -287,7 +398,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     public V get(Object key) {
         Node<K, V> e;
-        return (e = getNode(hash(key), key)) == null ? null : e.value;
+        return (e = getNode(hashKey(key), key)) == null ? null : e.value;
     }
 
     /**
@@ -298,6 +409,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         Node<K, V> first, e;
         int n;
         K k;
+        if (oldTable != null) // 增量扩容中，先迁移key所在的桶
+            transferBins(hash);
         if ((tab = table) != null && (n = tab.length) > 0 &&
                 (first = tab[(n - 1) & hash]) != null) { // (n-1)&hash就是对数组长度求余
             if (first.hash == hash && // 首先判断数组中存放的那个值
@@ -320,14 +433,63 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      * 判断是否包含某个key
      */
     public boolean containsKey(Object key) {
-        return getNode(hash(key), key) != null;
+        return getNode(hashKey(key), key) != null;
+    }
+
+    /**
+     * 用probe查找等价的key，不需要构造出key本身。hash为equivalence.hash(probe)，即key的hashCode()，
+     * 查找多个map时可以复用。LinkedHashMap的访问顺序同get
+     */
+    public <Q> V get(int hash, Q probe, KeyEquivalence<? super Q> equivalence) {
+        Node<K, V> e;
+        if ((e = getEquivalentNode(hash, probe, equivalence)) == null)
+            return null;
+        afterNodeAccess(e);
+        return e.value;
+    }
+
+    /**
+     * 是否包含和probe等价的key，参数同get(int, Object, KeyEquivalence)
+     */
+    public <Q> boolean containsKey(int hash, Q probe, KeyEquivalence<? super Q> equivalence) {
+        return getEquivalentNode(hash, probe, equivalence) != null;
+    }
+
+    /**
+     * 把hashCode按这个map的方式扰动后查找。开启带种子的hash时String按内容计算hash，只支持CHARS，重新计算probe的hash
+     */
+    final <Q> Node<K, V> getEquivalentNode(int hash, Q probe, KeyEquivalence<? super Q> equivalence) {
+        Node<K, V>[] tab;
+        Node<K, V> first;
+        int n, h;
+        long seed;
+        if ((seed = hashSeed) == 0L)
+            h = hash ^ (hash >>> 16);
+        else if (equivalence == KeyEquivalence.CHARS)
+            h = SeededHash.contentHash((CharSequence) probe, seed);
+        else
+            throw new UnsupportedOperationException("Seeded hash only supports KeyEquivalence.CHARS");
+        if (oldTable != null)
+            transferBins(h);
+        if ((tab = table) != null && (n = tab.length) > 0 &&
+                (first = tab[(n - 1) & h]) != null) {
+            if (first instanceof TreeNode) {
+                TreeNode<K, V> t = (TreeNode<K, V>) first;
+                return ((t.parent != null) ? t.root() : t).findEquivalent(h, probe, equivalence);
+            }
+            for (Node<K, V> e = first; e != null; e = e.next) {
+                if (e.hash == h && equivalence.equivalent(probe, e.key))
+                    return e;
+            }
+        }
+        return null;
     }
 
     /**
      * 插入或者替换键值对
      */
     public V put(K key, V value) {
-        return putVal(hash(key), key, value, false, true);
+        return putVal(hashKey(key), key, value, false, true);
     }
 
     /**
@@ -338,6 +500,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         Node<K, V>[] tab;
         Node<K, V> p;
         int n, i;
+        if (oldTable != null)
+            transferBins(hash);
         if ((tab = table) == null || (n = tab.length) == 0) // 第一次插入
             n = (tab = resize()).length;
         if ((p = tab[i = (n - 1) & hash]) == null) // 数组中对应的桶中还没有元素，直接创建一个新节点插入
@@ -368,13 +532,17 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             }
             if (e != null) { // 找到了直接更新值
                 V oldValue = e.value;
-                if (!onlyIfAbsent || oldValue == null)
+                if (!onlyIfAbsent || oldValue == null) {
                     e.value = value;
+                    record(MutationJournal.PUT, e.key, value);
+                }
                 afterNodeAccess(e); //在修改了值后做的事情
                 return oldValue;
             }
         }
         ++modCount;
+        addRegionCount(hash, 1); // 在扩容之前计数，扩容时按节点重新统计
+        record(MutationJournal.PUT, key, value); // 在淘汰最老的元素之前记录
         if (++size > threshold) // 总元素数量超过threshold，扩容
             resize();
         afterNodeInsertion(evict); // 插入后的操作
@@ -386,10 +554,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      * 将一个桶j中的数据rehash,结果只能是j或者j+oldCap,所以如果桶中是链表，则拆分成两个链表
      */
     final Node<K, V>[] resize() {
+        HashMapStats st = stats;
+        long start = (st == null) ? 0L : System.nanoTime();
         Node<K, V>[] oldTab = table;
         int oldCap = (oldTab == null) ? 0 : oldTab.length;
         int oldThr = threshold;
         int newCap, newThr = 0;
+        if (oldTable != null) // 上一次增量扩容还没完成
+            finishTransfer();
         if (oldCap > 0) {
             if (oldCap >= MAXIMUM_CAPACITY) {  //原始容量超过最大值了，将阈值设置为最大值
                 threshold = Integer.MAX_VALUE;
@@ -412,50 +584,483 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         @SuppressWarnings({"rawtypes", "unchecked"})
         Node<K, V>[] newTab = (Node<K, V>[]) new Node[newCap];
         table = newTab;
+        if (balancedSplit) // 新数组的计数在迁移每个桶时累加
+            regionCounts = new int[regionsFor(newCap)];
         if (oldTab != null) {
-            for (int j = 0; j < oldCap; ++j) { // 遍历每个桶
-                Node<K, V> e;
-                if ((e = oldTab[j]) != null) { // 桶中有元素
-                    oldTab[j] = null;
-                    if (e.next == null) // 只有一个元素，直接放在正确的位置上。
-                        // 这个元素正确的位置不可能有元素，因为同一个同的元素rehash只有两种结果，一种是不变，
-                        // 另一种是当前位置cur+旧容量size。这得益于容量是2^k
-                        newTab[e.hash & (newCap - 1)] = e;
-                    else if (e instanceof TreeNode) // 如果是红黑树，把树拆分成两个链表，再根据链表长度决定是否树化
-                        ((TreeNode<K, V>) e).split(this, newTab, j, oldCap);
-                    else { // preserve order // 如果是链表，则把链表进行拆分，最多只能拆分成两个链表
-                        Node<K, V> loHead = null, loTail = null;
-                        Node<K, V> hiHead = null, hiTail = null;
-                        Node<K, V> next;
-                        do {
-                            next = e.next;
-                            if ((e.hash & oldCap) == 0) {  // e.hash & oldCap为0，这个元素还是应该放在原处
-                                if (loTail == null)
-                                    loHead = e;
-                                else
-                                    loTail.next = e;
-                                loTail = e;
-                            } else {  // 放在高一级的桶中
-                                if (hiTail == null)
-                                    hiHead = e;
-                                else
-                                    hiTail.next = e;
-                                hiTail = e;
-                            }
-                        } while ((e = next) != null);
-                        if (loTail != null) {
-                            loTail.next = null;
-                            newTab[j] = loHead; // j
-                        }
-                        if (hiTail != null) {
-                            hiTail.next = null;
-                            newTab[j + oldCap] = hiHead; // j + oldCap
-                        }
+            if (incrementalResize) { // 增量扩容，旧数组中的桶留给后续操作迁移
+                oldTable = oldTab;
+                transferIndex = 0;
+            } else if (parallelResize && oldCap >= PARALLEL_RESIZE_MIN_CAPACITY) {
+                parallelSplit(oldTab, newTab);
+            } else {
+                for (int j = 0; j < oldCap; ++j) // 遍历每个桶
+                    splitBin(oldTab, newTab, j);
+            }
+        }
+        if (st != null && oldCap > 0) // 第一次创建桶数组不算扩容
+            st.recordResize(size, oldCap, System.nanoTime() - start);
+        return newTab;
+    }
+
+    /**
+     * 把旧数组中桶j的元素迁移到新数组中，新数组容量是旧数组的2倍
+     * 将一个桶j中的数据rehash,结果只能是j或者j+oldCap,所以如果桶中是链表，则拆分成两个链表
+     */
+    final void splitBin(Node<K, V>[] oldTab, Node<K, V>[] newTab, int j) {
+        Node<K, V> e;
+        int oldCap = oldTab.length;
+        if ((e = oldTab[j]) != null) { // 桶中有元素
+            oldTab[j] = null;
+            if (regionCounts != null)
+                countSplit(e, j, oldCap);
+            if (e.next == null) // 只有一个元素，直接放在正确的位置上。
+                // 这个元素正确的位置不可能有元素，因为同一个同的元素rehash只有两种结果，一种是不变，
+                // 另一种是当前位置cur+旧容量size。这得益于容量是2^k
+                newTab[e.hash & (newTab.length - 1)] = e;
+            else if (e instanceof TreeNode) // 如果是红黑树，把树拆分成两个链表，再根据链表长度决定是否树化
+                ((TreeNode<K, V>) e).split(this, newTab, j, oldCap);
+            else { // preserve order // 如果是链表，则把链表进行拆分，最多只能拆分成两个链表
+                Node<K, V> loHead = null, loTail = null;
+                Node<K, V> hiHead = null, hiTail = null;
+                Node<K, V> next;
+                do {
+                    next = e.next;
+                    if ((e.hash & oldCap) == 0) {  // e.hash & oldCap为0，这个元素还是应该放在原处
+                        if (loTail == null)
+                            loHead = e;
+                        else
+                            loTail.next = e;
+                        loTail = e;
+                    } else {  // 放在高一级的桶中
+                        if (hiTail == null)
+                            hiHead = e;
+                        else
+                            hiTail.next = e;
+                        hiTail = e;
                     }
+                } while ((e = next) != null);
+                if (loTail != null) {
+                    loTail.next = null;
+                    newTab[j] = loHead; // j
+                }
+                if (hiTail != null) {
+                    hiTail.next = null;
+                    newTab[j + oldCap] = hiHead; // j + oldCap
                 }
             }
         }
-        return newTab;
+    }
+
+    /**
+     * 并行拆分所有旧桶。旧桶j只会拆分到新数组的j和j+oldCap，每个任务的下标范围互不重叠，写入的新桶也互不重叠；
+     * 不能在工作线程中拆分的红黑树桶(见concurrentTreeSplit)留到最后在当前线程中拆分。
+     * 调用线程在invoke中也执行任务，公共池只有一个线程时也是两个线程同时拆分
+     */
+    final void parallelSplit(Node<K, V>[] oldTab, Node<K, V>[] newTab) {
+        int oldCap = oldTab.length;
+        int grain = Math.max(PARALLEL_RESIZE_GRAIN, oldCap / (ForkJoinPool.getCommonPoolParallelism() << 2));
+        ResizeTask<K, V> root = new ResizeTask<>(null, this, oldTab, newTab, 0, oldCap, grain,
+                concurrentTreeSplit());
+        root.invoke();
+        if (root.deferred) {
+            for (int j = 0; j < oldCap; ++j) {
+                if (oldTab[j] != null)
+                    splitBin(oldTab, newTab, j);
+            }
+        }
+    }
+
+    /**
+     * 并行扩容时能否在工作线程中拆分红黑树桶。拆分后节点太少时会退化成链表(untreeify)，
+     * 要求replacementNode只创建新节点、不修改其他桶中的节点，并且不更新统计计数
+     */
+    boolean concurrentTreeSplit() {
+        return stats == null;
+    }
+
+    /**
+     * 并行扩容的任务，不断把下标范围对半拆分出去，直到不超过grain，再拆分范围内的每个旧桶
+     */
+    @SuppressWarnings("serial")
+    static final class ResizeTask<K, V> extends CountedCompleter<Void> {
+        final HashMap<K, V> map;
+        final Node<K, V>[] oldTab, newTab;
+        final int lo, hi, grain;
+        final boolean splitTrees;
+
+        /**
+         * 只在根任务上设置，有红黑树桶留给调用线程拆分
+         */
+        volatile boolean deferred;
+
+        ResizeTask(ResizeTask<K, V> par, HashMap<K, V> map, Node<K, V>[] oldTab, Node<K, V>[] newTab,
+                   int lo, int hi, int grain, boolean splitTrees) {
+            super(par);
+            this.map = map;
+            this.oldTab = oldTab;
+            this.newTab = newTab;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.splitTrees = splitTrees;
+        }
+
+        @SuppressWarnings("unchecked")
+        public final void compute() {
+            int l = lo, h = hi;
+            while (h - l > grain) {
+                int mid = (l + h) >>> 1;
+                addToPendingCount(1);
+                new ResizeTask<>(this, map, oldTab, newTab, mid, h, grain, splitTrees).fork();
+                h = mid;
+            }
+            boolean skipped = false;
+            for (int j = l; j < h; ++j) {
+                if (!splitTrees && oldTab[j] instanceof TreeNode)
+                    skipped = true;
+                else
+                    map.splitBin(oldTab, newTab, j);
+            }
+            if (skipped)
+                ((ResizeTask<K, V>) getRoot()).deferred = true;
+            propagateCompletion();
+        }
+    }
+
+    /**
+     * 增量扩容中，迁移hash所在的旧桶，再顺序检查最多INCREMENTAL_RESIZE_STEP个旧桶。
+     * 旧桶必须在访问新数组中对应的两个桶之前迁移，这样迁移时新数组中的目标桶一定是空的
+     */
+    final void transferBins(int hash) {
+        Node<K, V>[] oldTab, newTab = table;
+        if ((oldTab = oldTable) != null) {
+            int oldCap = oldTab.length, i = transferIndex;
+            splitBin(oldTab, newTab, hash & (oldCap - 1));
+            for (int step = INCREMENTAL_RESIZE_STEP; step > 0 && i < oldCap; --step)
+                splitBin(oldTab, newTab, i++);
+            if ((transferIndex = i) >= oldCap) // 全部迁移完成
+                oldTable = null;
+        }
+    }
+
+    /**
+     * 一次迁移完所有剩下的旧桶，需要遍历整个数组的操作会先调用这个方法
+     */
+    final void finishTransfer() {
+        Node<K, V>[] oldTab, newTab = table;
+        if ((oldTab = oldTable) != null) {
+            for (int i = transferIndex; i < oldTab.length; ++i)
+                splitBin(oldTab, newTab, i);
+            oldTable = null;
+            transferIndex = 0;
+        }
+    }
+
+    /**
+     * 开启或者关闭增量扩容。开启后get也会迁移桶，即使没有写操作也不能在多个线程中同时读取
+     */
+    public void setIncrementalResize(boolean incrementalResize) {
+        if (!incrementalResize)
+            finishTransfer();
+        this.incrementalResize = incrementalResize;
+    }
+
+    public boolean isIncrementalResize() {
+        return incrementalResize;
+    }
+
+    /**
+     * 开启或者关闭带种子的hash，每次开启都生成新的种子。已有的元素按新的hash重新插入，
+     * 桶数组容量不变，LinkedHashMap的迭代顺序也保持不变
+     */
+    public void setSeededHash(boolean seededHash) {
+        if (this.seededHash == seededHash)
+            return;
+        this.seededHash = seededHash;
+        hashSeed = seededHash ? SeededHash.newSeed() : 0L;
+        rehashAll();
+    }
+
+    public boolean isSeededHash() {
+        return seededHash;
+    }
+
+    /**
+     * 开启或者关闭平衡拆分。开启后插入和删除时维护每个区域的元素个数，spliterator按元素个数而不是下标范围对半拆分，
+     * 并且报告SUBSIZED，桶中元素分布不均匀(聚集、树化)时并行流的任务也是均衡的
+     */
+    public void setBalancedSplit(boolean balancedSplit) {
+        if (this.balancedSplit == balancedSplit)
+            return;
+        this.balancedSplit = balancedSplit;
+        regionCounts = null;
+        Node<K, V>[] tab;
+        if (balancedSplit && (tab = table) != null) {
+            finishTransfer();
+            int[] rc = new int[regionsFor(tab.length)];
+            for (int i = 0; i < tab.length; ++i) {
+                for (Node<K, V> e = tab[i]; e != null; e = e.next)
+                    ++rc[i >>> REGION_SHIFT];
+            }
+            regionCounts = rc;
+        }
+    }
+
+    public boolean isBalancedSplit() {
+        return balancedSplit;
+    }
+
+    /**
+     * 开启或者关闭并行扩容，只影响之后的扩容。扩容期间调用线程等待所有任务完成，map的状态和串行扩容相同
+     */
+    public void setParallelResize(boolean parallelResize) {
+        this.parallelResize = parallelResize;
+    }
+
+    public boolean isParallelResize() {
+        return parallelResize;
+    }
+
+    /**
+     * 开启或者关闭运行时统计，关闭时丢弃已有的计数
+     */
+    public void setStatsEnabled(boolean enabled) {
+        if (!enabled)
+            stats = null;
+        else if (stats == null)
+            stats = new HashMapStats();
+    }
+
+    public boolean isStatsEnabled() {
+        return stats != null;
+    }
+
+    /**
+     * 设置修改日志，null表示不再记录。之后的修改只能在一个线程中进行，由另一个线程从journal中取出记录
+     */
+    public void setMutationJournal(MutationJournal<K, V> journal) {
+        this.journal = journal;
+    }
+
+    public MutationJournal<K, V> getMutationJournal() {
+        return journal;
+    }
+
+    /**
+     * 把一次修改记录到日志中，没有设置日志时什么也不做
+     */
+    final void record(byte op, K key, V value) {
+        MutationJournal<K, V> j;
+        if ((j = journal) != null)
+            j.record(op, key, value);
+    }
+
+    /**
+     * 统计视图，桶长度直方图等在读取时扫描桶数组得到；没有开启统计时返回null
+     */
+    public HashMapStatsMXBean getStats() {
+        return (stats == null) ? null : new HashMapStats.MXBean(this);
+    }
+
+    /**
+     * 开启或者关闭删除后自动缩容，开启时如果已经很稀疏会立即缩容
+     */
+    public void setAutoShrink(boolean autoShrink) {
+        this.autoShrink = autoShrink;
+        if (autoShrink)
+            shrinkIfSparse();
+    }
+
+    public boolean isAutoShrink() {
+        return autoShrink;
+    }
+
+    /**
+     * 把桶数组缩小到刚好能容纳当前元素的容量，没有元素时释放桶数组，之后按默认容量重新创建
+     */
+    public void trimToSize() {
+        finishTransfer();
+        Node<K, V>[] tab;
+        if ((tab = table) == null)
+            return;
+        if (size == 0) {
+            ++modCount;
+            table = null;
+            threshold = 0;
+            regionCounts = null; // 开启平衡拆分时resize重新创建
+            return;
+        }
+        int cap = capacityFor(size);
+        if (cap < tab.length)
+            shrink(cap);
+    }
+
+    /**
+     * 估计占用的内存，见estimatedFootprintBytes(MemoryLayout, boolean)，按当前JVM的布局计算
+     */
+    public long estimatedFootprintBytes(boolean includeKeysAndValues) {
+        return estimatedFootprintBytes(MemoryLayout.current(), includeKeysAndValues);
+    }
+
+    /**
+     * 估计占用的内存：map对象本身、桶数组(增量扩容中还有旧数组)、每个节点和已经创建的视图对象，
+     * 节点按实际类型计算(LinkedHashMap.Entry多了before/after，TreeNode更大)。
+     * includeKeysAndValues为true时加上每个key和value本身的大小，被多个节点引用的对象会重复计算
+     */
+    public long estimatedFootprintBytes(MemoryLayout layout, boolean includeKeysAndValues) {
+        long bytes = layout.shallowSize(this) + layout.shallowSize(regionCounts) + layout.shallowSize(stats) +
+                layout.shallowSize(keySet) + layout.shallowSize(values) + layout.shallowSize(entrySet);
+        return bytes + binsFootprint(layout, table, includeKeysAndValues) +
+                binsFootprint(layout, oldTable, includeKeysAndValues);
+    }
+
+    /**
+     * 桶数组和其中所有节点占用的内存
+     */
+    static long binsFootprint(MemoryLayout layout, Node<?, ?>[] tab, boolean includeKeysAndValues) {
+        if (tab == null)
+            return 0L;
+        long bytes = layout.arraySize(tab);
+        for (Node<?, ?> e : tab) {
+            for (; e != null; e = e.next) { // 红黑树的next指针也串起了所有节点
+                bytes += layout.shallowSize(e);
+                if (includeKeysAndValues)
+                    bytes += layout.shallowSize(e.key) + layout.shallowSize(e.value);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 复制出一个不可变的FrozenHashMap，之后对这个map的修改不会影响它
+     */
+    public FrozenHashMap<K, V> freeze() {
+        return FrozenHashMap.copyOf(this);
+    }
+
+    /**
+     * 能容纳n个元素而不扩容的最小容量
+     */
+    final int capacityFor(int n) {
+        float ft = (float) n / loadFactor;
+        int cap = tableSizeFor(ft < (float) MAXIMUM_CAPACITY ? (int) Math.ceil(ft) : MAXIMUM_CAPACITY);
+        while (cap < MAXIMUM_CAPACITY && (int) (cap * loadFactor) < n)
+            cap <<= 1;
+        return cap;
+    }
+
+    /**
+     * 元素个数低于阈值的1/4时缩容，新的阈值在元素个数的2倍到4倍之间，不会立即再次扩容或者缩容。
+     * 增量扩容还没完成时不缩容
+     */
+    final void shrinkIfSparse() {
+        Node<K, V>[] tab;
+        int cap;
+        if ((tab = table) != null && oldTable == null && tab.length > DEFAULT_INITIAL_CAPACITY &&
+                size < (threshold >>> 2) &&
+                (cap = Math.max(DEFAULT_INITIAL_CAPACITY, capacityFor(size << 1))) < tab.length)
+            shrink(cap);
+    }
+
+    /**
+     * 缩容到newCap。新桶可能由多个旧桶合并而成，所以不像扩容那样拆分，而是把每个节点(红黑树先换成普通节点)
+     * 头插到新桶中，最后再把过长的链表树化
+     */
+    final void shrink(int newCap) {
+        HashMapStats st = stats;
+        long start = (st == null) ? 0L : System.nanoTime();
+        Node<K, V>[] oldTab = table;
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Node<K, V>[] newTab = (Node<K, V>[]) new Node[newCap];
+        int mask = newCap - 1;
+        for (int j = 0; j < oldTab.length; ++j) {
+            Node<K, V> e = oldTab[j], next;
+            oldTab[j] = null;
+            for (; e != null; e = next) { // 红黑树的next指针也串起了所有节点
+                next = e.next;
+                Node<K, V> p = (e instanceof TreeNode) ? replacementNode(e, null) : e;
+                int i = p.hash & mask;
+                p.next = newTab[i];
+                newTab[i] = p;
+            }
+        }
+        table = newTab;
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY ?
+                (int) ft : Integer.MAX_VALUE);
+        ++modCount;
+        int[] rc = balancedSplit ? new int[regionsFor(newCap)] : null;
+        for (int i = 0; i < newCap; ++i) {
+            int binCount = 0;
+            for (Node<K, V> e = newTab[i]; e != null; e = e.next)
+                ++binCount;
+            if (rc != null)
+                rc[i >>> REGION_SHIFT] += binCount;
+            if (binCount > TREEIFY_THRESHOLD && newCap >= MIN_TREEIFY_CAPACITY)
+                treeifyBin(newTab, newTab[i].hash);
+        }
+        regionCounts = rc;
+        if (st != null)
+            st.recordShrink(System.nanoTime() - start);
+    }
+
+    static int regionsFor(int capacity) {
+        return Math.max(1, capacity >>> REGION_SHIFT);
+    }
+
+    /**
+     * 元素个数变化时更新所在区域的计数
+     */
+    final void addRegionCount(int hash, int delta) {
+        int[] rc;
+        Node<K, V>[] tab;
+        if ((rc = regionCounts) != null && (tab = table) != null)
+            rc[(hash & (tab.length - 1)) >>> REGION_SHIFT] += delta;
+    }
+
+    /**
+     * 扩容迁移旧桶j时，统计分到j和j+oldCap两个桶的元素个数。红黑树的next指针也串起了所有节点
+     */
+    final void countSplit(Node<K, V> e, int j, int oldCap) {
+        int lc = 0, hc = 0;
+        for (; e != null; e = e.next) {
+            if ((e.hash & oldCap) == 0)
+                ++lc;
+            else
+                ++hc;
+        }
+        int[] rc = regionCounts;
+        rc[j >>> REGION_SHIFT] += lc;
+        rc[(j + oldCap) >>> REGION_SHIFT] += hc;
+    }
+
+    /**
+     * hash函数改变后，按迭代顺序取出所有元素，再用新的hash值重新插入
+     */
+    final void rehashAll() {
+        finishTransfer();
+        Node<K, V>[] tab;
+        if ((tab = table) == null || size == 0)
+            return;
+        Object[] entries = new Object[size << 1];
+        int n = 0;
+        for (Entry<K, V> e : entrySet()) {
+            entries[n++] = e.getKey();
+            entries[n++] = e.getValue();
+        }
+        int mc = modCount;
+        HashMapStats st = stats;
+        MutationJournal<K, V> j = journal;
+        reinitialize();
+        stats = st;
+        threshold = tab.length; // 保持原来的容量
+        for (int i = 0; i < n; i += 2) {
+            @SuppressWarnings("unchecked") K key = (K) entries[i];
+            @SuppressWarnings("unchecked") V value = (V) entries[i + 1];
+            putVal(hashKey(key), key, value, false, false);
+        }
+        journal = j; // 内容没有变化，重新插入不记录
+        modCount = mc + 1;
     }
 
     /**
@@ -480,6 +1085,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             } while ((e = e.next) != null);
             if ((tab[index] = hd) != null)
                 hd.treeify(tab); // 将双向链表转为红黑树
+            if (stats != null)
+                ++stats.treeifyCount;
         }
     }
 
@@ -488,9 +1095,200 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         putMapEntries(m, true);
     }
 
+    /**
+     * 批量查找，keys[i]对应的value写入out[i]，不存在时写入null。
+     * LinkedHashMap的访问顺序按keys中的顺序更新
+     */
+    public void getAll(K[] keys, V[] out) {
+        int n = keys.length;
+        if (out.length < n)
+            throw new IllegalArgumentException("out.length < keys.length");
+        Node<K, V>[] nodes = findNodes(keys);
+        for (int i = 0; i < n; ++i) {
+            Node<K, V> e;
+            if ((e = nodes[i]) == null)
+                out[i] = null;
+            else {
+                afterNodeAccess(e);
+                out[i] = e.value;
+            }
+        }
+    }
+
+    /**
+     * 批量插入，同依次put(keys[i], values[i])，同一个key出现多次时后面的value生效。
+     * 先按全部是新key预先扩容，插入过程中不会再扩容；先算出所有hash，再按原来的顺序插入，LinkedHashMap的顺序不变
+     */
+    public void putAll(K[] keys, V[] values) {
+        int n = keys.length;
+        if (values.length < n)
+            throw new IllegalArgumentException("values.length < keys.length");
+        if (n == 0)
+            return;
+        presize((int) Math.min((long) size + n, MAXIMUM_CAPACITY));
+        int[] hashes = new int[n];
+        for (int i = 0; i < n; ++i)
+            hashes[i] = hashKey(keys[i]);
+        for (int i = 0; i < n; ++i)
+            putVal(hashes[i], keys[i], values[i], false, true);
+    }
+
+    /**
+     * 一次扩容到能容纳target个元素，之后插入不会再扩容；增量扩容中的桶先迁移完
+     */
+    final void presize(int target) {
+        finishTransfer();
+        if (table == null) {
+            int cap = capacityFor(target);
+            if (cap > threshold)
+                threshold = cap;
+            resize();
+        }
+        while (target > threshold && table.length < MAXIMUM_CAPACITY) {
+            resize();
+            finishTransfer();
+        }
+    }
+
+    /**
+     * 批量查找节点，结果按keys的下标存放。分成几轮循环：先算出所有hash，再读取所有桶的第一个节点，最后在桶中查找。
+     * 每一轮中的内存访问互不依赖，CPU可以同时发出多个cache miss，而逐个get时每次查找都要等上一步的结果
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    final Node<K, V>[] findNodes(Object[] keys) {
+        int n = keys.length;
+        Node<K, V>[] result = (Node<K, V>[]) new Node[n];
+        Node<K, V>[] tab;
+        finishTransfer();
+        if ((tab = table) == null || size == 0)
+            return result;
+        int mask = tab.length - 1;
+        int[] hashes = new int[n];
+        for (int i = 0; i < n; ++i)
+            hashes[i] = hashKey(keys[i]);
+        for (int i = 0; i < n; ++i)
+            result[i] = tab[hashes[i] & mask];
+        for (int i = 0; i < n; ++i) {
+            Node<K, V> first;
+            if ((first = result[i]) != null)
+                result[i] = findInBin(first, hashes[i], keys[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 在以first开头的桶中查找key，同getNode
+     */
+    static <K, V> Node<K, V> findInBin(Node<K, V> first, int hash, Object key) {
+        if (first instanceof TreeNode)
+            return ((TreeNode<K, V>) first).getTreeNode(hash, key);
+        K k;
+        for (Node<K, V> e = first; e != null; e = e.next) {
+            if (e.hash == hash &&
+                    ((k = e.key) == key || (key != null && key.equals(k))))
+                return e;
+        }
+        return null;
+    }
+
+    /**
+     * 比较当前map和other，结果描述从当前map变成other需要的修改，不修改两个map，也不影响LinkedHashMap的访问顺序。
+     * 两个map的hash函数和容量都相同时，同一个key一定在两个数组相同下标的桶中，逐个比较对应的桶即可；
+     * 否则逐个到另一个map中查找，hash函数相同时仍然复用缓存的hash
+     */
+    public MapDiff<K, V> diff(HashMap<K, V> other) {
+        if (other == null)
+            throw new NullPointerException();
+        finishTransfer();
+        other.finishTransfer();
+        MapDiff<K, V> d = new MapDiff<>();
+        Node<K, V>[] a = table, b = other.table;
+        boolean sameHash = hashSeed == other.hashSeed;
+        if (sameHash && a != null && b != null && a.length == b.length) {
+            for (int j = 0; j < a.length; ++j) {
+                Node<K, V> fa = a[j], fb = b[j], o;
+                if (fa == null && fb == null)
+                    continue;
+                for (Node<K, V> e = fa; e != null; e = e.next) { // 红黑树的next指针也串起了所有节点
+                    if ((o = findInBin(fb, e.hash, e.key)) == null)
+                        d.removed(e.key, e.value);
+                    else if (!Objects.equals(e.value, o.value))
+                        d.changed(e.key, e.value, o.value);
+                }
+                for (Node<K, V> e = fb; e != null; e = e.next) {
+                    if (findInBin(fa, e.hash, e.key) == null)
+                        d.added(e.key, e.value);
+                }
+            }
+            return d;
+        }
+        if (a != null && size > 0) {
+            for (Node<K, V> f : a) {
+                for (Node<K, V> e = f, o; e != null; e = e.next) {
+                    if ((o = other.getNode(sameHash ? e.hash : other.hashKey(e.key), e.key)) == null)
+                        d.removed(e.key, e.value);
+                    else if (!Objects.equals(e.value, o.value))
+                        d.changed(e.key, e.value, o.value);
+                }
+            }
+        }
+        if (b != null && other.size > 0) {
+            for (Node<K, V> f : b) {
+                for (Node<K, V> e = f; e != null; e = e.next) {
+                    if (getNode(sameHash ? e.hash : hashKey(e.key), e.key) == null)
+                        d.added(e.key, e.value);
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * 把other中的所有元素写入当前map，已经存在的key被覆盖，同putAll
+     */
+    public void mergeFrom(HashMap<K, V> other) {
+        mergeFrom(other, null);
+    }
+
+    /**
+     * 把other中的所有元素合并进来：key不存在时插入，存在时和merge一样用remappingFunction计算新的value，结果为null时删除；
+     * remappingFunction为null时直接覆盖，这时other中的value可以为null。
+     * 按other的桶顺序遍历，hash函数相同时直接使用节点中缓存的hash，容量也相同时当前map的桶也是按顺序访问的
+     */
+    @SuppressWarnings("unchecked")
+    public void mergeFrom(HashMap<K, V> other, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (other == null)
+            throw new NullPointerException();
+        if (other == this) {
+            if (remappingFunction == null)
+                return;
+            other = (HashMap<K, V>) clone(); // 遍历的同时会修改自己
+        }
+        other.finishTransfer();
+        Node<K, V>[] tab;
+        if ((tab = other.table) == null || other.size == 0)
+            return;
+        boolean sameHash = hashSeed == other.hashSeed;
+        int mc = other.modCount;
+        for (Node<K, V> f : tab) {
+            for (Node<K, V> e = f; e != null; e = e.next) {
+                K key = e.key;
+                int hash = sameHash ? e.hash : hashKey(key);
+                if (remappingFunction == null)
+                    putVal(hash, key, e.value, false, true);
+                else if (e.value == null)
+                    throw new NullPointerException("null value for key " + key);
+                else
+                    mergeVal(hash, key, e.value, remappingFunction);
+            }
+        }
+        if (other.modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
     public V remove(Object key) {
         Node<K, V> e;
-        return (e = removeNode(hash(key), key, null, false, true)) == null ?
+        return (e = removeNode(hashKey(key), key, null, false, true)) == null ?
                 null : e.value;
     }
 
@@ -503,6 +1301,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         Node<K, V>[] tab;
         Node<K, V> p;
         int n, index;
+        if (oldTable != null)
+            transferBins(hash);
         if ((tab = table) != null && (n = tab.length) > 0 &&
                 (p = tab[index = (n - 1) & hash]) != null) {
             Node<K, V> node = null, e;
@@ -537,7 +1337,11 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                     p.next = node.next; // 删除的是非头节点
                 ++modCount;
                 --size;
+                addRegionCount(node.hash, -1);
+                record(MutationJournal.REMOVE, node.key, null);
                 afterNodeRemoval(node); // 删除后的操作
+                if (autoShrink && movable) // 迭代器中的删除不能移动其他节点，不缩容
+                    shrinkIfSparse();
                 return node;
             }
         }
@@ -550,10 +1354,15 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public void clear() {
         Node<K, V>[] tab;
         modCount++;
+        oldTable = null;
+        transferIndex = 0;
         if ((tab = table) != null && size > 0) {
             size = 0;
             for (int i = 0; i < tab.length; ++i)
                 tab[i] = null;
+            if (regionCounts != null)
+                Arrays.fill(regionCounts, 0);
+            record(MutationJournal.CLEAR, null, null);
         }
     }
 
@@ -563,6 +1372,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public boolean containsValue(Object value) {
         Node<K, V>[] tab;
         V v;
+        finishTransfer();
         if ((tab = table) != null && size > 0) {
             for (int i = 0; i < tab.length; ++i) {
                 for (Node<K, V> e = tab[i]; e != null; e = e.next) {
@@ -605,7 +1415,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
 
         public final boolean remove(Object key) {
-            return removeNode(hash(key), key, null, false, true) != null;
+            return removeNode(hashKey(key), key, null, false, true) != null;
         }
 
         public final Spliterator<K> spliterator() {
@@ -617,6 +1427,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (action == null)
                 throw new NullPointerException();
             if (size > 0 && (tab = table) != null) {
+                finishTransfer();
                 int mc = modCount;
                 for (int i = 0; i < tab.length; ++i) {
                     for (Node<K, V> e = tab[i]; e != null; e = e.next)
@@ -666,6 +1477,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (action == null)
                 throw new NullPointerException();
             if (size > 0 && (tab = table) != null) {
+                finishTransfer();
                 int mc = modCount;
                 for (int i = 0; i < tab.length; ++i) {
                     for (Node<K, V> e = tab[i]; e != null; e = e.next)
@@ -703,7 +1515,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 return false;
             Entry<?, ?> e = (Entry<?, ?>) o;
             Object key = e.getKey();
-            Node<K, V> candidate = getNode(hash(key), key);
+            Node<K, V> candidate = getNode(hashKey(key), key);
             return candidate != null && candidate.equals(e);
         }
 
@@ -712,7 +1524,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 Entry<?, ?> e = (Entry<?, ?>) o;
                 Object key = e.getKey();
                 Object value = e.getValue();
-                return removeNode(hash(key), key, value, true, true) != null;
+                return removeNode(hashKey(key), key, value, true, true) != null;
             }
             return false;
         }
@@ -726,6 +1538,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             if (action == null)
                 throw new NullPointerException();
             if (size > 0 && (tab = table) != null) {
+                finishTransfer();
                 int mc = modCount;
                 for (int i = 0; i < tab.length; ++i) {
                     for (Node<K, V> e = tab[i]; e != null; e = e.next)
@@ -742,17 +1555,17 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     @Override
     public V getOrDefault(Object key, V defaultValue) {
         Node<K, V> e;
-        return (e = getNode(hash(key), key)) == null ? defaultValue : e.value;
+        return (e = getNode(hashKey(key), key)) == null ? defaultValue : e.value;
     }
 
     @Override
     public V putIfAbsent(K key, V value) {
-        return putVal(hash(key), key, value, true, true);
+        return putVal(hashKey(key), key, value, true, true);
     }
 
     @Override
     public boolean remove(Object key, Object value) {
-        return removeNode(hash(key), key, value, true, true) != null;
+        return removeNode(hashKey(key), key, value, true, true) != null;
     }
 
     /**
@@ -762,9 +1575,10 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     public boolean replace(K key, V oldValue, V newValue) {
         Node<K, V> e;
         V v;
-        if ((e = getNode(hash(key), key)) != null &&
+        if ((e = getNode(hashKey(key), key)) != null &&
                 ((v = e.value) == oldValue || (v != null && v.equals(oldValue)))) {
             e.value = newValue;
+            record(MutationJournal.PUT, e.key, newValue);
             afterNodeAccess(e);
             return true;
         }
@@ -777,9 +1591,10 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     @Override
     public V replace(K key, V value) {
         Node<K, V> e;
-        if ((e = getNode(hash(key), key)) != null) {
+        if ((e = getNode(hashKey(key), key)) != null) {
             V oldValue = e.value;
             e.value = value;
+            record(MutationJournal.PUT, e.key, value);
             afterNodeAccess(e);
             return oldValue;
         }
@@ -794,7 +1609,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                              Function<? super K, ? extends V> mappingFunction) {
         if (mappingFunction == null)
             throw new NullPointerException();
-        int hash = hash(key);
+        int hash = hashKey(key);
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
@@ -804,6 +1619,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (size > threshold || (tab = table) == null ||
                 (n = tab.length) == 0)
             n = (tab = resize()).length;
+        if (oldTable != null) // 可能刚开始增量扩容，key所在的桶还在旧数组中
+            transferBins(hash);
         // 查找是否存在，存在且value相同则直接返回
         if ((first = tab[i = (n - 1) & hash]) != null) {
             if (first instanceof TreeNode)
@@ -832,6 +1649,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             return null;
         } else if (old != null) {
             old.value = v;
+            record(MutationJournal.PUT, old.key, v);
             afterNodeAccess(old);
             return v;
         } else if (t != null)
@@ -843,6 +1661,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
         ++modCount;
         ++size;
+        addRegionCount(hash, 1);
+        record(MutationJournal.PUT, key, v);
         afterNodeInsertion(true);
         return v;
     }
@@ -853,12 +1673,13 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             throw new NullPointerException();
         Node<K, V> e;
         V oldValue;
-        int hash = hash(key);
+        int hash = hashKey(key);
         if ((e = getNode(hash, key)) != null &&
                 (oldValue = e.value) != null) {
             V v = remappingFunction.apply(key, oldValue);
             if (v != null) {
                 e.value = v;
+                record(MutationJournal.PUT, e.key, v);
                 afterNodeAccess(e);
                 return v;
             } else
@@ -873,7 +1694,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                      BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
         if (remappingFunction == null)
             throw new NullPointerException();
-        int hash = hash(key);
+        int hash = hashKey(key);
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
@@ -883,6 +1704,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (size > threshold || (tab = table) == null ||
                 (n = tab.length) == 0)
             n = (tab = resize()).length;
+        if (oldTable != null) // 可能刚开始增量扩容，key所在的桶还在旧数组中
+            transferBins(hash);
         if ((first = tab[i = (n - 1) & hash]) != null) {
             if (first instanceof TreeNode)
                 old = (t = (TreeNode<K, V>) first).getTreeNode(hash, key);
@@ -904,6 +1727,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (old != null) {
             if (v != null) {
                 old.value = v;
+                record(MutationJournal.PUT, old.key, v);
                 afterNodeAccess(old);
             } else
                 removeNode(hash, key, null, false, true);
@@ -917,6 +1741,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             }
             ++modCount;
             ++size;
+            addRegionCount(hash, 1);
+            record(MutationJournal.PUT, key, v);
             afterNodeInsertion(true);
         }
         return v;
@@ -930,7 +1756,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             throw new NullPointerException();
         if (remappingFunction == null)
             throw new NullPointerException();
-        int hash = hash(key);
+        return mergeVal(hashKey(key), key, value, remappingFunction);
+    }
+
+    /**
+     * merge的实现，hash由调用者计算
+     */
+    final V mergeVal(int hash, K key, V value,
+                     BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
         Node<K, V>[] tab;
         Node<K, V> first;
         int n, i;
@@ -940,6 +1773,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (size > threshold || (tab = table) == null ||
                 (n = tab.length) == 0)
             n = (tab = resize()).length;
+        if (oldTable != null) // 可能刚开始增量扩容，key所在的桶还在旧数组中
+            transferBins(hash);
         if ((first = tab[i = (n - 1) & hash]) != null) {
             if (first instanceof TreeNode)
                 old = (t = (TreeNode<K, V>) first).getTreeNode(hash, key);
@@ -964,6 +1799,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 v = value;
             if (v != null) {
                 old.value = v;
+                record(MutationJournal.PUT, old.key, v);
                 afterNodeAccess(old);
             } else
                 removeNode(hash, key, null, false, true);
@@ -979,6 +1815,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             }
             ++modCount;
             ++size;
+            addRegionCount(hash, 1);
+            record(MutationJournal.PUT, key, value);
             afterNodeInsertion(true);
         }
         return value;
@@ -991,6 +1829,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (action == null)
             throw new NullPointerException();
         if (size > 0 && (tab = table) != null) {
+            finishTransfer();
             int mc = modCount;
             for (int i = 0; i < tab.length; ++i) {
                 for (Node<K, V> e = tab[i]; e != null; e = e.next)
@@ -1008,10 +1847,12 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         if (function == null)
             throw new NullPointerException();
         if (size > 0 && (tab = table) != null) {
+            finishTransfer();
             int mc = modCount;
             for (int i = 0; i < tab.length; ++i) {
                 for (Node<K, V> e = tab[i]; e != null; e = e.next) {
                     e.value = function.apply(e.key, e.value);
+                    record(MutationJournal.PUT, e.key, e.value);
                 }
             }
             if (modCount != mc)
@@ -1019,16 +1860,323 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
     }
 
+    /* ------------------------------------------------------------ */
+    // Parallel bulk operations
+
+    /**
+     * 计算并行任务的拆分次数，同ConcurrentHashMap。元素个数小于parallelismThreshold时返回0，在当前线程中执行；
+     * parallelismThreshold为Long.MAX_VALUE时总是串行，为1时尽量并行
+     */
+    final int batchFor(long b) {
+        long n;
+        if (b == Long.MAX_VALUE || (n = size) <= 1L || n < b)
+            return 0;
+        int sp = ForkJoinPool.getCommonPoolParallelism() << 2; // slack of 4
+        return (b <= 0L || (n /= b) >= sp) ? sp : (int) n;
+    }
+
+    /**
+     * 整个桶数组的spliterator，并行任务通过它的trySplit按下标范围拆分。
+     * 在调用线程中初始化，增量扩容的迁移在这里完成，之后的并行读取不会修改map的结构
+     */
+    final EntrySpliterator<K, V> bulkSpliterator() {
+        EntrySpliterator<K, V> s = new EntrySpliterator<>(this, 0, -1, 0, 0);
+        s.getFence();
+        return s;
+    }
+
+    /**
+     * 并行遍历，顺序不确定(LinkedHashMap也不按链表顺序)，action需要是线程安全的。
+     * 遍历过程中修改map会抛出ConcurrentModificationException
+     */
+    public void forEach(long parallelismThreshold,
+                        BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        new ForEachTask<K, V>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                e -> action.accept(e.key, e.value)).invoke();
+    }
+
+    /**
+     * 并行替换所有value，不同的桶由不同的线程处理，不修改结构
+     */
+    public void replaceAll(long parallelismThreshold,
+                           BiFunction<? super K, ? super V, ? extends V> function) {
+        if (function == null)
+            throw new NullPointerException();
+        if (journal != null) { // 日志只能由一个线程写入
+            replaceAll(function);
+            return;
+        }
+        new ForEachTask<K, V>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                e -> e.value = function.apply(e.key, e.value)).invoke();
+    }
+
+    /**
+     * 并行查找，返回任意一个searchFunction不为null的结果，找到后其他任务尽快结束
+     */
+    public <U> U search(long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        if (searchFunction == null)
+            throw new NullPointerException();
+        return new SearchTask<K, V, U>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                searchFunction, new AtomicReference<U>()).invoke();
+    }
+
+    /**
+     * 对每个键值对做transformer后用reducer合并，transformer返回null的元素被忽略，没有元素时返回null
+     */
+    public <U> U reduce(long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return new MapReduceTask<K, V, U>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                null, e -> transformer.apply(e.key, e.value), reducer).invoke();
+    }
+
+    public V reduceValues(long parallelismThreshold,
+                          BiFunction<? super V, ? super V, ? extends V> reducer) {
+        if (reducer == null)
+            throw new NullPointerException();
+        return new MapReduceTask<K, V, V>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                null, e -> e.value, reducer).invoke();
+    }
+
+    public <U> U reduceValues(long parallelismThreshold,
+                              Function<? super V, ? extends U> transformer,
+                              BiFunction<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return new MapReduceTask<K, V, U>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                null, e -> transformer.apply(e.value), reducer).invoke();
+    }
+
+    /**
+     * 返回的Entry是map中的节点，reducer不应该修改它
+     */
+    public Entry<K, V> reduceEntries(long parallelismThreshold,
+                                     BiFunction<Entry<K, V>, Entry<K, V>, ? extends Entry<K, V>> reducer) {
+        if (reducer == null)
+            throw new NullPointerException();
+        return new MapReduceTask<K, V, Entry<K, V>>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                null, e -> e, reducer).invoke();
+    }
+
+    public <U> U reduceEntries(long parallelismThreshold,
+                               Function<Entry<K, V>, ? extends U> transformer,
+                               BiFunction<? super U, ? super U, ? extends U> reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return new MapReduceTask<K, V, U>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                null, transformer::apply, reducer).invoke();
+    }
+
+    /**
+     * 归约到long，不需要装箱，适合求和、计数等聚合
+     */
+    public long reduceToLong(long parallelismThreshold,
+                             ToLongBiFunction<? super K, ? super V> transformer,
+                             long basis, LongBinaryOperator reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return new MapReduceToLongTask<K, V>(null, batchFor(parallelismThreshold), bulkSpliterator(),
+                null, transformer, basis, reducer).invoke();
+    }
+
+    public long reduceValuesToLong(long parallelismThreshold,
+                                   ToLongFunction<? super V> transformer,
+                                   long basis, LongBinaryOperator reducer) {
+        if (transformer == null || reducer == null)
+            throw new NullPointerException();
+        return reduceToLong(parallelismThreshold, (k, v) -> transformer.applyAsLong(v), basis, reducer);
+    }
+
+    /**
+     * 并行任务的基类，持有一段下标范围的spliterator，拆分时用trySplit把前一半交给新任务
+     */
+    @SuppressWarnings("serial")
+    abstract static class BulkTask<K, V, R> extends CountedCompleter<R> {
+        final EntrySpliterator<K, V> spliterator;
+        int batch;                  // split control
+
+        BulkTask(BulkTask<K, V, ?> par, int b, EntrySpliterator<K, V> s) {
+            super(par);
+            this.batch = b;
+            this.spliterator = s;
+        }
+
+        /**
+         * 还可以拆分时返回拆出的前一半，batch减半
+         */
+        final EntrySpliterator<K, V> split() {
+            EntrySpliterator<K, V> s;
+            if (batch <= 0 || (s = spliterator.trySplit()) == null)
+                return null;
+            batch >>>= 1;
+            return s;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class ForEachTask<K, V> extends BulkTask<K, V, Void> {
+        final Consumer<? super Node<K, V>> action;
+
+        ForEachTask(BulkTask<K, V, ?> p, int b, EntrySpliterator<K, V> s,
+                    Consumer<? super Node<K, V>> action) {
+            super(p, b, s);
+            this.action = action;
+        }
+
+        @SuppressWarnings("unchecked")
+        public final void compute() {
+            for (EntrySpliterator<K, V> s; (s = split()) != null; ) {
+                addToPendingCount(1);
+                new ForEachTask<>(this, batch, s, action).fork();
+            }
+            spliterator.forEachRemaining(e -> action.accept((Node<K, V>) e));
+            propagateCompletion();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class SearchTask<K, V, U> extends BulkTask<K, V, U> {
+        final BiFunction<? super K, ? super V, ? extends U> searchFunction;
+        final AtomicReference<U> result;
+
+        SearchTask(BulkTask<K, V, ?> p, int b, EntrySpliterator<K, V> s,
+                   BiFunction<? super K, ? super V, ? extends U> searchFunction,
+                   AtomicReference<U> result) {
+            super(p, b, s);
+            this.searchFunction = searchFunction;
+            this.result = result;
+        }
+
+        public final U getRawResult() {
+            return result.get();
+        }
+
+        public final void compute() {
+            final AtomicReference<U> result = this.result;
+            for (EntrySpliterator<K, V> s; (s = split()) != null; ) {
+                if (result.get() != null)
+                    return;
+                addToPendingCount(1);
+                new SearchTask<>(this, batch, s, searchFunction, result).fork();
+            }
+            while (result.get() == null && spliterator.tryAdvance(e -> {
+                U u;
+                if ((u = searchFunction.apply(e.getKey(), e.getValue())) != null &&
+                        result.compareAndSet(null, u))
+                    quietlyCompleteRoot(); // 找到结果，根任务直接完成
+            })) {
+            }
+            if (result.get() == null)
+                propagateCompletion();
+        }
+    }
+
+    /**
+     * 每个任务把拆出的子任务串成rights链表，完成时沿着完成链把子任务的结果合并到父任务
+     */
+    @SuppressWarnings("serial")
+    static final class MapReduceTask<K, V, U> extends BulkTask<K, V, U> {
+        final Function<? super Node<K, V>, ? extends U> transformer;
+        final BiFunction<? super U, ? super U, ? extends U> reducer;
+        U result;
+        MapReduceTask<K, V, U> rights, nextRight;
+
+        MapReduceTask(BulkTask<K, V, ?> p, int b, EntrySpliterator<K, V> s,
+                      MapReduceTask<K, V, U> nextRight,
+                      Function<? super Node<K, V>, ? extends U> transformer,
+                      BiFunction<? super U, ? super U, ? extends U> reducer) {
+            super(p, b, s);
+            this.nextRight = nextRight;
+            this.transformer = transformer;
+            this.reducer = reducer;
+        }
+
+        public final U getRawResult() {
+            return result;
+        }
+
+        public final void compute() {
+            for (EntrySpliterator<K, V> s; (s = split()) != null; ) {
+                addToPendingCount(1);
+                (rights = new MapReduceTask<>(this, batch, s, rights, transformer, reducer)).fork();
+            }
+            spliterator.forEachRemaining(e -> {
+                U u, r;
+                if ((u = transformer.apply((Node<K, V>) e)) != null) // 节点类型总是Node
+                    result = ((r = result) == null) ? u : reducer.apply(r, u);
+            });
+            for (CountedCompleter<?> c = firstComplete(); c != null; c = c.nextComplete()) {
+                @SuppressWarnings("unchecked")
+                MapReduceTask<K, V, U> t = (MapReduceTask<K, V, U>) c, s = t.rights;
+                while (s != null) {
+                    U tr, sr;
+                    if ((sr = s.result) != null)
+                        t.result = ((tr = t.result) == null) ? sr : reducer.apply(tr, sr);
+                    s = t.rights = s.nextRight;
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static final class MapReduceToLongTask<K, V> extends BulkTask<K, V, Long> {
+        final ToLongBiFunction<? super K, ? super V> transformer;
+        final LongBinaryOperator reducer;
+        final long basis;
+        long result;
+        MapReduceToLongTask<K, V> rights, nextRight;
+
+        MapReduceToLongTask(BulkTask<K, V, ?> p, int b, EntrySpliterator<K, V> s,
+                            MapReduceToLongTask<K, V> nextRight,
+                            ToLongBiFunction<? super K, ? super V> transformer,
+                            long basis, LongBinaryOperator reducer) {
+            super(p, b, s);
+            this.nextRight = nextRight;
+            this.transformer = transformer;
+            this.basis = basis;
+            this.reducer = reducer;
+        }
+
+        public final Long getRawResult() {
+            return result;
+        }
+
+        public final void compute() {
+            result = basis;
+            for (EntrySpliterator<K, V> s; (s = split()) != null; ) {
+                addToPendingCount(1);
+                (rights = new MapReduceToLongTask<>(this, batch, s, rights, transformer,
+                        basis, reducer)).fork();
+            }
+            spliterator.forEachRemaining(e ->
+                    result = reducer.applyAsLong(result, transformer.applyAsLong(e.getKey(), e.getValue())));
+            for (CountedCompleter<?> c = firstComplete(); c != null; c = c.nextComplete()) {
+                @SuppressWarnings("unchecked")
+                MapReduceToLongTask<K, V> t = (MapReduceToLongTask<K, V>) c, s = t.rights;
+                while (s != null) {
+                    t.result = reducer.applyAsLong(t.result, s.result);
+                    s = t.rights = s.nextRight;
+                }
+            }
+        }
+    }
+
     /* ------------------------------------------------------------ */
     // Cloning and serialization
 
     /**
-     * 浅拷贝，key和value和原始HashMap使用的是相同对象
+     * 浅拷贝，key和value和原始HashMap使用的是相同对象。桶数组的容量和原来相同，逐个桶复制(见copyBins)
      */
     @SuppressWarnings("unchecked")
     @Override
     public Object clone() {
         HashMap<K, V> result;
+        finishTransfer();
         try {
             result = (HashMap<K, V>) super.clone();
         } catch (CloneNotSupportedException e) {
@@ -1036,10 +2184,52 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             throw new InternalError(e);
         }
         result.reinitialize();
-        result.putMapEntries(this, false);
+        if (size > 0 && table != null)
+            result.copyBins(this);
         return result;
     }
 
+    /**
+     * clone的快速路径：逐个桶复制，节点中缓存的hash直接复用，不需要重新计算hash、定位桶和比较key；
+     * 链表保持原来的顺序，红黑树桶保持原来的形状，不需要重新树化。LinkedHashMap按before/after的顺序复制
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    void copyBins(HashMap<K, V> m) {
+        Node<K, V>[] src = m.table;
+        Node<K, V>[] tab = (Node<K, V>[]) new Node[src.length];
+        for (int j = 0; j < src.length; ++j) {
+            Node<K, V> e;
+            if ((e = src[j]) == null)
+                continue;
+            if (e instanceof TreeNode) {
+                tab[j] = ((TreeNode<K, V>) e).copyBin();
+                continue;
+            }
+            Node<K, V> hd = null, tl = null;
+            for (; e != null; e = e.next) {
+                Node<K, V> p = new Node<>(e.hash, e.key, e.value, null);
+                if (tl == null)
+                    hd = p;
+                else
+                    tl.next = p;
+                tl = p;
+            }
+            tab[j] = hd;
+        }
+        copyState(m, tab);
+    }
+
+    /**
+     * 复制完桶之后设置其余的状态，容量相同，threshold和regionCounts直接复制
+     */
+    final void copyState(HashMap<K, V> m, Node<K, V>[] tab) {
+        table = tab;
+        size = m.size;
+        threshold = m.threshold;
+        if (m.regionCounts != null)
+            regionCounts = m.regionCounts.clone();
+    }
+
     // These methods are also used when serializing HashSets
     final float loadFactor() {
         return loadFactor;
@@ -1072,6 +2262,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         // Read in the threshold (ignored), loadfactor, and any hidden stuff
         s.defaultReadObject();
         reinitialize();
+        hashSeed = seededHash ? SeededHash.newSeed() : 0L; // 种子不序列化，重新生成
         if (loadFactor <= 0 || Float.isNaN(loadFactor))
             throw new InvalidObjectException("Illegal load factor: " +
                     loadFactor);
@@ -1101,6 +2292,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             @SuppressWarnings({"rawtypes", "unchecked"})
             Node<K, V>[] tab = (Node<K, V>[]) new Node[cap];
             table = tab;
+            if (balancedSplit)
+                regionCounts = new int[regionsFor(cap)];
 
             // Read the keys and values, and put the mappings in the HashMap
             for (int i = 0; i < mappings; i++) {
@@ -1108,7 +2301,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 K key = (K) s.readObject();
                 @SuppressWarnings("unchecked")
                 V value = (V) s.readObject();
-                putVal(hash(key), key, value, false, false);
+                putVal(hashKey(key), key, value, false, false);
             }
         }
     }
@@ -1123,6 +2316,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         int index;             // current slot
 
         HashIterator() {
+            finishTransfer();
             expectedModCount = modCount;
             Node<K, V>[] t = table;
             current = next = null;
@@ -1159,7 +2353,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
                 throw new ConcurrentModificationException();
             current = null;
             K key = p.key;
-            removeNode(hash(key), key, null, false, false);
+            removeNode(hashKey(key), key, null, false, false);
             expectedModCount = modCount;
         }
     }
@@ -1195,6 +2389,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         int fence;                  // one past last index
         int est;                    // size estimate
         int expectedModCount;       // for comodification checks
+        boolean exact;              // est is exact, only after balanced splits
 
         HashMapSpliterator(HashMap<K, V> m, int origin,
                            int fence, int est,
@@ -1210,7 +2405,9 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             int hi;
             if ((hi = fence) < 0) {
                 HashMap<K, V> m = map;
+                m.finishTransfer();
                 est = m.size;
+                exact = true;
                 expectedModCount = m.modCount;
                 Node<K, V>[] tab = m.table;
                 hi = fence = (tab == null) ? 0 : tab.length;
@@ -1222,6 +2419,44 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             getFence(); // force init
             return (long) est;
         }
+
+        /**
+         * 把[index, fence)拆成两半，前一半交给新的spliterator，返回 (前一半的元素个数<<32)|拆分点，不能拆分时返回-1。
+         * 开启平衡拆分时按区域计数找到元素个数最接近一半的区域边界，两半的元素个数都是准确的；
+         * 否则按下标对半拆分，元素个数只是估计
+         */
+        final long splitAt() {
+            int hi = getFence(), lo = index, mid, e;
+            int[] rc = map.regionCounts;
+            if (current != null)
+                return -1L;
+            if (rc == null || !exact || map.modCount != expectedModCount) {
+                if (lo >= (mid = (lo + hi) >>> 1))
+                    return -1L;
+                e = est >>>= 1;
+                exact = false;
+            } else {
+                int r = lo >>> REGION_SHIFT, rhi = hi >>> REGION_SHIFT, half = est >>> 1;
+                if (rhi - r < 2 || est < 2) // 不足两个区域，或者没有可分的元素
+                    return -1L;
+                e = rc[r++]; // 前一半至少包含一个区域
+                for (int c; r < rhi - 1 && e + (c = rc[r]) <= half; ++r)
+                    e += c;
+                mid = r << REGION_SHIFT;
+                est -= e;
+            }
+            index = mid;
+            return ((long) e << 32) | mid;
+        }
+
+        /**
+         * 平衡拆分时每一段的元素个数都是准确的
+         */
+        final int sizeCharacteristics() {
+            if (map.regionCounts != null && (fence < 0 || exact))
+                return Spliterator.SIZED | Spliterator.SUBSIZED;
+            return (fence < 0 || est == map.size) ? Spliterator.SIZED : 0;
+        }
     }
 
     static final class KeySpliterator<K, V>
@@ -1233,10 +2468,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
 
         public KeySpliterator<K, V> trySplit() {
-            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
-            return (lo >= mid || current != null) ? null :
-                    new KeySpliterator<>(map, lo, index = mid, est >>>= 1,
-                            expectedModCount);
+            int lo = index;
+            long s = splitAt();
+            if (s < 0L)
+                return null;
+            KeySpliterator<K, V> prefix = new KeySpliterator<>(map, lo, (int) s,
+                    (int) (s >>> 32), expectedModCount);
+            prefix.exact = exact;
+            return prefix;
         }
 
         public void forEachRemaining(Consumer<? super K> action) {
@@ -1246,6 +2485,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             HashMap<K, V> m = map;
             Node<K, V>[] tab = m.table;
             if ((hi = fence) < 0) {
+                m.finishTransfer();
                 mc = expectedModCount = m.modCount;
                 hi = fence = (tab == null) ? 0 : tab.length;
             } else
@@ -1290,8 +2530,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
 
         public int characteristics() {
-            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) |
-                    Spliterator.DISTINCT;
+            return sizeCharacteristics() | Spliterator.DISTINCT;
         }
     }
 
@@ -1304,10 +2543,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
 
         public ValueSpliterator<K, V> trySplit() {
-            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
-            return (lo >= mid || current != null) ? null :
-                    new ValueSpliterator<>(map, lo, index = mid, est >>>= 1,
-                            expectedModCount);
+            int lo = index;
+            long s = splitAt();
+            if (s < 0L)
+                return null;
+            ValueSpliterator<K, V> prefix = new ValueSpliterator<>(map, lo, (int) s,
+                    (int) (s >>> 32), expectedModCount);
+            prefix.exact = exact;
+            return prefix;
         }
 
         public void forEachRemaining(Consumer<? super V> action) {
@@ -1317,6 +2560,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             HashMap<K, V> m = map;
             Node<K, V>[] tab = m.table;
             if ((hi = fence) < 0) {
+                m.finishTransfer();
                 mc = expectedModCount = m.modCount;
                 hi = fence = (tab == null) ? 0 : tab.length;
             } else
@@ -1361,7 +2605,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
 
         public int characteristics() {
-            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0);
+            return sizeCharacteristics();
         }
     }
 
@@ -1374,10 +2618,14 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
 
         public EntrySpliterator<K, V> trySplit() {
-            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
-            return (lo >= mid || current != null) ? null :
-                    new EntrySpliterator<>(map, lo, index = mid, est >>>= 1,
-                            expectedModCount);
+            int lo = index;
+            long s = splitAt();
+            if (s < 0L)
+                return null;
+            EntrySpliterator<K, V> prefix = new EntrySpliterator<>(map, lo, (int) s,
+                    (int) (s >>> 32), expectedModCount);
+            prefix.exact = exact;
+            return prefix;
         }
 
         public void forEachRemaining(Consumer<? super Entry<K, V>> action) {
@@ -1387,6 +2635,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             HashMap<K, V> m = map;
             Node<K, V>[] tab = m.table;
             if ((hi = fence) < 0) {
+                m.finishTransfer();
                 mc = expectedModCount = m.modCount;
                 hi = fence = (tab == null) ? 0 : tab.length;
             } else
@@ -1431,8 +2680,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
         }
 
         public int characteristics() {
-            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) |
-                    Spliterator.DISTINCT;
+            return sizeCharacteristics() | Spliterator.DISTINCT;
         }
     }
 
@@ -1473,6 +2721,11 @@ public class HashMap<K, V> extends AbstractMap<K, V>
      */
     void reinitialize() {
         table = null;
+        regionCounts = null;
+        stats = (stats == null) ? null : new HashMapStats(); // clone后重新计数
+        journal = null; // 副本不共享日志
+        oldTable = null;
+        transferIndex = 0;
         entrySet = null;
         keySet = null;
         values = null;
@@ -1494,6 +2747,7 @@ public class HashMap<K, V> extends AbstractMap<K, V>
     // Called only from writeObject, to ensure compatible ordering.
     void internalWriteEntries(java.io.ObjectOutputStream s) throws IOException {
         Node<K, V>[] tab;
+        finishTransfer();
         if (size > 0 && (tab = table) != null) {
             for (int i = 0; i < tab.length; ++i) {
                 for (Node<K, V> e = tab[i]; e != null; e = e.next) {
@@ -1523,6 +2777,30 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             super(hash, key, val, next);
         }
 
+        /**
+         * 复制以this为第一个节点的整个桶，链表顺序、节点颜色和父子关系都和原来相同，clone使用
+         */
+        final TreeNode<K, V> copyBin() {
+            IdentityHashMap<TreeNode<K, V>, TreeNode<K, V>> copies = new IdentityHashMap<>();
+            TreeNode<K, V> hd = null, tl = null;
+            for (TreeNode<K, V> e = this; e != null; e = (TreeNode<K, V>) e.next) {
+                TreeNode<K, V> p = new TreeNode<>(e.hash, e.key, e.value, null);
+                p.red = e.red;
+                copies.put(e, p);
+                if ((p.prev = tl) == null)
+                    hd = p;
+                else
+                    tl.next = p;
+                tl = p;
+            }
+            for (TreeNode<K, V> e = this, p = hd; e != null; e = (TreeNode<K, V>) e.next, p = (TreeNode<K, V>) p.next) {
+                p.parent = (e.parent == null) ? null : copies.get(e.parent);
+                p.left = (e.left == null) ? null : copies.get(e.left);
+                p.right = (e.right == null) ? null : copies.get(e.right);
+            }
+            return hd;
+        }
+
         /**
          * Returns root of tree containing this node.
          */
@@ -1591,6 +2869,28 @@ public class HashMap<K, V> extends AbstractMap<K, V>
             return null;
         }
 
+        /**
+         * 查找和probe等价的节点。probe不能和key比较大小，hash相同时两棵子树都可能有，都要查找
+         */
+        final <Q> TreeNode<K, V> findEquivalent(int h, Q probe, KeyEquivalence<? super Q> equivalence) {
+            TreeNode<K, V> p = this;
+            do {
+                int ph;
+                TreeNode<K, V> pl = p.left, pr = p.right, q;
+                if ((ph = p.hash) > h)
+                    p = pl;
+                else if (ph < h)
+                    p = pr;
+                else if (equivalence.equivalent(probe, p.key))
+                    return p;
+                else if (pr != null && (q = pr.findEquivalent(h, probe, equivalence)) != null)
+                    return q;
+                else
+                    p = pl;
+            } while (p != null);
+            return null;
+        }
+
         /**
          * Calls find for root node.
          */
@@ -1670,6 +2970,8 @@ public class HashMap<K, V> extends AbstractMap<K, V>
          */
         final Node<K, V> untreeify(HashMap<K, V> map) {
             Node<K, V> hd = null, tl = null;
+            if (map.stats != null)
+                ++map.stats.untreeifyCount;
             for (Node<K, V> q = this; q != null; q = q.next) {
                 Node<K, V> p = map.replacementNode(q, null);
                 if (tl == null)
@@ -0,0 +1,226 @@
+package com.bluesky.javasource.maps;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+
+/**
+ * 用Codec把HashMap流式写入WritableByteChannel，再从ReadableByteChannel读回，代替ObjectOutputStream的序列化
+ * 要点:
+ * 1. 格式：文件头(MAGIC、VERSION、容量、元素个数、填充因子)，之后每个元素依次是key的长度、key、value的长度、value，
+ * 长度为-1表示null。key和value的编解码由Codec决定(见Codecs)，不经过反射，也不写类描述信息
+ * 2. 写入和读取都经过一个direct ByteBuffer，攒满一块再调用一次channel，单个元素比缓冲区大时临时换成更大的堆内缓冲区；
+ * 读取时大缓冲区随着数据真正到达逐步翻倍，并且key和value的长度不能超过maxFieldLength，损坏的长度不能导致巨大的分配
+ * 3. 读取时按文件头的元素个数预先扩容，但每次最多为PRESIZE_CHUNK个元素扩容，读完这些元素再为下一批扩容，
+ * 损坏或者恶意的文件头不能让读取一开始就分配巨大的table；容量不超过PRESIZE_CHUNK时和写入时相同
+ * 4. 按map的迭代顺序写入，readInto读到LinkedHashMap中时插入顺序保持不变
+ * 5. 不是线程安全的，同一个实例同一时间只能读或写一个channel；写入期间不能修改map
+ */
+public final class HashMapChannelCodec<K, V> {
+
+    static final int MAGIC = 0x484D4343; // "HMCC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 20;
+    static final int NULL_LENGTH = -1;
+    static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * 读取时每次最多为这么多个元素预先扩容
+     */
+    static final int PRESIZE_CHUNK = 1 << 16;
+
+    /**
+     * 默认单个key或value编码后的最大字节数
+     */
+    static final int DEFAULT_MAX_FIELD_LENGTH = 1 << 26;
+
+    final Codec<K> keyCodec;
+    final Codec<V> valueCodec;
+    final int bufferSize;
+    final int maxFieldLength;
+
+    public HashMapChannelCodec(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(keyCodec, valueCodec, DEFAULT_BUFFER_SIZE);
+    }
+
+    public HashMapChannelCodec(Codec<K> keyCodec, Codec<V> valueCodec, int bufferSize) {
+        this(keyCodec, valueCodec, bufferSize, DEFAULT_MAX_FIELD_LENGTH);
+    }
+
+    /**
+     * @param maxFieldLength 单个key或value编码后的最大字节数，读取时超过的长度当做流已损坏
+     */
+    public HashMapChannelCodec(Codec<K> keyCodec, Codec<V> valueCodec, int bufferSize, int maxFieldLength) {
+        if (keyCodec == null || valueCodec == null)
+            throw new NullPointerException();
+        if (bufferSize < HEADER_SIZE)
+            throw new IllegalArgumentException("Illegal buffer size: " + bufferSize);
+        if (maxFieldLength <= 0)
+            throw new IllegalArgumentException("Illegal max field length: " + maxFieldLength);
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.bufferSize = bufferSize;
+        this.maxFieldLength = maxFieldLength;
+    }
+
+    /* ---------------- Writing -------------- */
+
+    /**
+     * 按迭代顺序写入map的所有元素，不关闭channel
+     */
+    public void write(HashMap<K, V> map, WritableByteChannel ch) throws IOException {
+        map.finishTransfer();
+        ByteBuffer buf = ByteBuffer.allocateDirect(bufferSize);
+        HashMap.Node<K, V>[] tab = map.table;
+        buf.putInt(MAGIC).putInt(VERSION).putInt((tab == null) ? 0 : tab.length).putInt(map.size)
+                .putFloat(map.loadFactor);
+        int expectedModCount = map.modCount, n = 0;
+        for (Map.Entry<K, V> e : map.entrySet()) {
+            K k = e.getKey();
+            V v = e.getValue();
+            int klen = (k == null) ? 0 : keyCodec.encodedSize(k), vlen = (v == null) ? 0 : valueCodec.encodedSize(v);
+            int len = 2 * Integer.BYTES + klen + vlen;
+            buf = ensureCapacity(ch, buf, len);
+            int start = buf.position();
+            putField(buf, k, klen, keyCodec);
+            putField(buf, v, vlen, valueCodec);
+            if (buf.position() - start != len)
+                throw new IllegalStateException("Codec wrote " + (buf.position() - start) +
+                        " bytes, expected " + len);
+            ++n;
+        }
+        if (map.modCount != expectedModCount || n != map.size)
+            throw new ConcurrentModificationException();
+        flush(ch, buf);
+    }
+
+    private static <T> void putField(ByteBuffer buf, T value, int length, Codec<T> codec) {
+        if (value == null)
+            buf.putInt(NULL_LENGTH);
+        else {
+            buf.putInt(length);
+            codec.encode(value, buf);
+        }
+    }
+
+    private ByteBuffer ensureCapacity(WritableByteChannel ch, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() < n) {
+            flush(ch, buf);
+            if (buf.capacity() < n) // 单个元素比缓冲区大，只用这一次，用堆内缓冲区
+                buf = ByteBuffer.allocate(n);
+        }
+        return buf;
+    }
+
+    private static void flush(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            ch.write(buf);
+        buf.clear();
+    }
+
+    /* ---------------- Reading -------------- */
+
+    /**
+     * 读取到一个新的HashMap中，填充因子和写入时相同，容量不超过PRESIZE_CHUNK时也相同
+     */
+    public HashMap<K, V> read(ReadableByteChannel ch) throws IOException {
+        return read(ch, null);
+    }
+
+    /**
+     * 读取到map中，已有的相同key会被覆盖。map随着读取分批扩容到能容纳读取的所有元素
+     */
+    public <M extends HashMap<K, V>> M readInto(ReadableByteChannel ch, M map) throws IOException {
+        if (map == null)
+            throw new NullPointerException();
+        read(ch, map);
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <M extends HashMap<K, V>> M read(ReadableByteChannel ch, M target) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bufferSize);
+        buf.flip();
+        buf = fill(ch, buf, HEADER_SIZE);
+        int magic = buf.getInt(), version = buf.getInt(), cap = buf.getInt(), size = buf.getInt();
+        float loadFactor = buf.getFloat();
+        if (magic != MAGIC)
+            throw new StreamCorruptedException("Not a HashMap stream: " + Integer.toHexString(magic));
+        if (version != VERSION)
+            throw new StreamCorruptedException("Unsupported version: " + version);
+        if (cap < 0 || cap > HashMap.MAXIMUM_CAPACITY || (cap & (cap - 1)) != 0 || size < 0 ||
+                !(loadFactor > 0.0f) || Float.isInfinite(loadFactor))
+            throw new StreamCorruptedException("Illegal header: capacity " + cap + ", size " + size +
+                    ", load factor " + loadFactor);
+        M map = (target != null) ? target :
+                (M) new HashMap<K, V>(Math.max(Math.min(cap, PRESIZE_CHUNK), 1), loadFactor);
+        for (int i = 0, presized = 0; i < size; ++i) {
+            if (i == presized) { // 只为接下来真正要读的一批元素扩容
+                presized = (int) Math.min((long) i + PRESIZE_CHUNK, size);
+                map.presize((int) Math.min((long) map.size + (presized - i), HashMap.MAXIMUM_CAPACITY));
+            }
+            buf = fill(ch, buf, Integer.BYTES);
+            int klen = buf.getInt();
+            K k = null;
+            if (klen != NULL_LENGTH) {
+                buf = fill(ch, buf, checkLength(klen));
+                k = decodeField(buf, klen, keyCodec);
+            }
+            buf = fill(ch, buf, Integer.BYTES);
+            int vlen = buf.getInt();
+            V v = null;
+            if (vlen != NULL_LENGTH) {
+                buf = fill(ch, buf, checkLength(vlen));
+                v = decodeField(buf, vlen, valueCodec);
+            }
+            map.putVal(map.hashKey(k), k, v, false, true);
+        }
+        return map;
+    }
+
+    private int checkLength(int length) throws StreamCorruptedException {
+        if (length < 0 || length > maxFieldLength)
+            throw new StreamCorruptedException("Illegal length: " + length + ", max " + maxFieldLength);
+        return length;
+    }
+
+    /**
+     * 解码length个字节，检查Codec读取的字节数
+     */
+    private static <T> T decodeField(ByteBuffer buf, int length, Codec<T> codec) throws StreamCorruptedException {
+        int end = buf.position() + length;
+        T value = codec.decode(buf, length, null);
+        if (buf.position() != end)
+            throw new StreamCorruptedException("Codec read " + (buf.position() - end + length) +
+                    " bytes, expected " + length);
+        return value;
+    }
+
+    /**
+     * 保证buf中至少有n个未读的字节，不够时把剩下的字节移到开头再从channel读取。
+     * 缓冲区读满了还不够n个字节时才换成两倍大(不超过n)的堆内缓冲区，分配的内存不超过真正读到的字节数的两倍
+     */
+    private static ByteBuffer fill(ReadableByteChannel ch, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() >= n)
+            return buf;
+        buf.compact();
+        while (buf.position() < n) {
+            if (!buf.hasRemaining()) {
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(n, (long) buf.capacity() << 1));
+                buf.flip();
+                larger.put(buf);
+                buf = larger;
+            }
+            if (ch.read(buf) < 0)
+                throw new EOFException("Unexpected end of stream");
+        }
+        buf.flip();
+        return buf;
+    }
+}
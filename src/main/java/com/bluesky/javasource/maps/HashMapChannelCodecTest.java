@@ -0,0 +1,155 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Iterator;
+
+@Slf4j
+public class HashMapChannelCodecTest {
+
+    static <K, V> byte[] write(HashMapChannelCodec<K, V> codec, HashMap<K, V> map) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.write(map, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    static <K, V> HashMap<K, V> read(HashMapChannelCodec<K, V> codec, byte[] bytes) throws Exception {
+        return codec.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * 空键、空值、多字节字符，缓冲区比单个元素小，读回后容量和原来相同，读取过程中没有扩容
+     */
+    @Test
+    public void roundTripTest() throws Exception {
+        HashMap<String, String> map = new HashMap<>(64, 0.5f);
+        for (int i = 0; i < 1000; i++)
+            map.put("key" + i, (i % 10 == 0) ? null : "值" + i);
+        map.put(null, "null key");
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            big.append("😀 large value ");
+        map.put("big", big.toString());
+
+        HashMapChannelCodec<String, String> codec = new HashMapChannelCodec<>(Codecs.STRING, Codecs.STRING, 64);
+        HashMap<String, String> copy = read(codec, write(codec, map));
+        Assert.assertEquals(map, copy);
+        Assert.assertEquals(map.table.length, copy.table.length);
+        Assert.assertEquals(0.5f, copy.loadFactor, 0.0f);
+        Assert.assertEquals("null key", copy.get(null));
+        Assert.assertTrue(copy.containsKey("key10"));
+        Assert.assertNull(copy.get("key10"));
+
+        HashMap<String, String> empty = read(codec, write(codec, new HashMap<>()));
+        Assert.assertTrue(empty.isEmpty());
+    }
+
+    /**
+     * readInto按写入的顺序插入，LinkedHashMap的顺序保持不变，已有的key被覆盖
+     */
+    @Test
+    public void readIntoTest() throws Exception {
+        LinkedHashMap<Integer, Long> linked = new LinkedHashMap<>();
+        for (int i = 0; i < 500; i++)
+            linked.put(499 - i, (long) i);
+        HashMapChannelCodec<Integer, Long> codec = new HashMapChannelCodec<>(Codecs.INTEGER, Codecs.LONG);
+        byte[] bytes = write(codec, linked);
+        LinkedHashMap<Integer, Long> target = new LinkedHashMap<>();
+        target.put(-1, -1L);
+        target.put(499, 100L);
+        codec.readInto(Channels.newChannel(new ByteArrayInputStream(bytes)), target);
+        Assert.assertEquals(501, target.size());
+        Iterator<Integer> it = target.keySet().iterator();
+        Assert.assertEquals(Integer.valueOf(-1), it.next());
+        Assert.assertEquals(Integer.valueOf(499), it.next());
+        Assert.assertEquals(Long.valueOf(0L), target.get(499));
+        for (int i = 498; i >= 0; i--)
+            Assert.assertEquals(Integer.valueOf(i), it.next());
+    }
+
+    @Test
+    public void wrapperCodecsTest() throws Exception {
+        HashMap<Double, Float> doubles = new HashMap<>();
+        doubles.put(Double.NaN, Float.NaN);
+        doubles.put(-0.0, 0.0f);
+        doubles.put(0.0, -0.0f);
+        doubles.put(Double.MAX_VALUE, Float.MIN_VALUE);
+        HashMapChannelCodec<Double, Float> dc = new HashMapChannelCodec<>(Codecs.DOUBLE, Codecs.FLOAT);
+        Assert.assertEquals(doubles, read(dc, write(dc, doubles)));
+
+        HashMap<Character, Boolean> chars = new HashMap<>();
+        chars.put('a', true);
+        chars.put('中', false);
+        HashMapChannelCodec<Character, Boolean> cc = new HashMapChannelCodec<>(Codecs.CHARACTER, Codecs.BOOLEAN);
+        Assert.assertEquals(chars, read(cc, write(cc, chars)));
+
+        HashMap<Short, Byte> shorts = new HashMap<>();
+        for (short s = -300; s < 300; s += 7)
+            shorts.put(s, (byte) s);
+        HashMapChannelCodec<Short, Byte> sc = new HashMapChannelCodec<>(Codecs.SHORT, Codecs.BYTE);
+        Assert.assertEquals(shorts, read(sc, write(sc, shorts)));
+    }
+
+    @Test
+    public void corruptedStreamTest() throws Exception {
+        HashMap<Integer, Integer> map = new HashMap<>();
+        for (int i = 0; i < 100; i++)
+            map.put(i, i);
+        HashMapChannelCodec<Integer, Integer> codec = new HashMapChannelCodec<>(Codecs.INTEGER, Codecs.INTEGER);
+        byte[] bytes = write(codec, map);
+        try {
+            read(codec, java.util.Arrays.copyOf(bytes, bytes.length - 3));
+            Assert.fail();
+        } catch (EOFException expected) {
+            // expected
+        }
+        byte[] bad = bytes.clone();
+        bad[0] = 0;
+        try {
+            read(codec, bad);
+            Assert.fail();
+        } catch (StreamCorruptedException expected) {
+            // expected
+        }
+        bad = bytes.clone();
+        ByteBuffer.wrap(bad).putInt(HashMapChannelCodec.HEADER_SIZE, 5); // key长度和Codec不一致
+        try {
+            read(codec, bad);
+            Assert.fail();
+        } catch (StreamCorruptedException expected) {
+            // expected
+        }
+        bad = java.util.Arrays.copyOf(bytes, HashMapChannelCodec.HEADER_SIZE + 8);
+        ByteBuffer.wrap(bad).putInt(HashMapChannelCodec.HEADER_SIZE, 0x7ffffff0); // key长度超过maxFieldLength
+        try {
+            read(codec, bad);
+            Assert.fail();
+        } catch (StreamCorruptedException expected) {
+            // expected
+        }
+        HashMapChannelCodec<Integer, Integer> unbounded =
+                new HashMapChannelCodec<>(Codecs.INTEGER, Codecs.INTEGER, 64, Integer.MAX_VALUE);
+        try { // 缓冲区随着读到的数据增长，不会按声称的长度一次分配
+            read(unbounded, bad);
+            Assert.fail();
+        } catch (EOFException expected) {
+            // expected
+        }
+        bad = bytes.clone();
+        ByteBuffer.wrap(bad).putInt(8, HashMap.MAXIMUM_CAPACITY).putInt(12, Integer.MAX_VALUE); // 文件头声称的元素个数远多于实际
+        try {
+            read(codec, bad);
+            Assert.fail();
+        } catch (EOFException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.bluesky.javasource.maps;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+
+/**
+ * HashMap的运行时统计，通过HashMap.setStatsEnabled(true)开启，HashMap.getStats()或者JMX读取
+ * 要点:
+ * 1. 默认关闭，关闭时HashMap的stats为null，只在resize、treeifyBin、untreeify中多一次判空，get/put的路径上没有额外开销
+ * 2. 计数器只在扩容、缩容和树化时更新，这些操作本身的开销远大于计数
+ * 3. 桶长度直方图和树化桶的个数在读取时扫描桶数组得到，桶数组很大时等间隔抽样最多MAX_SAMPLED_BINS个桶
+ * 4. 读取统计时可能有其他线程在修改map，结果只是近似值，不会抛出异常
+ * 5. register把map注册为JMX MXBean，只持有map的弱引用，map被回收后各项统计为0
+ */
+public final class HashMapStats {
+
+    /**
+     * 直方图最多统计的桶数
+     */
+    static final int MAX_SAMPLED_BINS = 1 << 16;
+
+    /**
+     * 直方图的长度，最后一项统计长度不小于HISTOGRAM_SIZE-1的桶，树化阈值之后的桶都在这里
+     */
+    static final int HISTOGRAM_SIZE = HashMap.TREEIFY_THRESHOLD + 2;
+
+    long resizeCount;
+    long resizeNanos;
+    long shrinkCount;
+    long treeifyCount;
+    long untreeifyCount;
+    float peakLoad;
+
+    HashMapStats() {
+    }
+
+    /**
+     * 扩容前记录达到的填充率
+     */
+    final void recordResize(int size, int oldCap, long nanos) {
+        ++resizeCount;
+        resizeNanos += nanos;
+        recordLoad((float) size / oldCap);
+    }
+
+    /**
+     * 缩容的耗时也计入resizeNanos
+     */
+    final void recordShrink(long nanos) {
+        ++shrinkCount;
+        resizeNanos += nanos;
+    }
+
+    final void recordLoad(float load) {
+        if (load > peakLoad)
+            peakLoad = load;
+    }
+
+    /* ---------------- Table scan -------------- */
+
+    /**
+     * 扫描桶数组得到的统计
+     */
+    static final class BinScan {
+        final long[] histogram = new long[HISTOGRAM_SIZE];
+        int sampledBins;
+        int treeBins;
+        int maxBinLength;
+
+        BinScan(HashMap<?, ?> map) {
+            HashMap.Node<?, ?>[] tab = map.table; // 没有迁移完的旧桶不统计
+            if (tab == null)
+                return;
+            int n = tab.length, stride = Math.max(1, n / MAX_SAMPLED_BINS);
+            for (int i = 0; i < n; i += stride) {
+                HashMap.Node<?, ?> e = tab[i];
+                int len = 0;
+                if (e instanceof HashMap.TreeNode)
+                    ++treeBins;
+                for (; e != null; e = e.next)
+                    ++len;
+                ++histogram[Math.min(len, HISTOGRAM_SIZE - 1)];
+                if (len > maxBinLength)
+                    maxBinLength = len;
+                ++sampledBins;
+            }
+            if (stride > 1) // 树化的桶按抽样比例估算
+                treeBins *= stride;
+        }
+    }
+
+    /* ---------------- JMX -------------- */
+
+    /**
+     * 注册为MXBean，name如 "com.bluesky.javasource.maps:type=HashMap,name=sessions"。
+     * 没有开启统计时会先开启
+     */
+    public static ObjectName register(String name, HashMap<?, ?> map) throws JMException {
+        map.setStatsEnabled(true);
+        ObjectName objectName = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(map), objectName);
+        return objectName;
+    }
+
+    public static void unregister(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    /**
+     * 统计视图，HashMap.getStats()和JMX共用
+     */
+    static final class MXBean implements HashMapStatsMXBean {
+        final WeakReference<HashMap<?, ?>> ref;
+
+        MXBean(HashMap<?, ?> map) {
+            this.ref = new WeakReference<>(map);
+        }
+
+        private HashMapStats stats() {
+            HashMap<?, ?> m;
+            return ((m = ref.get()) == null) ? null : m.stats;
+        }
+
+        private BinScan scan() {
+            HashMap<?, ?> m;
+            return ((m = ref.get()) == null) ? null : new BinScan(m);
+        }
+
+        public int getSize() {
+            HashMap<?, ?> m;
+            return ((m = ref.get()) == null) ? 0 : m.size;
+        }
+
+        public int getCapacity() {
+            HashMap<?, ?> m;
+            HashMap.Node<?, ?>[] tab;
+            return ((m = ref.get()) == null || (tab = m.table) == null) ? 0 : tab.length;
+        }
+
+        public float getLoadFactor() {
+            HashMap<?, ?> m;
+            return ((m = ref.get()) == null) ? 0f : m.loadFactor;
+        }
+
+        public float getLoad() {
+            int cap;
+            return ((cap = getCapacity()) == 0) ? 0f : (float) getSize() / cap;
+        }
+
+        public float getPeakLoad() {
+            HashMapStats s;
+            return ((s = stats()) == null) ? 0f : Math.max(s.peakLoad, getLoad());
+        }
+
+        public long getResizeCount() {
+            HashMapStats s;
+            return ((s = stats()) == null) ? 0L : s.resizeCount;
+        }
+
+        public long getResizeTimeNanos() {
+            HashMapStats s;
+            return ((s = stats()) == null) ? 0L : s.resizeNanos;
+        }
+
+        public long getShrinkCount() {
+            HashMapStats s;
+            return ((s = stats()) == null) ? 0L : s.shrinkCount;
+        }
+
+        public long getTreeifyCount() {
+            HashMapStats s;
+            return ((s = stats()) == null) ? 0L : s.treeifyCount;
+        }
+
+        public long getUntreeifyCount() {
+            HashMapStats s;
+            return ((s = stats()) == null) ? 0L : s.untreeifyCount;
+        }
+
+        public int getTreeBinCount() {
+            BinScan b;
+            return ((b = scan()) == null) ? 0 : b.treeBins;
+        }
+
+        public long[] getBinLengthHistogram() {
+            BinScan b;
+            return ((b = scan()) == null) ? new long[HISTOGRAM_SIZE] : b.histogram;
+        }
+
+        public int getMaxBinLength() {
+            BinScan b;
+            return ((b = scan()) == null) ? 0 : b.maxBinLength;
+        }
+
+        public int getSampledBins() {
+            BinScan b;
+            return ((b = scan()) == null) ? 0 : b.sampledBins;
+        }
+    }
+}
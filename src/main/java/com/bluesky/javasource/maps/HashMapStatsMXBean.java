@@ -0,0 +1,56 @@
+package com.bluesky.javasource.maps;
+
+/**
+ * HashMap运行时统计的JMX接口，通过HashMapStats.register注册
+ */
+public interface HashMapStatsMXBean {
+
+    int getSize();
+
+    int getCapacity();
+
+    float getLoadFactor();
+
+    /**
+     * 当前实际的填充率 size/capacity
+     */
+    float getLoad();
+
+    /**
+     * 曾经达到的最高填充率
+     */
+    float getPeakLoad();
+
+    long getResizeCount();
+
+    /**
+     * 扩容和缩容的总耗时
+     */
+    long getResizeTimeNanos();
+
+    /**
+     * 缩容次数，见HashMap.trimToSize和setAutoShrink
+     */
+    long getShrinkCount();
+
+    long getTreeifyCount();
+
+    long getUntreeifyCount();
+
+    /**
+     * 当前是红黑树的桶的个数
+     */
+    int getTreeBinCount();
+
+    /**
+     * 桶长度直方图，下标i为长度为i的桶的个数，最后一项为长度不小于它的桶的个数
+     */
+    long[] getBinLengthHistogram();
+
+    int getMaxBinLength();
+
+    /**
+     * 直方图统计了多少个桶，小于capacity时是抽样的结果
+     */
+    int getSampledBins();
+}
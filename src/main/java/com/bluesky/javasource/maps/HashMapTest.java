@@ -1,8 +1,13 @@
 package com.bluesky.javasource.maps;
 
 import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
 import static com.bluesky.javasource.maps.HashMap.MAXIMUM_CAPACITY;
 
 @Slf4j
@@ -31,6 +36,633 @@ public class HashMapTest {
         System.out.println(HashMap.comparableClassFor(new E()));
     }
 
+    /**
+     * 增量扩容，随机操作和java.util.HashMap的结果对比，部分key的hash值只有64种，桶中会出现红黑树
+     */
+    @Test
+    public void incrementalResizeTest() {
+        HashMap<Object, Integer> map = new HashMap<>();
+        map.setIncrementalResize(true);
+        java.util.HashMap<Object, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 300000; i++) {
+            int id = random.nextInt(20000);
+            Object key = random.nextInt(8) == 0 ? new CollidingKey(id) : id;
+            switch (random.nextInt(6)) {
+                case 0:
+                    Assert.assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 1:
+                    Assert.assertEquals(expected.get(key), map.get(key));
+                    break;
+                case 2:
+                    Assert.assertEquals(expected.merge(key, 1, Integer::sum), map.merge(key, 1, Integer::sum));
+                    break;
+                default:
+                    Assert.assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            if (map.oldTable != null && random.nextInt(1000) == 0) // 扩容过程中遍历
+                Assert.assertEquals(expected.size(), map.keySet().stream().count());
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertNull(map.oldTable);
+    }
+
+    /**
+     * "Aa"和"BB"的hashCode相同，拼接出的2^12个字符串hashCode全部相同
+     */
+    @Test
+    public void seededHashTest() throws Exception {
+        java.util.List<String> keys = new java.util.ArrayList<>();
+        keys.add("");
+        for (int i = 0; i < 12; i++) {
+            java.util.List<String> next = new java.util.ArrayList<>();
+            for (String k : keys) {
+                next.add(k + "Aa");
+                next.add(k + "BB");
+            }
+            keys = next;
+        }
+        HashMap<String, Integer> plain = new HashMap<>();
+        HashMap<String, Integer> seeded = new HashMap<>();
+        seeded.setSeededHash(true);
+        for (int i = 0; i < keys.size(); i++) {
+            plain.put(keys.get(i), i);
+            seeded.put(keys.get(i), i);
+        }
+        Assert.assertEquals(keys.size(), maxBinLength(plain)); // 全部在一个桶中，已经树化
+        Assert.assertTrue(maxBinLength(seeded) < HashMap.TREEIFY_THRESHOLD);
+        Assert.assertEquals(plain, seeded);
+
+        // 反序列化后重新生成种子
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes)) {
+            out.writeObject(seeded);
+        }
+        @SuppressWarnings("unchecked")
+        HashMap<String, Integer> copy = (HashMap<String, Integer>) new java.io.ObjectInputStream(
+                new java.io.ByteArrayInputStream(bytes.toByteArray())).readObject();
+        Assert.assertTrue(copy.isSeededHash());
+        Assert.assertNotEquals(seeded.hashSeed, copy.hashSeed);
+        Assert.assertEquals(seeded, copy);
+
+        // 已有元素的map开启种子，LinkedHashMap的顺序不变
+        LinkedHashMap<String, Integer> linked = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++)
+            linked.put(keys.get(i), i);
+        linked.setSeededHash(true);
+        Assert.assertTrue(maxBinLength(linked) < HashMap.TREEIFY_THRESHOLD);
+        Assert.assertEquals(keys, new java.util.ArrayList<>(linked.keySet()));
+        Assert.assertEquals(Integer.valueOf(5), linked.get(keys.get(5)));
+        linked.setSeededHash(false);
+        Assert.assertEquals(Integer.valueOf(5), linked.get(keys.get(5)));
+    }
+
+    @Test
+    public void parallelBulkTest() {
+        HashMap<Integer, Long> map = new HashMap<>();
+        map.setIncrementalResize(true); // 批量操作前先完成迁移
+        long sum = 0;
+        for (int i = 0; i < 1000000; i++) {
+            map.put(i, (long) i);
+            sum += i;
+        }
+        for (long threshold : new long[]{1L, 10000L, Long.MAX_VALUE}) {
+            java.util.concurrent.atomic.LongAdder count = new java.util.concurrent.atomic.LongAdder();
+            map.forEach(threshold, (k, v) -> count.increment());
+            Assert.assertEquals(map.size(), count.sum());
+            Assert.assertEquals(Long.valueOf(sum), map.reduceValues(threshold, Long::sum));
+            Assert.assertEquals(sum, map.reduceValuesToLong(threshold, Long::longValue, 0L, Long::sum));
+            Assert.assertEquals(Integer.valueOf(999999),
+                    map.reduceEntries(threshold, Map.Entry::getKey, Math::max));
+            Assert.assertEquals("found 123456", map.search(threshold,
+                    (k, v) -> k == 123456 ? "found " + k : null));
+            Assert.assertNull(map.search(threshold, (k, v) -> k < 0 ? k : null));
+        }
+        map.replaceAll(1L, (k, v) -> v * 2);
+        Assert.assertEquals(sum * 2, map.reduceToLong(1L, (k, v) -> v, 0L, Long::sum));
+        Assert.assertNull(new HashMap<Integer, Long>().reduceValues(1L, Long::sum));
+
+        // LinkedHashMap同样按桶数组并行
+        LinkedHashMap<Integer, Long> linked = new LinkedHashMap<>(16, 0.75f, true);
+        linked.putAll(map);
+        Assert.assertEquals(sum * 2, linked.reduceValuesToLong(1L, Long::longValue, 0L, Long::sum));
+    }
+
+    /**
+     * key集中在桶数组的前15%，按下标拆分时第一次拆分就把所有元素分到了一边
+     */
+    @Test
+    public void balancedSplitTest() {
+        HashMap<Integer, Integer> map = new HashMap<>(1 << 16);
+        map.setBalancedSplit(true);
+        for (int i = 0; i < 10000; i++)
+            map.put(i, i);
+        java.util.Spliterator<Integer> right = map.keySet().spliterator();
+        Assert.assertTrue(right.hasCharacteristics(java.util.Spliterator.SUBSIZED));
+        java.util.Spliterator<Integer> left = right.trySplit();
+        log.info("split sizes: {} {}", left.estimateSize(), right.estimateSize());
+        Assert.assertTrue(Math.abs(left.estimateSize() - right.estimateSize()) <= 64);
+        Assert.assertEquals(10000, left.estimateSize() + right.estimateSize());
+        long[] counted = new long[1];
+        left.forEachRemaining(k -> counted[0]++);
+        Assert.assertEquals(left.estimateSize(), counted[0]);
+
+        // 插入、删除、扩容后区域计数仍然准确
+        map.setIncrementalResize(true);
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(100000);
+            if (random.nextBoolean())
+                map.remove(key);
+            else
+                map.merge(key, 1, Integer::sum);
+        }
+        map.finishTransfer();
+        int[] expected = new int[map.regionCounts.length];
+        for (int i = 0; i < map.table.length; i++) {
+            for (HashMap.Node<Integer, Integer> e = map.table[i]; e != null; e = e.next)
+                expected[i >>> HashMap.REGION_SHIFT]++;
+        }
+        Assert.assertArrayEquals(expected, map.regionCounts);
+        Assert.assertEquals(map.size(), map.keySet().parallelStream().count());
+        Assert.assertEquals(map.size(), map.values().parallelStream().toArray().length);
+        Assert.assertEquals(map.size(), map.reduceValuesToLong(1L, v -> 1L, 0L, Long::sum));
+    }
+
+    @Test
+    public void statsTest() throws Exception {
+        HashMap<Object, Integer> map = new HashMap<>();
+        Assert.assertNull(map.getStats());
+        javax.management.ObjectName name = HashMapStats.register(
+                "com.bluesky.javasource.maps:type=HashMap,name=statsTest", map);
+        try {
+            for (int i = 0; i < 1000; i++)
+                map.put(i, i);
+            for (int i = 0; i < 20; i++)
+                map.put(new CollidingKey(i << 6), i); // 同一个桶，树化
+            HashMapStatsMXBean stats = map.getStats();
+            Assert.assertEquals(7, stats.getResizeCount()); // 16 -> 2048
+            Assert.assertEquals(1, stats.getTreeifyCount());
+            Assert.assertEquals(1, stats.getTreeBinCount());
+            Assert.assertEquals(20 + 1, stats.getMaxBinLength()); // 还有key为0的元素
+            Assert.assertEquals(2048, stats.getSampledBins());
+            Assert.assertEquals(2048, java.util.Arrays.stream(stats.getBinLengthHistogram()).sum());
+            Assert.assertEquals(13f / 16, stats.getPeakLoad(), 1e-6); // 容量16时插入第13个元素触发扩容
+            for (int i = 0; i < 20; i++)
+                map.remove(new CollidingKey(i << 6));
+            Assert.assertEquals(1, stats.getUntreeifyCount());
+
+            Object resizes = java.lang.management.ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(name, "ResizeCount");
+            Assert.assertEquals(7L, resizes);
+        } finally {
+            HashMapStats.unregister(name);
+        }
+        map.setStatsEnabled(false);
+        Assert.assertNull(map.stats);
+    }
+
+    /**
+     * 元素大量删除后缩容，树化的桶合并后重新树化，LinkedHashMap的顺序不变
+     */
+    @Test
+    public void shrinkTest() {
+        HashMap<Object, Integer> map = new HashMap<>();
+        map.setStatsEnabled(true);
+        for (int i = 0; i < 100000; i++)
+            map.put(i, i);
+        for (int i = 0; i < 20; i++)
+            map.put(new CollidingKey(i << 6), i);
+        Assert.assertEquals(1 << 18, map.table.length);
+        for (int i = 100; i < 100000; i++)
+            map.remove(i);
+        map.trimToSize();
+        Assert.assertEquals(256, map.table.length); // 120个元素，120/0.75=160
+        Assert.assertEquals(1, map.getStats().getShrinkCount());
+        Assert.assertEquals(1, map.getStats().getTreeBinCount());
+        for (int i = 0; i < 100; i++)
+            Assert.assertEquals(Integer.valueOf(i), map.get(i));
+        Assert.assertEquals(Integer.valueOf(19), map.get(new CollidingKey(19 << 6)));
+
+        map.setAutoShrink(true);
+        for (int i = 0; i < 100; i++)
+            map.remove(i);
+        Assert.assertEquals(64, map.table.length); // 20个元素，阈值不小于40
+        for (int i = 0; i < 20; i++)
+            map.remove(new CollidingKey(i << 6));
+        Assert.assertEquals(16, map.table.length);
+        map.trimToSize();
+        Assert.assertNull(map.table);
+        map.put(1, 1);
+        Assert.assertEquals(16, map.table.length);
+
+        LinkedHashMap<Integer, Integer> linked = new LinkedHashMap<>();
+        linked.setAutoShrink(true);
+        for (int i = 0; i < 10000; i++)
+            linked.put(i, i);
+        for (int i = 0; i < 10000; i += 2)
+            linked.remove(i);
+        for (int i = 1; i < 9000; i += 2)
+            linked.remove(i);
+        Assert.assertEquals(2048, linked.table.length); // 16384 -> 8192 -> 4096 -> 2048
+        int expected = 9001;
+        for (Integer key : linked.keySet()) {
+            Assert.assertEquals(expected, key.intValue());
+            expected += 2;
+        }
+    }
+
+    /**
+     * 批量查找和插入：不存在的key、空键、重复的key、红黑树桶、增量扩容中的map，LinkedHashMap保持顺序
+     */
+    @Test
+    public void batchTest() {
+        HashMap<Object, Integer> map = new HashMap<>();
+        map.setIncrementalResize(true);
+        Object[] keys = new Object[600];
+        Integer[] values = new Integer[600];
+        for (int i = 0; i < 500; i++) {
+            keys[i] = (i % 5 == 0) ? new CollidingKey(i) : (Object) i;
+            values[i] = i;
+        }
+        keys[500] = null;
+        values[500] = -1;
+        for (int i = 501; i < 600; i++) { // 重复的key，后面的生效
+            keys[i] = i - 501;
+            values[i] = -i;
+        }
+        map.putAll(keys, values);
+        Assert.assertEquals(521, map.size()); // 0..95中5的倍数前面是CollidingKey，这里是新的key
+        Assert.assertTrue(map.threshold >= 521);
+        Assert.assertEquals(Integer.valueOf(-1), map.get(null));
+        Assert.assertEquals(Integer.valueOf(-502), map.get(1));
+        Assert.assertEquals(Integer.valueOf(0), map.get(new CollidingKey(0)));
+
+        for (int i = 0; i < 100000; i++) // 触发增量扩容
+            map.put("k" + i, i);
+        Object[] query = {1, "k7", new CollidingKey(5), "missing", null, new CollidingKey(7), 1};
+        Integer[] out = new Integer[query.length];
+        map.getAll(query, out);
+        Assert.assertArrayEquals(new Integer[]{-502, 7, 5, null, -1, null, -502}, out);
+
+        LinkedHashMap<Integer, Integer> linked = new LinkedHashMap<>(16, 0.75f, true);
+        Integer[] lk = new Integer[100];
+        for (int i = 0; i < 100; i++)
+            lk[i] = 99 - i;
+        linked.putAll(lk, lk);
+        Assert.assertEquals(Integer.valueOf(99), linked.keySet().iterator().next());
+        linked.getAll(new Integer[]{50, 99}, new Integer[2]); // 按访问顺序移动到末尾
+        Iterator<Integer> it = linked.keySet().iterator();
+        for (int i = 98; i >= 0; i--) {
+            if (i != 50)
+                Assert.assertEquals(Integer.valueOf(i), it.next());
+        }
+        Assert.assertEquals(Integer.valueOf(50), it.next());
+        Assert.assertEquals(Integer.valueOf(99), it.next());
+
+        HashMap<Integer, Integer> big = new HashMap<>();
+        for (int i = 0; i < 1 << 20; i++)
+            big.put(i * 0x9E3779B1, i);
+        Random random = new Random(1);
+        Integer[] batch = new Integer[256];
+        Integer[] result = new Integer[256];
+        long single = 0, batched = 0;
+        for (int round = 0; round < 500; round++) {
+            for (int i = 0; i < batch.length; i++)
+                batch[i] = random.nextInt(1 << 20) * 0x9E3779B1;
+            long start = System.nanoTime();
+            for (int i = 0; i < batch.length; i++)
+                result[i] = big.get(batch[i]);
+            single += System.nanoTime() - start;
+            start = System.nanoTime();
+            big.getAll(batch, result);
+            batched += System.nanoTime() - start;
+        }
+        log.info("get: {} ms, getAll: {} ms", single / 1000000, batched / 1000000);
+    }
+
+    /**
+     * 用ByteSlice、StringBuilder查找String类型的key，同一个hash查找多个map，红黑树桶和带种子的hash
+     */
+    @Test
+    public void equivalenceTest() {
+        HashMap<String, Integer> map = new HashMap<>();
+        LinkedHashMap<String, Integer> other = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, i);
+            other.put("key" + i, -i);
+        }
+        String[] same = new String[16]; // hashCode全部相同
+        for (int i = 0; i < same.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int bit = 3; bit >= 0; bit--)
+                sb.append((i >>> bit & 1) == 0 ? "Aa" : "BB");
+            same[i] = sb.toString();
+            map.put(same[i], 10000 + i);
+        }
+        Assert.assertTrue(map.table[HashMap.hash(same[0]) & (map.table.length - 1)] instanceof HashMap.TreeNode);
+
+        byte[] buffer = "GET key42 key999 AaBBAaBB key1000 ".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        ByteSlice slice = new ByteSlice();
+        Assert.assertEquals("key42", slice.set(buffer, 4, 5).toString());
+        int hash = KeyEquivalence.CHARS.hash(slice);
+        Assert.assertEquals("key42".hashCode(), hash);
+        Assert.assertEquals(Integer.valueOf(42), map.get(hash, slice, KeyEquivalence.CHARS));
+        Assert.assertEquals(Integer.valueOf(-42), other.get(hash, slice, KeyEquivalence.CHARS)); // 复用hash
+        slice.set(buffer, 10, 6);
+        Assert.assertEquals(Integer.valueOf(999), map.get(KeyEquivalence.CHARS.hash(slice), slice, KeyEquivalence.CHARS));
+        slice.set(buffer, 17, 8);
+        Assert.assertEquals(Integer.valueOf(10005), map.get(KeyEquivalence.CHARS.hash(slice), slice, KeyEquivalence.CHARS));
+        slice.set(buffer, 26, 7);
+        Assert.assertFalse(map.containsKey(KeyEquivalence.CHARS.hash(slice), slice, KeyEquivalence.CHARS));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < same.length; i++) {
+            sb.setLength(0);
+            sb.append(same[i]);
+            Assert.assertEquals(Integer.valueOf(10000 + i), map.get(KeyEquivalence.CHARS.hash(sb), sb, KeyEquivalence.CHARS));
+        }
+
+        // 自定义策略：用long查找Integer类型的key
+        HashMap<Integer, String> ints = new HashMap<>();
+        ints.put(7, "seven");
+        KeyEquivalence<Long> longs = new KeyEquivalence<Long>() {
+            public int hash(Long probe) {
+                return Integer.hashCode(probe.intValue());
+            }
+
+            public boolean equivalent(Long probe, Object key) {
+                return key instanceof Integer && ((Integer) key).longValue() == probe;
+            }
+        };
+        Assert.assertEquals("seven", ints.get(longs.hash(7L), 7L, longs));
+        Assert.assertNull(ints.get(longs.hash(8L), 8L, longs));
+
+        // 带种子的hash按内容重新计算，其他策略不支持
+        map.setSeededHash(true);
+        slice.set(buffer, 4, 5);
+        Assert.assertEquals(Integer.valueOf(42), map.get(KeyEquivalence.CHARS.hash(slice), slice, KeyEquivalence.CHARS));
+        ints.setSeededHash(true);
+        try {
+            ints.get(longs.hash(7L), 7L, longs);
+            Assert.fail();
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * clone逐个桶复制：桶的结构、红黑树的形状和颜色和原来相同，LinkedHashMap保持访问顺序，修改副本不影响原来的map
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void cloneTest() {
+        HashMap<Object, Integer> map = new HashMap<>();
+        map.setIncrementalResize(true);
+        for (int i = 0; i < 20000; i++)
+            map.put((i % 4 == 0) ? new CollidingKey(i) : (Object) i, i);
+        HashMap<Object, Integer> copy = (HashMap<Object, Integer>) map.clone();
+        Assert.assertEquals(map, copy);
+        Assert.assertEquals(map.table.length, copy.table.length);
+        Assert.assertEquals(map.threshold, copy.threshold);
+        for (int j = 0; j < map.table.length; j++)
+            assertSameBin(map.table[j], copy.table[j]);
+        Iterator<Object> a = map.keySet().iterator(), b = copy.keySet().iterator();
+        while (a.hasNext())
+            Assert.assertSame(a.next(), b.next());
+        copy.put(-1, -1);
+        copy.remove(new CollidingKey(0));
+        Assert.assertFalse(map.containsKey(-1));
+        Assert.assertEquals(Integer.valueOf(0), map.get(new CollidingKey(0)));
+        Assert.assertEquals(Integer.valueOf(4), copy.get(new CollidingKey(4)));
+        Assert.assertEquals(0, ((HashMap<?, ?>) new HashMap<>().clone()).size());
+
+        LinkedHashMap<Object, Integer> linked = new LinkedHashMap<>(16, 0.75f, true);
+        for (int i = 0; i < 5000; i++)
+            linked.put((i % 4 == 0) ? new CollidingKey(i) : (Object) i, i);
+        for (int i = 0; i < 5000; i += 7)
+            linked.get((i % 4 == 0) ? new CollidingKey(i) : (Object) i);
+        LinkedHashMap<Object, Integer> linkedCopy = (LinkedHashMap<Object, Integer>) linked.clone();
+        Iterator<Map.Entry<Object, Integer>> x = linked.entrySet().iterator(), y = linkedCopy.entrySet().iterator();
+        while (x.hasNext())
+            Assert.assertEquals(x.next(), y.next());
+        Assert.assertFalse(y.hasNext());
+        Assert.assertTrue(linkedCopy.table[new CollidingKey(0).hashCode()] instanceof HashMap.TreeNode);
+        for (int i = 0; i < 5000; i++)
+            Assert.assertEquals(Integer.valueOf(i), linkedCopy.get((i % 4 == 0) ? new CollidingKey(i) : (Object) i));
+        Assert.assertEquals(Integer.valueOf(4999), linkedCopy.values().stream().reduce((p, q) -> q).get()); // 访问顺序
+
+        HashMap<Integer, Integer> big = new HashMap<>();
+        for (int i = 0; i < 1 << 20; i++)
+            big.put(i, i);
+        long cloned = 0, copied = 0;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            Assert.assertEquals(big.size(), ((HashMap<?, ?>) big.clone()).size());
+            cloned += System.nanoTime() - start;
+            start = System.nanoTime();
+            Assert.assertEquals(big.size(), new HashMap<>(big).size());
+            copied += System.nanoTime() - start;
+        }
+        log.info("clone: {} ms, copy constructor: {} ms", cloned / 1000000, copied / 1000000);
+    }
+
+    /**
+     * 并行扩容：结果和串行扩容相同，红黑树桶、平衡拆分的区域计数、LinkedHashMap(红黑树桶留给调用线程)都正确
+     */
+    @Test
+    public void parallelResizeTest() {
+        HashMap<Object, Integer> map = new HashMap<>();
+        map.setParallelResize(true);
+        map.setBalancedSplit(true);
+        int n = 1 << 18;
+        for (int i = 0; i < n; i++)
+            map.put((i % 1024 == 0) ? new CollidingKey(i) : (Object) i, i);
+        Assert.assertEquals(n, map.size());
+        for (int i = 0; i < n; i++)
+            Assert.assertEquals(Integer.valueOf(i), map.get((i % 1024 == 0) ? new CollidingKey(i) : (Object) i));
+        int[] counts = new int[map.regionCounts.length];
+        for (int j = 0; j < map.table.length; j++) {
+            for (HashMap.Node<Object, Integer> e = map.table[j]; e != null; e = e.next) {
+                Assert.assertEquals(j, e.hash & (map.table.length - 1));
+                counts[j >>> HashMap.REGION_SHIFT]++;
+            }
+        }
+        Assert.assertArrayEquals(counts, map.regionCounts);
+        Assert.assertTrue(map.table[new CollidingKey(0).hashCode()] instanceof HashMap.TreeNode);
+
+        LinkedHashMap<Object, Integer> linked = new LinkedHashMap<>();
+        linked.setParallelResize(true);
+        for (int i = 0; i < n; i++)
+            linked.put((i % 1024 == 0) ? new CollidingKey(i) : (Object) i, i);
+        int expected = 0;
+        for (Integer v : linked.values())
+            Assert.assertEquals(expected++, v.intValue());
+        for (int i = 0; i < n; i += 1024)
+            Assert.assertEquals(Integer.valueOf(i), linked.get(new CollidingKey(i)));
+
+        long[] nanos = new long[2];
+        for (int round = 0; round < 3; round++) {
+            for (int k = 0; k < 2; k++) {
+                HashMap<Integer, Integer> big = new HashMap<>(1 << 21);
+                big.setParallelResize(k == 1);
+                for (int i = 0; i < 1 << 20; i++)
+                    big.put(i * 0x9E3779B1, i);
+                big.setStatsEnabled(true);
+                long start = System.nanoTime();
+                big.resize();
+                nanos[k] += System.nanoTime() - start;
+                Assert.assertEquals(1 << 22, big.table.length);
+                Assert.assertEquals(Integer.valueOf(7), big.get(7 * 0x9E3779B1));
+            }
+        }
+        log.info("resize 2^21 -> 2^22, sequential: {} ms, parallel: {} ms ({} threads)", nanos[0] / 1000000,
+                nanos[1] / 1000000, java.util.concurrent.ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * diff：容量相同(逐个比较对应的桶)、容量不同、带种子的hash三种情况结果相同，红黑树桶和空值也正确；
+     * applyTo之后两个map相等。mergeFrom覆盖或者按函数合并，结果为null时删除
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void diffAndMergeTest() {
+        HashMap<Object, Integer> actual = new HashMap<>();
+        for (int i = 0; i < 5000; i++)
+            actual.put((i % 8 == 0) ? new CollidingKey(i) : (Object) i, i);
+        actual.put(null, 0);
+        HashMap<Object, Integer> desired = (HashMap<Object, Integer>) actual.clone();
+        for (int i = 0; i < 5000; i += 3)
+            desired.remove((i % 8 == 0) ? new CollidingKey(i) : (Object) i);
+        for (int i = 1; i < 5000; i += 5)
+            desired.put((i % 8 == 0) ? new CollidingKey(i) : (Object) i, (i % 2 == 0) ? null : -i);
+        for (int i = 5000; i < 5400; i++)
+            desired.put((i % 8 == 0) ? new CollidingKey(i) : (Object) i, i);
+        desired.put(null, null);
+        Assert.assertEquals(actual.table.length, desired.table.length);
+
+        MapDiff<Object, Integer> d = actual.diff(desired);
+        Assert.assertEquals(400, d.addedCount());
+        Assert.assertEquals(1667 - 333, d.removedCount()); // 3的倍数中模15余6的又被重新写入
+        Assert.assertTrue(d.changed().anyMatch(c -> c.getKey() == null && c.getNewValue() == null));
+        Assert.assertTrue(d.changed().anyMatch(c -> new CollidingKey(16).equals(c.getKey())));
+        Assert.assertTrue(d.added().allMatch(e -> !actual.containsKey(e.getKey())));
+        Assert.assertTrue(d.removed().allMatch(e -> !desired.containsKey(e.getKey())));
+
+        HashMap<Object, Integer> bigger = new HashMap<>(1 << 16); // 容量不同
+        bigger.putAll(desired);
+        MapDiff<Object, Integer> d2 = actual.diff(bigger);
+        Assert.assertEquals(d.addedCount(), d2.addedCount());
+        Assert.assertEquals(d.removedCount(), d2.removedCount());
+        Assert.assertEquals(d.changedCount(), d2.changedCount());
+        HashMap<Object, Integer> seeded = new HashMap<>(desired);
+        seeded.setSeededHash(true);
+        Assert.assertEquals(d.changedCount(), actual.diff(seeded).changedCount());
+
+        HashMap<Object, Integer> target = (HashMap<Object, Integer>) actual.clone();
+        d.applyTo(target);
+        Assert.assertEquals(desired, target);
+        Assert.assertTrue(target.diff(desired).isEmpty());
+
+        HashMap<Object, Integer> merged = (HashMap<Object, Integer>) actual.clone();
+        merged.mergeFrom(seeded);
+        for (Object k : desired.keySet())
+            Assert.assertEquals(desired.get(k), merged.get(k));
+        Assert.assertEquals(actual.size() + 400, merged.size());
+
+        HashMap<String, Integer> counts = new HashMap<>();
+        counts.put("a", 1);
+        counts.put("b", 2);
+        HashMap<String, Integer> delta = new HashMap<>();
+        delta.put("a", 10);
+        delta.put("b", -2);
+        delta.put("c", 3);
+        counts.mergeFrom(delta, (x, y) -> (x + y == 0) ? null : x + y);
+        Assert.assertEquals(Integer.valueOf(11), counts.get("a"));
+        Assert.assertFalse(counts.containsKey("b"));
+        Assert.assertEquals(Integer.valueOf(3), counts.get("c"));
+        counts.mergeFrom(counts, Integer::sum);
+        Assert.assertEquals(Integer.valueOf(22), counts.get("a"));
+
+        HashMap<Integer, Integer> left = new HashMap<>(), right;
+        for (int i = 0; i < 1 << 20; i++)
+            left.put(i, i);
+        right = (HashMap<Integer, Integer>) left.clone();
+        for (int i = 0; i < 1 << 20; i += 100)
+            right.put(i, -i);
+        long lockstep = 0, naive = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            Assert.assertEquals(10485, left.diff(right).changedCount()); // 0 == -0不算修改
+            lockstep += System.nanoTime() - start;
+            start = System.nanoTime();
+            int changed = 0;
+            for (Map.Entry<Integer, Integer> e : left.entrySet()) {
+                if (!e.getValue().equals(right.get(e.getKey())))
+                    changed++;
+            }
+            for (Integer k : right.keySet())
+                Assert.assertTrue(left.containsKey(k));
+            Assert.assertEquals(10485, changed);
+            naive += System.nanoTime() - start;
+        }
+        log.info("diff: {} ms, entrySet + get: {} ms", lockstep / 1000000, naive / 1000000);
+    }
+
+    static void assertSameBin(HashMap.Node<?, ?> e, HashMap.Node<?, ?> p) {
+        for (; e != null; e = e.next, p = p.next) {
+            Assert.assertNotSame(e, p);
+            Assert.assertSame(e.key, p.key);
+            Assert.assertEquals(e.hash, p.hash);
+            Assert.assertEquals(e instanceof HashMap.TreeNode, p instanceof HashMap.TreeNode);
+            if (e instanceof HashMap.TreeNode) {
+                HashMap.TreeNode<?, ?> t = (HashMap.TreeNode<?, ?>) e, u = (HashMap.TreeNode<?, ?>) p;
+                Assert.assertEquals(t.red, u.red);
+                Assert.assertEquals(t.parent == null ? null : t.parent.key, u.parent == null ? null : u.parent.key);
+                Assert.assertEquals(t.left == null ? null : t.left.key, u.left == null ? null : u.left.key);
+                Assert.assertEquals(t.right == null ? null : t.right.key, u.right == null ? null : u.right.key);
+            }
+        }
+        Assert.assertNull(p);
+    }
+
+    static int maxBinLength(HashMap<?, ?> map) {
+        int max = 0;
+        for (HashMap.Node<?, ?> e : map.table) {
+            int n = 0;
+            for (; e != null; e = e.next)
+                n++;
+            max = Math.max(max, n);
+        }
+        return max;
+    }
+
+    static class CollidingKey implements Comparable<CollidingKey>, java.io.Serializable {
+        private static final long serialVersionUID = 3166476478227385571L;
+
+        final int id;
+
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id & 0x3F;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+
+        @Override
+        public int compareTo(CollidingKey o) {
+            return Integer.compare(id, o.id);
+        }
+    }
+
     static class A {
     }
 
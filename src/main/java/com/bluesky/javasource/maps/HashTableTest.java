@@ -1,6 +1,7 @@
 package com.bluesky.javasource.maps;
 
 import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.*;
@@ -45,4 +46,63 @@ public class HashTableTest {
         }
     }
 
+    /**
+     * hashCode相同的字符串，开启种子后分散到不同的桶中
+     */
+    @Test
+    public void seededHashTest() {
+        com.bluesky.javasource.maps.Hashtable<String, Integer> ht = new com.bluesky.javasource.maps.Hashtable<>();
+        ht.setSeededHash(true);
+        String[] keys = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        for (int i = 0; i < keys.length; i++)
+            ht.put(keys[i], i);
+        for (int i = 0; i < keys.length; i++)
+            Assert.assertEquals(Integer.valueOf(i), ht.get(keys[i]));
+        ht.setSeededHash(false);
+        Assert.assertEquals(Integer.valueOf(3), ht.remove("BBBB"));
+        Assert.assertEquals(3, ht.size());
+    }
+
+    /**
+     * 开启种子后hashCode仍需满足Map契约，与未开启时一致
+     */
+    @Test
+    public void seededHashCodeTest() {
+        com.bluesky.javasource.maps.Hashtable<String, Integer> seeded = new com.bluesky.javasource.maps.Hashtable<>();
+        com.bluesky.javasource.maps.Hashtable<String, Integer> plain = new com.bluesky.javasource.maps.Hashtable<>();
+        seeded.setSeededHash(true);
+        for (int i = 0; i < 100; i++) {
+            seeded.put("key" + i, i);
+            plain.put("key" + i, i);
+        }
+        Assert.assertEquals(plain, seeded);
+        Assert.assertEquals(plain.hashCode(), seeded.hashCode());
+        Assert.assertEquals(plain.entrySet().hashCode(), seeded.entrySet().hashCode());
+        Assert.assertEquals(new java.util.HashMap<>(plain).hashCode(), seeded.hashCode());
+    }
+
+    /**
+     * 大量删除后缩容
+     */
+    @Test
+    public void shrinkTest() {
+        com.bluesky.javasource.maps.Hashtable<Integer, Integer> ht = new com.bluesky.javasource.maps.Hashtable<>();
+        for (int i = 0; i < 100000; i++)
+            ht.put(i, i);
+        for (int i = 100; i < 100000; i++)
+            ht.remove(i);
+        ht.trimToSize();
+        Assert.assertEquals(100, ht.size());
+        for (int i = 0; i < 100; i++)
+            Assert.assertEquals(Integer.valueOf(i), ht.get(i));
+        ht.setAutoShrink(true);
+        for (int i = 100; i < 100000; i++)
+            ht.put(i, i);
+        for (int i = 0; i < 99990; i++)
+            ht.remove(i);
+        Assert.assertEquals(10, ht.size());
+        Assert.assertEquals(10, ht.keySet().size());
+        Assert.assertEquals(Integer.valueOf(99999), ht.get(99999));
+    }
+
 }
@@ -1,5 +1,7 @@
 package com.bluesky.javasource.maps;
 
+import com.bluesky.javasource.MemoryLayout;
+
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
@@ -18,6 +20,9 @@ import sun.misc.SharedSecrets;
  * 5. 不可以存放空值和空键
  * 6. 存在三个视图，分别是keySet,values,EntrySet,迭代视图时修改HashTable会进入fail-fast模式
  * 7. hashCode方法采用将loadFactor取反标记正在执行hashCode方法，避免自引用时递归调用hashCode方法导致栈溢出
+ * 8. 可以通过setSeededHash(true)使用带随机种子的hash(见SeededHash)，防止构造大量冲突的key攻击
+ * 9. 默认只扩容不缩容，trimToSize()把桶数组缩小到刚好容纳当前元素；setAutoShrink(true)后，元素个数低于阈值的1/4时
+ * 自动缩容到阈值约为元素个数的2倍，留出余量避免增删交替时反复扩容缩容
  */
 public class Hashtable<K, V>
         extends Dictionary<K, V>
@@ -48,6 +53,26 @@ public class Hashtable<K, V>
      */
     private transient int modCount = 0;
 
+    /**
+     * 是否使用带随机种子的hash
+     */
+    private boolean seededHash;
+
+    /**
+     * hash种子，不参与序列化，0表示不使用种子
+     */
+    private transient long hashSeed;
+
+    /**
+     * 删除后是否自动缩容
+     */
+    private boolean autoShrink;
+
+    /**
+     * 自动缩容的最小容量，同默认容量
+     */
+    private static final int MIN_SHRINK_CAPACITY = 11;
+
     /**
      * 序列化ID
      */
@@ -144,7 +169,7 @@ public class Hashtable<K, V>
      */
     public synchronized boolean containsKey(Object key) {
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         for (Entry<?, ?> e = tab[index]; e != null; e = e.next) {
             if ((e.hash == hash) && e.key.equals(key)) {
@@ -160,7 +185,7 @@ public class Hashtable<K, V>
     @SuppressWarnings("unchecked")
     public synchronized V get(Object key) {
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         for (Entry<?, ?> e = tab[index]; e != null; e = e.next) {
             if ((e.hash == hash) && e.key.equals(key)) {
@@ -209,6 +234,120 @@ public class Hashtable<K, V>
         }
     }
 
+    /**
+     * key的hash值，开启种子时使用SeededHash
+     */
+    private int hashKey(Object key) {
+        long seed;
+        if ((seed = hashSeed) == 0L)
+            return key.hashCode();
+        if (key == null)
+            throw new NullPointerException();
+        return SeededHash.hash(key, seed);
+    }
+
+    /**
+     * 开启或者关闭带种子的hash，每次开启都生成新的种子，已有的元素按新的hash值重新放入桶中，容量不变
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void setSeededHash(boolean seededHash) {
+        if (this.seededHash == seededHash)
+            return;
+        this.seededHash = seededHash;
+        hashSeed = seededHash ? SeededHash.newSeed() : 0L;
+        Entry<?, ?>[] oldMap = table;
+        Entry<?, ?>[] newMap = new Entry<?, ?>[oldMap.length];
+        modCount++;
+        for (int i = oldMap.length; i-- > 0; ) {
+            for (Entry<K, V> e = (Entry<K, V>) oldMap[i]; e != null; e = e.next) {
+                int hash = hashKey(e.key); // hash是final的，需要创建新的Entry
+                int index = (hash & 0x7FFFFFFF) % newMap.length;
+                newMap[index] = new Entry<>(hash, e.key, e.value, (Entry<K, V>) newMap[index]);
+            }
+        }
+        table = newMap;
+    }
+
+    public synchronized boolean isSeededHash() {
+        return seededHash;
+    }
+
+    /**
+     * 估计占用的内存，按当前JVM的布局计算
+     */
+    public long estimatedFootprintBytes(boolean includeKeysAndValues) {
+        return estimatedFootprintBytes(MemoryLayout.current(), includeKeysAndValues);
+    }
+
+    /**
+     * 估计占用的内存：Hashtable对象本身、桶数组、每个Entry和已经创建的视图对象，
+     * includeKeysAndValues为true时加上每个key和value本身的大小
+     */
+    public synchronized long estimatedFootprintBytes(MemoryLayout layout, boolean includeKeysAndValues) {
+        long bytes = layout.shallowSize(this) + layout.arraySize(table) +
+                layout.shallowSize(keySet) + layout.shallowSize(values) + layout.shallowSize(entrySet);
+        for (Entry<?, ?> e : table) {
+            for (; e != null; e = e.next) {
+                bytes += layout.shallowSize(e);
+                if (includeKeysAndValues)
+                    bytes += layout.shallowSize(e.key) + layout.shallowSize(e.value);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 把桶数组缩小到刚好能容纳当前元素的容量，下一次插入就会扩容
+     */
+    public synchronized void trimToSize() {
+        int newCapacity = Math.max(1, (int) Math.ceil(count / loadFactor)) | 1; // 和扩容一样保持奇数
+        if (newCapacity < table.length)
+            resizeTable(newCapacity);
+    }
+
+    /**
+     * 开启或者关闭删除后自动缩容，开启时如果已经很稀疏会立即缩容
+     */
+    public synchronized void setAutoShrink(boolean autoShrink) {
+        this.autoShrink = autoShrink;
+        shrinkIfSparse();
+    }
+
+    public synchronized boolean isAutoShrink() {
+        return autoShrink;
+    }
+
+    /**
+     * 元素个数低于阈值的1/4时缩容，新的阈值约为元素个数的2倍，不会立即再次扩容或者缩容
+     */
+    private void shrinkIfSparse() {
+        int newCapacity;
+        if (autoShrink && table.length > MIN_SHRINK_CAPACITY && count < (threshold >>> 2) &&
+                (newCapacity = Math.max(MIN_SHRINK_CAPACITY, (int) (count * 2 / loadFactor) | 1)) < table.length)
+            resizeTable(newCapacity);
+    }
+
+    /**
+     * 按新的容量重新放置所有元素，用于缩容
+     */
+    @SuppressWarnings("unchecked")
+    private void resizeTable(int newCapacity) {
+        Entry<?, ?>[] oldMap = table;
+        Entry<?, ?>[] newMap = new Entry<?, ?>[newCapacity];
+        modCount++;
+        threshold = (int) Math.min(newCapacity * loadFactor, MAX_ARRAY_SIZE + 1);
+        table = newMap;
+        for (int i = oldMap.length; i-- > 0; ) {
+            for (Entry<K, V> old = (Entry<K, V>) oldMap[i]; old != null; ) {
+                Entry<K, V> e = old;
+                old = old.next;
+                int index = (e.hash & 0x7FFFFFFF) % newCapacity;
+                e.next = (Entry<K, V>) newMap[index];
+                newMap[index] = e;
+            }
+        }
+    }
+
     /**
      * 新增元素，超过阈值扩容
      */
@@ -221,7 +360,7 @@ public class Hashtable<K, V>
             rehash();
 
             tab = table;
-            hash = key.hashCode();
+            hash = hashKey(key);
             index = (hash & 0x7FFFFFFF) % tab.length;
         }
 
@@ -244,7 +383,7 @@ public class Hashtable<K, V>
 
         // Makes sure the key is not already in the hashtable.
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> entry = (Entry<K, V>) tab[index];
@@ -266,7 +405,7 @@ public class Hashtable<K, V>
      */
     public synchronized V remove(Object key) {
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> e = (Entry<K, V>) tab[index];
@@ -281,6 +420,7 @@ public class Hashtable<K, V>
                 count--;
                 V oldValue = e.value;
                 e.value = null;
+                shrinkIfSparse();
                 return oldValue;
             }
         }
@@ -452,7 +592,7 @@ public class Hashtable<K, V>
             Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
             Object key = entry.getKey();
             Entry<?, ?>[] tab = table;
-            int hash = key.hashCode();
+            int hash = hashKey(key);
             int index = (hash & 0x7FFFFFFF) % tab.length;
 
             for (Entry<?, ?> e = tab[index]; e != null; e = e.next)
@@ -467,7 +607,7 @@ public class Hashtable<K, V>
             Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
             Object key = entry.getKey();
             Entry<?, ?>[] tab = table;
-            int hash = key.hashCode();
+            int hash = hashKey(key);
             int index = (hash & 0x7FFFFFFF) % tab.length;
 
             @SuppressWarnings("unchecked")
@@ -482,6 +622,7 @@ public class Hashtable<K, V>
 
                     count--;
                     e.value = null;
+                    shrinkIfSparse();
                     return true;
                 }
             }
@@ -664,7 +805,7 @@ public class Hashtable<K, V>
 
         // Makes sure the key is not already in the hashtable.
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> entry = (Entry<K, V>) tab[index];
@@ -694,7 +835,7 @@ public class Hashtable<K, V>
         Objects.requireNonNull(value);
 
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> e = (Entry<K, V>) tab[index];
@@ -708,6 +849,7 @@ public class Hashtable<K, V>
                 }
                 count--;
                 e.value = null;
+                shrinkIfSparse();
                 return true;
             }
         }
@@ -723,7 +865,7 @@ public class Hashtable<K, V>
         Objects.requireNonNull(oldValue);
         Objects.requireNonNull(newValue);
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> e = (Entry<K, V>) tab[index];
@@ -748,7 +890,7 @@ public class Hashtable<K, V>
     public synchronized V replace(K key, V value) {
         Objects.requireNonNull(value);
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> e = (Entry<K, V>) tab[index];
@@ -771,7 +913,7 @@ public class Hashtable<K, V>
         Objects.requireNonNull(mappingFunction);
 
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> e = (Entry<K, V>) tab[index];
@@ -799,7 +941,7 @@ public class Hashtable<K, V>
         Objects.requireNonNull(remappingFunction);
 
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> e = (Entry<K, V>) tab[index];
@@ -814,6 +956,7 @@ public class Hashtable<K, V>
                         tab[index] = e.next;
                     }
                     count--;
+                    shrinkIfSparse();
                 } else {
                     e.value = newValue;
                 }
@@ -832,7 +975,7 @@ public class Hashtable<K, V>
         Objects.requireNonNull(remappingFunction);
 
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> e = (Entry<K, V>) tab[index];
@@ -847,6 +990,7 @@ public class Hashtable<K, V>
                         tab[index] = e.next;
                     }
                     count--;
+                    shrinkIfSparse();
                 } else {
                     e.value = newValue;
                 }
@@ -870,7 +1014,7 @@ public class Hashtable<K, V>
         Objects.requireNonNull(remappingFunction);
 
         Entry<?, ?> tab[] = table;
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         @SuppressWarnings("unchecked")
         Entry<K, V> e = (Entry<K, V>) tab[index];
@@ -885,6 +1029,7 @@ public class Hashtable<K, V>
                         tab[index] = e.next;
                     }
                     count--;
+                    shrinkIfSparse();
                 } else {
                     e.value = newValue;
                 }
@@ -947,6 +1092,7 @@ public class Hashtable<K, V>
         // Validate loadFactor (ignore threshold - it will be re-computed)
         if (loadFactor <= 0 || Float.isNaN(loadFactor))
             throw new StreamCorruptedException("Illegal Load: " + loadFactor);
+        hashSeed = seededHash ? SeededHash.newSeed() : 0L; // 种子不序列化，重新生成
 
         // Read the original length of the array and number of elements
         int origlength = s.readInt();
@@ -998,7 +1144,7 @@ public class Hashtable<K, V>
         }
         // Makes sure the key is not already in the hashtable.
         // This should not happen in deserialized version.
-        int hash = key.hashCode();
+        int hash = hashKey(key);
         int index = (hash & 0x7FFFFFFF) % tab.length;
         for (Entry<?, ?> e = tab[index]; e != null; e = e.next) {
             if ((e.hash == hash) && e.key.equals(key)) {
@@ -1061,7 +1207,7 @@ public class Hashtable<K, V>
         }
 
         public int hashCode() {
-            return hash ^ Objects.hashCode(value);
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
         }
 
         public String toString() {
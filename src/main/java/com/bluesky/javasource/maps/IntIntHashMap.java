@@ -0,0 +1,465 @@
+package com.bluesky.javasource.maps;
+
+import java.util.ConcurrentModificationException;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_INITIAL_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_LOAD_FACTOR;
+import static com.bluesky.javasource.maps.HashMap.MAXIMUM_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.tableSizeFor;
+
+/**
+ * 要点:
+ * 1. key和value都为int的哈希表，分别存放在两个int[]中，整个读写过程没有装箱，也没有Node对象
+ * 2. 容量、阈值和填充因子的处理和HashMap一致，结构和IntObjectHashMap相同，
+ * 采用线性探测+后移删除，hash方式为乘以黄金分割数后把高16位异或到低16位
+ * 3. value不能为null，key不存在时get返回0，需要区分时使用containsKey或者getOrDefault
+ * 4. 数组中用0表示空位置，key为0的键值对单独存放
+ * 5. 不是线程同步的，forEach和spliterator是fail-fast的
+ */
+public class IntIntHashMap {
+
+    /**
+     * 遍历键值对的回调，避免装箱
+     */
+    @FunctionalInterface
+    public interface IntIntConsumer {
+        void accept(int key, int value);
+    }
+
+    /**
+     * 哈希表，key为0表示空位置
+     */
+    int[] keys;
+
+    /**
+     * 值数组，和keys一一对应
+     */
+    int[] vals;
+
+    /**
+     * 是否存在key为0的元素
+     */
+    boolean hasZeroKey;
+
+    /**
+     * key为0的元素的值
+     */
+    int zeroValue;
+
+    /**
+     * 元素个数，包括key为0的元素
+     */
+    int size;
+
+    /**
+     * 结构性修改次数
+     */
+    int modCount;
+
+    /**
+     * 需要进行扩容的阈值，数组还没创建时存放的是初始容量
+     */
+    int threshold;
+
+    /**
+     * 填充因子，取值范围(0,1)
+     */
+    final float loadFactor;
+
+    public IntIntHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.threshold = tableSizeFor(initialCapacity);
+    }
+
+    public IntIntHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntIntHashMap() {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    /**
+     * 乘以黄金分割数，再把高16位异或到低16位
+     */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 查找key所在的位置，不存在返回-1，key不能为0
+     */
+    final int indexOf(int key) {
+        int[] ks;
+        if ((ks = keys) == null)
+            return -1;
+        int mask = ks.length - 1, k;
+        for (int i = hash(key) & mask; (k = ks[i]) != 0; i = (i + 1) & mask) {
+            if (k == key)
+                return i;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(int key) {
+        return key == 0 ? hasZeroKey : indexOf(key) >= 0;
+    }
+
+    /**
+     * key不存在时返回0
+     */
+    public int get(int key) {
+        return getOrDefault(key, 0);
+    }
+
+    public int getOrDefault(int key, int defaultValue) {
+        if (key == 0)
+            return hasZeroKey ? zeroValue : defaultValue;
+        int i;
+        return (i = indexOf(key)) < 0 ? defaultValue : vals[i];
+    }
+
+    /**
+     * 插入或者替换键值对，返回旧值，key不存在时返回0
+     */
+    public int put(int key, int value) {
+        return putVal(key, value, false);
+    }
+
+    /**
+     * 只有key不存在时插入，返回旧值，key不存在时返回0
+     */
+    public int putIfAbsent(int key, int value) {
+        return putVal(key, value, true);
+    }
+
+    final int putVal(int key, int value, boolean onlyIfAbsent) {
+        if (key == 0) {
+            int oldValue = zeroValue;
+            if (hasZeroKey) {
+                if (!onlyIfAbsent)
+                    zeroValue = value;
+                return oldValue;
+            }
+            hasZeroKey = true;
+            zeroValue = value;
+            ++modCount;
+            ++size;
+            return 0;
+        }
+        int[] ks;
+        if ((ks = keys) == null)
+            ks = resize();
+        int mask = ks.length - 1, i = hash(key) & mask, k;
+        for (; (k = ks[i]) != 0; i = (i + 1) & mask) {
+            if (k == key) {
+                int oldValue = vals[i];
+                if (!onlyIfAbsent)
+                    vals[i] = value;
+                return oldValue;
+            }
+        }
+        if (size >= threshold) { // 插入前扩容，保证数组中始终有空位置
+            mask = (ks = resize()).length - 1;
+            for (i = hash(key) & mask; ks[i] != 0; i = (i + 1) & mask)
+                ;
+        }
+        ks[i] = key;
+        vals[i] = value;
+        ++modCount;
+        ++size;
+        return 0;
+    }
+
+    /**
+     * 扩容操作，和HashMap.resize()相同的容量和阈值计算方式，再把元素重新插入
+     */
+    final int[] resize() {
+        int[] oldKs = keys;
+        int oldCap = (oldKs == null) ? 0 : oldKs.length;
+        int oldThr = threshold;
+        int newCap;
+        if (oldCap > 0) {
+            if (oldCap >= MAXIMUM_CAPACITY) {
+                if (size >= MAXIMUM_CAPACITY - 1)
+                    throw new IllegalStateException("Map is full");
+                threshold = MAXIMUM_CAPACITY - 1;
+                return oldKs;
+            }
+            newCap = oldCap << 1;
+        } else if (oldThr > 0) // 初始容量存放在threshold上
+            newCap = oldThr;
+        else
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY) ?
+                Math.min((int) ft, newCap - 1) : MAXIMUM_CAPACITY - 1;
+        int[] oldVs = vals;
+        int[] ks = keys = new int[newCap];
+        int[] vs = vals = new int[newCap];
+        if (oldKs != null) {
+            int mask = newCap - 1;
+            for (int j = 0; j < oldCap; ++j) {
+                int k;
+                if ((k = oldKs[j]) != 0) {
+                    int i = hash(k) & mask;
+                    while (ks[i] != 0)
+                        i = (i + 1) & mask;
+                    ks[i] = k;
+                    vs[i] = oldVs[j];
+                }
+            }
+        }
+        return ks;
+    }
+
+    /**
+     * 删除键值对，返回旧值，key不存在时返回0
+     */
+    public int remove(int key) {
+        if (key == 0) {
+            if (!hasZeroKey)
+                return 0;
+            int oldValue = zeroValue;
+            hasZeroKey = false;
+            zeroValue = 0;
+            ++modCount;
+            --size;
+            return oldValue;
+        }
+        int i;
+        if ((i = indexOf(key)) < 0)
+            return 0;
+        int oldValue = vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    /**
+     * 后移删除，同IntObjectHashMap.removeAt
+     */
+    final void removeAt(int i) {
+        int[] ks = keys, vs = vals;
+        int mask = ks.length - 1;
+        for (int j = i; ; ) {
+            j = (j + 1) & mask;
+            int k;
+            if ((k = ks[j]) == 0)
+                break;
+            int slot = hash(k) & mask;
+            if (i <= j ? (i >= slot || slot > j) : (i >= slot && slot > j)) {
+                ks[i] = k;
+                vs[i] = vs[j];
+                i = j;
+            }
+        }
+        ks[i] = 0;
+        vs[i] = 0;
+        ++modCount;
+        --size;
+    }
+
+    public void clear() {
+        modCount++;
+        if (size > 0) {
+            size = 0;
+            hasZeroKey = false;
+            zeroValue = 0;
+            if (keys != null)
+                java.util.Arrays.fill(keys, 0);
+        }
+    }
+
+    public boolean containsValue(int value) {
+        if (hasZeroKey && zeroValue == value)
+            return true;
+        int[] ks;
+        if ((ks = keys) != null) {
+            int[] vs = vals;
+            for (int i = 0; i < ks.length; ++i) {
+                if (ks[i] != 0 && vs[i] == value)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 遍历每个元素，key和value都不装箱
+     */
+    public void forEach(IntIntConsumer action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        if (hasZeroKey)
+            action.accept(0, zeroValue);
+        int[] ks;
+        if ((ks = keys) != null) {
+            int[] vs = vals;
+            for (int i = 0; i < ks.length; ++i) {
+                int k;
+                if ((k = ks[i]) != 0)
+                    action.accept(k, vs[i]);
+            }
+        }
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * key的视图，返回Spliterator.OfInt，可以并行遍历
+     */
+    public Spliterator.OfInt keySpliterator() {
+        return new IntIntSpliterator(this, 0, -1, 0, 0, true);
+    }
+
+    public IntStream keyStream() {
+        return StreamSupport.intStream(keySpliterator(), false);
+    }
+
+    /**
+     * value的视图，返回Spliterator.OfInt
+     */
+    public Spliterator.OfInt valueSpliterator() {
+        return new IntIntSpliterator(this, 0, -1, 0, 0, false);
+    }
+
+    public IntStream valueStream() {
+        return StreamSupport.intStream(valueSpliterator(), false);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append('{');
+        forEach((k, v) -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+
+    /* ------------------------------------------------------------ */
+    // spliterators
+
+    /**
+     * 按数组下标范围切分，下标等于数组长度的虚拟位置表示key为0的元素。
+     * key和value的视图只是返回的值不同，用一个类实现
+     */
+    static final class IntIntSpliterator implements Spliterator.OfInt {
+        final IntIntHashMap map;
+        final boolean keys;         // true为key的视图，false为value的视图
+        int index;                  // current index, modified on advance/split
+        int fence;                  // one past last index
+        int est;                    // size estimate
+        int expectedModCount;       // for comodification checks
+
+        IntIntSpliterator(IntIntHashMap m, int origin, int fence, int est,
+                          int expectedModCount, boolean keys) {
+            this.map = m;
+            this.index = origin;
+            this.fence = fence;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+            this.keys = keys;
+        }
+
+        final int getFence() { // initialize fence and size on first use
+            int hi;
+            if ((hi = fence) < 0) {
+                IntIntHashMap m = map;
+                est = m.size;
+                expectedModCount = m.modCount;
+                int[] ks = m.keys;
+                hi = fence = ((ks == null) ? 0 : ks.length) + 1;
+            }
+            return hi;
+        }
+
+        public final long estimateSize() {
+            getFence(); // force init
+            return (long) est;
+        }
+
+        public IntIntSpliterator trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new IntIntSpliterator(map, lo, index = mid, est >>>= 1,
+                            expectedModCount, keys);
+        }
+
+        /**
+         * 找到下一个元素所在的位置，没有返回-1
+         */
+        private int advance() {
+            IntIntHashMap m = map;
+            int[] ks = m.keys;
+            int hi = getFence(), len = (ks == null) ? 0 : ks.length;
+            if (len + 1 >= hi) {
+                for (int i = index; i < hi; ++i) {
+                    if (i == len ? m.hasZeroKey : ks[i] != 0) {
+                        index = i + 1;
+                        return i;
+                    }
+                }
+            }
+            index = hi;
+            return -1;
+        }
+
+        private int valueAt(int i) {
+            IntIntHashMap m = map;
+            int[] ks = m.keys;
+            if (ks == null || i == ks.length)
+                return keys ? 0 : m.zeroValue;
+            return keys ? ks[i] : m.vals[i];
+        }
+
+        public void forEachRemaining(IntConsumer action) {
+            if (action == null)
+                throw new NullPointerException();
+            for (int i; (i = advance()) >= 0; )
+                action.accept(valueAt(i));
+            if (map.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+
+        public boolean tryAdvance(IntConsumer action) {
+            if (action == null)
+                throw new NullPointerException();
+            int i;
+            if ((i = advance()) < 0)
+                return false;
+            action.accept(valueAt(i));
+            if (map.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            return true;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) |
+                    (keys ? Spliterator.DISTINCT : 0);
+        }
+    }
+
+}
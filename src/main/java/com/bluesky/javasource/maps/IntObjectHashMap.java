@@ -0,0 +1,513 @@
+package com.bluesky.javasource.maps;
+
+import java.util.ConcurrentModificationException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_INITIAL_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_LOAD_FACTOR;
+import static com.bluesky.javasource.maps.HashMap.MAXIMUM_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.tableSizeFor;
+
+/**
+ * 要点:
+ * 1. key为int的哈希表，key直接存放在int[]中，整个读写过程没有装箱，也没有Node对象
+ * 2. 容量、阈值和填充因子的处理和HashMap一致：初始容量通过tableSizeFor调整为2^k，
+ * 第一次插入时才创建数组，元素个数超过threshold时扩容为原来的2倍
+ * 3. 采用开放定址法(线性探测)解决冲突，删除时把后面的元素前移(backward-shift)，不需要墓碑标记，
+ * 所以填充因子必须小于1
+ * 4. 线性探测对hash值的低位比较敏感，HashMap中只把高16位异或到低16位，连续的id或者步长为2^k的id
+ * 会聚集在一起，这里先乘以黄金分割数再做同样的异或
+ * 5. 数组中用0表示空位置，key为0的键值对单独存放
+ * 6. 不是线程同步的，forEach和spliterator是fail-fast的
+ */
+public class IntObjectHashMap<V> {
+
+    /**
+     * 遍历键值对的回调，避免key装箱
+     */
+    @FunctionalInterface
+    public interface IntObjectConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    /**
+     * 哈希表，key为0表示空位置
+     */
+    int[] keys;
+
+    /**
+     * 值数组，和keys一一对应
+     */
+    Object[] vals;
+
+    /**
+     * 是否存在key为0的元素
+     */
+    boolean hasZeroKey;
+
+    /**
+     * key为0的元素的值
+     */
+    V zeroValue;
+
+    /**
+     * 元素个数，包括key为0的元素
+     */
+    int size;
+
+    /**
+     * 结构性修改次数
+     */
+    int modCount;
+
+    /**
+     * 需要进行扩容的阈值，数组还没创建时存放的是初始容量
+     */
+    int threshold;
+
+    /**
+     * 填充因子，取值范围(0,1)
+     */
+    final float loadFactor;
+
+    public IntObjectHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.threshold = tableSizeFor(initialCapacity);
+    }
+
+    public IntObjectHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public IntObjectHashMap() {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    /**
+     * 乘以黄金分割数，再把高16位异或到低16位
+     */
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 查找key所在的位置，不存在返回-1，key不能为0
+     */
+    final int indexOf(int key) {
+        int[] ks;
+        if ((ks = keys) == null)
+            return -1;
+        int mask = ks.length - 1, k;
+        for (int i = hash(key) & mask; (k = ks[i]) != 0; i = (i + 1) & mask) {
+            if (k == key)
+                return i;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(int key) {
+        return key == 0 ? hasZeroKey : indexOf(key) >= 0;
+    }
+
+    public V get(int key) {
+        return getOrDefault(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(int key, V defaultValue) {
+        if (key == 0)
+            return hasZeroKey ? zeroValue : defaultValue;
+        int i;
+        return (i = indexOf(key)) < 0 ? defaultValue : (V) vals[i];
+    }
+
+    public V put(int key, V value) {
+        return putVal(key, value, false);
+    }
+
+    public V putIfAbsent(int key, V value) {
+        return putVal(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    final V putVal(int key, V value, boolean onlyIfAbsent) {
+        if (key == 0) {
+            V oldValue = zeroValue;
+            if (hasZeroKey) {
+                if (!onlyIfAbsent || oldValue == null)
+                    zeroValue = value;
+                return oldValue;
+            }
+            hasZeroKey = true;
+            zeroValue = value;
+            ++modCount;
+            ++size;
+            return null;
+        }
+        int[] ks;
+        if ((ks = keys) == null)
+            ks = resize();
+        int mask = ks.length - 1, i = hash(key) & mask, k;
+        for (; (k = ks[i]) != 0; i = (i + 1) & mask) {
+            if (k == key) {
+                V oldValue = (V) vals[i];
+                if (!onlyIfAbsent || oldValue == null)
+                    vals[i] = value;
+                return oldValue;
+            }
+        }
+        if (size >= threshold) { // 插入前扩容，保证数组中始终有空位置
+            mask = (ks = resize()).length - 1;
+            for (i = hash(key) & mask; ks[i] != 0; i = (i + 1) & mask)
+                ;
+        }
+        ks[i] = key;
+        vals[i] = value;
+        ++modCount;
+        ++size;
+        return null;
+    }
+
+    /**
+     * 扩容操作，和HashMap.resize()相同的容量和阈值计算方式，再把元素重新插入
+     */
+    final int[] resize() {
+        int[] oldKs = keys;
+        int oldCap = (oldKs == null) ? 0 : oldKs.length;
+        int oldThr = threshold;
+        int newCap;
+        if (oldCap > 0) {
+            if (oldCap >= MAXIMUM_CAPACITY) {
+                if (size >= MAXIMUM_CAPACITY - 1)
+                    throw new IllegalStateException("Map is full");
+                threshold = MAXIMUM_CAPACITY - 1;
+                return oldKs;
+            }
+            newCap = oldCap << 1;
+        } else if (oldThr > 0) // 初始容量存放在threshold上
+            newCap = oldThr;
+        else
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY) ?
+                Math.min((int) ft, newCap - 1) : MAXIMUM_CAPACITY - 1;
+        Object[] oldVs = vals;
+        int[] ks = keys = new int[newCap];
+        Object[] vs = vals = new Object[newCap];
+        if (oldKs != null) {
+            int mask = newCap - 1;
+            for (int j = 0; j < oldCap; ++j) {
+                int k;
+                if ((k = oldKs[j]) != 0) {
+                    int i = hash(k) & mask;
+                    while (ks[i] != 0)
+                        i = (i + 1) & mask;
+                    ks[i] = k;
+                    vs[i] = oldVs[j];
+                }
+            }
+        }
+        return ks;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == 0) {
+            if (!hasZeroKey)
+                return null;
+            V oldValue = zeroValue;
+            hasZeroKey = false;
+            zeroValue = null;
+            ++modCount;
+            --size;
+            return oldValue;
+        }
+        int i;
+        if ((i = indexOf(key)) < 0)
+            return null;
+        V oldValue = (V) vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    /**
+     * 后移删除：向后查找可以移动到空位置上的元素(理想位置不在空位置和当前位置之间)，
+     * 移动后当前位置成为新的空位置，直到遇到空位置
+     */
+    final void removeAt(int i) {
+        int[] ks = keys;
+        Object[] vs = vals;
+        int mask = ks.length - 1;
+        for (int j = i; ; ) {
+            j = (j + 1) & mask;
+            int k;
+            if ((k = ks[j]) == 0)
+                break;
+            int slot = hash(k) & mask;
+            if (i <= j ? (i >= slot || slot > j) : (i >= slot && slot > j)) {
+                ks[i] = k;
+                vs[i] = vs[j];
+                i = j;
+            }
+        }
+        ks[i] = 0;
+        vs[i] = null;
+        ++modCount;
+        --size;
+    }
+
+    public void clear() {
+        modCount++;
+        if (size > 0) {
+            size = 0;
+            hasZeroKey = false;
+            zeroValue = null;
+            if (keys != null) {
+                java.util.Arrays.fill(keys, 0);
+                java.util.Arrays.fill(vals, null);
+            }
+        }
+    }
+
+    public boolean containsValue(Object value) {
+        if (hasZeroKey && Objects.equals(zeroValue, value))
+            return true;
+        int[] ks;
+        if ((ks = keys) != null) {
+            Object[] vs = vals;
+            for (int i = 0; i < ks.length; ++i) {
+                if (ks[i] != 0 && Objects.equals(vs[i], value))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 遍历每个元素，key不装箱
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(IntObjectConsumer<? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        int mc = modCount;
+        if (hasZeroKey)
+            action.accept(0, zeroValue);
+        int[] ks;
+        if ((ks = keys) != null) {
+            Object[] vs = vals;
+            for (int i = 0; i < ks.length; ++i) {
+                int k;
+                if ((k = ks[i]) != 0)
+                    action.accept(k, (V) vs[i]);
+            }
+        }
+        if (modCount != mc)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * key的视图，返回Spliterator.OfInt，可以并行遍历
+     */
+    public Spliterator.OfInt keySpliterator() {
+        return new KeySpliterator<>(this, 0, -1, 0, 0);
+    }
+
+    public IntStream keyStream() {
+        return StreamSupport.intStream(keySpliterator(), false);
+    }
+
+    public Spliterator<V> valueSpliterator() {
+        return new ValueSpliterator<>(this, 0, -1, 0, 0);
+    }
+
+    public Stream<V> valueStream() {
+        return StreamSupport.stream(valueSpliterator(), false);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder().append('{');
+        forEach((k, v) -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(k).append('=').append(v == this ? "(this Map)" : v);
+        });
+        return sb.append('}').toString();
+    }
+
+    /* ------------------------------------------------------------ */
+    // spliterators
+
+    /**
+     * 按数组下标范围切分，下标等于数组长度的虚拟位置表示key为0的元素
+     */
+    static class IntObjectSpliterator<V> {
+        final IntObjectHashMap<V> map;
+        int index;                  // current index, modified on advance/split
+        int fence;                  // one past last index
+        int est;                    // size estimate
+        int expectedModCount;       // for comodification checks
+
+        IntObjectSpliterator(IntObjectHashMap<V> m, int origin, int fence, int est,
+                             int expectedModCount) {
+            this.map = m;
+            this.index = origin;
+            this.fence = fence;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+        }
+
+        final int getFence() { // initialize fence and size on first use
+            int hi;
+            if ((hi = fence) < 0) {
+                IntObjectHashMap<V> m = map;
+                est = m.size;
+                expectedModCount = m.modCount;
+                int[] ks = m.keys;
+                hi = fence = ((ks == null) ? 0 : ks.length) + 1;
+            }
+            return hi;
+        }
+
+        public final long estimateSize() {
+            getFence(); // force init
+            return (long) est;
+        }
+
+        /**
+         * 找到下一个元素所在的位置，没有返回-1
+         */
+        final int advance() {
+            IntObjectHashMap<V> m = map;
+            int[] ks = m.keys;
+            int hi = getFence(), len = (ks == null) ? 0 : ks.length;
+            if (len + 1 >= hi) {
+                for (int i = index; i < hi; ++i) {
+                    if (i == len ? m.hasZeroKey : ks[i] != 0) {
+                        index = i + 1;
+                        return i;
+                    }
+                }
+            }
+            index = hi;
+            return -1;
+        }
+
+        final int keyAt(int i) {
+            int[] ks = map.keys;
+            return (ks == null || i == ks.length) ? 0 : ks[i];
+        }
+
+        @SuppressWarnings("unchecked")
+        final V valueAt(int i) {
+            int[] ks = map.keys;
+            return (ks == null || i == ks.length) ? map.zeroValue : (V) map.vals[i];
+        }
+
+        final void checkModCount() {
+            if (map.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    static final class KeySpliterator<V> extends IntObjectSpliterator<V>
+            implements Spliterator.OfInt {
+        KeySpliterator(IntObjectHashMap<V> m, int origin, int fence, int est,
+                       int expectedModCount) {
+            super(m, origin, fence, est, expectedModCount);
+        }
+
+        public KeySpliterator<V> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new KeySpliterator<>(map, lo, index = mid, est >>>= 1,
+                            expectedModCount);
+        }
+
+        public void forEachRemaining(IntConsumer action) {
+            if (action == null)
+                throw new NullPointerException();
+            for (int i; (i = advance()) >= 0; )
+                action.accept(keyAt(i));
+            checkModCount();
+        }
+
+        public boolean tryAdvance(IntConsumer action) {
+            if (action == null)
+                throw new NullPointerException();
+            int i;
+            if ((i = advance()) < 0)
+                return false;
+            action.accept(keyAt(i));
+            checkModCount();
+            return true;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) |
+                    Spliterator.DISTINCT;
+        }
+    }
+
+    static final class ValueSpliterator<V> extends IntObjectSpliterator<V>
+            implements Spliterator<V> {
+        ValueSpliterator(IntObjectHashMap<V> m, int origin, int fence, int est,
+                         int expectedModCount) {
+            super(m, origin, fence, est, expectedModCount);
+        }
+
+        public ValueSpliterator<V> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new ValueSpliterator<>(map, lo, index = mid, est >>>= 1,
+                            expectedModCount);
+        }
+
+        public void forEachRemaining(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            for (int i; (i = advance()) >= 0; )
+                action.accept(valueAt(i));
+            checkModCount();
+        }
+
+        public boolean tryAdvance(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int i;
+            if ((i = advance()) < 0)
+                return false;
+            action.accept(valueAt(i));
+            checkModCount();
+            return true;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0);
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.bluesky.javasource.maps;
+
+/**
+ * 用另一种类型的对象(probe)查找map中的key，不需要先构造出key本身，见HashMap.get(int, Object, KeyEquivalence)
+ * 要点:
+ * 1. hash(probe)必须等于和它等价的key的hashCode()，这个值和具体的map无关，查找多个map时可以只算一次
+ * 2. equivalent(probe, key)判断probe和map中的key是否相等，map中的key可能是任意类型，不相等时返回false
+ * 3. CHARS用任意CharSequence(如StringBuilder、ByteSlice)查找String类型的key，计算hash和比较时都不分配内存
+ * 4. 开启了带种子hash的HashMap，String的hash按内容计算，与hashCode()无关，只支持CHARS，
+ * 其他策略拿不到种子，无法算出一致的hash
+ *
+ * @param <Q> probe的类型
+ */
+public interface KeyEquivalence<Q> {
+
+    /**
+     * 和probe等价的key的hashCode()
+     */
+    int hash(Q probe);
+
+    /**
+     * probe和map中的key是否相等
+     */
+    boolean equivalent(Q probe, Object key);
+
+    /**
+     * 按字符内容和String比较，hash和String.hashCode()的算法相同
+     */
+    KeyEquivalence<CharSequence> CHARS = new KeyEquivalence<CharSequence>() {
+        @Override
+        public int hash(CharSequence probe) {
+            if (probe instanceof String)
+                return probe.hashCode();
+            int h = 0;
+            for (int i = 0, len = probe.length(); i < len; i++)
+                h = 31 * h + probe.charAt(i);
+            return h;
+        }
+
+        @Override
+        public boolean equivalent(CharSequence probe, Object key) {
+            return key instanceof String && ((String) key).contentEquals(probe);
+        }
+    };
+}
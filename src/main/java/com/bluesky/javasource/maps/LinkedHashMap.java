@@ -250,6 +250,48 @@ public class LinkedHashMap<K, V>
         head = tail = null;
     }
 
+    /**
+     * 按before/after的顺序复制，一次遍历同时重建双向链表和各个桶的链表(tails记录每个桶当前的最后一个节点)，
+     * 插入/访问顺序保持不变；红黑树桶中的节点复制成TreeNode，最后重新树化
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    @Override
+    void copyBins(HashMap<K, V> m) {
+        Node<K, V>[] src = m.table;
+        int n = src.length;
+        Node<K, V>[] tab = (Node<K, V>[]) new Node[n], tails = (Node<K, V>[]) new Node[n];
+        for (Entry<K, V> e = ((LinkedHashMap<K, V>) m).head; e != null; e = e.after) {
+            int i = (n - 1) & e.hash;
+            Entry<K, V> p;
+            if (e instanceof TreeNode) {
+                TreeNode<K, V> t = new TreeNode<>(e.hash, e.key, e.value, null);
+                t.prev = (TreeNode<K, V>) tails[i];
+                p = t;
+            } else
+                p = new Entry<>(e.hash, e.key, e.value, null);
+            linkNodeLast(p);
+            if (tails[i] == null)
+                tab[i] = p;
+            else
+                tails[i].next = p;
+            tails[i] = p;
+        }
+        for (int i = 0; i < n; ++i) {
+            if (src[i] instanceof TreeNode)
+                ((TreeNode<K, V>) tab[i]).treeify(tab);
+        }
+        copyState(m, tab);
+    }
+
+    /**
+     * 红黑树退化成链表时replacementNode会修改前后节点的before/after，前后节点可能在其他任务负责的桶中，
+     * 所以并行扩容时红黑树桶都留到最后在当前线程中拆分
+     */
+    @Override
+    boolean concurrentTreeSplit() {
+        return false;
+    }
+
     Node<K, V> newNode(int hash, K key, V value, Node<K, V> e) {
         Entry<K, V> p =
                 new Entry<K, V>(hash, key, value, e);
@@ -296,7 +338,7 @@ public class LinkedHashMap<K, V>
         Entry<K, V> first;
         if (evict && (first = head) != null && removeEldestEntry(first)) {
             K key = first.key;
-            removeNode(hash(key), key, null, false, true);
+            removeNode(hashKey(key), key, null, false, true);
         }
     }
 
@@ -435,7 +477,7 @@ public class LinkedHashMap<K, V>
      */
     public V get(Object key) {
         Node<K, V> e;
-        if ((e = getNode(hash(key), key)) == null)
+        if ((e = getNode(hashKey(key), key)) == null)
             return null;
         if (accessOrder)
             afterNodeAccess(e);
@@ -447,7 +489,7 @@ public class LinkedHashMap<K, V>
      */
     public V getOrDefault(Object key, V defaultValue) {
         Node<K, V> e;
-        if ((e = getNode(hash(key), key)) == null)
+        if ((e = getNode(hashKey(key), key)) == null)
             return defaultValue;
         if (accessOrder)
             afterNodeAccess(e);
@@ -552,7 +594,7 @@ public class LinkedHashMap<K, V>
         }
 
         public final boolean remove(Object key) {
-            return removeNode(hash(key), key, null, false, true) != null;
+            return removeNode(hashKey(key), key, null, false, true) != null;
         }
 
         public final Spliterator<K> spliterator() {
@@ -674,7 +716,7 @@ public class LinkedHashMap<K, V>
                 return false;
             Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
             Object key = e.getKey();
-            Node<K, V> candidate = getNode(hash(key), key);
+            Node<K, V> candidate = getNode(hashKey(key), key);
             return candidate != null && candidate.equals(e);
         }
 
@@ -683,7 +725,7 @@ public class LinkedHashMap<K, V>
                 Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
                 Object key = e.getKey();
                 Object value = e.getValue();
-                return removeNode(hash(key), key, value, true, true) != null;
+                return removeNode(hashKey(key), key, value, true, true) != null;
             }
             return false;
         }
@@ -721,8 +763,10 @@ public class LinkedHashMap<K, V>
         if (function == null)
             throw new NullPointerException();
         int mc = modCount;
-        for (Entry<K, V> e = head; e != null; e = e.after)
+        for (Entry<K, V> e = head; e != null; e = e.after) {
             e.value = function.apply(e.key, e.value);
+            record(MutationJournal.PUT, e.key, e.value);
+        }
         if (modCount != mc)
             throw new ConcurrentModificationException();
     }
@@ -763,7 +807,7 @@ public class LinkedHashMap<K, V>
                 throw new ConcurrentModificationException();
             current = null;
             K key = p.key;
-            removeNode(hash(key), key, null, false, false);
+            removeNode(hashKey(key), key, null, false, false);
             expectedModCount = modCount;
         }
     }
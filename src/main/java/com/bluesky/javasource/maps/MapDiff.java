@@ -0,0 +1,137 @@
+package com.bluesky.javasource.maps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * 两个HashMap之间的差异，由HashMap.diff(other)生成，描述从当前map变成other需要的修改
+ * 要点:
+ * 1. added是只在other中存在的元素，removed是只在当前map中存在的元素，changed是两边都存在但value不同(按equals比较)的元素
+ * 2. 元素按桶的顺序排列，结果是生成时的副本，之后修改两个map不会影响它
+ * 3. applyTo把差异应用到另一个map上，比如把实际状态修正为期望状态
+ */
+public final class MapDiff<K, V> {
+
+    /**
+     * 两边都存在但value不同的元素
+     */
+    public static final class Change<K, V> {
+        final K key;
+        final V oldValue;
+        final V newValue;
+
+        Change(K key, V oldValue, V newValue) {
+            this.key = key;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * 当前map中的value
+         */
+        public V getOldValue() {
+            return oldValue;
+        }
+
+        /**
+         * other中的value
+         */
+        public V getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Change))
+                return false;
+            Change<?, ?> c = (Change<?, ?>) o;
+            return Objects.equals(key, c.key) && Objects.equals(oldValue, c.oldValue) &&
+                    Objects.equals(newValue, c.newValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(oldValue) ^ Objects.hashCode(newValue);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + oldValue + "->" + newValue;
+        }
+    }
+
+    final List<Map.Entry<K, V>> added = new ArrayList<>();
+    final List<Map.Entry<K, V>> removed = new ArrayList<>();
+    final List<Change<K, V>> changed = new ArrayList<>();
+
+    MapDiff() {
+    }
+
+    final void added(K key, V value) {
+        added.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+    }
+
+    final void removed(K key, V value) {
+        removed.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+    }
+
+    final void changed(K key, V oldValue, V newValue) {
+        changed.add(new Change<>(key, oldValue, newValue));
+    }
+
+    public Stream<Map.Entry<K, V>> added() {
+        return added.stream();
+    }
+
+    public Stream<Map.Entry<K, V>> removed() {
+        return removed.stream();
+    }
+
+    public Stream<Change<K, V>> changed() {
+        return changed.stream();
+    }
+
+    public int addedCount() {
+        return added.size();
+    }
+
+    public int removedCount() {
+        return removed.size();
+    }
+
+    public int changedCount() {
+        return changed.size();
+    }
+
+    /**
+     * 两个map是否相等
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    /**
+     * 把差异应用到target上：删除removed，写入added和changed的新value。
+     * target和生成差异时的当前map内容相同时，应用之后和other相等
+     */
+    public void applyTo(Map<K, V> target) {
+        for (Map.Entry<K, V> e : removed)
+            target.remove(e.getKey());
+        for (Map.Entry<K, V> e : added)
+            target.put(e.getKey(), e.getValue());
+        for (Change<K, V> c : changed)
+            target.put(c.key, c.newValue);
+    }
+
+    @Override
+    public String toString() {
+        return "MapDiff[added=" + added + ", removed=" + removed + ", changed=" + changed + "]";
+    }
+}
@@ -0,0 +1,578 @@
+package com.bluesky.javasource.maps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static com.bluesky.javasource.maps.HashMap.hash;
+
+/**
+ * 要点:
+ * 1. HashMap的二进制快照，write把HashMap的桶数组布局原样写入文件，包括Node中缓存的hash值；
+ * open通过FileChannel.map映射文件，查找直接在映射的内存上进行，启动时不需要为每个元素调用putVal
+ * 2. 文件格式: [文件头 32字节][桶偏移表 (capacity+1)个long][记录区]，桶i的记录连续存放在
+ * [偏移表[i], 偏移表[i+1])中，每条记录为 [hash 4][keyLength 4][valueLength 4][key][value]
+ * 3. 单个MappedByteBuffer不能超过2GB，文件按2^chunkShift(默认1GB)分段映射，记录不会跨段，
+ * 段尾放不下的记录移到下一段开头，中间用keyLength为-1的记录头填充
+ * 4. key和value通过Codec编解码(见OffHeapHashMap)，key比较编码后的字节。
+ * 桶下标用的是文件中保存的hash值，所以key的hashCode必须只和内容有关，不同JVM中结果相同，如String、Integer、Long；
+ * HashMap开启了种子时，种子也写入文件头
+ * 5. 写操作和可选的读取提升(promote)都放在堆上的HashMap中，删除映射中的元素用REMOVED标记，
+ * 查找时先查堆上的HashMap，再查映射的文件
+ * 6. toHashMap用文件中的hash值直接调用putVal，不需要重新计算hashCode
+ * 7. 不允许空键和空值，不是线程同步的；close()后立即解除映射
+ */
+public class MappedHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Closeable {
+
+    static final int MAGIC = 0x484D4150; // "HMAP"
+    static final int VERSION = 1;
+
+    /**
+     * 文件头: magic, version, capacity, size, loadFactor, chunkShift, hashSeed
+     */
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * 记录头: hash, keyLength, valueLength
+     */
+    static final int RECORD_HEADER_SIZE = 12;
+
+    /**
+     * 填充记录的keyLength
+     */
+    static final int PADDING = -1;
+
+    static final int DEFAULT_CHUNK_SHIFT = 30;
+
+    /**
+     * 堆上删除标记
+     */
+    static final Object REMOVED = new Object();
+
+    final Codec<K> keyCodec;
+    final Codec<V> valueCodec;
+
+    /**
+     * 映射的文件分段
+     */
+    final MappedByteBuffer[] chunks;
+    final int chunkShift;
+    final long chunkMask;
+
+    /**
+     * 文件中的桶数组容量、元素个数和填充因子
+     */
+    final int capacity;
+    final int mappedSize;
+    final float loadFactor;
+
+    /**
+     * 写入时HashMap的hash种子，0表示没有使用种子
+     */
+    final long hashSeed;
+
+    /**
+     * 读取时是否把元素提升到堆上
+     */
+    final boolean promote;
+
+    /**
+     * 堆上的元素：新写入的、提升的、以及删除标记REMOVED
+     */
+    final HashMap<Object, Object> heap = new HashMap<>();
+
+    int size;
+
+    int modCount;
+
+    /**
+     * clear()之后为true，文件中的元素全部视为已删除
+     */
+    boolean diskCleared;
+
+    /**
+     * 查找时先把key编码到这里
+     */
+    ByteBuffer scratch = ByteBuffer.allocate(64);
+
+    transient Set<Entry<K, V>> entrySet;
+
+    MappedHashMap(MappedByteBuffer[] chunks, Codec<K> keyCodec, Codec<V> valueCodec,
+                  boolean promote) throws IOException {
+        this.chunks = chunks;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.promote = promote;
+        ByteBuffer h = chunks[0];
+        if (h.capacity() < HEADER_SIZE || h.getInt(0) != MAGIC)
+            throw new IOException("Not a HashMap snapshot");
+        if (h.getInt(4) != VERSION)
+            throw new IOException("Unsupported snapshot version: " + h.getInt(4));
+        this.capacity = h.getInt(8);
+        this.size = this.mappedSize = h.getInt(12);
+        this.loadFactor = h.getFloat(16);
+        this.chunkShift = h.getInt(20);
+        this.hashSeed = h.getLong(24);
+        this.chunkMask = (1L << chunkShift) - 1;
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0 || mappedSize < 0)
+            throw new IOException("Corrupted snapshot header");
+    }
+
+    /* ---------------- Snapshot writing -------------- */
+
+    /**
+     * 把map按桶的顺序写入文件
+     */
+    public static <K, V> void write(HashMap<K, V> map, Path file,
+                                    Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        write(map, file, keyCodec, valueCodec, DEFAULT_CHUNK_SHIFT);
+    }
+
+    static <K, V> void write(HashMap<K, V> map, Path file, Codec<K> keyCodec,
+                             Codec<V> valueCodec, int chunkShift) throws IOException {
+        map.finishTransfer(); // 增量扩容中的桶先迁移完
+        HashMap.Node<K, V>[] tab = map.table;
+        int cap = (tab == null) ? 1 : tab.length;
+        long chunkSize = 1L << chunkShift;
+        long[] offsets = new long[cap + 1];
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+            long pos = HEADER_SIZE + ((long) cap + 1) * Long.BYTES; // 记录区的起始位置
+            ch.position(pos);
+            for (int i = 0; i < cap; ++i) {
+                offsets[i] = pos;
+                for (HashMap.Node<K, V> e = (tab == null) ? null : tab[i]; e != null; e = e.next) {
+                    if (e.key == null || e.value == null)
+                        throw new NullPointerException("Snapshot does not support null keys or values");
+                    int klen = keyCodec.encodedSize(e.key), vlen = valueCodec.encodedSize(e.value);
+                    int len = RECORD_HEADER_SIZE + klen + vlen;
+                    if (len > chunkSize)
+                        throw new IOException("Entry too large: " + len + " bytes");
+                    long rem = chunkSize - (pos & (chunkSize - 1));
+                    if (len > rem) { // 放不下，移到下一段开头
+                        if (rem >= RECORD_HEADER_SIZE) {
+                            buf = ensureCapacity(ch, buf, RECORD_HEADER_SIZE);
+                            buf.putInt(0).putInt(PADDING).putInt(0);
+                        }
+                        flush(ch, buf);
+                        ch.position(pos += rem);
+                    }
+                    buf = ensureCapacity(ch, buf, len);
+                    int start = buf.position();
+                    buf.putInt(e.hash).putInt(klen).putInt(vlen);
+                    keyCodec.encode(e.key, buf);
+                    valueCodec.encode(e.value, buf);
+                    if (buf.position() - start != len)
+                        throw new IllegalStateException("Codec wrote " + (buf.position() - start) +
+                                " bytes, expected " + len);
+                    pos += len;
+                }
+            }
+            offsets[cap] = pos;
+            flush(ch, buf);
+
+            // 文件头和桶偏移表
+            buf.putInt(MAGIC).putInt(VERSION).putInt(cap).putInt(map.size)
+                    .putFloat(map.loadFactor).putInt(chunkShift).putLong(map.hashSeed);
+            ch.position(0);
+            for (long off : offsets) {
+                buf = ensureCapacity(ch, buf, Long.BYTES);
+                buf.putLong(off);
+            }
+            flush(ch, buf);
+        }
+    }
+
+    private static ByteBuffer ensureCapacity(FileChannel ch, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() < n) {
+            flush(ch, buf);
+            if (buf.capacity() < n)
+                buf = ByteBuffer.allocate(n);
+        }
+        return buf;
+    }
+
+    private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            ch.write(buf);
+        buf.clear();
+    }
+
+    /* ---------------- Snapshot loading -------------- */
+
+    public static <K, V> MappedHashMap<K, V> open(Path file, Codec<K> keyCodec,
+                                                  Codec<V> valueCodec) throws IOException {
+        return open(file, keyCodec, valueCodec, false);
+    }
+
+    /**
+     * 映射快照文件，promote为true时get会把读到的元素放到堆上，之后不再访问文件
+     */
+    public static <K, V> MappedHashMap<K, V> open(Path file, Codec<K> keyCodec,
+                                                  Codec<V> valueCodec, boolean promote) throws IOException {
+        if (keyCodec == null || valueCodec == null)
+            throw new NullPointerException();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = ch.size();
+            if (length < HEADER_SIZE)
+                throw new IOException("Not a HashMap snapshot");
+            MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            int chunkShift = head.getInt(20);
+            OffHeapHashMap.free(head);
+            if (chunkShift < 4 || chunkShift > 30)
+                throw new IOException("Corrupted snapshot header");
+            long chunkSize = 1L << chunkShift;
+            MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((length + chunkSize - 1) >>> chunkShift)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << chunkShift;
+                chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length - start));
+            }
+            return new MappedHashMap<>(chunks, keyCodec, valueCodec, promote);
+        } // 映射建立后关闭文件不影响访问
+    }
+
+    /* ---------------- Record access -------------- */
+
+    final int getInt(long pos) {
+        return chunks[(int) (pos >>> chunkShift)].getInt((int) (pos & chunkMask));
+    }
+
+    final long getLong(long pos) {
+        return chunks[(int) (pos >>> chunkShift)].getLong((int) (pos & chunkMask));
+    }
+
+    final long bucketStart(int index) {
+        return getLong(HEADER_SIZE + (long) index * Long.BYTES);
+    }
+
+    /**
+     * 跳过段尾的填充，end是当前桶的结束位置
+     */
+    final long skipPadding(long pos, long end) {
+        if (pos >= end)
+            return pos;
+        long rem = (chunkMask + 1) - (pos & chunkMask);
+        if (rem < RECORD_HEADER_SIZE || getInt(pos + 4) == PADDING)
+            return pos + rem;
+        return pos;
+    }
+
+    final long nextRecord(long pos) {
+        return pos + RECORD_HEADER_SIZE + getInt(pos + 4) + getInt(pos + 8);
+    }
+
+    /**
+     * 在映射的文件中查找key，返回记录的位置，不存在返回-1
+     */
+    @SuppressWarnings("unchecked")
+    final long findRecord(Object key) {
+        if (diskCleared)
+            return -1L;
+        int hash = (hashSeed == 0L) ? hash(key) : SeededHash.hash(key, hashSeed);
+        int index = hash & (capacity - 1), klen = -1;
+        long end = bucketStart(index + 1);
+        for (long pos = bucketStart(index); (pos = skipPadding(pos, end)) < end; pos = nextRecord(pos)) {
+            if (getInt(pos) == hash) {
+                if (klen < 0)
+                    klen = encodeKey((K) key);
+                if (getInt(pos + 4) == klen && keyEquals(pos + RECORD_HEADER_SIZE, klen))
+                    return pos;
+            }
+        }
+        return -1L;
+    }
+
+    final int encodeKey(K key) {
+        int len = keyCodec.encodedSize(key);
+        if (scratch.capacity() < len)
+            scratch = ByteBuffer.allocate(Math.max(len, scratch.capacity() << 1));
+        scratch.clear();
+        keyCodec.encode(key, scratch);
+        return len;
+    }
+
+    final boolean keyEquals(long pos, int keyLength) {
+        ByteBuffer c = chunks[(int) (pos >>> chunkShift)];
+        int base = (int) (pos & chunkMask), i = 0;
+        ByteBuffer k = scratch;
+        for (; i + Long.BYTES <= keyLength; i += Long.BYTES) {
+            if (c.getLong(base + i) != k.getLong(i))
+                return false;
+        }
+        for (; i < keyLength; i++) {
+            if (c.get(base + i) != k.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 解码记录中的key或者value，MappedByteBuffer是共享的，用duplicate读取
+     */
+    final K decodeKey(long pos) {
+        ByteBuffer c = chunks[(int) (pos >>> chunkShift)].duplicate();
+        int off = (int) (pos & chunkMask), klen = c.getInt(off + 4);
+        c.limit(off + RECORD_HEADER_SIZE + klen).position(off + RECORD_HEADER_SIZE);
+        return keyCodec.decode(c, klen, null);
+    }
+
+    final V decodeValue(long pos) {
+        ByteBuffer c = chunks[(int) (pos >>> chunkShift)].duplicate();
+        int off = (int) (pos & chunkMask), klen = c.getInt(off + 4), vlen = c.getInt(off + 8);
+        c.limit(off + RECORD_HEADER_SIZE + klen + vlen).position(off + RECORD_HEADER_SIZE + klen);
+        return valueCodec.decode(c, vlen, null);
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        Object v;
+        if ((v = heap.get(key)) != null)
+            return (v == REMOVED) ? null : (V) v;
+        long pos;
+        if ((pos = findRecord(key)) < 0)
+            return null;
+        V value = decodeValue(pos);
+        if (promote)
+            heap.put(key, value);
+        return value;
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        Object old = heap.put(key, value);
+        if (old == REMOVED || (old == null && findRecord(key) < 0)) { // 新元素
+            ++modCount;
+            ++size;
+            return null;
+        }
+        return (old != null) ? (V) old : decodeValue(findRecord(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        Object old = heap.get(key);
+        if (old == REMOVED)
+            return null;
+        long pos = findRecord(key);
+        if (old == null) {
+            if (pos < 0)
+                return null;
+            old = decodeValue(pos);
+        }
+        if (pos >= 0) // 文件中存在，需要删除标记
+            heap.put(key, REMOVED);
+        else
+            heap.remove(key);
+        ++modCount;
+        --size;
+        return (V) old;
+    }
+
+    /**
+     * 清空后不再访问文件中的元素，文件仍然保持映射直到close()
+     */
+    public void clear() {
+        heap.clear();
+        diskCleared = true;
+        ++modCount;
+        size = 0;
+    }
+
+    /**
+     * 复制到堆上的HashMap，使用文件中的hash值直接插入，不需要重新计算hashCode
+     */
+    @SuppressWarnings("unchecked")
+    public HashMap<K, V> toHashMap() {
+        HashMap<K, V> m = new HashMap<>(capacity, loadFactor);
+        if (hashSeed != 0L) { // 沿用文件中的种子，hash值才能直接使用
+            m.seededHash = true;
+            m.hashSeed = hashSeed;
+        }
+        for (MappedIterator it = new MappedIterator(); it.hasNext(); ) {
+            long pos = it.nextRecord();
+            m.putVal(getInt(pos), decodeKey(pos), decodeValue(pos), false, false);
+        }
+        for (Entry<Object, Object> e : heap.entrySet()) {
+            if (e.getValue() == REMOVED)
+                m.remove(e.getKey());
+            else
+                m.put((K) e.getKey(), (V) e.getValue());
+        }
+        return m;
+    }
+
+    /**
+     * 解除映射，之后不能再访问文件中的元素
+     */
+    public void close() {
+        for (int i = 0; i < chunks.length; i++) {
+            OffHeapHashMap.free(chunks[i]);
+            chunks[i] = null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    /**
+     * 按桶的顺序遍历文件中的所有记录
+     */
+    final class MappedIterator implements Iterator<Entry<K, V>> {
+        long pos;
+        final long end;
+
+        MappedIterator() {
+            if (diskCleared)
+                pos = end = 0L;
+            else {
+                end = bucketStart(capacity);
+                pos = skipPadding(bucketStart(0), end);
+            }
+        }
+
+        public boolean hasNext() {
+            return pos < end;
+        }
+
+        long nextRecord() {
+            long p = pos;
+            if (p >= end)
+                throw new NoSuchElementException();
+            pos = skipPadding(MappedHashMap.this.nextRecord(p), end);
+            return p;
+        }
+
+        public Entry<K, V> next() {
+            long p = nextRecord();
+            return new AbstractMap.SimpleImmutableEntry<>(decodeKey(p), decodeValue(p));
+        }
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            MappedHashMap.this.clear();
+        }
+
+        public final Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    /**
+     * 先遍历堆上的元素，再遍历文件中不在堆上的元素
+     */
+    final class EntryIterator implements Iterator<Entry<K, V>> {
+        final Iterator<Entry<Object, Object>> heapIt = heap.entrySet().iterator();
+        final MappedIterator diskIt = new MappedIterator();
+        Entry<Object, Object> nextHeapEntry;    // heap entry of next, null if next is from disk
+        Entry<Object, Object> currentHeapEntry; // heap entry of current
+        Entry<K, V> next;                       // next entry to return
+        Entry<K, V> current;                    // current entry
+        int expectedModCount = modCount;        // for fast-fail
+
+        EntryIterator() {
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            while (heapIt.hasNext()) {
+                Entry<Object, Object> e = heapIt.next();
+                if (e.getValue() != REMOVED) {
+                    nextHeapEntry = e;
+                    next = new MapEntry((K) e.getKey(), (V) e.getValue());
+                    return;
+                }
+            }
+            nextHeapEntry = null;
+            next = null;
+            while (diskIt.hasNext()) {
+                long p = diskIt.nextRecord();
+                K k = decodeKey(p);
+                if (!heap.containsKey(k)) {
+                    next = new MapEntry(k, decodeValue(p));
+                    return;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Entry<K, V> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if ((current = next) == null)
+                throw new NoSuchElementException();
+            currentHeapEntry = nextHeapEntry;
+            advance();
+            return current;
+        }
+
+        public void remove() {
+            if (current == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (currentHeapEntry != null) { // 遍历堆上元素时不能修改堆的结构，只替换为删除标记
+                currentHeapEntry.setValue(REMOVED);
+                ++modCount;
+                --size;
+            } else
+                MappedHashMap.this.remove(current.getKey());
+            current = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    final class MapEntry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        MapEntry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+@Slf4j
+public class MappedHashMapTest {
+
+    @Test
+    public void snapshotTest() throws IOException {
+        HashMap<String, Long> map = new HashMap<>();
+        for (long i = 0; i < 10000; i++)
+            map.put("key" + i, i);
+        Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            MappedHashMap.write(map, file, Codecs.STRING, Codecs.LONG);
+            log.info("snapshot size: {} bytes", file.toFile().length());
+            try (MappedHashMap<String, Long> mapped = MappedHashMap.open(file, Codecs.STRING, Codecs.LONG)) {
+                Assert.assertEquals(map.size(), mapped.size());
+                Assert.assertEquals(Long.valueOf(1234), mapped.get("key1234"));
+                Assert.assertNull(mapped.get("missing"));
+                Assert.assertEquals(map, mapped);
+                Assert.assertEquals(map, mapped.toHashMap());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 开启种子的HashMap，种子写入文件，toHashMap沿用种子
+     */
+    @Test
+    public void seededSnapshotTest() throws IOException {
+        HashMap<String, Integer> map = new HashMap<>();
+        map.setSeededHash(true);
+        for (int i = 0; i < 1000; i++)
+            map.put("key" + i, i);
+        Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            MappedHashMap.write(map, file, Codecs.STRING, Codecs.INTEGER);
+            try (MappedHashMap<String, Integer> mapped = MappedHashMap.open(file, Codecs.STRING, Codecs.INTEGER)) {
+                Assert.assertEquals(Integer.valueOf(999), mapped.get("key999"));
+                HashMap<String, Integer> copy = mapped.toHashMap();
+                Assert.assertEquals(map.hashSeed, copy.hashSeed);
+                Assert.assertEquals(Integer.valueOf(1), copy.remove("key1"));
+                Assert.assertEquals(999, copy.size());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 段大小只有4KB，记录经常跨段，需要填充
+     */
+    @Test
+    public void smallChunkTest() throws IOException {
+        HashMap<Integer, String> map = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 3000; i++) {
+            char[] cs = new char[random.nextInt(200)];
+            java.util.Arrays.fill(cs, (char) ('a' + i % 26));
+            map.put(i, new String(cs));
+        }
+        Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            MappedHashMap.write(map, file, Codecs.INTEGER, Codecs.STRING, 12);
+            try (MappedHashMap<Integer, String> mapped = MappedHashMap.open(file, Codecs.INTEGER, Codecs.STRING)) {
+                Assert.assertTrue(mapped.chunks.length > 1);
+                for (int i = 0; i < 3000; i++)
+                    Assert.assertEquals(map.get(i), mapped.get(i));
+                Assert.assertEquals(map, mapped);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 写操作放在堆上，和java.util.HashMap的结果对比
+     */
+    @Test
+    public void overlayTest() throws IOException {
+        HashMap<String, String> map = new HashMap<>();
+        java.util.HashMap<String, String> expected = new java.util.HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            map.put("key" + i, "value" + i);
+            expected.put("key" + i, "value" + i);
+        }
+        Path file = Files.createTempFile("snapshot", ".bin");
+        try {
+            MappedHashMap.write(map, file, Codecs.STRING, Codecs.STRING);
+            try (MappedHashMap<String, String> mapped = MappedHashMap.open(file, Codecs.STRING, Codecs.STRING, true)) {
+                Random random = new Random(42);
+                for (int i = 0; i < 20000; i++) {
+                    String key = "key" + random.nextInt(3000);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            Assert.assertEquals(expected.remove(key), mapped.remove(key));
+                            break;
+                        case 1:
+                            Assert.assertEquals(expected.put(key, "v" + i), mapped.put(key, "v" + i));
+                            break;
+                        default:
+                            Assert.assertEquals(expected.get(key), mapped.get(key));
+                    }
+                    Assert.assertEquals(expected.size(), mapped.size());
+                }
+                Assert.assertEquals(expected, mapped);
+                for (Iterator<Map.Entry<String, String>> it = mapped.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<String, String> e = it.next();
+                    if (e.getKey().hashCode() % 3 == 0) {
+                        it.remove();
+                        expected.remove(e.getKey());
+                    } else if (e.getKey().hashCode() % 3 == 1) {
+                        e.setValue("updated");
+                        expected.put(e.getKey(), "updated");
+                    }
+                }
+                Assert.assertEquals(expected, mapped);
+                Assert.assertEquals(expected, mapped.toHashMap());
+                mapped.clear();
+                Assert.assertTrue(mapped.isEmpty());
+                Assert.assertNull(mapped.get("key1"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notSnapshotTest() throws IOException {
+        File file = File.createTempFile("snapshot", ".bin");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[64]);
+        MappedHashMap.open(file.toPath(), Codecs.STRING, Codecs.STRING);
+    }
+}
@@ -0,0 +1,104 @@
+package com.bluesky.javasource.maps;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界的多生产者单消费者队列，ShardedHashMap用它把写操作发送给分片的所有者线程
+ * 要点:
+ * 1. 环形数组，容量为2^k。生产者CAS推进tail抢到一个位置，再写入元素；消费者只有一个，head只由它写，用lazySet发布
+ * 2. 位置上为null说明生产者已经抢到位置但还没写入，消费者把它当作队列暂时为空，不会越过这个位置
+ * 3. 消费者先把位置置为null再推进head，生产者看到新的head时，对应的位置一定已经清空
+ * 4. 生产者判断是否已满时先用缓存的head，只有看起来满了才读取消费者的head，减少和消费者之间的缓存行争用
+ * 5. 不允许null元素，offer在队列满时返回false，由调用者决定等待还是放弃
+ */
+final class MpscArrayQueue<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+
+    private final int mask;
+
+    /**
+     * 下一个要抢的位置，生产者之间CAS竞争
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * 下一个要取出的位置，只有消费者写
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * 生产者看到的head，可能比实际的小，只用来提前判断是否已满
+     */
+    private volatile long headCache;
+
+    MpscArrayQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        int cap = HashMap.tableSizeFor(capacity);
+        buffer = new AtomicReferenceArray<>(cap);
+        mask = cap - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 任意线程调用，队列满时返回false
+     */
+    boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        long cap = mask + 1, t;
+        do {
+            t = tail.get();
+            if (t - headCache >= cap) {
+                long h = head.get();
+                if (t - h >= cap)
+                    return false;
+                headCache = h;
+            }
+        } while (!tail.compareAndSet(t, t + 1));
+        buffer.lazySet((int) t & mask, e);
+        return true;
+    }
+
+    /**
+     * 只能由消费者调用，队列为空(或者下一个位置还没写入)时返回null
+     */
+    E poll() {
+        long h = head.get();
+        int i = (int) h & mask;
+        E e = buffer.get(i);
+        if (e == null)
+            return null;
+        buffer.lazySet(i, null);
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    /**
+     * 只能由消费者调用，最多取出limit个元素放到out中，返回取出的个数
+     */
+    int drain(E[] out, int limit) {
+        int n = 0;
+        E e;
+        while (n < limit && (e = poll()) != null)
+            out[n++] = e;
+        return n;
+    }
+
+    /**
+     * 已经抢到位置的元素个数，包括还没写入的，并发修改时只是一个估计值
+     */
+    int size() {
+        long h = head.get(), t = tail.get();
+        return (int) Math.max(0L, Math.min(t - h, (long) mask + 1));
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+}
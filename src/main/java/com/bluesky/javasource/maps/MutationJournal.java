@@ -0,0 +1,139 @@
+package com.bluesky.javasource.maps;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HashMap的修改日志，把put/remove/clear记录到有界的环形缓冲区中，由另一个线程批量取出，用来增量复制到备份
+ * 要点:
+ * 1. 通过HashMap.setMutationJournal设置，put、remove、clear、compute*、merge、replace*都会记录，
+ * 记录的是修改后的结果(PUT带新的value)，按修改的顺序重放就能得到相同的map；复制的开销和写入的次数成正比，和map的大小无关
+ * 2. 单生产者单消费者：生产者是修改map的线程，消费者调用drain。环形数组容量为2^k，
+ * 操作类型、key、value放在三个平行数组中；tail只由生产者写，head只由消费者写，都用lazySet发布
+ * 3. drain一次读取tail，处理完一批之后才推进head，生产者和消费者之间每批只同步一次
+ * 4. 缓冲区满时不阻塞修改map的线程，而是标记为溢出并丢弃之后的所有记录。
+ * 消费者处理完溢出前的记录后，需要在map所在的线程重新取全量快照(比如clone())，再换一个新的MutationJournal
+ * 5. 通过Entry.setValue直接修改value不经过map，不会被记录
+ */
+public final class MutationJournal<K, V> {
+
+    public static final byte PUT = 0, REMOVE = 1, CLEAR = 2;
+
+    /**
+     * 接收取出的记录，在调用drain的线程中执行
+     */
+    public interface Sink<K, V> {
+        void put(K key, V value);
+
+        void remove(K key);
+
+        void clear();
+    }
+
+    private final byte[] ops;
+    private final Object[] keys;
+    private final Object[] values;
+    private final int mask;
+
+    /**
+     * 下一个写入的位置，只有生产者写
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * 下一个取出的位置，只有消费者写
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * 生产者看到的head，可能比实际的小，只由生产者访问
+     */
+    private long headCache;
+
+    /**
+     * 缓冲区满过，之后的记录都被丢弃了
+     */
+    private volatile boolean overflowed;
+
+    public MutationJournal(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        int cap = HashMap.tableSizeFor(capacity);
+        ops = new byte[cap];
+        keys = new Object[cap];
+        values = new Object[cap];
+        mask = cap - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * 只能由生产者调用，缓冲区满时标记溢出
+     */
+    void record(byte op, Object key, Object value) {
+        if (overflowed)
+            return;
+        long t = tail.get();
+        if (t - headCache > mask) {
+            headCache = head.get();
+            if (t - headCache > mask) {
+                overflowed = true;
+                return;
+            }
+        }
+        int i = (int) t & mask;
+        ops[i] = op;
+        keys[i] = key;
+        values[i] = value;
+        tail.lazySet(t + 1);
+    }
+
+    /**
+     * 只能由消费者调用，最多取出limit条记录交给sink，返回取出的条数。
+     * sink抛出异常时，已经交给sink的记录算作已取出
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Sink<? super K, ? super V> sink, int limit) {
+        if (sink == null)
+            throw new NullPointerException();
+        long h = head.get();
+        int n = (int) Math.min(tail.get() - h, (long) Math.max(limit, 0)), k = 0;
+        try {
+            for (; k < n; ++k) {
+                int i = (int) (h + k) & mask;
+                byte op = ops[i];
+                K key = (K) keys[i];
+                V value = (V) values[i];
+                keys[i] = values[i] = null;
+                if (op == PUT)
+                    sink.put(key, value);
+                else if (op == REMOVE)
+                    sink.remove(key);
+                else
+                    sink.clear();
+            }
+        } finally {
+            head.lazySet(h + (k < n ? k + 1 : n));
+        }
+        return n;
+    }
+
+    /**
+     * 是否溢出过。为true时，已经取出和还在缓冲区中的记录都是溢出前的，之后的修改没有记录
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * 还没有取出的记录条数，并发修改时只是一个估计值
+     */
+    public int size() {
+        return (int) Math.max(0L, Math.min(tail.get() - head.get(), (long) mask + 1));
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+}
@@ -0,0 +1,201 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Random;
+
+@Slf4j
+public class MutationJournalTest {
+
+    /**
+     * 把记录重放到另一个map上
+     */
+    static <K, V> MutationJournal.Sink<K, V> replayTo(HashMap<K, V> replica) {
+        return new MutationJournal.Sink<K, V>() {
+            public void put(K key, V value) {
+                replica.put(key, value);
+            }
+
+            public void remove(K key) {
+                replica.remove(key);
+            }
+
+            public void clear() {
+                replica.clear();
+            }
+        };
+    }
+
+    /**
+     * 各种修改方法都被记录，重放后两个map相同；重新hash不记录，clone出的副本不共享日志
+     */
+    @Test
+    public void replayTest() {
+        HashMap<Integer, Integer> primary = new HashMap<>();
+        HashMap<Integer, Integer> replica = new HashMap<>();
+        MutationJournal<Integer, Integer> journal = new MutationJournal<>(1 << 16);
+        primary.setMutationJournal(journal);
+        Random random = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            int k = random.nextInt(500), v = random.nextInt(1000);
+            switch (random.nextInt(12)) {
+                case 0:
+                    primary.remove(k);
+                    break;
+                case 1:
+                    primary.compute(k, (key, old) -> (old == null || old % 3 != 0) ? v : null);
+                    break;
+                case 2:
+                    primary.computeIfAbsent(k, key -> v);
+                    break;
+                case 3:
+                    primary.computeIfPresent(k, (key, old) -> (old % 2 == 0) ? null : old + 1);
+                    break;
+                case 4:
+                    primary.merge(k, v, (a, b) -> (a > b) ? null : a + b);
+                    break;
+                case 5:
+                    primary.replace(k, v);
+                    break;
+                case 6:
+                    primary.replace(k, v, v + 1);
+                    break;
+                case 7:
+                    primary.putIfAbsent(k, v);
+                    break;
+                case 8:
+                    primary.remove(k, v);
+                    break;
+                case 9:
+                    if (random.nextInt(1000) == 0)
+                        primary.clear();
+                    else if (random.nextInt(100) == 0)
+                        primary.replaceAll((key, old) -> old + 1);
+                    break;
+                case 10:
+                    for (Iterator<Integer> it = primary.keySet().iterator(); it.hasNext(); ) {
+                        if (it.next() == k) {
+                            it.remove();
+                            break;
+                        }
+                    }
+                    break;
+                default:
+                    primary.put(k, v);
+            }
+            if (random.nextInt(64) == 0)
+                journal.drain(replayTo(replica), 1024);
+        }
+        primary.setSeededHash(true);
+        Assert.assertNull(((HashMap<?, ?>) primary.clone()).getMutationJournal());
+        while (journal.drain(replayTo(replica), 1024) > 0)
+            ;
+        Assert.assertFalse(journal.isOverflowed());
+        Assert.assertTrue(journal.isEmpty());
+        Assert.assertEquals(primary, replica);
+    }
+
+    /**
+     * LinkedHashMap淘汰最老的元素也会被记录，PUT在REMOVE之前，重放后顺序相同
+     */
+    @Test
+    public void evictionTest() {
+        LinkedHashMap<Integer, String> cache = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(java.util.Map.Entry<Integer, String> eldest) {
+                return size() > 10;
+            }
+        };
+        LinkedHashMap<Integer, String> replica = new LinkedHashMap<>();
+        MutationJournal<Integer, String> journal = new MutationJournal<>(1024);
+        cache.setMutationJournal(journal);
+        for (int i = 0; i < 100; i++)
+            cache.put(i % 37, "v" + i);
+        journal.drain(replayTo(replica), Integer.MAX_VALUE);
+        Assert.assertEquals(cache, replica);
+        Assert.assertEquals(new java.util.ArrayList<>(cache.keySet()), new java.util.ArrayList<>(replica.keySet()));
+    }
+
+    /**
+     * 缓冲区满时标记溢出并丢弃之后的记录；sink抛出异常时已经交出的记录不会再次取出
+     */
+    @Test
+    public void overflowTest() {
+        HashMap<Integer, Integer> map = new HashMap<>();
+        MutationJournal<Integer, Integer> journal = new MutationJournal<>(5);
+        Assert.assertEquals(8, journal.capacity());
+        map.setMutationJournal(journal);
+        for (int i = 0; i < 20; i++)
+            map.put(i, i);
+        Assert.assertTrue(journal.isOverflowed());
+        Assert.assertEquals(8, journal.size());
+        HashMap<Integer, Integer> replica = new HashMap<>();
+        try {
+            journal.drain(new MutationJournal.Sink<Integer, Integer>() {
+                public void put(Integer key, Integer value) {
+                    if (key == 3)
+                        throw new IllegalStateException("boom");
+                    replica.put(key, value);
+                }
+
+                public void remove(Integer key) {
+                }
+
+                public void clear() {
+                }
+            }, 100);
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        Assert.assertEquals(4, journal.size());
+        Assert.assertEquals(4, journal.drain(replayTo(replica), 100));
+        Assert.assertEquals(7, replica.size()); // 0..7中除了3
+        map.put(100, 100);
+        Assert.assertTrue(journal.isEmpty()); // 溢出之后不再记录
+    }
+
+    /**
+     * 复制线程和写线程并发执行，写入结束后备份和主map相同；取出的开销只和写入次数有关
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void concurrentReplicationTest() throws Exception {
+        HashMap<Integer, Integer> primary = new HashMap<>();
+        for (int i = 0; i < 1 << 20; i++)
+            primary.put(i, i);
+        HashMap<Integer, Integer> replica = (HashMap<Integer, Integer>) primary.clone();
+        MutationJournal<Integer, Integer> journal = new MutationJournal<>(1 << 12);
+        primary.setMutationJournal(journal);
+        int writes = 200000;
+        Thread writer = new Thread(() -> {
+            Random random = new Random(3);
+            for (int i = 0; i < writes; i++) {
+                while (journal.size() >= journal.capacity() - 1) // 测试中不希望溢出，等待复制线程
+                    Thread.yield();
+                int k = random.nextInt(1 << 21);
+                if ((i & 3) == 0)
+                    primary.remove(k);
+                else
+                    primary.merge(k, 1, Integer::sum);
+            }
+        });
+        long start = System.nanoTime();
+        writer.start();
+        long drained = 0;
+        MutationJournal.Sink<Integer, Integer> sink = replayTo(replica);
+        while (writer.isAlive() || !journal.isEmpty()) {
+            int n = journal.drain(sink, 256);
+            drained += n;
+            if (n == 0)
+                Thread.yield();
+        }
+        writer.join();
+        log.info("replicated {} mutations of a {} entry map in {} ms", drained, primary.size(),
+                (System.nanoTime() - start) / 1000000);
+        Assert.assertFalse(journal.isOverflowed());
+        Assert.assertEquals(primary, replica);
+    }
+}
@@ -0,0 +1,575 @@
+package com.bluesky.javasource.maps;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_INITIAL_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_LOAD_FACTOR;
+import static com.bluesky.javasource.maps.HashMap.hash;
+import static com.bluesky.javasource.maps.HashMap.tableSizeFor;
+
+/**
+ * 要点:
+ * 1. 键值对通过Codec编码后存放在堆外的direct ByteBuffer中，堆上只有slab列表等少量对象，
+ * GC扫描的对象数量和元素个数无关
+ * 2. 和HashMap一样采用链地址法，桶数组容量为2^k，桶下标为 HashMap.hash(key)&(n-1)。
+ * 桶数组本身也在堆外，每个桶是一个8字节的地址，0表示空桶
+ * 3. 每个键值对是slab中的一条记录: [hash 4][next 8][keyLength 4][valueLength 4][key][value]，
+ * 地址为 ((slab下标+1)<<32)|偏移量，slab按顺序追加写入
+ * 4. key是否相等通过比较编码后的字节判断，所以要求相等的key编码结果相同(见Codec)
+ * 5. 修改值时长度不变就原地覆盖，否则追加一条新记录；删除和覆盖产生的垃圾超过存活数据后自动压缩
+ * 6. get(key, reuse)把value解码到reuse中，key和value的Codec都不分配内存时，查找过程没有对象分配
+ * 7. 不允许空键和空值，不是线程同步的，迭代器是fail-fast的；用完后调用close()立即释放堆外内存
+ */
+public class OffHeapHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Closeable {
+
+    /**
+     * 桶数组最大容量，桶数组是一个ByteBuffer，每个桶8字节，字节数和偏移量index << 3都必须在int范围内，
+     * 所以最多2^27个桶(1GB)，达到上限后不再扩容，只是链表变长
+     */
+    static final int MAXIMUM_CAPACITY = 1 << 27;
+
+    /**
+     * 默认每个slab 64MB
+     */
+    static final int DEFAULT_SLAB_SIZE = 1 << 26;
+
+    /**
+     * 记录头中各字段的偏移量
+     */
+    static final int HASH = 0;
+    static final int NEXT = 4;
+    static final int KEY_LENGTH = 12;
+    static final int VALUE_LENGTH = 16;
+    static final int HEADER_SIZE = 20;
+
+    final Codec<K> keyCodec;
+    final Codec<V> valueCodec;
+
+    /**
+     * 每个slab的大小，单条记录超过它时单独分配一个slab
+     */
+    final int slabSize;
+
+    /**
+     * 桶数组，第一次插入时才创建
+     */
+    ByteBuffer table;
+
+    /**
+     * 桶数组的容量
+     */
+    int capacity;
+
+    int size;
+
+    int modCount;
+
+    /**
+     * 需要进行扩容的阈值，桶数组还没创建时存放的是初始容量
+     */
+    int threshold;
+
+    /**
+     * 所有slab，地址中的slab编号从1开始
+     */
+    ArrayList<ByteBuffer> slabs = new ArrayList<>();
+
+    /**
+     * 最后一个slab中下一条记录的偏移量
+     */
+    int tail;
+
+    /**
+     * 已经写入的记录总字节数，以及其中已经失效的字节数
+     */
+    long usedBytes;
+    long garbageBytes;
+
+    /**
+     * 查找时先把key编码到这里，再和记录中的key比较
+     */
+    ByteBuffer scratch = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+
+    /**
+     * 用于entrySet()
+     */
+    transient Set<Entry<K, V>> entrySet;
+
+    public OffHeapHashMap(Codec<K> keyCodec, Codec<V> valueCodec,
+                          int initialCapacity, int slabSize) {
+        if (keyCodec == null || valueCodec == null)
+            throw new NullPointerException();
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (slabSize < HEADER_SIZE)
+            throw new IllegalArgumentException("Illegal slab size: " + slabSize);
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.slabSize = slabSize;
+        this.threshold = tableSizeFor(Math.min(initialCapacity, MAXIMUM_CAPACITY));
+    }
+
+    public OffHeapHashMap(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(keyCodec, valueCodec, DEFAULT_INITIAL_CAPACITY, DEFAULT_SLAB_SIZE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 占用的堆外内存字节数，包括桶数组和所有slab
+     */
+    public long offHeapBytes() {
+        long n = (long) capacity << 3;
+        for (ByteBuffer s : slabs)
+            n += s.capacity();
+        return n;
+    }
+
+    /* ---------------- Record access -------------- */
+
+    final ByteBuffer slab(long addr) {
+        return slabs.get((int) (addr >>> 32) - 1);
+    }
+
+    static int offset(long addr) {
+        return (int) addr;
+    }
+
+    final long next(long addr) {
+        return slab(addr).getLong(offset(addr) + NEXT);
+    }
+
+    final void setNext(long addr, long next) {
+        slab(addr).putLong(offset(addr) + NEXT, next);
+    }
+
+    final int recordSize(long addr) {
+        ByteBuffer s = slab(addr);
+        int off = offset(addr);
+        return HEADER_SIZE + s.getInt(off + KEY_LENGTH) + s.getInt(off + VALUE_LENGTH);
+    }
+
+    final long bucket(int index) {
+        return table.getLong(index << 3);
+    }
+
+    final void setBucket(int index, long addr) {
+        table.putLong(index << 3, addr);
+    }
+
+    /**
+     * 在最后一个slab中分配size字节，空间不够时分配新的slab
+     */
+    final long allocate(int size) {
+        ByteBuffer s = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (s == null || s.capacity() - tail < size) {
+            s = ByteBuffer.allocateDirect(Math.max(slabSize, size)).order(ByteOrder.nativeOrder());
+            slabs.add(s);
+            tail = 0;
+        }
+        int off = tail;
+        tail += size;
+        usedBytes += size;
+        return ((long) slabs.size() << 32) | off;
+    }
+
+    /**
+     * 把key编码到scratch中，返回编码后的长度
+     */
+    final int encodeKey(K key) {
+        int len = keyCodec.encodedSize(key);
+        if (scratch.capacity() < len)
+            scratch = ByteBuffer.allocate(Math.max(len, scratch.capacity() << 1))
+                    .order(ByteOrder.nativeOrder()); // 和slab的字节序一致，才能按long比较
+        scratch.clear();
+        keyCodec.encode(key, scratch);
+        if (scratch.position() != len)
+            throw new IllegalStateException("Codec wrote " + scratch.position() +
+                    " bytes, expected " + len);
+        return len;
+    }
+
+    /**
+     * 比较记录中的key和scratch中编码后的key
+     */
+    final boolean keyEquals(long addr, int hash, int keyLength) {
+        ByteBuffer s = slab(addr);
+        int off = offset(addr);
+        if (s.getInt(off + HASH) != hash || s.getInt(off + KEY_LENGTH) != keyLength)
+            return false;
+        ByteBuffer k = scratch;
+        int base = off + HEADER_SIZE, i = 0;
+        for (; i + Long.BYTES <= keyLength; i += Long.BYTES) { // 每次比较8个字节
+            if (s.getLong(base + i) != k.getLong(i))
+                return false;
+        }
+        for (; i < keyLength; i++) {
+            if (s.get(base + i) != k.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 写入一条记录，key从scratch中复制，value直接编码到slab中
+     */
+    final long writeRecord(int hash, int keyLength, V value, int valueLength, long next) {
+        long addr = allocate(HEADER_SIZE + keyLength + valueLength);
+        ByteBuffer s = slab(addr);
+        int off = offset(addr);
+        s.putInt(off + HASH, hash);
+        s.putLong(off + NEXT, next);
+        s.putInt(off + KEY_LENGTH, keyLength);
+        s.putInt(off + VALUE_LENGTH, valueLength);
+        ByteBuffer k = scratch;
+        k.limit(keyLength).position(0);
+        s.position(off + HEADER_SIZE);
+        s.put(k);
+        writeValue(s, off + HEADER_SIZE + keyLength, value, valueLength);
+        return addr;
+    }
+
+    /**
+     * 把value编码到[pos, pos+valueLength)，limit防止Codec写越界
+     */
+    final void writeValue(ByteBuffer s, int pos, V value, int valueLength) {
+        s.limit(pos + valueLength).position(pos);
+        try {
+            valueCodec.encode(value, s);
+            if (s.position() != pos + valueLength)
+                throw new IllegalStateException("Codec wrote " + (s.position() - pos) +
+                        " bytes, expected " + valueLength);
+        } finally {
+            s.clear();
+        }
+    }
+
+    final K decodeKey(long addr) {
+        ByteBuffer s = slab(addr);
+        int off = offset(addr), klen = s.getInt(off + KEY_LENGTH);
+        s.limit(off + HEADER_SIZE + klen).position(off + HEADER_SIZE);
+        try {
+            return keyCodec.decode(s, klen, null);
+        } finally {
+            s.clear();
+        }
+    }
+
+    final V decodeValue(long addr, V reuse) {
+        ByteBuffer s = slab(addr);
+        int off = offset(addr), klen = s.getInt(off + KEY_LENGTH),
+                vlen = s.getInt(off + VALUE_LENGTH), pos = off + HEADER_SIZE + klen;
+        s.limit(pos + vlen).position(pos);
+        try {
+            return valueCodec.decode(s, vlen, reuse);
+        } finally {
+            s.clear();
+        }
+    }
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * 查找key所在的记录，不存在返回0
+     */
+    @SuppressWarnings("unchecked")
+    final long findRecord(Object key) {
+        if (key == null)
+            throw new NullPointerException();
+        if (table == null)
+            return 0L;
+        int hash = hash(key);
+        int klen = encodeKey((K) key);
+        for (long e = bucket(hash & (capacity - 1)); e != 0L; e = next(e)) {
+            if (keyEquals(e, hash, klen))
+                return e;
+        }
+        return 0L;
+    }
+
+    public V get(Object key) {
+        long e;
+        return (e = findRecord(key)) == 0L ? null : decodeValue(e, null);
+    }
+
+    /**
+     * 把value解码到reuse中，Codec支持享元时没有对象分配
+     */
+    public V get(K key, V reuse) {
+        long e;
+        return (e = findRecord(key)) == 0L ? null : decodeValue(e, reuse);
+    }
+
+    public boolean containsKey(Object key) {
+        return findRecord(key) != 0L;
+    }
+
+    public V put(K key, V value) {
+        V oldValue = putVal(key, value);
+        if (garbageBytes > slabSize && garbageBytes > usedBytes - garbageBytes)
+            compact();
+        return oldValue;
+    }
+
+    /**
+     * 插入或者替换，不会触发压缩，所以可以在遍历时通过Entry.setValue调用
+     */
+    final V putVal(K key, V value) {
+        if (key == null || value == null)
+            throw new NullPointerException();
+        if (table == null)
+            resize();
+        int hash = hash(key);
+        int klen = encodeKey(key);
+        int vlen = valueCodec.encodedSize(value);
+        int index = hash & (capacity - 1);
+        for (long prev = 0L, e = bucket(index); e != 0L; prev = e, e = next(e)) {
+            if (keyEquals(e, hash, klen)) {
+                V oldValue = decodeValue(e, null);
+                ByteBuffer s = slab(e);
+                int off = offset(e);
+                if (s.getInt(off + VALUE_LENGTH) == vlen) // 长度相同，原地覆盖
+                    writeValue(s, off + HEADER_SIZE + klen, value, vlen);
+                else { // 追加新记录，替换链表中的旧记录
+                    long n = writeRecord(hash, klen, value, vlen, next(e));
+                    if (prev == 0L)
+                        setBucket(index, n);
+                    else
+                        setNext(prev, n);
+                    garbageBytes += HEADER_SIZE + klen + s.getInt(off + VALUE_LENGTH);
+                }
+                return oldValue;
+            }
+        }
+        setBucket(index, writeRecord(hash, klen, value, vlen, bucket(index))); // 头插法
+        ++modCount;
+        if (++size > threshold)
+            resize();
+        return null;
+    }
+
+    public V remove(Object key) {
+        long e;
+        if ((e = findRecord(key)) == 0L)
+            return null;
+        V oldValue = decodeValue(e, null);
+        removeRecord(e);
+        if (garbageBytes > slabSize && garbageBytes > usedBytes - garbageBytes)
+            compact();
+        return oldValue;
+    }
+
+    /**
+     * 把记录从链表中摘除，不会触发压缩
+     */
+    final void removeRecord(long addr) {
+        int index = slab(addr).getInt(offset(addr) + HASH) & (capacity - 1);
+        for (long prev = 0L, e = bucket(index); e != 0L; prev = e, e = next(e)) {
+            if (e == addr) {
+                if (prev == 0L)
+                    setBucket(index, next(e));
+                else
+                    setNext(prev, next(e));
+                garbageBytes += recordSize(e);
+                ++modCount;
+                --size;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 扩容，容量和阈值的计算同HashMap。记录中缓存了hash值，只需要修改next，不需要移动记录
+     */
+    final void resize() {
+        int oldCap = capacity, newCap;
+        if (oldCap > 0) {
+            if (oldCap >= MAXIMUM_CAPACITY) {
+                threshold = Integer.MAX_VALUE;
+                return;
+            }
+            newCap = oldCap << 1;
+        } else
+            newCap = (threshold > 0) ? threshold : DEFAULT_INITIAL_CAPACITY;
+        float ft = (float) newCap * DEFAULT_LOAD_FACTOR;
+        threshold = (newCap < MAXIMUM_CAPACITY) ? (int) ft : Integer.MAX_VALUE;
+        ByteBuffer oldTab = table;
+        table = ByteBuffer.allocateDirect(newCap << 3).order(ByteOrder.nativeOrder());
+        capacity = newCap;
+        if (oldTab != null) {
+            for (int j = 0; j < oldCap; ++j) {
+                long e = oldTab.getLong(j << 3), next;
+                for (; e != 0L; e = next) {
+                    next = next(e);
+                    int index = slab(e).getInt(offset(e) + HASH) & (newCap - 1);
+                    setNext(e, bucket(index));
+                    setBucket(index, e);
+                }
+            }
+            free(oldTab);
+        }
+    }
+
+    /**
+     * 把存活的记录复制到新的slab中，释放旧的slab
+     */
+    public void compact() {
+        ArrayList<ByteBuffer> old = slabs;
+        slabs = new ArrayList<>();
+        tail = 0;
+        usedBytes = garbageBytes = 0L;
+        for (int i = 0; i < capacity; ++i) {
+            long hd = 0L, tl = 0L;
+            for (long e = bucket(i); e != 0L; ) {
+                ByteBuffer s = old.get((int) (e >>> 32) - 1);
+                int off = offset(e);
+                int len = HEADER_SIZE + s.getInt(off + KEY_LENGTH) + s.getInt(off + VALUE_LENGTH);
+                long n = allocate(len);
+                ByteBuffer d = slab(n);
+                s.limit(off + len).position(off);
+                d.position(offset(n));
+                d.put(s);
+                s.clear();
+                d.clear();
+                d.putLong(offset(n) + NEXT, 0L);
+                if (tl == 0L)
+                    hd = n;
+                else
+                    setNext(tl, n);
+                tl = n;
+                e = s.getLong(off + NEXT);
+            }
+            setBucket(i, hd);
+        }
+        for (ByteBuffer s : old)
+            free(s);
+        ++modCount;
+    }
+
+    /**
+     * 清空并释放所有堆外内存，之后还可以继续使用
+     */
+    public void clear() {
+        modCount++;
+        free(table);
+        for (ByteBuffer s : slabs)
+            free(s);
+        slabs = new ArrayList<>();
+        if (table != null)
+            threshold = capacity;
+        table = null;
+        capacity = size = tail = 0;
+        usedBytes = garbageBytes = 0L;
+    }
+
+    public void close() {
+        clear();
+    }
+
+    /**
+     * 立即释放direct ByteBuffer占用的内存，不等GC回收，之后不能再访问这个ByteBuffer
+     */
+    static void free(ByteBuffer buf) {
+        if (buf instanceof sun.nio.ch.DirectBuffer) {
+            sun.misc.Cleaner cleaner = ((sun.nio.ch.DirectBuffer) buf).cleaner();
+            if (cleaner != null)
+                cleaner.clean();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            OffHeapHashMap.this.clear();
+        }
+
+        public final Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+    }
+
+    /**
+     * 按桶的顺序遍历，key和value在next()时解码
+     */
+    final class EntryIterator implements Iterator<Entry<K, V>> {
+        long next;              // next record to return
+        K currentKey;           // key of current entry
+        int index;              // next bucket
+        int expectedModCount;   // for fast-fail
+
+        EntryIterator() {
+            expectedModCount = modCount;
+            advance();
+        }
+
+        private void advance() {
+            while (next == 0L && index < capacity)
+                next = bucket(index++);
+        }
+
+        public boolean hasNext() {
+            return next != 0L;
+        }
+
+        public Entry<K, V> next() {
+            long e = next;
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (e == 0L)
+                throw new NoSuchElementException();
+            next = OffHeapHashMap.this.next(e);
+            advance();
+            return new MapEntry(currentKey = decodeKey(e), decodeValue(e, null));
+        }
+
+        public void remove() {
+            long e;
+            if (currentKey == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if ((e = findRecord(currentKey)) != 0L) // setValue可能已经把记录移到了别的位置，按key重新查找
+                removeRecord(e);
+            currentKey = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * 解码出来的Entry，setValue会写回map
+     */
+    final class MapEntry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        MapEntry(K key, V value) {
+            super(key, value);
+        }
+
+        public V setValue(V value) {
+            putVal(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+@Slf4j
+public class OffHeapHashMapTest {
+
+    @Test
+    public void simpleUseTest() {
+        try (OffHeapHashMap<String, Long> map = new OffHeapHashMap<>(Codecs.STRING, Codecs.LONG)) {
+            map.put("a", 1L);
+            map.put("中文", 2L);
+            map.put("😀", 3L); // 4字节的UTF-8字符
+            log.info("map: {}, offHeapBytes: {}", map, map.offHeapBytes());
+            Assert.assertEquals(Long.valueOf(2), map.get("中文"));
+            Assert.assertEquals(Long.valueOf(3), map.get("😀"));
+            Assert.assertEquals(Long.valueOf(1), map.remove("a"));
+            Assert.assertEquals(2, map.size());
+        }
+    }
+
+    /**
+     * 随机操作，和java.util.HashMap的结果对比，value长度变化会追加新记录，slab很小，会多次压缩
+     */
+    @Test
+    public void randomOperationTest() {
+        OffHeapHashMap<String, String> map = new OffHeapHashMap<>(Codecs.STRING, Codecs.STRING, 16, 4096);
+        java.util.HashMap<String, String> expected = new java.util.HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            String key = "key" + random.nextInt(5000);
+            if (random.nextInt(3) == 0)
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            else {
+                String value = Integer.toString(i, random.nextInt(30) + 2);
+                Assert.assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+        Assert.assertEquals(expected, map);
+        for (Iterator<Map.Entry<String, String>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, String> e = it.next();
+            if (e.getKey().hashCode() % 2 == 0) {
+                e.setValue(e.getValue() + "!"); // 长度变化，记录被移到别的位置
+                it.remove();
+                expected.remove(e.getKey());
+            }
+        }
+        Assert.assertEquals(expected, map);
+        map.close();
+        Assert.assertEquals(0, map.offHeapBytes());
+    }
+
+    /**
+     * 解码到可复用的对象中，get不创建新的value
+     */
+    @Test
+    public void flyweightTest() {
+        OffHeapHashMap<Integer, Point> map = new OffHeapHashMap<>(Codecs.INTEGER, Point.CODEC);
+        for (int i = 0; i < 1000; i++)
+            map.put(i, new Point(i, -i));
+        Point reuse = new Point(0, 0);
+        for (int i = 0; i < 1000; i++) {
+            Point p = map.get(i, reuse);
+            Assert.assertSame(reuse, p);
+            Assert.assertEquals(i, p.x);
+            Assert.assertEquals(-i, p.y);
+        }
+        Assert.assertNull(map.get(1000, reuse));
+        map.close();
+    }
+
+    static class Point {
+        static final Codec<Point> CODEC = new Codec<Point>() {
+            public int encodedSize(Point value) {
+                return 8;
+            }
+
+            public void encode(Point value, ByteBuffer buf) {
+                buf.putInt(value.x).putInt(value.y);
+            }
+
+            public Point decode(ByteBuffer buf, int length, Point reuse) {
+                Point p = (reuse != null) ? reuse : new Point(0, 0);
+                p.x = buf.getInt();
+                p.y = buf.getInt();
+                return p;
+            }
+        };
+
+        int x, y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+}
@@ -0,0 +1,786 @@
+package com.bluesky.javasource.maps;
+
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+import static com.bluesky.javasource.maps.HashMap.hash;
+
+/**
+ * 不可变的持久化map，哈希数组映射前缀树(HAMT，采用CHAMP的节点布局)，修改时只复制从根到叶子的路径，新旧版本共享其余节点
+ * 要点:
+ * 1. hash方式和HashMap相同(HashMap.hash)，每层取hash的5位作为下标，树高最多7层，查找和修改都是O(log32 n)
+ * 2. 每个节点有两个32位的bitmap：dataMap标记直接存放键值对的下标，nodeMap标记子节点的下标，
+ * 数组前面依次存放键值对，子节点从数组末尾倒序存放，节点中不存在空位置
+ * 3. 删除后子节点只剩一个键值对时把它内联到父节点中，同一组键值对的树结构是唯一的
+ * 4. hash完全相同的key放在CollisionNode中顺序查找
+ * 5. plus/minus返回新的map，原来的map不变；Map接口的修改方法抛出UnsupportedOperationException
+ * 6. asTransient()得到可修改的Transient，批量修改时带着编辑标记原地修改自己创建的节点，不复制路径；
+ * snapshot()用O(1)时间把当前的树包装成PersistentHashMap，然后更换编辑标记，之后的修改不会再改动快照中的节点
+ * 7. 根节点和元素个数是final的，快照可以不加锁地交给其他线程读取
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Serializable {
+
+    private static final long serialVersionUID = 2108436279573129084L;
+
+    /**
+     * 每层使用的hash位数
+     */
+    static final int BITS = 5;
+
+    /**
+     * 最大深度：7层BitmapNode加一层CollisionNode
+     */
+    static final int MAX_DEPTH = 8;
+
+    @SuppressWarnings("rawtypes")
+    static final PersistentHashMap EMPTY = new PersistentHashMap(0, BitmapNode.EMPTY);
+
+    final int size;
+
+    final TrieNode root;
+
+    transient Set<Entry<K, V>> entrySet;
+
+    PersistentHashMap(int size, TrieNode root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * 复制map中的所有键值对
+     */
+    public static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> m) {
+        if (m instanceof PersistentHashMap) {
+            @SuppressWarnings("unchecked")
+            PersistentHashMap<K, V> p = (PersistentHashMap<K, V>) m;
+            return p;
+        }
+        Transient<K, V> t = PersistentHashMap.<K, V>empty().asTransient();
+        t.putAll(m);
+        return t.snapshot();
+    }
+
+    /* ---------------- Queries -------------- */
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Object v;
+        return (v = root.find(key, hash(key), 0)) == NOT_FOUND ? null : (V) v;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        Object v;
+        return (v = root.find(key, hash(key), 0)) == NOT_FOUND ? defaultValue : (V) v;
+    }
+
+    public boolean containsKey(Object key) {
+        return root.find(key, hash(key), 0) != NOT_FOUND;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        root.forEach(action);
+    }
+
+    /* ---------------- Persistent updates -------------- */
+
+    /**
+     * 返回增加或者替换了key的新map，值没有变化时返回自己
+     */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        Result r = new Result();
+        TrieNode newRoot = root.put(null, key, hash(key), value, 0, r);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<>(r.added ? size + 1 : size, newRoot);
+    }
+
+    /**
+     * 返回删除了key的新map，key不存在时返回自己
+     */
+    public PersistentHashMap<K, V> minus(Object key) {
+        Result r = new Result();
+        TrieNode newRoot = root.remove(null, key, hash(key), 0, r);
+        if (!r.removed)
+            return this;
+        return new PersistentHashMap<>(size - 1, newRoot);
+    }
+
+    /**
+     * 以当前版本为起点的可修改map，不影响当前版本
+     */
+    public Transient<K, V> asTransient() {
+        return new Transient<>(size, root);
+    }
+
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object key = e.getKey(), v = root.find(key, hash(key), 0);
+            return v != NOT_FOUND && Objects.equals(v, e.getValue());
+        }
+
+        public Iterator<Entry<K, V>> iterator() {
+            return new TrieIterator<K, V>(root) {
+                public Entry<K, V> next() {
+                    nextEntry();
+                    return new SimpleImmutableEntry<>(key(), value());
+                }
+            };
+        }
+    }
+
+    /* ---------------- Transient -------------- */
+
+    /**
+     * 可修改的版本，不是线程同步的。edit标记的节点是自己创建、还没有被快照共享的，可以原地修改
+     */
+    public static final class Transient<K, V> extends AbstractMap<K, V> implements Map<K, V> {
+        TrieNode root;
+        int size;
+        Object edit = new Object();
+        transient Set<Entry<K, V>> entrySet;
+
+        Transient(int size, TrieNode root) {
+            this.size = size;
+            this.root = root;
+        }
+
+        /**
+         * 当前内容的不可变版本，O(1)。之后的修改会复制被快照共享的节点
+         */
+        public PersistentHashMap<K, V> snapshot() {
+            edit = new Object();
+            return new PersistentHashMap<>(size, root);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            Object v;
+            return (v = root.find(key, hash(key), 0)) == NOT_FOUND ? null : (V) v;
+        }
+
+        public boolean containsKey(Object key) {
+            return root.find(key, hash(key), 0) != NOT_FOUND;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V put(K key, V value) {
+            Result r = new Result();
+            root = root.put(edit, key, hash(key), value, 0, r);
+            if (r.added)
+                ++size;
+            return (V) r.oldValue;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V remove(Object key) {
+            Result r = new Result();
+            root = root.remove(edit, key, hash(key), 0, r);
+            if (!r.removed)
+                return null;
+            --size;
+            return (V) r.oldValue;
+        }
+
+        public void clear() {
+            root = BitmapNode.EMPTY;
+            size = 0;
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            root.forEach(action);
+        }
+
+        public Set<Entry<K, V>> entrySet() {
+            Set<Entry<K, V>> es;
+            return (es = entrySet) == null ? (entrySet = new TransientEntrySet()) : es;
+        }
+
+        /**
+         * 迭代器遍历创建时的快照，迭代过程中修改map不会影响迭代，也不会抛出ConcurrentModificationException
+         */
+        final class TransientEntrySet extends AbstractSet<Entry<K, V>> {
+            public int size() {
+                return size;
+            }
+
+            public void clear() {
+                Transient.this.clear();
+            }
+
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry))
+                    return false;
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                Object key = e.getKey(), v = root.find(key, hash(key), 0);
+                return v != NOT_FOUND && Objects.equals(v, e.getValue());
+            }
+
+            public Iterator<Entry<K, V>> iterator() {
+                return new TrieIterator<K, V>(snapshot().root) {
+                    public Entry<K, V> next() {
+                        nextEntry();
+                        return new TransientEntry(key(), value());
+                    }
+
+                    public void remove() {
+                        Transient.this.remove(removeKey());
+                    }
+                };
+            }
+        }
+
+        final class TransientEntry extends SimpleEntry<K, V> {
+            private static final long serialVersionUID = 1L;
+
+            TransientEntry(K key, V value) {
+                super(key, value);
+            }
+
+            public V setValue(V value) {
+                put(getKey(), value);
+                return super.setValue(value);
+            }
+        }
+    }
+
+    /* ---------------- Trie nodes -------------- */
+
+    /**
+     * find中表示key不存在，value可以是null
+     */
+    static final Object NOT_FOUND = new Object();
+
+    /**
+     * 一次修改的结果
+     */
+    static final class Result {
+        boolean added;
+        boolean removed;
+        Object oldValue;
+    }
+
+    static int mask(int hash, int shift) {
+        return (hash >>> shift) & 0x1F;
+    }
+
+    static int bitpos(int hash, int shift) {
+        return 1 << mask(hash, shift);
+    }
+
+    static boolean eq(Object k, Object key) {
+        return k == key || (key != null && key.equals(k));
+    }
+
+    abstract static class TrieNode {
+        /**
+         * 创建这个节点的Transient的编辑标记，null表示不可修改
+         */
+        final Object edit;
+
+        TrieNode(Object edit) {
+            this.edit = edit;
+        }
+
+        /**
+         * 是否可以原地修改
+         */
+        final boolean editable(Object edit) {
+            return edit != null && this.edit == edit;
+        }
+
+        abstract Object find(Object key, int hash, int shift);
+
+        abstract TrieNode put(Object edit, Object key, int hash, Object value, int shift, Result r);
+
+        abstract TrieNode remove(Object edit, Object key, int hash, int shift, Result r);
+
+        /**
+         * 只有一个键值对、没有子节点，可以内联到父节点中
+         */
+        abstract boolean isSingleton();
+
+        abstract int payloadArity();
+
+        abstract Object key(int i);
+
+        abstract Object value(int i);
+
+        abstract int nodeArity();
+
+        abstract TrieNode node(int i);
+
+        @SuppressWarnings("unchecked")
+        final <K, V> void forEach(BiConsumer<? super K, ? super V> action) {
+            for (int i = 0, n = payloadArity(); i < n; ++i)
+                action.accept((K) key(i), (V) value(i));
+            for (int i = 0, n = nodeArity(); i < n; ++i)
+                node(i).forEach(action);
+        }
+    }
+
+    /**
+     * 普通节点，array = [k0, v0, k1, v1, ..., node1, node0]
+     */
+    static final class BitmapNode extends TrieNode {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, 0, new Object[0]);
+
+        int dataMap;
+        int nodeMap;
+        Object[] array;
+
+        BitmapNode(Object edit, int dataMap, int nodeMap, Object[] array) {
+            super(edit);
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.array = array;
+        }
+
+        static int index(int map, int bit) {
+            return Integer.bitCount(map & (bit - 1));
+        }
+
+        final int dataIndex(int bit) {
+            return index(dataMap, bit) << 1;
+        }
+
+        final int nodeIndex(int bit) {
+            return array.length - 1 - index(nodeMap, bit);
+        }
+
+        Object find(Object key, int hash, int shift) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                return eq(array[i], key) ? array[i + 1] : NOT_FOUND;
+            }
+            if ((nodeMap & bit) != 0)
+                return ((TrieNode) array[nodeIndex(bit)]).find(key, hash, shift + BITS);
+            return NOT_FOUND;
+        }
+
+        TrieNode put(Object edit, Object key, int hash, Object value, int shift, Result r) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                Object k = array[i], v = array[i + 1];
+                if (eq(k, key)) {
+                    r.oldValue = v;
+                    if (v == value)
+                        return this;
+                    BitmapNode n = editableCopy(edit);
+                    n.array[i + 1] = value;
+                    return n;
+                }
+                // 下标冲突，两个键值对下沉到新的子节点中
+                r.added = true;
+                TrieNode sub = mergeTwo(edit, k, v, hash(k), key, value, hash, shift + BITS);
+                return migrateInlineToNode(edit, bit, sub);
+            }
+            if ((nodeMap & bit) != 0) {
+                int i = nodeIndex(bit);
+                TrieNode sub = (TrieNode) array[i], newSub = sub.put(edit, key, hash, value, shift + BITS, r);
+                if (newSub == sub)
+                    return this;
+                BitmapNode n = editableCopy(edit);
+                n.array[i] = newSub;
+                return n;
+            }
+            r.added = true;
+            return insertValue(edit, bit, key, value);
+        }
+
+        TrieNode remove(Object edit, Object key, int hash, int shift, Result r) {
+            int bit = bitpos(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                if (!eq(array[i], key))
+                    return this;
+                r.removed = true;
+                r.oldValue = array[i + 1];
+                if (shift > 0 && nodeMap == 0 && Integer.bitCount(dataMap) == 2) {
+                    // 只剩一个键值对，bitmap按第0层计算，父节点会把它内联或者继续向上传递到根节点
+                    int j = (i == 0) ? 2 : 0;
+                    return new BitmapNode(edit, bitpos(hash, 0), 0, new Object[]{array[j], array[j + 1]});
+                }
+                return removeValue(edit, bit, i);
+            }
+            if ((nodeMap & bit) != 0) {
+                int i = nodeIndex(bit);
+                TrieNode sub = (TrieNode) array[i], newSub = sub.remove(edit, key, hash, shift + BITS, r);
+                if (newSub == sub)
+                    return this;
+                if (newSub.isSingleton()) {
+                    if (dataMap == 0 && Integer.bitCount(nodeMap) == 1)
+                        return newSub; // 自己也只剩这一个，继续向上传递
+                    return migrateNodeToInline(edit, bit, i, newSub);
+                }
+                BitmapNode n = editableCopy(edit);
+                n.array[i] = newSub;
+                return n;
+            }
+            return this;
+        }
+
+        boolean isSingleton() {
+            return nodeMap == 0 && Integer.bitCount(dataMap) == 1;
+        }
+
+        int payloadArity() {
+            return Integer.bitCount(dataMap);
+        }
+
+        Object key(int i) {
+            return array[i << 1];
+        }
+
+        Object value(int i) {
+            return array[(i << 1) + 1];
+        }
+
+        int nodeArity() {
+            return Integer.bitCount(nodeMap);
+        }
+
+        TrieNode node(int i) {
+            return (TrieNode) array[array.length - 1 - i];
+        }
+
+        /**
+         * 可以原地修改时返回自己，否则复制一份属于edit的节点
+         */
+        private BitmapNode editableCopy(Object edit) {
+            if (editable(edit))
+                return this;
+            return new BitmapNode(edit, dataMap, nodeMap, array.clone());
+        }
+
+        private BitmapNode update(Object edit, int dataMap, int nodeMap, Object[] array) {
+            if (editable(edit)) {
+                this.dataMap = dataMap;
+                this.nodeMap = nodeMap;
+                this.array = array;
+                return this;
+            }
+            return new BitmapNode(edit, dataMap, nodeMap, array);
+        }
+
+        private BitmapNode insertValue(Object edit, int bit, Object key, Object value) {
+            int i = dataIndex(bit);
+            Object[] src = array, dst = new Object[src.length + 2];
+            System.arraycopy(src, 0, dst, 0, i);
+            dst[i] = key;
+            dst[i + 1] = value;
+            System.arraycopy(src, i, dst, i + 2, src.length - i);
+            return update(edit, dataMap | bit, nodeMap, dst);
+        }
+
+        private BitmapNode removeValue(Object edit, int bit, int i) {
+            Object[] src = array, dst = new Object[src.length - 2];
+            System.arraycopy(src, 0, dst, 0, i);
+            System.arraycopy(src, i + 2, dst, i, src.length - i - 2);
+            return update(edit, dataMap ^ bit, nodeMap, dst);
+        }
+
+        private BitmapNode migrateInlineToNode(Object edit, int bit, TrieNode node) {
+            int i = dataIndex(bit);
+            Object[] src = array, dst = new Object[src.length - 1];
+            int j = dst.length - 1 - index(nodeMap, bit); // 子节点在新数组中的位置
+            System.arraycopy(src, 0, dst, 0, i);
+            System.arraycopy(src, i + 2, dst, i, j - i);
+            dst[j] = node;
+            System.arraycopy(src, j + 2, dst, j + 1, src.length - j - 2);
+            return update(edit, dataMap ^ bit, nodeMap | bit, dst);
+        }
+
+        private BitmapNode migrateNodeToInline(Object edit, int bit, int nodeIdx, TrieNode node) {
+            int i = dataIndex(bit);
+            Object[] src = array, dst = new Object[src.length + 1];
+            System.arraycopy(src, 0, dst, 0, i);
+            dst[i] = node.key(0);
+            dst[i + 1] = node.value(0);
+            System.arraycopy(src, i, dst, i + 2, nodeIdx - i);
+            System.arraycopy(src, nodeIdx + 1, dst, nodeIdx + 2, src.length - nodeIdx - 1);
+            return update(edit, dataMap | bit, nodeMap ^ bit, dst);
+        }
+    }
+
+    /**
+     * 两个不同的键值对组成的子树，hash在某一层的下标不同时分开存放，hash完全相同时放在CollisionNode中
+     */
+    static TrieNode mergeTwo(Object edit, Object k0, Object v0, int h0,
+                             Object k1, Object v1, int h1, int shift) {
+        if (h0 == h1)
+            return new CollisionNode(edit, h0, new Object[]{k0, v0, k1, v1});
+        int m0 = mask(h0, shift), m1 = mask(h1, shift);
+        if (m0 != m1) {
+            Object[] array = (m0 < m1) ? new Object[]{k0, v0, k1, v1} : new Object[]{k1, v1, k0, v0};
+            return new BitmapNode(edit, (1 << m0) | (1 << m1), 0, array);
+        }
+        TrieNode sub = mergeTwo(edit, k0, v0, h0, k1, v1, h1, shift + BITS);
+        return new BitmapNode(edit, 0, 1 << m0, new Object[]{sub});
+    }
+
+    /**
+     * hash完全相同的键值对，array = [k0, v0, k1, v1, ...]，至少两个
+     */
+    static final class CollisionNode extends TrieNode {
+        final int hash;
+        Object[] array;
+
+        CollisionNode(Object edit, int hash, Object[] array) {
+            super(edit);
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (eq(array[i], key))
+                    return i;
+            }
+            return -1;
+        }
+
+        Object find(Object key, int hash, int shift) {
+            int i;
+            return (hash == this.hash && (i = indexOf(key)) >= 0) ? array[i + 1] : NOT_FOUND;
+        }
+
+        TrieNode put(Object edit, Object key, int hash, Object value, int shift, Result r) {
+            if (hash != this.hash) // 放到一个新的BitmapNode中，直到下标不同
+                return new BitmapNode(edit, 0, bitpos(this.hash, shift), new Object[]{this})
+                        .put(edit, key, hash, value, shift, r);
+            int i = indexOf(key);
+            Object[] dst;
+            if (i >= 0) {
+                r.oldValue = array[i + 1];
+                if (array[i + 1] == value)
+                    return this;
+                dst = editable(edit) ? array : array.clone();
+                dst[i + 1] = value;
+            } else {
+                r.added = true;
+                dst = Arrays.copyOf(array, array.length + 2);
+                dst[array.length] = key;
+                dst[array.length + 1] = value;
+            }
+            if (editable(edit)) {
+                array = dst;
+                return this;
+            }
+            return new CollisionNode(edit, hash, dst);
+        }
+
+        TrieNode remove(Object edit, Object key, int hash, int shift, Result r) {
+            int i;
+            if (hash != this.hash || (i = indexOf(key)) < 0)
+                return this;
+            r.removed = true;
+            r.oldValue = array[i + 1];
+            if (array.length == 4) { // 只剩一个，同BitmapNode按第0层计算bitmap
+                int j = (i == 0) ? 2 : 0;
+                return new BitmapNode(edit, bitpos(hash, 0), 0, new Object[]{array[j], array[j + 1]});
+            }
+            Object[] dst = new Object[array.length - 2];
+            System.arraycopy(array, 0, dst, 0, i);
+            System.arraycopy(array, i + 2, dst, i, array.length - i - 2);
+            if (editable(edit)) {
+                array = dst;
+                return this;
+            }
+            return new CollisionNode(edit, hash, dst);
+        }
+
+        boolean isSingleton() {
+            return false;
+        }
+
+        int payloadArity() {
+            return array.length >> 1;
+        }
+
+        Object key(int i) {
+            return array[i << 1];
+        }
+
+        Object value(int i) {
+            return array[(i << 1) + 1];
+        }
+
+        int nodeArity() {
+            return 0;
+        }
+
+        TrieNode node(int i) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * 深度优先遍历，先返回节点中的键值对，再进入子节点
+     */
+    abstract static class TrieIterator<K, V> implements Iterator<Entry<K, V>> {
+        final TrieNode[] nodes = new TrieNode[MAX_DEPTH];
+        final int[] cursors = new int[MAX_DEPTH]; // 每层下一个要进入的子节点
+        int depth;
+        TrieNode current;
+        int payload;   // current中下一个键值对
+        TrieNode last; // 上一次返回的键值对所在的节点
+        int lastIndex = -1;
+
+        TrieIterator(TrieNode root) {
+            nodes[0] = current = root;
+        }
+
+        public final boolean hasNext() {
+            if (payload < current.payloadArity())
+                return true;
+            while (depth >= 0) {
+                TrieNode n = nodes[depth];
+                if (cursors[depth] < n.nodeArity()) {
+                    current = n.node(cursors[depth]++);
+                    payload = 0;
+                    nodes[++depth] = current;
+                    cursors[depth] = 0;
+                    if (current.payloadArity() > 0)
+                        return true;
+                } else
+                    --depth;
+            }
+            return false;
+        }
+
+        final void nextEntry() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            last = current;
+            lastIndex = payload++;
+        }
+
+        @SuppressWarnings("unchecked")
+        final K key() {
+            return (K) last.key(lastIndex);
+        }
+
+        @SuppressWarnings("unchecked")
+        final V value() {
+            return (V) last.value(lastIndex);
+        }
+
+        final Object removeKey() {
+            if (lastIndex < 0)
+                throw new IllegalStateException();
+            Object key = last.key(lastIndex);
+            lastIndex = -1;
+            return key;
+        }
+    }
+
+    /* ---------------- Serialization -------------- */
+
+    /**
+     * 序列化代理，按HashMap的格式写出元素个数和所有键值对，反序列化时重新插入
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(this);
+    }
+
+    private void readObject(ObjectInputStream s) throws InvalidObjectException {
+        throw new InvalidObjectException("Proxy required");
+    }
+
+    private static final class SerializationProxy implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private transient PersistentHashMap<?, ?> map;
+
+        SerializationProxy(PersistentHashMap<?, ?> map) {
+            this.map = map;
+        }
+
+        private void writeObject(java.io.ObjectOutputStream s) throws java.io.IOException {
+            s.defaultWriteObject();
+            s.writeInt(map.size);
+            for (Entry<?, ?> e : map.entrySet()) {
+                s.writeObject(e.getKey());
+                s.writeObject(e.getValue());
+            }
+        }
+
+        private void readObject(ObjectInputStream s) throws java.io.IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            int mappings = s.readInt();
+            if (mappings < 0)
+                throw new InvalidObjectException("Illegal mappings count: " + mappings);
+            Transient<Object, Object> t = PersistentHashMap.empty().asTransient();
+            for (int i = 0; i < mappings; i++)
+                t.put(s.readObject(), s.readObject());
+            map = t.snapshot();
+        }
+
+        private Object readResolve() {
+            return map;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+@Slf4j
+public class PersistentHashMapTest {
+
+    @Test
+    public void simpleUseTest() {
+        PersistentHashMap<String, Integer> v1 = PersistentHashMap.<String, Integer>empty().plus("a", 1).plus("b", 2);
+        PersistentHashMap<String, Integer> v2 = v1.plus("c", 3).minus("a");
+        PersistentHashMap<String, Integer> v3 = v2.plus(null, 0); // 允许空键
+        log.info("v1: {}, v2: {}, v3: {}", v1, v2, v3);
+        Assert.assertEquals(2, v1.size());
+        Assert.assertEquals(Integer.valueOf(1), v1.get("a"));
+        Assert.assertNull(v2.get("a"));
+        Assert.assertEquals(Integer.valueOf(0), v3.get(null));
+        Assert.assertFalse(v2.containsKey(null));
+        Assert.assertSame(v2, v2.minus("missing"));
+        Assert.assertSame(v2, v2.plus("b", 2));
+    }
+
+    /**
+     * 每一步都保留旧版本，随机操作后检查所有版本的内容都没有变化
+     */
+    @Test
+    public void persistentTest() {
+        Random random = new Random(42);
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<>();
+        java.util.List<PersistentHashMap<Integer, Integer>> versions = new java.util.ArrayList<>();
+        java.util.List<java.util.HashMap<Integer, Integer>> expectedVersions = new java.util.ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            Assert.assertEquals(expected.size(), map.size());
+            if (i % 1000 == 0) {
+                versions.add(map);
+                expectedVersions.add(new java.util.HashMap<>(expected));
+            }
+        }
+        Assert.assertEquals(expected, map);
+        for (int i = 0; i < versions.size(); i++)
+            Assert.assertEquals(expectedVersions.get(i), versions.get(i));
+    }
+
+    /**
+     * hash完全相同和部分相同的key，删除后树结构恢复为空
+     */
+    @Test
+    public void collisionTest() {
+        java.util.List<Object> keys = new java.util.ArrayList<>();
+        for (int i = 0; i < 500; i++)
+            keys.add(new HashMapTest.CollidingKey(i)); // 只有64种hashCode
+        String s = "";
+        for (int i = 0; i < 6; i++) {
+            keys.add(s + "Aa");
+            keys.add(s + "BB"); // 和上一个hashCode相同
+            s += "x";
+        }
+        PersistentHashMap.Transient<Object, Integer> t = PersistentHashMap.<Object, Integer>empty().asTransient();
+        java.util.HashMap<Object, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals(expected.put(keys.get(i), i), t.put(keys.get(i), i));
+        }
+        PersistentHashMap<Object, Integer> full = t.snapshot();
+        Assert.assertEquals(expected, full);
+        java.util.Collections.shuffle(keys, new Random(1));
+        for (Object key : keys) {
+            Assert.assertEquals(expected.remove(key), t.remove(key));
+            Assert.assertNull(t.get(key));
+            Assert.assertEquals(expected, t);
+        }
+        Assert.assertEquals(0, t.root.payloadArity());
+        Assert.assertEquals(0, t.root.nodeArity());
+        Assert.assertEquals(keys.size(), full.size()); // 快照不受影响
+        for (Object key : keys)
+            Assert.assertTrue(full.containsKey(key));
+    }
+
+    /**
+     * 快照之后继续修改，快照不变；迭代器遍历的是创建时的版本
+     */
+    @Test
+    public void transientSnapshotTest() {
+        PersistentHashMap.Transient<Integer, Integer> t = PersistentHashMap.<Integer, Integer>empty().asTransient();
+        for (int i = 0; i < 10000; i++)
+            t.put(i, i);
+        PersistentHashMap<Integer, Integer> snapshot = t.snapshot();
+        for (int i = 0; i < 10000; i += 2)
+            t.remove(i);
+        for (int i = 1; i < 10000; i += 2)
+            t.put(i, -i);
+        Assert.assertEquals(10000, snapshot.size());
+        for (int i = 0; i < 10000; i++)
+            Assert.assertEquals(Integer.valueOf(i), snapshot.get(i));
+        Assert.assertEquals(5000, t.size());
+        for (Iterator<Map.Entry<Integer, Integer>> it = t.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Integer> e = it.next();
+            if (e.getKey() % 3 == 0)
+                it.remove();
+            else
+                e.setValue(0);
+        }
+        for (int i = 1; i < 10000; i += 2)
+            Assert.assertEquals(i % 3 == 0 ? null : Integer.valueOf(0), t.get(i));
+        Assert.assertEquals(Integer.valueOf(3), snapshot.get(3));
+    }
+
+    @Test
+    public void serializeTest() throws IOException, ClassNotFoundException {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.copyOf(java.util.Collections.singletonMap("a", 1));
+        for (int i = 0; i < 1000; i++)
+            map = map.plus("key" + i, i);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(map);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            Object copy = ois.readObject();
+            Assert.assertTrue(copy instanceof PersistentHashMap);
+            Assert.assertEquals(map, copy);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutableTest() {
+        PersistentHashMap.<String, String>empty().plus("a", "b").put("c", "d");
+    }
+}
@@ -0,0 +1,97 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+@Slf4j
+public class PrimitiveHashMapTest {
+
+    @Test
+    public void simpleUseTest() {
+        IntObjectHashMap<String> map = new IntObjectHashMap<>();
+        map.put(1, "a");
+        map.put(0, "zero"); // key为0单独存放
+        map.put(-1, "b");
+        log.info("map: {}", map);
+        Assert.assertEquals("zero", map.get(0));
+        Assert.assertEquals("a", map.remove(1));
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals(-1, map.keyStream().sum());
+
+        IntIntHashMap counter = new IntIntHashMap();
+        Assert.assertEquals(0, counter.get(7));
+        Assert.assertEquals(-1, counter.getOrDefault(7, -1));
+        counter.put(7, counter.get(7) + 1);
+        counter.put(7, counter.get(7) + 1);
+        Assert.assertEquals(2, counter.get(7));
+    }
+
+    /**
+     * 随机操作，和java.util.HashMap的结果对比，key范围包含0和负数
+     */
+    @Test
+    public void randomOperationTest() {
+        IntObjectHashMap<Integer> io = new IntObjectHashMap<>();
+        IntIntHashMap ii = new IntIntHashMap();
+        LongObjectHashMap<Integer> lo = new LongObjectHashMap<>();
+        LongLongHashMap ll = new LongLongHashMap();
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(42);
+        for (int i = 1; i <= 200000; i++) {
+            int key = random.nextInt(5000) - 2500;
+            long longKey = (long) key << 32; // 低32位全为0
+            if (random.nextInt(3) == 0) {
+                Integer old = expected.remove(key);
+                Assert.assertEquals(old, io.remove(key));
+                Assert.assertEquals(old == null ? 0 : old, ii.remove(key));
+                Assert.assertEquals(old, lo.remove(longKey));
+                Assert.assertEquals(old == null ? 0 : old, ll.remove(longKey));
+            } else {
+                Integer old = expected.put(key, i);
+                Assert.assertEquals(old, io.put(key, i));
+                Assert.assertEquals(old == null ? 0 : old, ii.put(key, i));
+                Assert.assertEquals(old, lo.put(longKey, i));
+                Assert.assertEquals(old == null ? 0 : old, ll.put(longKey, i));
+            }
+        }
+        Assert.assertEquals(expected.size(), io.size());
+        Assert.assertEquals(expected.size(), ii.size());
+        Assert.assertEquals(expected.size(), lo.size());
+        Assert.assertEquals(expected.size(), ll.size());
+        expected.forEach((k, v) -> {
+            Assert.assertEquals(v, io.get(k));
+            Assert.assertEquals((int) v, ii.get(k));
+            Assert.assertEquals(v, lo.get((long) k << 32));
+            Assert.assertEquals((long) v, ll.get((long) k << 32));
+        });
+        long keySum = expected.keySet().stream().mapToLong(Integer::longValue).sum();
+        long valueSum = expected.values().stream().mapToLong(Integer::longValue).sum();
+        Assert.assertEquals(keySum, io.keyStream().asLongStream().sum());
+        Assert.assertEquals(keySum, ii.keyStream().parallel().asLongStream().sum());
+        Assert.assertEquals(keySum << 32, lo.keyStream().parallel().sum());
+        Assert.assertEquals(valueSum, ii.valueStream().parallel().asLongStream().sum());
+        Assert.assertEquals(valueSum, ll.valueStream().sum());
+        Assert.assertEquals(expected.size(), io.valueStream().parallel().count());
+    }
+
+    @Test
+    public void forEachTest() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        for (long i = 0; i < 100; i++)
+            map.put(i, i * i);
+        long[] sum = new long[1];
+        map.forEach((k, v) -> {
+            Assert.assertEquals(k * k, v);
+            sum[0] += v;
+        });
+        Assert.assertEquals(328350, sum[0]);
+        Assert.assertTrue(map.containsValue(0));
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertFalse(map.containsKey(0));
+    }
+
+}
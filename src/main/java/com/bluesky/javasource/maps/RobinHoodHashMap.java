@@ -0,0 +1,1061 @@
+package com.bluesky.javasource.maps;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_INITIAL_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_LOAD_FACTOR;
+import static com.bluesky.javasource.maps.HashMap.MAXIMUM_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.hash;
+import static com.bluesky.javasource.maps.HashMap.tableSizeFor;
+
+/**
+ * 要点:
+ * 1. 采用开放定址法(线性探测)+Robin Hood策略，不再为每个键值对创建Node对象，
+ * key、value和缓存的hash值分别存放在三个平行的数组中，查找时只访问连续的内存
+ * 2. hash方式和HashMap相同(HashMap.hash)，容量同样为2^k，元素的理想位置为 hash&(n-1)
+ * 3. Robin Hood: 插入时如果某个位置上元素的探测距离(当前位置到理想位置的距离)比待插入元素的小，
+ * 就交换两者，"劫富济贫"，让探测距离比较平均。查找时遇到探测距离比当前距离小的元素，说明key一定不存在，可以提前结束
+ * 4. 删除采用后移删除(backward-shift)，把后面探测距离大于0的元素依次前移一位，不需要墓碑标记
+ * 5. 填充因子必须小于1，默认0.75；扩容为原来的2倍，因为缓存了hash值，扩容时不需要重新调用hashCode
+ * 6. hashes数组中0表示空位置，存放的hash值会把最高位置1，保证已占用位置的值不为0(最高位不参与计算下标)
+ * 7. 允许空键和空值，不是线程同步的，迭代器是fail-fast的
+ * 8. 压缩指针下每个位置占用 4+4+4 字节，按0.75的填充因子计算每个键值对约16字节，
+ * 而HashMap每个键值对需要一个32字节左右的Node对象再加上桶数组中的引用
+ */
+public class RobinHoodHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    private static final long serialVersionUID = -3268397386618823469L;
+
+    /**
+     * 已占用位置的标记位，hashes[i]==0 表示位置i为空
+     */
+    static final int OCCUPIED = 0x80000000;
+
+    /* ---------------- Fields -------------- */
+
+    /**
+     * 缓存的hash值，最高位为1表示该位置有元素，在第一次使用的时候才初始化
+     */
+    transient int[] hashes;
+
+    /**
+     * 键数组，和hashes一一对应
+     */
+    transient Object[] keys;
+
+    /**
+     * 值数组，和hashes一一对应
+     */
+    transient Object[] vals;
+
+    /**
+     * 所有键值对的视图
+     */
+    transient Set<Entry<K, V>> entrySet;
+
+    /**
+     * 哈希表中元素个数
+     */
+    transient int size;
+
+    /**
+     * 结构性修改次数
+     */
+    transient int modCount;
+
+    /**
+     * 需要进行扩容的阈值，数组还没创建时存放的是初始容量，和HashMap一样
+     */
+    int threshold;
+
+    /**
+     * 填充因子，取值范围(0,1)
+     */
+    final float loadFactor;
+
+    /* ---------------- Public operations -------------- */
+
+    /**
+     * 按照指定容量和填充因子创建哈希表，开放定址法要求填充因子小于1
+     */
+    public RobinHoodHashMap(int initialCapacity, float loadFactor) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor))
+            throw new IllegalArgumentException("Illegal load factor: " +
+                    loadFactor);
+        this.loadFactor = loadFactor;
+        this.threshold = tableSizeFor(initialCapacity);
+    }
+
+    public RobinHoodHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_LOAD_FACTOR);
+    }
+
+    public RobinHoodHashMap() {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+    }
+
+    public RobinHoodHashMap(Map<? extends K, ? extends V> m) {
+        this.loadFactor = DEFAULT_LOAD_FACTOR;
+        putMapEntries(m);
+    }
+
+    /**
+     * 预先计算好容量，再逐个插入
+     */
+    final void putMapEntries(Map<? extends K, ? extends V> m) {
+        int s = m.size();
+        if (s > 0) {
+            if (hashes == null) { // pre-size
+                float ft = ((float) s / loadFactor) + 1.0F;
+                int t = ((ft < (float) MAXIMUM_CAPACITY) ?
+                        (int) ft : MAXIMUM_CAPACITY);
+                if (t > threshold)
+                    threshold = tableSizeFor(t);
+            }
+            for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+                K key = e.getKey();
+                putVal(hash(key), key, e.getValue(), false);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i;
+        return (i = indexOf(hash(key), key)) < 0 ? null : (V) vals[i];
+    }
+
+    /**
+     * 查找key所在的位置，不存在返回-1。
+     * 从理想位置开始线性探测，遇到空位置或者探测距离比当前距离小的元素时结束
+     */
+    final int indexOf(int hash, Object key) {
+        int[] hs;
+        if ((hs = hashes) == null)
+            return -1;
+        Object[] ks = keys;
+        int mask = hs.length - 1, h = hash | OCCUPIED, i = hash & mask;
+        for (int dist = 0; ; ++dist, i = (i + 1) & mask) {
+            int sh = hs[i];
+            if (sh == 0 || ((i - sh) & mask) < dist) // (i-sh)&mask即该位置元素的探测距离
+                return -1;
+            Object k;
+            if (sh == h && ((k = ks[i]) == key || (key != null && key.equals(k))))
+                return i;
+        }
+    }
+
+    public boolean containsKey(Object key) {
+        return indexOf(hash(key), key) >= 0;
+    }
+
+    public V put(K key, V value) {
+        return putVal(hash(key), key, value, false);
+    }
+
+    /**
+     * 插入键值对，onlyIfAbsent表示是否只有不存在时插入。
+     * 查找和插入共用一次探测：探测结束的位置就是新元素应该放的位置
+     */
+    @SuppressWarnings("unchecked")
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent) {
+        int[] hs;
+        if ((hs = hashes) == null) // 第一次插入
+            hs = resize();
+        Object[] ks = keys;
+        int mask = hs.length - 1, h = hash | OCCUPIED, i = hash & mask, dist = 0;
+        for (; ; ++dist, i = (i + 1) & mask) {
+            int sh = hs[i];
+            if (sh == 0 || ((i - sh) & mask) < dist)
+                break; // 不存在
+            Object k;
+            if (sh == h && ((k = ks[i]) == key || (key != null && key.equals(k)))) {
+                V oldValue = (V) vals[i];
+                if (!onlyIfAbsent || oldValue == null)
+                    vals[i] = value;
+                return oldValue;
+            }
+        }
+        if (size >= threshold) { // 插入前扩容，保证数组中始终有空位置
+            hs = resize();
+            mask = hs.length - 1;
+            i = hash & mask;
+            dist = 0;
+        }
+        insert(i, dist, h, key, value);
+        ++modCount;
+        ++size;
+        return null;
+    }
+
+    /**
+     * 从位置i开始插入元素，dist为元素在位置i上的探测距离。
+     * 遇到探测距离比自己小的元素就交换，被换下的元素继续向后找位置
+     */
+    private void insert(int i, int dist, int h, Object key, Object value) {
+        int[] hs = hashes;
+        Object[] ks = keys, vs = vals;
+        int mask = hs.length - 1;
+        for (; ; ++dist, i = (i + 1) & mask) {
+            int sh = hs[i];
+            if (sh == 0) {
+                hs[i] = h;
+                ks[i] = key;
+                vs[i] = value;
+                return;
+            }
+            int d;
+            if ((d = (i - sh) & mask) < dist) { // 劫富济贫
+                Object k = ks[i], v = vs[i];
+                hs[i] = h;
+                ks[i] = key;
+                vs[i] = value;
+                h = sh;
+                key = k;
+                value = v;
+                dist = d;
+            }
+        }
+    }
+
+    /**
+     * 扩容操作。如果数组还没创建，那么按照初始容量创建数组，否则将容量增加一倍。
+     * 元素的hash值已经缓存，直接按新容量重新插入即可
+     */
+    final int[] resize() {
+        int[] oldHs = hashes;
+        int oldCap = (oldHs == null) ? 0 : oldHs.length;
+        int oldThr = threshold;
+        int newCap;
+        if (oldCap > 0) {
+            if (oldCap >= MAXIMUM_CAPACITY) { // 不能再扩容了，最多放 n-1 个元素
+                if (size >= MAXIMUM_CAPACITY - 1)
+                    throw new IllegalStateException("Map is full");
+                threshold = MAXIMUM_CAPACITY - 1;
+                return oldHs;
+            }
+            newCap = oldCap << 1;
+        } else if (oldThr > 0) // 初始容量存放在threshold上
+            newCap = oldThr;
+        else
+            newCap = DEFAULT_INITIAL_CAPACITY;
+        float ft = (float) newCap * loadFactor;
+        threshold = (newCap < MAXIMUM_CAPACITY && ft < (float) MAXIMUM_CAPACITY) ?
+                Math.max((int) ft, 1) : MAXIMUM_CAPACITY - 1;
+        if (threshold >= newCap) // 容量很小时保证至少留一个空位置
+            threshold = newCap - 1;
+        Object[] oldKs = keys, oldVs = vals;
+        hashes = new int[newCap];
+        keys = new Object[newCap];
+        vals = new Object[newCap];
+        if (oldHs != null) {
+            int mask = newCap - 1;
+            for (int j = 0; j < oldCap; ++j) {
+                int sh;
+                if ((sh = oldHs[j]) != 0)
+                    insert(sh & mask, 0, sh, oldKs[j], oldVs[j]);
+            }
+        }
+        return hashes;
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m) {
+        putMapEntries(m);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i;
+        if ((i = indexOf(hash(key), key)) < 0)
+            return null;
+        V oldValue = (V) vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    /**
+     * 后移删除：把后面的元素依次前移一位，直到遇到空位置或者探测距离为0的元素
+     */
+    final void removeAt(int i) {
+        int[] hs = hashes;
+        Object[] ks = keys, vs = vals;
+        int mask = hs.length - 1;
+        for (int j = (i + 1) & mask; ; i = j, j = (j + 1) & mask) {
+            int sh = hs[j];
+            if (sh == 0 || ((j - sh) & mask) == 0) { // j上的元素已经在理想位置，不能前移
+                hs[i] = 0;
+                ks[i] = null;
+                vs[i] = null;
+                break;
+            }
+            hs[i] = sh;
+            ks[i] = ks[j];
+            vs[i] = vs[j];
+        }
+        ++modCount;
+        --size;
+    }
+
+    public void clear() {
+        int[] hs;
+        modCount++;
+        if ((hs = hashes) != null && size > 0) {
+            size = 0;
+            Arrays.fill(hs, 0);
+            Arrays.fill(keys, null);
+            Arrays.fill(vals, null);
+        }
+    }
+
+    public boolean containsValue(Object value) {
+        int[] hs;
+        if ((hs = hashes) != null && size > 0) {
+            Object[] vs = vals;
+            for (int i = 0; i < hs.length; ++i) {
+                Object v;
+                if (hs[i] != 0 && ((v = vs[i]) == value ||
+                        (value != null && value.equals(v))))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        if (ks == null) {
+            ks = new KeySet();
+            keySet = ks;
+        }
+        return ks;
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            RobinHoodHashMap.this.clear();
+        }
+
+        public final Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        public final boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        public final boolean remove(Object key) {
+            int i;
+            if ((i = indexOf(hash(key), key)) < 0)
+                return false;
+            removeAt(i);
+            return true;
+        }
+
+        public final Spliterator<K> spliterator() {
+            return new KeySpliterator<>(RobinHoodHashMap.this, 0, -1, 0, 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        public final void forEach(Consumer<? super K> action) {
+            int[] hs;
+            if (action == null)
+                throw new NullPointerException();
+            if (size > 0 && (hs = hashes) != null) {
+                Object[] ks = keys;
+                int mc = modCount;
+                for (int i = 0; i < hs.length; ++i) {
+                    if (hs[i] != 0)
+                        action.accept((K) ks[i]);
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        if (vs == null) {
+            vs = new Values();
+            values = vs;
+        }
+        return vs;
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            RobinHoodHashMap.this.clear();
+        }
+
+        public final Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        public final boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        public final Spliterator<V> spliterator() {
+            return new ValueSpliterator<>(RobinHoodHashMap.this, 0, -1, 0, 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        public final void forEach(Consumer<? super V> action) {
+            int[] hs;
+            if (action == null)
+                throw new NullPointerException();
+            if (size > 0 && (hs = hashes) != null) {
+                Object[] vs = vals;
+                int mc = modCount;
+                for (int i = 0; i < hs.length; ++i) {
+                    if (hs[i] != 0)
+                        action.accept((V) vs[i]);
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            RobinHoodHashMap.this.clear();
+        }
+
+        public final Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object key = e.getKey();
+            int i;
+            return (i = indexOf(hash(key), key)) >= 0 &&
+                    Objects.equals(vals[i], e.getValue());
+        }
+
+        public final boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                return RobinHoodHashMap.this.remove(e.getKey(), e.getValue());
+            }
+            return false;
+        }
+
+        public final Spliterator<Entry<K, V>> spliterator() {
+            return new EntrySpliterator<>(RobinHoodHashMap.this, 0, -1, 0, 0);
+        }
+
+        @SuppressWarnings("unchecked")
+        public final void forEach(Consumer<? super Entry<K, V>> action) {
+            int[] hs;
+            if (action == null)
+                throw new NullPointerException();
+            if (size > 0 && (hs = hashes) != null) {
+                int mc = modCount;
+                for (int i = 0; i < hs.length; ++i) {
+                    if (hs[i] != 0)
+                        action.accept(new MapEntry(hs[i], (K) keys[i], (V) vals[i]));
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    // Overrides of JDK8 Map extension methods
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        int i;
+        return (i = indexOf(hash(key), key)) < 0 ? defaultValue : (V) vals[i];
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(hash(key), key, value, true);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int i;
+        if ((i = indexOf(hash(key), key)) >= 0 && Objects.equals(vals[i], value)) {
+            removeAt(i);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        int i;
+        if ((i = indexOf(hash(key), key)) >= 0 && Objects.equals(vals[i], oldValue)) {
+            vals[i] = newValue;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V replace(K key, V value) {
+        int i;
+        if ((i = indexOf(hash(key), key)) >= 0) {
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        int[] hs;
+        if (action == null)
+            throw new NullPointerException();
+        if (size > 0 && (hs = hashes) != null) {
+            Object[] ks = keys, vs = vals;
+            int mc = modCount;
+            for (int i = 0; i < hs.length; ++i) {
+                if (hs[i] != 0)
+                    action.accept((K) ks[i], (V) vs[i]);
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        int[] hs;
+        if (function == null)
+            throw new NullPointerException();
+        if (size > 0 && (hs = hashes) != null) {
+            Object[] ks = keys, vs = vals;
+            int mc = modCount;
+            for (int i = 0; i < hs.length; ++i) {
+                if (hs[i] != 0)
+                    vs[i] = function.apply((K) ks[i], (V) vs[i]);
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    /**
+     * 浅拷贝，直接复制三个数组，不需要重新计算hash
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone() {
+        RobinHoodHashMap<K, V> result;
+        try {
+            result = (RobinHoodHashMap<K, V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        result.entrySet = null;
+        result.modCount = 0;
+        if (hashes != null) {
+            result.hashes = hashes.clone();
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+        }
+        return result;
+    }
+
+    final int capacity() {
+        return (hashes != null) ? hashes.length :
+                (threshold > 0) ? threshold :
+                        DEFAULT_INITIAL_CAPACITY;
+    }
+
+    /**
+     * 序列化，格式和HashMap一致：容量、元素个数、依次写出key和value
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException {
+        int buckets = capacity();
+        s.defaultWriteObject();
+        s.writeInt(buckets);
+        s.writeInt(size);
+        int[] hs;
+        if (size > 0 && (hs = hashes) != null) {
+            for (int i = 0; i < hs.length; ++i) {
+                if (hs[i] != 0) {
+                    s.writeObject(keys[i]);
+                    s.writeObject(vals[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 反序列化，根据元素个数计算好容量，再逐个插入
+     */
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        if (loadFactor <= 0 || loadFactor >= 1 || Float.isNaN(loadFactor))
+            throw new InvalidObjectException("Illegal load factor: " +
+                    loadFactor);
+        hashes = null;
+        keys = vals = null;
+        s.readInt();                // Read and ignore number of buckets
+        int mappings = s.readInt(); // Read number of mappings (size)
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        float fc = (float) mappings / loadFactor + 1.0f;
+        threshold = ((fc < DEFAULT_INITIAL_CAPACITY) ?
+                DEFAULT_INITIAL_CAPACITY :
+                (fc >= MAXIMUM_CAPACITY) ?
+                        MAXIMUM_CAPACITY :
+                        tableSizeFor((int) fc));
+        for (int i = 0; i < mappings; i++) {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            putVal(hash(key), key, value, false);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    /**
+     * 迭代器从数组尾部向头部遍历。
+     * 迭代器删除元素时后移删除会把后面的元素前移：从尾向头遍历时，前移的元素要么已经遍历过，
+     * 要么还没遍历到，只有从位置0绕回到位置n-1的元素会被跳过，这些元素单独记录在wrapped中，最后再返回
+     */
+    abstract class HashIterator {
+        int index;               // 下一个要检查的位置
+        int remaining;           // 还没有返回的元素个数
+        int lastIndex;           // 上一次返回的元素所在位置，来自wrapped时为-1
+        Object lastKey;          // 上一次返回的key
+        boolean canRemove;
+        ArrayList<Object> wrapped; // 绕回到已遍历区域的元素，key和value交替存放
+        int wrappedIndex;
+        int expectedModCount;    // for fast-fail
+
+        HashIterator() {
+            expectedModCount = modCount;
+            remaining = size;
+            index = (hashes == null) ? -1 : hashes.length - 1;
+            lastIndex = -1;
+        }
+
+        public final boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * 返回下一个元素所在的位置，元素来自wrapped时返回-1
+         */
+        final int nextIndex() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (remaining <= 0)
+                throw new NoSuchElementException();
+            --remaining;
+            canRemove = true;
+            int[] hs = hashes;
+            int i = index;
+            while (i >= 0 && hs[i] == 0)
+                --i;
+            if (i < 0) { // 数组已经遍历完，剩下的元素都在wrapped中
+                index = -1;
+                lastIndex = -1;
+                lastKey = wrapped.get(wrappedIndex);
+                return -1;
+            }
+            index = i - 1;
+            lastKey = keys[i];
+            return lastIndex = i;
+        }
+
+        @SuppressWarnings("unchecked")
+        final K currentKey() {
+            return (K) lastKey;
+        }
+
+        @SuppressWarnings("unchecked")
+        final V currentValue() {
+            return (V) (lastIndex >= 0 ? vals[lastIndex] : wrapped.get(wrappedIndex + 1));
+        }
+
+        final int currentHash() {
+            return lastIndex >= 0 ? hashes[lastIndex] : hash(lastKey) | OCCUPIED;
+        }
+
+        /**
+         * 来自wrapped的元素在取出值之后再移动下标
+         */
+        final void advanceWrapped() {
+            if (lastIndex < 0)
+                wrappedIndex += 2;
+        }
+
+        public final void remove() {
+            if (!canRemove)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            canRemove = false;
+            if (lastIndex < 0)
+                RobinHoodHashMap.this.remove(lastKey);
+            else
+                removeAtTracking(lastIndex);
+            lastIndex = -1;
+            expectedModCount = modCount;
+        }
+
+        /**
+         * 和removeAt相同，但会把从位置0移到位置n-1的元素记录下来
+         */
+        private void removeAtTracking(int i) {
+            int[] hs = hashes;
+            Object[] ks = keys, vs = vals;
+            int mask = hs.length - 1;
+            for (int j = (i + 1) & mask; ; i = j, j = (j + 1) & mask) {
+                int sh = hs[j];
+                if (sh == 0 || ((j - sh) & mask) == 0) {
+                    hs[i] = 0;
+                    ks[i] = null;
+                    vs[i] = null;
+                    break;
+                }
+                if (j < i && index >= 0) { // 未遍历的元素移到了已遍历的区域
+                    if (wrapped == null)
+                        wrapped = new ArrayList<>(4);
+                    wrapped.add(ks[j]);
+                    wrapped.add(vs[j]);
+                }
+                hs[i] = sh;
+                ks[i] = ks[j];
+                vs[i] = vs[j];
+            }
+            ++modCount;
+            --size;
+        }
+    }
+
+    final class KeyIterator extends HashIterator
+            implements Iterator<K> {
+        public final K next() {
+            nextIndex();
+            advanceWrapped();
+            return currentKey();
+        }
+    }
+
+    final class ValueIterator extends HashIterator
+            implements Iterator<V> {
+        public final V next() {
+            nextIndex();
+            V v = currentValue();
+            advanceWrapped();
+            return v;
+        }
+    }
+
+    final class EntryIterator extends HashIterator
+            implements Iterator<Entry<K, V>> {
+        public final Entry<K, V> next() {
+            nextIndex();
+            Entry<K, V> e = new MapEntry(currentHash(), currentKey(), currentValue());
+            advanceWrapped();
+            return e;
+        }
+    }
+
+    /**
+     * 没有Node对象，entry视图返回的是临时创建的Entry，setValue会写回哈希表
+     */
+    final class MapEntry implements Entry<K, V> {
+        final int hash; // 带OCCUPIED标记的hash值
+        final K key;
+        V value;
+
+        MapEntry(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        public final K getKey() {
+            return key;
+        }
+
+        public final V getValue() {
+            return value;
+        }
+
+        public final V setValue(V newValue) {
+            V oldValue = value;
+            value = newValue;
+            int i;
+            if ((i = indexOf(hash, key)) >= 0)
+                vals[i] = newValue;
+            return oldValue;
+        }
+
+        public final String toString() {
+            return key + "=" + value;
+        }
+
+        public final int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public final boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // spliterators
+
+    /**
+     * 按数组下标范围切分，和HashMapSpliterator相同
+     */
+    static class RobinHoodSpliterator<K, V> {
+        final RobinHoodHashMap<K, V> map;
+        int index;                  // current index, modified on advance/split
+        int fence;                  // one past last index
+        int est;                    // size estimate
+        int expectedModCount;       // for comodification checks
+
+        RobinHoodSpliterator(RobinHoodHashMap<K, V> m, int origin,
+                             int fence, int est,
+                             int expectedModCount) {
+            this.map = m;
+            this.index = origin;
+            this.fence = fence;
+            this.est = est;
+            this.expectedModCount = expectedModCount;
+        }
+
+        final int getFence() { // initialize fence and size on first use
+            int hi;
+            if ((hi = fence) < 0) {
+                RobinHoodHashMap<K, V> m = map;
+                est = m.size;
+                expectedModCount = m.modCount;
+                int[] hs = m.hashes;
+                hi = fence = (hs == null) ? 0 : hs.length;
+            }
+            return hi;
+        }
+
+        public final long estimateSize() {
+            getFence(); // force init
+            return (long) est;
+        }
+
+        /**
+         * 依次处理[index, fence)中的元素，slot为-1表示结束
+         */
+        final int advance() {
+            int[] hs = map.hashes;
+            int hi = getFence();
+            if (hs != null && hs.length >= hi) {
+                for (int i = index; i < hi; ++i) {
+                    if (hs[i] != 0) {
+                        index = i + 1;
+                        return i;
+                    }
+                }
+            }
+            index = hi;
+            return -1;
+        }
+
+        final void checkModCount() {
+            if (map.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    static final class KeySpliterator<K, V>
+            extends RobinHoodSpliterator<K, V>
+            implements Spliterator<K> {
+        KeySpliterator(RobinHoodHashMap<K, V> m, int origin, int fence, int est,
+                       int expectedModCount) {
+            super(m, origin, fence, est, expectedModCount);
+        }
+
+        public KeySpliterator<K, V> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new KeySpliterator<>(map, lo, index = mid, est >>>= 1,
+                            expectedModCount);
+        }
+
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super K> action) {
+            if (action == null)
+                throw new NullPointerException();
+            for (int i; (i = advance()) >= 0; )
+                action.accept((K) map.keys[i]);
+            checkModCount();
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super K> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int i;
+            if ((i = advance()) < 0)
+                return false;
+            action.accept((K) map.keys[i]);
+            checkModCount();
+            return true;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) |
+                    Spliterator.DISTINCT;
+        }
+    }
+
+    static final class ValueSpliterator<K, V>
+            extends RobinHoodSpliterator<K, V>
+            implements Spliterator<V> {
+        ValueSpliterator(RobinHoodHashMap<K, V> m, int origin, int fence, int est,
+                         int expectedModCount) {
+            super(m, origin, fence, est, expectedModCount);
+        }
+
+        public ValueSpliterator<K, V> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new ValueSpliterator<>(map, lo, index = mid, est >>>= 1,
+                            expectedModCount);
+        }
+
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            for (int i; (i = advance()) >= 0; )
+                action.accept((V) map.vals[i]);
+            checkModCount();
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int i;
+            if ((i = advance()) < 0)
+                return false;
+            action.accept((V) map.vals[i]);
+            checkModCount();
+            return true;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0);
+        }
+    }
+
+    static final class EntrySpliterator<K, V>
+            extends RobinHoodSpliterator<K, V>
+            implements Spliterator<Entry<K, V>> {
+        EntrySpliterator(RobinHoodHashMap<K, V> m, int origin, int fence, int est,
+                         int expectedModCount) {
+            super(m, origin, fence, est, expectedModCount);
+        }
+
+        public EntrySpliterator<K, V> trySplit() {
+            int hi = getFence(), lo = index, mid = (lo + hi) >>> 1;
+            return (lo >= mid) ? null :
+                    new EntrySpliterator<>(map, lo, index = mid, est >>>= 1,
+                            expectedModCount);
+        }
+
+        @SuppressWarnings("unchecked")
+        public void forEachRemaining(Consumer<? super Entry<K, V>> action) {
+            if (action == null)
+                throw new NullPointerException();
+            RobinHoodHashMap<K, V> m = map;
+            for (int i; (i = advance()) >= 0; )
+                action.accept(m.new MapEntry(m.hashes[i], (K) m.keys[i], (V) m.vals[i]));
+            checkModCount();
+        }
+
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super Entry<K, V>> action) {
+            if (action == null)
+                throw new NullPointerException();
+            int i;
+            if ((i = advance()) < 0)
+                return false;
+            RobinHoodHashMap<K, V> m = map;
+            action.accept(m.new MapEntry(m.hashes[i], (K) m.keys[i], (V) m.vals[i]));
+            checkModCount();
+            return true;
+        }
+
+        public int characteristics() {
+            return (fence < 0 || est == map.size ? Spliterator.SIZED : 0) |
+                    Spliterator.DISTINCT;
+        }
+    }
+
+}
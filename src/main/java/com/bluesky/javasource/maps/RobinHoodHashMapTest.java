@@ -0,0 +1,87 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+@Slf4j
+public class RobinHoodHashMapTest {
+
+    @Test
+    public void simpleUseTest() {
+        RobinHoodHashMap<String, Integer> map = new RobinHoodHashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put(null, 3); // 允许空键
+        log.info("map: {}", map);
+        Assert.assertEquals(Integer.valueOf(3), map.get(null));
+        Assert.assertEquals(Integer.valueOf(1), map.remove("a"));
+        Assert.assertEquals(2, map.size());
+    }
+
+    /**
+     * 随机操作，和java.util.HashMap的结果对比
+     */
+    @Test
+    public void randomOperationTest() {
+        RobinHoodHashMap<Integer, Integer> map = new RobinHoodHashMap<>();
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(5000);
+            if (random.nextInt(3) == 0)
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            else
+                Assert.assertEquals(expected.put(key, i), map.put(key, i));
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(expected.size(), map.keySet().stream().count());
+        Assert.assertEquals(expected.size(), map.entrySet().parallelStream().count());
+    }
+
+    /**
+     * 迭代时删除元素，后移删除不能导致元素被跳过或者重复访问
+     */
+    @Test
+    public void removeWhenIteratorTest() {
+        RobinHoodHashMap<Integer, Integer> map = new RobinHoodHashMap<>(16, 0.9f);
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 14; i++) {
+            int key = random.nextInt() & ~15 | 15; // 理想位置都在数组尾部，会绕回到数组头部
+            map.put(key, i);
+            expected.put(key, i);
+        }
+        int visited = 0;
+        for (Iterator<Map.Entry<Integer, Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Integer> e = it.next();
+            Assert.assertEquals(expected.remove(e.getKey()), e.getValue());
+            it.remove();
+            visited++;
+        }
+        log.info("visited: {}", visited);
+        Assert.assertEquals(14, visited);
+        Assert.assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void serializeTest() throws Exception {
+        RobinHoodHashMap<String, String> map = new RobinHoodHashMap<>();
+        for (int i = 0; i < 100; i++)
+            map.put("k" + i, "v" + i);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(map);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals(map, in.readObject());
+        }
+        Assert.assertEquals(map, map.clone());
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.bluesky.javasource.maps;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 带随机种子的hash函数，HashMap和Hashtable通过setSeededHash(true)使用
+ * 要点:
+ * 1. 默认的hash只依赖key.hashCode()，String的hashCode是公开的算法，很容易构造出大量hashCode相同的key
+ * (如"Aa"和"BB")，让所有元素落在同一个桶中，HashMap退化为红黑树，Hashtable退化为链表
+ * 2. String直接对字符内容做SipHash-1-3，每个实例的种子不同，攻击者不知道种子就无法离线构造冲突，
+ * 桶的长度和随机分布一样有界，不依赖TreeNode的比较
+ * 3. 其他类型的key拿不到内容，只能对hashCode用种子做混合，hashCode完全相同的key仍然冲突，
+ * 但只有低位相同、高位不同的hashCode会被打散
+ * 4. 种子由进程启动时的SecureRandom和ThreadLocalRandom混合得到，0保留为"不使用种子"
+ * 5. 代价是String缓存的hashCode用不上了，每次查找都要重新扫描字符串
+ */
+final class SeededHash {
+
+    private SeededHash() {
+    }
+
+    /**
+     * 进程级别的密钥，和每个实例的随机数混合，避免ThreadLocalRandom的状态被推测出来
+     */
+    private static final long SECRET = new SecureRandom().nextLong();
+
+    /**
+     * 生成一个新的非0种子
+     */
+    static long newSeed() {
+        long seed;
+        do {
+            seed = mix64(ThreadLocalRandom.current().nextLong() ^ SECRET);
+        } while (seed == 0L);
+        return seed;
+    }
+
+    /**
+     * 带种子的hash，null的hash值为0
+     */
+    static int hash(Object key, long seed) {
+        if (key == null)
+            return 0;
+        if (key instanceof String)
+            return contentHash((String) key, seed);
+        long h = mix64((key.hashCode() & 0xFFFFFFFFL) ^ seed);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 按字符内容计算的带种子hash，和内容相同的String的hash(key, seed)相等
+     */
+    static int contentHash(CharSequence s, long seed) {
+        long h = sipHash(s, seed, mix64(seed + 0x9E3779B97F4A7C15L));
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * murmur3的fmix64
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * SipHash-1-3，每4个char组成一个64位的消息块
+     */
+    static long sipHash(CharSequence s, long k0, long k1) {
+        long v0 = 0x736F6D6570736575L ^ k0;
+        long v1 = 0x646F72616E646F6DL ^ k1;
+        long v2 = 0x6C7967656E657261L ^ k0;
+        long v3 = 0x7465646279746573L ^ k1;
+        int len = s.length(), i = 0;
+        for (; i + 4 <= len; i += 4) {
+            long m = s.charAt(i) | (long) s.charAt(i + 1) << 16 |
+                    (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48;
+            v3 ^= m;
+            // SipRound
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+            v0 ^= m;
+        }
+        long m = (long) len << 56; // 剩余不足4个char，最高字节放长度
+        for (int shift = 0; i < len; i++, shift += 16)
+            m ^= (long) s.charAt(i) << shift;
+        v3 ^= m;
+        v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+        v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+        v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+        v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        v0 ^= m;
+        v2 ^= 0xFF;
+        for (int r = 0; r < 3; r++) {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+}
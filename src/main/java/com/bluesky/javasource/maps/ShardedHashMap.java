@@ -0,0 +1,361 @@
+package com.bluesky.javasource.maps;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+
+/**
+ * 按分片划分、每个分片只由一个线程修改的map，写操作通过消息传递给分片的所有者线程
+ * 要点:
+ * 1. 分片数为2^k，用HashMap.hash()的高k位选择分片，分片内部的HashMap使用低位选择桶，两者互不影响
+ * 2. 每个分片是一个普通的HashMap，只由所有者线程读写，不需要任何锁或者CAS；
+ * 其他线程的写操作放进分片的有界MPSC队列(MpscArrayQueue)，所有者线程每次取出一批顺序执行
+ * 3. 队列满时写线程自旋后短暂park等待(背压)；所有者线程队列为空时park，写线程发现它在park时unpark
+ * 4. 读有两种方式：get/compute作为消息在所有者线程上执行，结果通过CompletableFuture返回，能看到之前提交的所有写；
+ * readSnapshot读取分片发布的只读快照，不经过队列，但可能落后于最新的写
+ * 5. 快照是HashMap的副本，在队列清空或者积累的修改次数达到分片元素个数(至少PUBLISH_MIN_OPS)时发布，
+ * 复制的开销分摊到每次写上是常数；flush()等到之前提交的写全部执行并发布快照
+ * 6. 同一个线程对同一个key的写按提交顺序执行，不同分片之间没有顺序保证
+ * 7. close()之后不能再提交操作，close之前提交的操作都会执行完，所有者线程随后退出；
+ * 和close并发的提交如果入队后发现已经关闭，与所有者线程竞争认领这个操作，认领成功就抛出异常，保证每个操作要么执行要么失败
+ */
+public class ShardedHashMap<K, V> implements AutoCloseable {
+
+    /**
+     * 每批最多执行的操作个数
+     */
+    static final int BATCH_SIZE = 256;
+
+    /**
+     * 队列不为空时，至少积累这么多次修改才发布快照
+     */
+    static final int PUBLISH_MIN_OPS = 1024;
+
+    /**
+     * 队列满时先自旋的次数，之后每次park的纳秒数
+     */
+    static final int OFFER_SPINS = 64;
+    static final long OFFER_PARK_NANOS = 1000L;
+
+    static final int PUT = 0, REMOVE = 1, COMPUTE = 2, GET = 3, FLUSH = 4;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    final Shard[] shards;
+
+    /**
+     * 用hash的高几位选择分片
+     */
+    final int shardShift;
+
+    volatile boolean closed;
+
+    /**
+     * 队列中的一个操作
+     */
+    static final class Op {
+        final int kind;
+        final Object key;
+        final Object arg;
+        final CompletableFuture<Object> result;
+
+        /**
+         * 0表示还没有被认领，所有者线程执行前或者提交线程取消时CAS为1
+         */
+        volatile int claimed;
+
+        static final AtomicIntegerFieldUpdater<Op> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(Op.class, "claimed");
+
+        Op(int kind, Object key, Object arg, CompletableFuture<Object> result) {
+            this.kind = kind;
+            this.key = key;
+            this.arg = arg;
+            this.result = result;
+        }
+
+        final boolean claim() {
+            return claimed == 0 && CLAIMED.compareAndSet(this, 0, 1);
+        }
+    }
+
+    /**
+     * 一个分片：所有者线程、它独占的HashMap、写操作队列和发布的快照
+     */
+    final class Shard implements Runnable {
+        final HashMap<K, V> map = new HashMap<>();
+        final MpscArrayQueue<Op> queue;
+        Thread owner;
+
+        /**
+         * 所有者线程是否准备park，写线程看到true时unpark它
+         */
+        volatile boolean parked;
+
+        /**
+         * 最近一次发布的只读快照
+         */
+        volatile Map<K, V> snapshot = Collections.emptyMap();
+
+        /**
+         * 上次发布之后的修改次数，只由所有者线程访问
+         */
+        int dirty;
+
+        Shard(int queueCapacity) {
+            queue = new MpscArrayQueue<>(queueCapacity);
+        }
+
+        /**
+         * 放进队列，满了就等待
+         */
+        final void submit(Op op) {
+            if (closed)
+                throw new IllegalStateException("ShardedHashMap is closed");
+            for (int spins = 0; !queue.offer(op); ++spins) {
+                if (closed)
+                    throw new IllegalStateException("ShardedHashMap is closed");
+                wakeOwner();
+                if (spins < OFFER_SPINS)
+                    Thread.yield();
+                else
+                    LockSupport.parkNanos(OFFER_PARK_NANOS);
+            }
+            // 所有者线程可能在入队之前已经看到队列为空并退出，认领成功说明没有人会执行它
+            if (closed && op.claim())
+                throw new IllegalStateException("ShardedHashMap is closed");
+            wakeOwner();
+        }
+
+        final void wakeOwner() {
+            if (parked)
+                LockSupport.unpark(owner);
+        }
+
+        @Override
+        public void run() {
+            Op[] batch = new Op[BATCH_SIZE];
+            for (; ; ) {
+                int n = queue.drain(batch, BATCH_SIZE);
+                if (n > 0) {
+                    for (int i = 0; i < n; ++i) {
+                        apply(batch[i]);
+                        batch[i] = null;
+                    }
+                    if (dirty >= Math.max(PUBLISH_MIN_OPS, map.size()))
+                        publish();
+                    continue;
+                }
+                if (dirty > 0) // 队列清空时发布，写入停止后快照最终是最新的
+                    publish();
+                // 先读closed再检查队列：退出后入队的操作，提交线程一定能看到closed
+                boolean stop = closed;
+                if (!queue.isEmpty()) // 生产者已经抢到位置，还没写入
+                    continue;
+                if (stop)
+                    break;
+                parked = true;
+                if (queue.isEmpty() && !closed)
+                    LockSupport.park(this);
+                parked = false;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        final void apply(Op op) {
+            if (!op.claim()) // 提交线程已经取消
+                return;
+            K key = (K) op.key;
+            Object r = null;
+            try {
+                switch (op.kind) {
+                    case PUT:
+                        map.put(key, (V) op.arg);
+                        ++dirty;
+                        break;
+                    case REMOVE:
+                        map.remove(key);
+                        ++dirty;
+                        break;
+                    case COMPUTE:
+                        r = map.compute(key, (BiFunction<? super K, ? super V, ? extends V>) op.arg);
+                        ++dirty;
+                        break;
+                    case GET:
+                        r = map.get(key);
+                        break;
+                    case FLUSH:
+                        if (dirty > 0)
+                            publish();
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown op: " + op.kind);
+                }
+                if (op.result != null)
+                    op.result.complete(r);
+            } catch (RuntimeException | Error ex) {
+                if (op.result != null)
+                    op.result.completeExceptionally(ex);
+                else { // 没有人等待结果，交给线程的异常处理器，所有者线程继续运行
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, ex);
+                }
+            }
+        }
+
+        final void publish() {
+            snapshot = Collections.unmodifiableMap(new HashMap<>(map));
+            dirty = 0;
+        }
+    }
+
+    /**
+     * @param shards        分片数，会向上取到2^k，同时也是所有者线程的个数
+     * @param queueCapacity 每个分片的队列容量，会向上取到2^k
+     */
+    public ShardedHashMap(int shards, int queueCapacity) {
+        this(shards, queueCapacity, defaultThreadFactory());
+    }
+
+    @SuppressWarnings("unchecked")
+    public ShardedHashMap(int shards, int queueCapacity, ThreadFactory threadFactory) {
+        if (shards <= 0 || shards > (1 << 16))
+            throw new IllegalArgumentException("Illegal shard count: " + shards);
+        int n = HashMap.tableSizeFor(shards);
+        this.shardShift = 32 - Integer.numberOfTrailingZeros(n);
+        this.shards = (Shard[]) java.lang.reflect.Array.newInstance(Shard.class, n);
+        for (int i = 0; i < n; ++i)
+            this.shards[i] = new Shard(queueCapacity);
+        for (Shard s : this.shards) {
+            Thread t = threadFactory.newThread(s);
+            s.owner = t;
+            t.start();
+        }
+    }
+
+    static ThreadFactory defaultThreadFactory() {
+        int pool = POOL_NUMBER.incrementAndGet();
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "sharded-map-" + pool + "-shard-" + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * key所在的分片，hash的高位
+     */
+    public int shardFor(Object key) {
+        return (shardShift == 32) ? 0 : HashMap.hash(key) >>> shardShift;
+    }
+
+    final Shard shard(Object key) {
+        return shards[shardFor(key)];
+    }
+
+    /**
+     * 异步写入，队列满时等待
+     */
+    public void put(K key, V value) {
+        shard(key).submit(new Op(PUT, key, value, null));
+    }
+
+    /**
+     * 异步删除，队列满时等待
+     */
+    public void remove(Object key) {
+        shard(key).submit(new Op(REMOVE, key, null, null));
+    }
+
+    /**
+     * 在所有者线程上执行HashMap.compute，返回新的value。同一个key的读-改-写不需要加锁
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<V> compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (remappingFunction == null)
+            throw new NullPointerException();
+        CompletableFuture<Object> f = new CompletableFuture<>();
+        shard(key).submit(new Op(COMPUTE, key, remappingFunction, f));
+        return (CompletableFuture<V>) (CompletableFuture<?>) f;
+    }
+
+    /**
+     * 在所有者线程上读取，能看到之前提交到同一分片的所有写
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<V> get(Object key) {
+        CompletableFuture<Object> f = new CompletableFuture<>();
+        shard(key).submit(new Op(GET, key, null, f));
+        return (CompletableFuture<V>) (CompletableFuture<?>) f;
+    }
+
+    /**
+     * 从分片发布的快照中读取，不经过队列，可能看不到最近的写
+     */
+    public V readSnapshot(Object key) {
+        return shard(key).snapshot.get(key);
+    }
+
+    /**
+     * 第i个分片最近发布的只读快照
+     */
+    public Map<K, V> snapshot(int shard) {
+        return shards[shard].snapshot;
+    }
+
+    /**
+     * 所有快照的元素个数之和
+     */
+    public int size() {
+        int n = 0;
+        for (Shard s : shards)
+            n += s.snapshot.size();
+        return n;
+    }
+
+    /**
+     * 所有分片执行完之前提交的操作并发布快照后完成
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<?>[] fs = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; ++i) {
+            CompletableFuture<Object> f = new CompletableFuture<>();
+            shards[i].submit(new Op(FLUSH, null, null, f));
+            fs[i] = f;
+        }
+        return CompletableFuture.allOf(fs);
+    }
+
+    /**
+     * 不再接受新的操作，等待所有者线程执行完队列中的操作后退出。
+     * 等待期间被中断时继续等待，返回前恢复中断状态
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard s : shards)
+            LockSupport.unpark(s.owner);
+        boolean interrupted = false;
+        for (Shard s : shards) {
+            for (; ; ) {
+                try {
+                    s.owner.join();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,143 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class ShardedHashMapTest {
+
+    @Test
+    public void simpleUseTest() throws Exception {
+        try (ShardedHashMap<String, Integer> map = new ShardedHashMap<>(4, 64)) {
+            map.put("a", 1);
+            map.put("b", 2);
+            map.remove("b");
+            Assert.assertEquals(Integer.valueOf(1), map.get("a").get(5, TimeUnit.SECONDS));
+            Assert.assertNull(map.get("b").get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Integer.valueOf(11), map.compute("a", (k, v) -> v + 10).get(5, TimeUnit.SECONDS));
+            map.flush().get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(Integer.valueOf(11), map.readSnapshot("a"));
+            Assert.assertEquals(1, map.size());
+            Assert.assertEquals(4, map.shardCount());
+            Assert.assertEquals(map.shardFor("a"), HashMap.hash("a") >>> 30);
+        }
+    }
+
+    /**
+     * 多个线程并发写，队列很小经常满，最后结果和串行执行一致；compute累加不会丢失更新
+     */
+    @Test
+    public void concurrentWriteTest() throws Exception {
+        int threads = 4, perThread = 2048;
+        ShardedHashMap<Integer, Integer> map = new ShardedHashMap<>(4, 16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int base = t * perThread;
+            Thread w = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    map.put(base + i, i);
+                    if (i % 2 == 1)
+                        map.remove(base + i - 1);
+                    map.compute(-1 - (i & 63), (k, v) -> v == null ? 1 : v + 1);
+                }
+            });
+            writers.add(w);
+            w.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : writers)
+            w.join();
+        map.flush().get(30, TimeUnit.SECONDS);
+        log.info("{} ops in {} ms", threads * perThread * 3, (System.nanoTime() - begin) / 1000000);
+        Assert.assertEquals(threads * perThread / 2 + 64, map.size());
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++)
+                Assert.assertEquals(i % 2 == 1 ? Integer.valueOf(i) : null, map.readSnapshot(t * perThread + i));
+        }
+        for (int c = 0; c < 64; c++)
+            Assert.assertEquals(Integer.valueOf(threads * perThread / 64), map.readSnapshot(-1 - c));
+        map.close();
+        try {
+            map.put(1, 1);
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * compute中抛出的异常通过future返回，所有者线程继续运行；close之前提交的操作都会执行
+     */
+    @Test
+    public void failureAndCloseTest() throws Exception {
+        ShardedHashMap<String, Integer> map = new ShardedHashMap<>(1, 1024);
+        CompletableFuture<Integer> failed = map.compute("x", (k, v) -> {
+            throw new IllegalArgumentException("boom");
+        });
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (java.util.concurrent.ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        for (int i = 0; i < 1000; i++)
+            map.put("k" + i, i);
+        map.close();
+        Assert.assertEquals(1000, map.size());
+        Assert.assertEquals(Integer.valueOf(999), map.snapshot(0).get("k999"));
+    }
+
+    @Test
+    public void mpscQueueTest() throws Exception {
+        MpscArrayQueue<Integer> queue = new MpscArrayQueue<>(5);
+        Assert.assertEquals(8, queue.capacity());
+        for (int i = 0; i < 8; i++)
+            Assert.assertTrue(queue.offer(i));
+        Assert.assertFalse(queue.offer(8));
+        Assert.assertEquals(Integer.valueOf(0), queue.poll());
+        Assert.assertTrue(queue.offer(8));
+        Integer[] out = new Integer[16];
+        Assert.assertEquals(8, queue.drain(out, 16));
+        Assert.assertEquals(Integer.valueOf(8), out[7]);
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+
+        // 多个生产者，每个生产者的元素按顺序被消费
+        MpscArrayQueue<long[]> q = new MpscArrayQueue<>(64);
+        int producers = 3, count = 100000;
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    long[] e = {id, i};
+                    while (!q.offer(e))
+                        Thread.yield();
+                }
+            }).start();
+        }
+        long[] next = new long[producers];
+        for (int received = 0; received < producers * count; ) {
+            long[] e = q.poll();
+            if (e == null) {
+                Thread.yield();
+                continue;
+            }
+            Assert.assertEquals(next[(int) e[0]]++, e[1]);
+            received++;
+        }
+    }
+}
@@ -0,0 +1,794 @@
+package com.bluesky.javasource.maps;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import static com.bluesky.javasource.maps.HashMap.DEFAULT_INITIAL_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.MAXIMUM_CAPACITY;
+import static com.bluesky.javasource.maps.HashMap.hash;
+import static com.bluesky.javasource.maps.HashMap.tableSizeFor;
+
+/**
+ * 要点:
+ * 1. 开放定址法，参考SwissTable：每个位置有一个控制字节，空位置为EMPTY(0x80)，删除的位置为DELETED(0xFE)，
+ * 有元素的位置存放hash的低7位(h2，最高位为0)。8个位置为一组，控制字节打包在一个long中
+ * 2. hash方式和HashMap相同(HashMap.hash)，h1 = hash>>>7 决定从哪一组开始探测，组之间按三角数序列探测，
+ * 组数是2^k，可以遍历到所有组
+ * 3. 查找时用SWAR(一个long中的8个字节并行运算)一次比较一组的8个控制字节，只对h2相同的位置调用equals；
+ * 一组中有EMPTY说明探测序列到此为止，key不存在。未命中的查找通常只读取一个long，而HashMap需要沿着Node.next访问每个节点
+ * 4. 删除时如果所在的组中还有EMPTY，探测不会越过这一组，可以直接置为EMPTY，否则置为DELETED(墓碑)。
+ * 插入可以复用墓碑，墓碑太多时按原容量重建
+ * 5. 最大填充率固定为7/8，容量为2^k且不小于8；key、value存放在两个平行数组中，不创建Node对象
+ * 6. 允许空键(内部用NULL_KEY代替)和空值，不是线程同步的，迭代器是fail-fast的，迭代时删除不会移动其他元素
+ */
+public class SwissHashMap<K, V> extends AbstractMap<K, V>
+        implements Map<K, V>, Cloneable, Serializable {
+
+    private static final long serialVersionUID = 6120398817645037286L;
+
+    /**
+     * 一组的位置数
+     */
+    static final int GROUP_SIZE = 8;
+
+    static final byte EMPTY = (byte) 0x80;
+    static final byte DELETED = (byte) 0xFE;
+
+    /**
+     * 每个字节的最低位/最高位
+     */
+    static final long LSB = 0x0101010101010101L;
+    static final long MSB = 0x8080808080808080L;
+
+    /**
+     * 空键在keys数组中的表示
+     */
+    static final Object NULL_KEY = new Object();
+
+    /* ---------------- Fields -------------- */
+
+    /**
+     * 控制字节，ctrl[g]的第j个字节(从低位开始)对应位置 g*8+j，在第一次使用的时候才初始化
+     */
+    transient long[] ctrl;
+
+    transient Object[] keys;
+
+    transient Object[] vals;
+
+    /**
+     * 所有键值对的视图
+     */
+    transient Set<Entry<K, V>> entrySet;
+
+    /**
+     * 哈希表中元素个数
+     */
+    transient int size;
+
+    /**
+     * 结构性修改次数
+     */
+    transient int modCount;
+
+    /**
+     * 还可以占用多少个EMPTY位置，为0时扩容或者清理墓碑
+     */
+    transient int growthLeft;
+
+    /**
+     * 数组还没创建时存放的是初始容量，之后是容量的7/8
+     */
+    int threshold;
+
+    /* ---------------- Public operations -------------- */
+
+    public SwissHashMap(int initialCapacity) {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Illegal initial capacity: " +
+                    initialCapacity);
+        if (initialCapacity > MAXIMUM_CAPACITY)
+            initialCapacity = MAXIMUM_CAPACITY;
+        this.threshold = tableSizeFor(initialCapacity);
+    }
+
+    public SwissHashMap() {
+    }
+
+    public SwissHashMap(Map<? extends K, ? extends V> m) {
+        putMapEntries(m);
+    }
+
+    /**
+     * 预先计算好容量，再逐个插入
+     */
+    final void putMapEntries(Map<? extends K, ? extends V> m) {
+        int s = m.size();
+        if (s > 0) {
+            if (ctrl == null) { // pre-size
+                long c = (long) s * GROUP_SIZE / (GROUP_SIZE - 1) + 1;
+                int t = (c < MAXIMUM_CAPACITY) ? (int) c : MAXIMUM_CAPACITY;
+                if (t > threshold)
+                    threshold = tableSizeFor(t);
+            }
+            for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+                K key = e.getKey();
+                putVal(hash(key), key, e.getValue(), false);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int i;
+        return (i = indexOf(hash(key), maskNull(key))) < 0 ? null : (V) vals[i];
+    }
+
+    public boolean containsKey(Object key) {
+        return indexOf(hash(key), maskNull(key)) >= 0;
+    }
+
+    static Object maskNull(Object key) {
+        return (key == null) ? NULL_KEY : key;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K> K unmaskNull(Object key) {
+        return (key == NULL_KEY) ? null : (K) key;
+    }
+
+    /* ---------------- SWAR -------------- */
+
+    /**
+     * 组中控制字节等于h2的位置，每个匹配的字节最高位为1。
+     * 在一个真正匹配的字节之后可能有误报(借位)，调用者会用equals确认；EMPTY和DELETED不会被匹配
+     */
+    static long match(long group, int h2) {
+        long x = group ^ (LSB * h2);
+        return (x - LSB) & ~x & MSB;
+    }
+
+    /**
+     * 组中的EMPTY位置：最高位为1且第1位为0，DELETED的第1位为1
+     */
+    static long matchEmpty(long group) {
+        return group & ~(group << 6) & MSB;
+    }
+
+    /**
+     * 组中的EMPTY和DELETED位置
+     */
+    static long matchEmptyOrDeleted(long group) {
+        return group & MSB;
+    }
+
+    /**
+     * 匹配结果中最低的位置在组内的下标
+     */
+    static int lowestSlot(long match) {
+        return Long.numberOfTrailingZeros(match) >>> 3;
+    }
+
+    static int h1(int hash) {
+        return hash >>> 7;
+    }
+
+    static int h2(int hash) {
+        return hash & 0x7F;
+    }
+
+    final byte ctrlAt(int i) {
+        return (byte) (ctrl[i >>> 3] >>> ((i & 7) << 3));
+    }
+
+    final void setCtrl(int i, byte b) {
+        int g = i >>> 3, shift = (i & 7) << 3;
+        ctrl[g] = (ctrl[g] & ~(0xFFL << shift)) | ((b & 0xFFL) << shift);
+    }
+
+    /* ---------------- Lookup and update -------------- */
+
+    /**
+     * 查找key所在的位置，不存在返回-1，key已经做了maskNull
+     */
+    final int indexOf(int hash, Object key) {
+        long[] c;
+        if ((c = ctrl) == null)
+            return -1;
+        Object[] ks = keys;
+        int gmask = c.length - 1, h2 = h2(hash);
+        for (int g = h1(hash) & gmask, step = 1; ; g = (g + step++) & gmask) {
+            long w = c[g];
+            for (long m = match(w, h2); m != 0; m &= m - 1) {
+                int i = (g << 3) + lowestSlot(m);
+                Object k;
+                if ((k = ks[i]) == key || key.equals(k))
+                    return i;
+            }
+            if (matchEmpty(w) != 0)
+                return -1;
+        }
+    }
+
+    /**
+     * 沿探测序列找到第一个EMPTY或者DELETED的位置
+     */
+    final int findInsertSlot(int hash) {
+        long[] c = ctrl;
+        int gmask = c.length - 1;
+        for (int g = h1(hash) & gmask, step = 1; ; g = (g + step++) & gmask) {
+            long m;
+            if ((m = matchEmptyOrDeleted(c[g])) != 0)
+                return (g << 3) + lowestSlot(m);
+        }
+    }
+
+    public V put(K key, V value) {
+        return putVal(hash(key), key, value, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    final V putVal(int hash, K key, V value, boolean onlyIfAbsent) {
+        if (ctrl == null)
+            resize();
+        Object k = maskNull(key);
+        int i;
+        if ((i = indexOf(hash, k)) >= 0) {
+            V oldValue = (V) vals[i];
+            if (!onlyIfAbsent || oldValue == null)
+                vals[i] = value;
+            return oldValue;
+        }
+        i = findInsertSlot(hash);
+        if (ctrlAt(i) == EMPTY) { // 复用墓碑不消耗growthLeft
+            if (growthLeft == 0) {
+                resize();
+                i = findInsertSlot(hash);
+            }
+            --growthLeft;
+        }
+        setCtrl(i, (byte) h2(hash));
+        keys[i] = k;
+        vals[i] = value;
+        ++size;
+        ++modCount;
+        return null;
+    }
+
+    /**
+     * 初始化、扩容或者清理墓碑。元素个数不到阈值的一半时说明空间主要被墓碑占用，容量不变，否则翻倍
+     */
+    final void resize() {
+        long[] oldCtrl = ctrl;
+        Object[] oldKeys = keys, oldVals = vals;
+        int oldCap = (oldCtrl == null) ? 0 : oldCtrl.length << 3, newCap;
+        if (oldCap == 0)
+            newCap = Math.max(GROUP_SIZE, (threshold > 0) ? threshold : DEFAULT_INITIAL_CAPACITY);
+        else if (size < (threshold >>> 1) || oldCap >= MAXIMUM_CAPACITY) {
+            if (size >= oldCap - 1)
+                throw new IllegalStateException("Map is full");
+            newCap = oldCap;
+        } else
+            newCap = oldCap << 1;
+        long[] c = new long[newCap >>> 3];
+        Arrays.fill(c, MSB); // 全部为EMPTY
+        ctrl = c;
+        keys = new Object[newCap];
+        vals = new Object[newCap];
+        threshold = newCap - (newCap >>> 3);
+        growthLeft = threshold - size;
+        if (oldCtrl != null) {
+            for (int g = 0; g < oldCtrl.length; ++g) {
+                for (long m = ~oldCtrl[g] & MSB; m != 0; m &= m - 1) { // 有元素的位置
+                    int j = (g << 3) + lowestSlot(m);
+                    Object k = oldKeys[j];
+                    int hash = hash(unmaskNull(k)), i = findInsertSlot(hash);
+                    setCtrl(i, (byte) h2(hash));
+                    keys[i] = k;
+                    vals[i] = oldVals[j];
+                }
+            }
+        }
+        ++modCount;
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m) {
+        putMapEntries(m);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        int i;
+        if ((i = indexOf(hash(key), maskNull(key))) < 0)
+            return null;
+        V oldValue = (V) vals[i];
+        removeAt(i);
+        return oldValue;
+    }
+
+    /**
+     * 删除位置i的元素，不移动其他元素
+     */
+    final void removeAt(int i) {
+        if (matchEmpty(ctrl[i >>> 3]) != 0) { // 组中有EMPTY，探测不会越过这一组
+            setCtrl(i, EMPTY);
+            ++growthLeft;
+        } else
+            setCtrl(i, DELETED);
+        keys[i] = null;
+        vals[i] = null;
+        ++modCount;
+        --size;
+    }
+
+    public void clear() {
+        modCount++;
+        if (ctrl != null) { // 没有元素时也可能有墓碑
+            size = 0;
+            Arrays.fill(ctrl, MSB);
+            Arrays.fill(keys, null);
+            Arrays.fill(vals, null);
+            growthLeft = threshold;
+        }
+    }
+
+    public boolean containsValue(Object value) {
+        long[] c;
+        if ((c = ctrl) != null && size > 0) {
+            Object[] vs = vals;
+            for (int g = 0; g < c.length; ++g) {
+                for (long m = ~c[g] & MSB; m != 0; m &= m - 1) {
+                    Object v = vs[(g << 3) + lowestSlot(m)];
+                    if (v == value || (value != null && value.equals(v)))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /* ------------------------------------------------------------ */
+    // views
+
+    public Set<K> keySet() {
+        Set<K> ks = keySet;
+        if (ks == null) {
+            ks = new KeySet();
+            keySet = ks;
+        }
+        return ks;
+    }
+
+    final class KeySet extends AbstractSet<K> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            SwissHashMap.this.clear();
+        }
+
+        public final Iterator<K> iterator() {
+            return new KeyIterator();
+        }
+
+        public final boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        public final boolean remove(Object key) {
+            int i;
+            if ((i = indexOf(hash(key), maskNull(key))) < 0)
+                return false;
+            removeAt(i);
+            return true;
+        }
+
+        public final void forEach(Consumer<? super K> action) {
+            if (action == null)
+                throw new NullPointerException();
+            long[] c;
+            if (size > 0 && (c = ctrl) != null) {
+                Object[] ks = keys;
+                int mc = modCount;
+                for (int g = 0; g < c.length; ++g) {
+                    for (long m = ~c[g] & MSB; m != 0; m &= m - 1)
+                        action.accept(unmaskNull(ks[(g << 3) + lowestSlot(m)]));
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    public Collection<V> values() {
+        Collection<V> vs = values;
+        if (vs == null) {
+            vs = new Values();
+            values = vs;
+        }
+        return vs;
+    }
+
+    final class Values extends AbstractCollection<V> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            SwissHashMap.this.clear();
+        }
+
+        public final Iterator<V> iterator() {
+            return new ValueIterator();
+        }
+
+        public final boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @SuppressWarnings("unchecked")
+        public final void forEach(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            long[] c;
+            if (size > 0 && (c = ctrl) != null) {
+                Object[] vs = vals;
+                int mc = modCount;
+                for (int g = 0; g < c.length; ++g) {
+                    for (long m = ~c[g] & MSB; m != 0; m &= m - 1)
+                        action.accept((V) vs[(g << 3) + lowestSlot(m)]);
+                }
+                if (modCount != mc)
+                    throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es;
+        return (es = entrySet) == null ? (entrySet = new EntrySet()) : es;
+    }
+
+    final class EntrySet extends AbstractSet<Entry<K, V>> {
+        public final int size() {
+            return size;
+        }
+
+        public final void clear() {
+            SwissHashMap.this.clear();
+        }
+
+        public final Iterator<Entry<K, V>> iterator() {
+            return new EntryIterator();
+        }
+
+        public final boolean contains(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            Object key = e.getKey();
+            int i;
+            return (i = indexOf(hash(key), maskNull(key))) >= 0 && Objects.equals(vals[i], e.getValue());
+        }
+
+        public final boolean remove(Object o) {
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                Object key = e.getKey();
+                int i;
+                if ((i = indexOf(hash(key), maskNull(key))) >= 0 && Objects.equals(vals[i], e.getValue())) {
+                    removeAt(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public final void forEach(Consumer<? super Entry<K, V>> action) {
+            if (action == null)
+                throw new NullPointerException();
+            SwissHashMap.this.forEach((k, v) -> action.accept(new MapEntry(k, v)));
+        }
+    }
+
+    // Overrides of JDK8 Map extension methods
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V getOrDefault(Object key, V defaultValue) {
+        int i;
+        return (i = indexOf(hash(key), maskNull(key))) < 0 ? defaultValue : (V) vals[i];
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return putVal(hash(key), key, value, true);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        int i;
+        if ((i = indexOf(hash(key), maskNull(key))) >= 0 && Objects.equals(vals[i], value)) {
+            removeAt(i);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        int i;
+        if ((i = indexOf(hash(key), maskNull(key))) >= 0 && Objects.equals(vals[i], oldValue)) {
+            vals[i] = newValue;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V replace(K key, V value) {
+        int i;
+        if ((i = indexOf(hash(key), maskNull(key))) >= 0) {
+            V oldValue = (V) vals[i];
+            vals[i] = value;
+            return oldValue;
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (action == null)
+            throw new NullPointerException();
+        long[] c;
+        if (size > 0 && (c = ctrl) != null) {
+            Object[] ks = keys, vs = vals;
+            int mc = modCount;
+            for (int g = 0; g < c.length; ++g) {
+                for (long m = ~c[g] & MSB; m != 0; m &= m - 1) {
+                    int i = (g << 3) + lowestSlot(m);
+                    action.accept(unmaskNull(ks[i]), (V) vs[i]);
+                }
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        if (function == null)
+            throw new NullPointerException();
+        long[] c;
+        if (size > 0 && (c = ctrl) != null) {
+            Object[] ks = keys, vs = vals;
+            int mc = modCount;
+            for (int g = 0; g < c.length; ++g) {
+                for (long m = ~c[g] & MSB; m != 0; m &= m - 1) {
+                    int i = (g << 3) + lowestSlot(m);
+                    vs[i] = function.apply(unmaskNull(ks[i]), (V) vs[i]);
+                }
+            }
+            if (modCount != mc)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // Cloning and serialization
+
+    /**
+     * 浅拷贝，直接复制三个数组，不需要重新计算hash
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public Object clone() {
+        SwissHashMap<K, V> result;
+        try {
+            result = (SwissHashMap<K, V>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            // this shouldn't happen, since we are Cloneable
+            throw new InternalError(e);
+        }
+        result.entrySet = null;
+        result.keySet = null;
+        result.values = null;
+        result.modCount = 0;
+        if (ctrl != null) {
+            result.ctrl = ctrl.clone();
+            result.keys = keys.clone();
+            result.vals = vals.clone();
+        }
+        return result;
+    }
+
+    final int capacity() {
+        return (ctrl != null) ? ctrl.length << 3 :
+                (threshold > 0) ? threshold :
+                        DEFAULT_INITIAL_CAPACITY;
+    }
+
+    /**
+     * 序列化，格式和HashMap一致：容量、元素个数、依次写出key和value
+     */
+    private void writeObject(java.io.ObjectOutputStream s)
+            throws IOException {
+        int buckets = capacity();
+        s.defaultWriteObject();
+        s.writeInt(buckets);
+        s.writeInt(size);
+        long[] c;
+        if (size > 0 && (c = ctrl) != null) {
+            for (int g = 0; g < c.length; ++g) {
+                for (long m = ~c[g] & MSB; m != 0; m &= m - 1) {
+                    int i = (g << 3) + lowestSlot(m);
+                    s.writeObject(unmaskNull(keys[i]));
+                    s.writeObject(vals[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 反序列化，根据元素个数计算好容量，再逐个插入
+     */
+    private void readObject(java.io.ObjectInputStream s)
+            throws IOException, ClassNotFoundException {
+        s.defaultReadObject();
+        ctrl = null;
+        keys = vals = null;
+        s.readInt();                // Read and ignore number of buckets
+        int mappings = s.readInt(); // Read number of mappings (size)
+        if (mappings < 0)
+            throw new InvalidObjectException("Illegal mappings count: " +
+                    mappings);
+        long c = (long) mappings * GROUP_SIZE / (GROUP_SIZE - 1) + 1;
+        threshold = (c >= MAXIMUM_CAPACITY) ? MAXIMUM_CAPACITY : tableSizeFor((int) c);
+        for (int i = 0; i < mappings; i++) {
+            @SuppressWarnings("unchecked")
+            K key = (K) s.readObject();
+            @SuppressWarnings("unchecked")
+            V value = (V) s.readObject();
+            putVal(hash(key), key, value, false);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    // iterators
+
+    /**
+     * 按组顺序遍历，删除只修改控制字节，不会移动其他元素
+     */
+    abstract class HashIterator {
+        int group;              // 当前组
+        long pending;           // 当前组中还没有返回的位置
+        int lastIndex = -1;     // 上一次返回的位置
+        int remaining;          // 还没有返回的元素个数
+        int expectedModCount;   // for fast-fail
+
+        HashIterator() {
+            expectedModCount = modCount;
+            remaining = size;
+            group = -1;
+        }
+
+        public final boolean hasNext() {
+            return remaining > 0;
+        }
+
+        final int nextIndex() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (remaining <= 0)
+                throw new NoSuchElementException();
+            long[] c = ctrl;
+            long m = pending;
+            while (m == 0)
+                m = ~c[++group] & MSB;
+            pending = m & (m - 1);
+            --remaining;
+            return lastIndex = (group << 3) + lowestSlot(m);
+        }
+
+        public final void remove() {
+            int i = lastIndex;
+            if (i < 0)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            lastIndex = -1;
+            removeAt(i);
+            expectedModCount = modCount;
+        }
+    }
+
+    final class KeyIterator extends HashIterator
+            implements Iterator<K> {
+        public final K next() {
+            return unmaskNull(keys[nextIndex()]);
+        }
+    }
+
+    final class ValueIterator extends HashIterator
+            implements Iterator<V> {
+        @SuppressWarnings("unchecked")
+        public final V next() {
+            return (V) vals[nextIndex()];
+        }
+    }
+
+    final class EntryIterator extends HashIterator
+            implements Iterator<Entry<K, V>> {
+        @SuppressWarnings("unchecked")
+        public final Entry<K, V> next() {
+            int i = nextIndex();
+            return new MapEntry(unmaskNull(keys[i]), (V) vals[i]);
+        }
+    }
+
+    /**
+     * 没有Node对象，entry视图返回的是临时创建的Entry，setValue会写回哈希表
+     */
+    final class MapEntry implements Entry<K, V> {
+        final K key;
+        V value;
+
+        MapEntry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public final K getKey() {
+            return key;
+        }
+
+        public final V getValue() {
+            return value;
+        }
+
+        public final V setValue(V newValue) {
+            V oldValue = value;
+            value = newValue;
+            int i;
+            if ((i = indexOf(hash(key), maskNull(key))) >= 0)
+                vals[i] = newValue;
+            return oldValue;
+        }
+
+        public final String toString() {
+            return key + "=" + value;
+        }
+
+        public final int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        public final boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof Map.Entry) {
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                return Objects.equals(key, e.getKey()) &&
+                        Objects.equals(value, e.getValue());
+            }
+            return false;
+        }
+    }
+}
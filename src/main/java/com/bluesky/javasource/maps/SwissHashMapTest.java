@@ -0,0 +1,119 @@
+package com.bluesky.javasource.maps;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+@Slf4j
+public class SwissHashMapTest {
+
+    @Test
+    public void simpleUseTest() {
+        SwissHashMap<String, Integer> map = new SwissHashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put(null, 3); // 允许空键
+        log.info("map: {}", map);
+        Assert.assertEquals(Integer.valueOf(3), map.get(null));
+        Assert.assertTrue(map.containsKey(null));
+        Assert.assertEquals(Integer.valueOf(1), map.remove("a"));
+        Assert.assertEquals(2, map.size());
+        Assert.assertTrue(map.keySet().contains(null));
+    }
+
+    /**
+     * 一组8个控制字节的并行比较
+     */
+    @Test
+    public void swarTest() {
+        long group = SwissHashMap.MSB; // 全部EMPTY
+        Assert.assertEquals(0, SwissHashMap.match(group, 0x00));
+        Assert.assertEquals(SwissHashMap.MSB, SwissHashMap.matchEmpty(group));
+        group = (group & ~(0xFFL << 16)) | (0x35L << 16);            // 位置2为0x35
+        group = (group & ~(0xFFL << 40)) | ((SwissHashMap.DELETED & 0xFFL) << 40); // 位置5为DELETED
+        Assert.assertEquals(2, SwissHashMap.lowestSlot(SwissHashMap.match(group, 0x35)));
+        Assert.assertEquals(0, SwissHashMap.match(group, 0x36));
+        Assert.assertEquals(0, SwissHashMap.match(group, 0x7E)); // DELETED ^ 0x7E = 0x80，不匹配
+        Assert.assertEquals(6, Long.bitCount(SwissHashMap.matchEmpty(group)));
+        Assert.assertEquals(7, Long.bitCount(SwissHashMap.matchEmptyOrDeleted(group)));
+    }
+
+    /**
+     * 随机操作，和java.util.HashMap的结果对比，大量删除产生墓碑
+     */
+    @Test
+    public void randomOperationTest() {
+        SwissHashMap<Integer, Integer> map = new SwissHashMap<>();
+        java.util.HashMap<Integer, Integer> expected = new java.util.HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 300000; i++) {
+            int key = random.nextInt(5000);
+            if (random.nextBoolean())
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            else
+                Assert.assertEquals(expected.put(key, i), map.put(key, i));
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        Assert.assertEquals(expected, map);
+        Assert.assertEquals(map, expected);
+        Assert.assertTrue(map.ctrl.length << 3 <= 8192);
+    }
+
+    /**
+     * hash只有64种，h1都是0，所有key从第0组开始探测
+     */
+    @Test
+    public void collisionTest() {
+        SwissHashMap<Object, Integer> map = new SwissHashMap<>();
+        java.util.HashMap<Object, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            map.put(new HashMapTest.CollidingKey(i), i);
+            expected.put(new HashMapTest.CollidingKey(i), i);
+        }
+        for (int i = 0; i < 2000; i += 3) {
+            Assert.assertEquals(expected.remove(new HashMapTest.CollidingKey(i)),
+                    map.remove(new HashMapTest.CollidingKey(i)));
+        }
+        Assert.assertNull(map.get(new HashMapTest.CollidingKey(3)));
+        Assert.assertEquals(expected, map);
+    }
+
+    @Test
+    public void iteratorTest() throws IOException, ClassNotFoundException {
+        SwissHashMap<String, Integer> map = new SwissHashMap<>();
+        java.util.HashMap<String, Integer> expected = new java.util.HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, i);
+            expected.put("key" + i, i);
+        }
+        for (Iterator<Map.Entry<String, Integer>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Integer> e = it.next();
+            if (e.getValue() % 2 == 0) {
+                it.remove();
+                expected.remove(e.getKey());
+            } else {
+                expected.put(e.getKey(), -e.getValue());
+                e.setValue(-e.getValue());
+            }
+        }
+        Assert.assertEquals(expected, map);
+
+        @SuppressWarnings("unchecked")
+        SwissHashMap<String, Integer> copy = (SwissHashMap<String, Integer>) map.clone();
+        copy.clear();
+        Assert.assertEquals(500, map.size());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(map);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            Assert.assertEquals(expected, ois.readObject());
+        }
+    }
+}